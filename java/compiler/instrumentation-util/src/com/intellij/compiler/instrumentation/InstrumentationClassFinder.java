@@ -11,10 +11,14 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
+ * The finder is thread-safe: loaded classes are cached in a concurrent map, so it may be shared by several threads instrumenting
+ * classes in parallel.
+ *
  * @author Eugene Zhuravlev
  *         Date: 2/16/12
  */
@@ -22,13 +26,12 @@ public class InstrumentationClassFinder {
   private static final PseudoClass[] EMPTY_PSEUDOCLASS_ARRAY = new PseudoClass[0];
   private static final String CLASS_RESOURCE_EXTENSION = ".class";
   private static final URL[] URL_EMPTY_ARRAY = new URL[0];
-  private final Map<String, PseudoClass> myLoaded = new HashMap<String, PseudoClass>(); // className -> class object
+  private final Map<String, PseudoClass> myLoaded = new ConcurrentHashMap<String, PseudoClass>(); // className -> class object
   private final ClassFinderClasspath myPlatformClasspath;
   private final ClassFinderClasspath myClasspath;
   private final URL[] myPlatformUrls;
   private final URL[] myClasspathUrls;
-  private ClassLoader myLoader;
-  private byte[] myBuffer;
+  private volatile ClassLoader myLoader;
 
   public InstrumentationClassFinder(final URL[] cp) {
     this(URL_EMPTY_ARRAY, cp);
@@ -42,7 +45,7 @@ public class InstrumentationClassFinder {
   }
 
   // compatibility with legacy code requiring ClassLoader
-  public ClassLoader getLoader() {
+  public synchronized ClassLoader getLoader() {
     ClassLoader loader = myLoader;
     if (loader != null) {
       return loader;
@@ -90,7 +93,6 @@ public class InstrumentationClassFinder {
     myPlatformClasspath.releaseResources();
     myClasspath.releaseResources();
     myLoaded.clear();
-    myBuffer = null;
     myLoader = null;
   }
 
@@ -597,7 +599,7 @@ public class InstrumentationClassFinder {
         myURL = url;
       }
 
-      public void releaseResources() {
+      public synchronized void releaseResources() {
         final ZipFile zipFile = myZipFile;
         if (zipFile != null) {
           myZipFile = null;
@@ -610,7 +612,7 @@ public class InstrumentationClassFinder {
         }
       }
 
-      private ZipFile acquireZipFile() throws IOException {
+      private synchronized ZipFile acquireZipFile() throws IOException {
         ZipFile zipFile = myZipFile;
         if (zipFile == null) {
           zipFile = doGetZipFile();
@@ -757,11 +759,7 @@ public class InstrumentationClassFinder {
   }
 
   public byte[] loadBytes(InputStream stream) {
-    byte[] buf = myBuffer;
-    if (buf == null) {
-      buf = new byte[512];
-      myBuffer = buf;
-    }
+    final byte[] buf = new byte[512];
 
     final ByteArrayOutputStream result = new ByteArrayOutputStream();
     try {
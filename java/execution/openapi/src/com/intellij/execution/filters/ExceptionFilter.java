@@ -19,7 +19,10 @@ import com.intellij.openapi.project.DumbAware;
 import com.intellij.psi.search.GlobalSearchScope;
 import org.jetbrains.annotations.NotNull;
 
-public class ExceptionFilter implements Filter, DumbAware {
+public class ExceptionFilter implements PrefilteredFilter, DumbAware {
+  // a stack trace line always has the file and the line number in parentheses
+  private static final String[] REQUIRED_SUBSTRINGS = {"("};
+
   private final GlobalSearchScope myScope;
 
   public ExceptionFilter(@NotNull final GlobalSearchScope scope) {
@@ -31,4 +34,10 @@ public class ExceptionFilter implements Filter, DumbAware {
     worker.execute(line, textEndOffset);
     return worker.getResult();
   }
+
+  @NotNull
+  @Override
+  public String[] getRequiredSubstrings() {
+    return REQUIRED_SUBSTRINGS;
+  }
 }
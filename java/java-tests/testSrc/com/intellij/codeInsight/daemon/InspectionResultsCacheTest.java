@@ -0,0 +1,246 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon;
+
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that {@link com.intellij.codeInsight.daemon.impl.LocalInspectionsPass} reuses the results of unchanged methods
+ */
+public class InspectionResultsCacheTest extends DaemonAnalyzerTestCase {
+  @NonNls private static final String TEXT = "class A {\n" +
+                                             "  void a() { int i = 1; }\n" +
+                                             "  void b() { int i = 2; }\n" +
+                                             "  void c() { int i = 3; }\n" +
+                                             "}";
+
+  private final LiteralInspection myLiteralInspection = new LiteralInspection();
+
+  @Override
+  protected LocalInspectionTool[] configureLocalInspectionTools() {
+    return new LocalInspectionTool[]{myLiteralInspection, new ClassLiteralInspection()};
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    DaemonCodeAnalyzer.getInstance(getProject()).setUpdateByTimerEnabled(false);
+  }
+
+  public void testUnchangedMethodResultsAreReused() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    assertEquals(Collections.singletonList("Literal 2"), getLiteralProblems("2"));
+    assertEquals(3, myLiteralInspection.getVisitedAndClear().size());
+
+    // changes in the first and the last methods make the whole class dirty
+    insert("a() {", " int x;");
+    insert("c() {", " int x;");
+    List<HighlightInfo> infos = doHighlighting();
+    assertEquals(Collections.singletonList("Literal 2"), getLiteralProblems(infos, "2"));
+    assertEquals(3, getLiteralProblems(infos, "").size());
+    List<String> visited = myLiteralInspection.getVisitedAndClear();
+    assertTrue(visited.toString(), visited.contains("1") && visited.contains("3"));
+    assertFalse(visited.toString(), visited.contains("2"));
+  }
+
+  public void testChangeInsideMethodInvalidatesItsResults() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    assertEquals(Collections.singletonList("Literal 2"), getLiteralProblems("2"));
+    myLiteralInspection.getVisitedAndClear();
+
+    insert("int i = 2", "2");
+    assertEquals(Collections.singletonList("Literal 22"), getLiteralProblems("2"));
+    assertEquals(Collections.singletonList("22"), myLiteralInspection.getVisitedAndClear());
+  }
+
+  public void testUndoRestoresResults() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    List<String> original = getLiteralProblems("");
+    myLiteralInspection.getVisitedAndClear();
+
+    insert("b() {", " int x;");
+    assertEquals(original, getLiteralProblems(""));
+    assertEquals(Collections.singletonList("2"), myLiteralInspection.getVisitedAndClear());
+
+    undo();
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    assertEquals(TEXT, getEditor().getDocument().getText());
+    assertEquals(original, getLiteralProblems(""));
+    assertEmpty(myLiteralInspection.getVisitedAndClear());
+  }
+
+  public void testOutOfCodeBlockChangeClearsCache() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    doHighlighting();
+    myLiteralInspection.getVisitedAndClear();
+
+    insert("class A {", " int myField;");
+    assertEquals(3, getLiteralProblems("").size());
+    assertEquals(3, myLiteralInspection.getVisitedAndClear().size());
+  }
+
+  public void testRestartClearsCache() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    doHighlighting();
+    myLiteralInspection.getVisitedAndClear();
+
+    // the daemon is restarted when the inspection profile changes
+    DaemonCodeAnalyzer.getInstance(getProject()).restart();
+    assertEquals(3, getLiteralProblems("").size());
+    assertEquals(3, myLiteralInspection.getVisitedAndClear().size());
+  }
+
+  public void testProblemsReportedFromParentAreNotDuplicated() throws Exception {
+    configureByText(StdFileTypes.JAVA, TEXT);
+    assertEquals(1, getProblems(doHighlighting(), "Class literal 2").size());
+
+    insert("a() {", " int x;");
+    insert("c() {", " int x;");
+    List<HighlightInfo> infos = doHighlighting();
+    assertFalse(myLiteralInspection.getVisitedAndClear().contains("2"));
+    assertEquals(1, getProblems(infos, "Class literal 2").size());
+    assertEquals(1, getProblems(infos, "Literal 2").size());
+  }
+
+  private void insert(@NotNull final String after, @NotNull final String text) {
+    final Document document = getEditor().getDocument();
+    final int offset = document.getText().indexOf(after);
+    assertTrue(after, offset >= 0);
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        document.insertString(offset + after.length(), text);
+      }
+    }.execute().throwException();
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+  }
+
+  @NotNull
+  private List<String> getLiteralProblems(@NotNull String literalPrefix) {
+    return getLiteralProblems(doHighlighting(), literalPrefix);
+  }
+
+  @NotNull
+  private static List<String> getLiteralProblems(@NotNull List<HighlightInfo> infos, @NotNull String literalPrefix) {
+    return getProblems(infos, "Literal " + literalPrefix);
+  }
+
+  @NotNull
+  private static List<String> getProblems(@NotNull List<HighlightInfo> infos, @NotNull String descriptionPrefix) {
+    List<String> result = new ArrayList<String>();
+    for (HighlightInfo info : infos) {
+      if (info.description != null && info.description.startsWith(descriptionPrefix)) {
+        result.add(info.description);
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static class LiteralInspection extends LocalInspectionTool {
+    private final List<String> myVisited = new ArrayList<String>();
+
+    @NotNull
+    private List<String> getVisitedAndClear() {
+      synchronized (myVisited) {
+        List<String> visited = new ArrayList<String>(myVisited);
+        myVisited.clear();
+        return visited;
+      }
+    }
+
+    @NotNull
+    @Override
+    public String getGroupDisplayName() {
+      return "Test";
+    }
+
+    @NotNull
+    @Override
+    public String getDisplayName() {
+      return "Literal";
+    }
+
+    @NotNull
+    @Override
+    public String getShortName() {
+      return "TestLiteral";
+    }
+
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+      return new JavaElementVisitor() {
+        @Override
+        public void visitLiteralExpression(PsiLiteralExpression expression) {
+          synchronized (myVisited) {
+            myVisited.add(expression.getText());
+          }
+          holder.registerProblem(expression, "Literal " + expression.getText());
+        }
+      };
+    }
+  }
+
+  /**
+   * Reports problems inside methods while visiting their class
+   */
+  private static class ClassLiteralInspection extends LocalInspectionTool {
+    @NotNull
+    @Override
+    public String getGroupDisplayName() {
+      return "Test";
+    }
+
+    @NotNull
+    @Override
+    public String getDisplayName() {
+      return "Class literal";
+    }
+
+    @NotNull
+    @Override
+    public String getShortName() {
+      return "TestClassLiteral";
+    }
+
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+      return new JavaElementVisitor() {
+        @Override
+        public void visitClass(PsiClass aClass) {
+          for (PsiLiteralExpression literal : PsiTreeUtil.findChildrenOfType(aClass, PsiLiteralExpression.class)) {
+            holder.registerProblem(literal, "Class literal " + literal.getText());
+          }
+        }
+      };
+    }
+  }
+}
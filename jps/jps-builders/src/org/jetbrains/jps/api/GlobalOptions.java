@@ -21,8 +21,15 @@ package org.jetbrains.jps.api;
  */
 public interface GlobalOptions {
   String USE_MEMORY_TEMP_CACHE_OPTION = "use.memory.temp.cache";
+  String USE_CONTENT_DIGESTS_OPTION = "use.content.digests";
   String USE_EXTERNAL_JAVAC_OPTION = "use.external.javac.process";
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String KEEP_BUILD_PROCESS_ALIVE_OPTION = "build.process.keep.alive";
+  String IN_MEMORY_DEPENDENCY_GRAPH_OPTION = "dependency.graph.in.memory";
+  String OUTPUT_CACHE_DIR_OPTION = "build.output.cache.dir";
+  String USE_PROJECT_FILES_SNAPSHOT_OPTION = "use.project.files.snapshot";
+  String RESOURCES_HARD_LINKS_OPTION = "resources.use.hard.links";
+  String BUILD_TRACE_OPTION = "build.trace.events";
 }
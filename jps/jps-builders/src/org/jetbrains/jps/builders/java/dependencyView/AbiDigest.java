@@ -0,0 +1,160 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.asm4.AnnotationVisitor;
+import org.jetbrains.asm4.Opcodes;
+import org.jetbrains.asm4.Type;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the part of a class file visible to other classes: the class header, non-private non-synthetic fields and methods with
+ * their signatures, constant values and annotations. Method bodies and private members don't affect the digest, so if the digest of
+ * a recompiled class is not changed, classes depending on it don't need to be examined.
+ */
+class AbiDigest {
+  private final StringBuilder myHeader = new StringBuilder();
+  private final List<String> myMembers = new ArrayList<String>();
+
+  public StringBuilder getHeader() {
+    return myHeader;
+  }
+
+  public void addMember(StringBuilder member) {
+    myMembers.add(member.toString());
+  }
+
+  public static boolean isAbiMember(int access) {
+    return (access & Opcodes.ACC_PRIVATE) == 0 && ((access & Opcodes.ACC_SYNTHETIC) == 0 || (access & Opcodes.ACC_BRIDGE) != 0);
+  }
+
+  /**
+   * @return visitor which appends the annotation with all its values to the builder and passes all events to the delegate
+   */
+  public static AnnotationVisitor recordAnnotation(StringBuilder builder, String desc, @Nullable AnnotationVisitor delegate) {
+    builder.append('@').append(desc);
+    return new Recorder(builder, delegate);
+  }
+
+  public long compute() {
+    // members are sorted because reordering of members in the source file doesn't change the API
+    Collections.sort(myMembers);
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("MD5");
+      digest.update(myHeader.toString().getBytes("UTF-8"));
+      for (String member : myMembers) {
+        digest.update((byte)'\n');
+        digest.update(member.getBytes("UTF-8"));
+      }
+      final byte[] bytes = digest.digest();
+      long result = 0;
+      for (int i = 0; i < 8; i++) {
+        result = (result << 8) | (bytes[i] & 0xFF);
+      }
+      return result;
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void appendValue(StringBuilder builder, Object value) {
+    if (value instanceof Type) {
+      builder.append(((Type)value).getDescriptor());
+    }
+    else if (value != null && value.getClass().isArray()) {
+      builder.append('{');
+      final int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        if (i > 0) {
+          builder.append(',');
+        }
+        appendValue(builder, Array.get(value, i));
+      }
+      builder.append('}');
+    }
+    else if (value instanceof String) {
+      builder.append('"').append(value).append('"');
+    }
+    else {
+      builder.append(value);
+    }
+  }
+
+  private static class Recorder extends AnnotationVisitor {
+    private final StringBuilder myBuilder;
+    private boolean myFirst = true;
+
+    private Recorder(StringBuilder builder, @Nullable AnnotationVisitor delegate) {
+      super(Opcodes.ASM4, delegate);
+      myBuilder = builder;
+      myBuilder.append('(');
+    }
+
+    private void appendName(String name) {
+      if (!myFirst) {
+        myBuilder.append(',');
+      }
+      myFirst = false;
+      if (name != null) {
+        myBuilder.append(name).append('=');
+      }
+    }
+
+    @Override
+    public void visit(String name, Object value) {
+      appendName(name);
+      appendValue(myBuilder, value);
+      super.visit(name, value);
+    }
+
+    @Override
+    public void visitEnum(String name, String desc, String value) {
+      appendName(name);
+      myBuilder.append(desc).append('.').append(value);
+      super.visitEnum(name, desc, value);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String name, String desc) {
+      appendName(name);
+      return recordAnnotation(myBuilder, desc, super.visitAnnotation(name, desc));
+    }
+
+    @Override
+    public AnnotationVisitor visitArray(String name) {
+      appendName(name);
+      return new Recorder(myBuilder, super.visitArray(name));
+    }
+
+    @Override
+    public void visitEnd() {
+      myBuilder.append(')');
+      super.visitEnd();
+    }
+  }
+}
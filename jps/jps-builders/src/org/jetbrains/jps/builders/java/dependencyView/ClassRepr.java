@@ -43,6 +43,7 @@ public class ClassRepr extends Proto {
   private final int myOuterClassName;
   private final boolean myIsLocal;
   private final boolean myIsAnonymous;
+  private final long myAbiDigest;
 
   public Set<MethodRepr> getMethods() {
     return myMethods;
@@ -76,6 +77,13 @@ public class ClassRepr extends Proto {
     return myUsages;
   }
 
+  /**
+   * @return digest of the class header and non-private members, see {@link AbiDigest}
+   */
+  public long getAbiDigest() {
+    return myAbiDigest;
+  }
+
   public boolean addUsage(final UsageRepr.Usage usage) {
     return myUsages.add(usage);
   }
@@ -226,7 +234,8 @@ public class ClassRepr extends Proto {
                    final int outerClassName,
                    final boolean localClassFlag,
                    final boolean anonymousClassFlag,
-                   final Set<UsageRepr.Usage> usages) {
+                   final Set<UsageRepr.Usage> usages,
+                   final long abiDigest) {
     super(a, sig, n);
     this.myContext = context;
     myFileName = fn;
@@ -240,6 +249,7 @@ public class ClassRepr extends Proto {
     this.myIsLocal = localClassFlag;
     this.myIsAnonymous = anonymousClassFlag;
     this.myUsages = usages;
+    this.myAbiDigest = abiDigest;
   }
 
   public ClassRepr(final DependencyContext context, final DataInput in) {
@@ -261,6 +271,7 @@ public class ClassRepr extends Proto {
       myIsLocal = in.readBoolean();
       myIsAnonymous = in.readBoolean();
       myUsages =(Set<UsageRepr.Usage>)RW.read(UsageRepr.externalizer(context), new HashSet<UsageRepr.Usage>(), in);
+      myAbiDigest = in.readLong();
     }
     catch (IOException e) {
       throw new RuntimeException(e);
@@ -282,6 +293,7 @@ public class ClassRepr extends Proto {
       out.writeBoolean(myIsLocal);
       out.writeBoolean(myIsAnonymous);
       RW.save(myUsages, UsageRepr.externalizer(myContext), out);
+      out.writeLong(myAbiDigest);
     }
     catch (IOException e) {
       throw new RuntimeException(e);
@@ -307,6 +307,7 @@ class ClassfileAnalyzer {
     private final Set<UsageRepr.Usage> myUsages = new HashSet<UsageRepr.Usage>();
     private final Set<ElemType> myTargets = EnumSet.noneOf(ElemType.class);
     private RetentionPolicy myRetentionPolicy = null;
+    private final AbiDigest myAbiDigest = new AbiDigest();
 
     final Map<TypeRepr.ClassType, TIntHashSet> myAnnotationArguments = new HashMap<TypeRepr.ClassType, TIntHashSet>();
     final Map<TypeRepr.ClassType, Set<ElemType>> myAnnotationTargets = new HashMap<TypeRepr.ClassType, Set<ElemType>>();
@@ -321,12 +322,16 @@ class ClassfileAnalyzer {
     }
 
     public Pair<ClassRepr, Set<UsageRepr.Usage>> getResult() {
+      if (myTakeIntoAccount) {
+        myAbiDigest.getHeader().append(" outer ").append(myOuterClassName.get())
+          .append(" local ").append(myLocalClassFlag.get()).append(" anonymous ").append(myAnonymousClassFlag.get());
+      }
       final ClassRepr repr =
         myTakeIntoAccount ? new ClassRepr(
           myContext, myAccess, myFileName, myName, myContext.get(mySignature), myContext.get(mySuperClass), myInterfaces,
           myFields,
           myMethods, myTargets, myRetentionPolicy, myContext
-          .get(myOuterClassName.get()), myLocalClassFlag.get(), myAnonymousClassFlag.get(), myUsages) : null;
+          .get(myOuterClassName.get()), myLocalClassFlag.get(), myAnonymousClassFlag.get(), myUsages, myAbiDigest.compute()) : null;
 
       if (repr != null) {
         repr.updateClassUsages(myContext, myUsages);
@@ -346,6 +351,8 @@ class ClassfileAnalyzer {
       myInterfaces = i;
 
       myClassNameHolder.set(n);
+      myAbiDigest.getHeader().append(a).append(' ').append(n).append(' ').append(sig).append(' ').append(s).append(' ')
+        .append(i != null ? Arrays.toString(i) : null);
 
       if (mySuperClass != null) {
         final int superclassName = myContext.get(mySuperClass);
@@ -377,6 +384,10 @@ class ClassfileAnalyzer {
 
     @Override
     public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+      return AbiDigest.recordAnnotation(myAbiDigest.getHeader(), desc, createAnnotationCrawler(desc));
+    }
+
+    private AnnotationVisitor createAnnotationCrawler(String desc) {
       if (desc.equals("Ljava/lang/annotation/Target;")) {
         return new AnnotationTargetCrawler();
       }
@@ -403,10 +414,23 @@ class ClassfileAnalyzer {
         myFields.add(new FieldRepr(myContext, access, myContext.get(n), myContext.get(desc), myContext.get(signature), value));
       }
 
+      final StringBuilder abi = AbiDigest.isAbiMember(access) ? new StringBuilder() : null;
+      if (abi != null) {
+        abi.append("field ").append(access).append(' ').append(n).append(' ').append(desc).append(' ').append(signature).append(' ').append(value);
+      }
+
       return new FieldVisitor(Opcodes.ASM4) {
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.FIELD);
+          final AnnotationCrawler crawler = new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.FIELD);
+          return abi != null ? AbiDigest.recordAnnotation(abi, desc, crawler) : crawler;
+        }
+
+        @Override
+        public void visitEnd() {
+          if (abi != null) {
+            myAbiDigest.addMember(abi);
+          }
         }
       };
     }
@@ -417,33 +441,49 @@ class ClassfileAnalyzer {
 
       processSignature(signature);
 
+      final StringBuilder abi = AbiDigest.isAbiMember(access) ? new StringBuilder() : null;
+      if (abi != null) {
+        abi.append("method ").append(access).append(' ').append(n).append(' ').append(desc).append(' ').append(signature).append(' ')
+          .append(exceptions != null ? Arrays.toString(exceptions) : null);
+      }
+
       return new MethodVisitor(Opcodes.ASM4) {
         @Override
         public void visitEnd() {
           if ((access & Opcodes.ACC_SYNTHETIC) == 0 || (access & Opcodes.ACC_BRIDGE) > 0) {
             myMethods.add(new MethodRepr(myContext, access, myContext.get(n), myContext.get(signature), desc, exceptions, defaultValue.get()));
           }
+          if (abi != null) {
+            myAbiDigest.addMember(abi);
+          }
         }
 
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-          return new AnnotationCrawler(
+          final AnnotationCrawler crawler = new AnnotationCrawler(
             (TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), "<init>".equals(n) ? ElemType.CONSTRUCTOR : ElemType.METHOD
           );
+          return abi != null ? AbiDigest.recordAnnotation(abi, desc, crawler) : crawler;
         }
 
         @Override
         public AnnotationVisitor visitAnnotationDefault() {
-          return new AnnotationVisitor(Opcodes.ASM4) {
+          final AnnotationVisitor visitor = new AnnotationVisitor(Opcodes.ASM4) {
             public void visit(String name, Object value) {
               defaultValue.set(value);
             }
           };
+          return abi != null ? AbiDigest.recordAnnotation(abi, "default", visitor) : visitor;
         }
 
         @Override
         public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
-          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.PARAMETER);
+          final AnnotationCrawler crawler = new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.PARAMETER);
+          if (abi != null) {
+            abi.append(" param").append(parameter);
+            return AbiDigest.recordAnnotation(abi, desc, crawler);
+          }
+          return crawler;
         }
 
         @Override
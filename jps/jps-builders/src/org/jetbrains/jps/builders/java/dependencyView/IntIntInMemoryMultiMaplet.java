@@ -0,0 +1,329 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.KeyDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+/**
+ * Keeps the whole persistent multimaplet in memory while the build session is running and writes its compacted snapshot back
+ * to disk on {@link #flush(boolean) flush(false)} and {@link #close()}.
+ * Keys are distributed between several independently locked segments, so concurrent chunk builds do not contend on a single lock.
+ * The sets are never shared with the callers: they get copies and the sets passed in are copied, so the callers may modify them
+ * outside of the segment lock.
+ * <p/>
+ * The snapshot is written to temporary files which replace the storage only after they are completely written, the main storage
+ * file is renamed last. So if the main file is missing on load, the temporary files are complete and the interrupted replacement
+ * is finished.
+ */
+class IntIntInMemoryMultiMaplet extends IntIntMultiMaplet {
+  private static final int SEGMENT_COUNT = 16;
+  private static final String SNAPSHOT_PREFIX = "snapshot.";
+  private final File myFile;
+  private final File mySnapshotFile;
+  private final KeyDescriptor<Integer> myKeyDescriptor;
+  private final TIntObjectHashMap<TIntHashSet>[] mySegments;
+  private volatile boolean myIsDirty = false;
+
+  @SuppressWarnings("unchecked")
+  public IntIntInMemoryMultiMaplet(final File file, final KeyDescriptor<Integer> keyDescriptor) throws IOException {
+    myFile = file;
+    mySnapshotFile = new File(file.getParentFile(), SNAPSHOT_PREFIX + file.getName());
+    myKeyDescriptor = keyDescriptor;
+    mySegments = new TIntObjectHashMap[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      mySegments[i] = new TIntObjectHashMap<TIntHashSet>();
+    }
+    load();
+  }
+
+  private void load() throws IOException {
+    if (myFile.exists()) {
+      PersistentHashMap.deleteFilesStartingWith(mySnapshotFile);
+    }
+    else {
+      moveSnapshotFiles();
+    }
+    final IntIntPersistentMultiMaplet persistent = new IntIntPersistentMultiMaplet(myFile, myKeyDescriptor);
+    try {
+      persistent.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+        @Override
+        public boolean execute(int key, TIntHashSet value) {
+          if (value != null && !value.isEmpty()) {
+            getSegment(key).put(key, value);
+          }
+          return true;
+        }
+      });
+    }
+    finally {
+      persistent.close();
+    }
+  }
+
+  private TIntObjectHashMap<TIntHashSet> getSegment(final int key) {
+    int h = key;
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return mySegments[h & (SEGMENT_COUNT - 1)];
+  }
+
+  @Override
+  public boolean containsKey(final int key) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      return segment.containsKey(key);
+    }
+  }
+
+  @Override
+  public TIntHashSet get(final int key) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      final TIntHashSet collection = segment.get(key);
+      return collection != null ? new TIntHashSet(collection.toArray()) : null;
+    }
+  }
+
+  @Override
+  public void put(final int key, final int value) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      TIntHashSet collection = segment.get(key);
+      if (collection == null) {
+        collection = new TIntHashSet();
+        segment.put(key, collection);
+      }
+      if (collection.add(value)) {
+        myIsDirty = true;
+      }
+    }
+  }
+
+  @Override
+  public void put(final int key, final TIntHashSet value) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      final TIntHashSet collection = segment.get(key);
+      if (collection == null) {
+        segment.put(key, new TIntHashSet(value.toArray()));
+      }
+      else {
+        collection.addAll(value.toArray());
+      }
+      myIsDirty = true;
+    }
+  }
+
+  @Override
+  public void replace(final int key, final TIntHashSet value) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      if (value == null || value.isEmpty()) {
+        segment.remove(key);
+      }
+      else {
+        segment.put(key, new TIntHashSet(value.toArray()));
+      }
+      myIsDirty = true;
+    }
+  }
+
+  @Override
+  public void putAll(IntIntMultiMaplet m) {
+    m.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+      @Override
+      public boolean execute(int key, TIntHashSet value) {
+        put(key, value);
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void replaceAll(IntIntMultiMaplet m) {
+    m.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+      @Override
+      public boolean execute(int key, TIntHashSet value) {
+        replace(key, value);
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void remove(final int key) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      if (segment.remove(key) != null) {
+        myIsDirty = true;
+      }
+    }
+  }
+
+  @Override
+  public void removeFrom(final int key, final int value) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      final TIntHashSet collection = segment.get(key);
+      if (collection != null && collection.remove(value)) {
+        if (collection.isEmpty()) {
+          segment.remove(key);
+        }
+        myIsDirty = true;
+      }
+    }
+  }
+
+  @Override
+  public void removeAll(final int key, final TIntHashSet values) {
+    final TIntObjectHashMap<TIntHashSet> segment = getSegment(key);
+    synchronized (segment) {
+      final TIntHashSet collection = segment.get(key);
+      if (collection != null && collection.removeAll(values.toArray())) {
+        if (collection.isEmpty()) {
+          segment.remove(key);
+        }
+        myIsDirty = true;
+      }
+    }
+  }
+
+  @Override
+  public void forEachEntry(final TIntObjectProcedure<TIntHashSet> procedure) {
+    for (final TIntObjectHashMap<TIntHashSet> segment : mySegments) {
+      // the procedure is called outside of the segment lock, so it may safely modify this maplet
+      final int[] keys;
+      final TIntHashSet[] values;
+      synchronized (segment) {
+        keys = segment.keys();
+        values = new TIntHashSet[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+          values[i] = new TIntHashSet(segment.get(keys[i]).toArray());
+        }
+      }
+      for (int i = 0; i < keys.length; i++) {
+        if (!procedure.execute(keys[i], values[i])) {
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void flush(boolean memoryCachesOnly) {
+    if (!memoryCachesOnly) {
+      saveSnapshot();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      saveSnapshot();
+    }
+    finally {
+      for (TIntObjectHashMap<TIntHashSet> segment : mySegments) {
+        synchronized (segment) {
+          segment.clear();
+        }
+      }
+    }
+  }
+
+  private void saveSnapshot() {
+    if (!myIsDirty) {
+      return;
+    }
+    // modifications made while the snapshot is written will be saved next time
+    myIsDirty = false;
+    boolean saved = false;
+    try {
+      // rewriting the storage from scratch drops all garbage accumulated by appends and removals
+      PersistentHashMap.deleteFilesStartingWith(mySnapshotFile);
+      final IntIntPersistentMultiMaplet persistent = new IntIntPersistentMultiMaplet(mySnapshotFile, myKeyDescriptor);
+      try {
+        for (final TIntObjectHashMap<TIntHashSet> segment : mySegments) {
+          final TIntObjectHashMap<TIntHashSet> snapshot = new TIntObjectHashMap<TIntHashSet>();
+          synchronized (segment) {
+            segment.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+              @Override
+              public boolean execute(int key, TIntHashSet value) {
+                snapshot.put(key, new TIntHashSet(value.toArray()));
+                return true;
+              }
+            });
+          }
+          snapshot.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+            @Override
+            public boolean execute(int key, TIntHashSet value) {
+              persistent.replace(key, value);
+              return true;
+            }
+          });
+        }
+      }
+      finally {
+        persistent.close();
+      }
+      deleteStorageFiles();
+      moveSnapshotFiles();
+      saved = true;
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    finally {
+      if (!saved) {
+        myIsDirty = true;
+      }
+    }
+  }
+
+  private void deleteStorageFiles() throws IOException {
+    // the main file goes first, so the storage is never taken for a complete one once the deletion has started
+    if (myFile.exists() && !FileUtil.delete(myFile)) {
+      throw new IOException("Cannot delete " + myFile);
+    }
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+
+  private void moveSnapshotFiles() throws IOException {
+    final String snapshotName = mySnapshotFile.getName();
+    final File[] files = mySnapshotFile.getParentFile().listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().startsWith(snapshotName) && !file.equals(mySnapshotFile);
+      }
+    });
+    if (files != null) {
+      for (File file : files) {
+        FileUtil.rename(file, new File(myFile.getParentFile(), file.getName().substring(SNAPSHOT_PREFIX.length())));
+      }
+    }
+    if (mySnapshotFile.exists()) {
+      FileUtil.rename(mySnapshotFile, myFile);
+    }
+  }
+}
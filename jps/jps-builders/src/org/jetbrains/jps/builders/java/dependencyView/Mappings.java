@@ -25,6 +25,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.Opcodes;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.incremental.storage.FileKeyDescriptor;
 
 import java.io.File;
@@ -48,6 +49,7 @@ public class Mappings {
   private final static String SOURCE_TO_CLASS = "sourceToClass.tab";
   private final static String CLASS_TO_SOURCE = "classToSource.tab";
   private static final IntInlineKeyDescriptor INT_KEY_DESCRIPTOR = new IntInlineKeyDescriptor();
+  private static final boolean IN_MEMORY_DEPENDENCY_GRAPH = Boolean.parseBoolean(System.getProperty(GlobalOptions.IN_MEMORY_DEPENDENCY_GRAPH_OPTION, "false"));
   private static final int DEFAULT_SET_CAPACITY = 32;
   private static final float DEFAULT_SET_LOAD_FACTOR = 0.98f;
   private static final CollectionFactory<ClassRepr> ourClassSetConstructor = new CollectionFactory<ClassRepr>() {
@@ -138,8 +140,14 @@ public class Mappings {
       if (myIsDelta) {
         myRootDir.mkdirs();
       }
-      myClassToSubclasses = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR);
-      myClassToClassDependency = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR);
+      if (!myIsDelta && IN_MEMORY_DEPENDENCY_GRAPH) {
+        myClassToSubclasses = new IntIntInMemoryMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR);
+        myClassToClassDependency = new IntIntInMemoryMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR);
+      }
+      else {
+        myClassToSubclasses = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR);
+        myClassToClassDependency = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR);
+      }
       mySourceFileToClasses = new ObjectObjectPersistentMultiMaplet<File, ClassRepr>(
         DependencyContext.getTableFile(myRootDir, SOURCE_TO_CLASS), new FileKeyDescriptor(), ClassRepr.externalizer(myContext),
         ourClassSetConstructor
@@ -1599,6 +1607,14 @@ public class Mappings {
             continue;
           }
 
+          final ClassRepr futureClass = myDelta.getReprByName(null, changedClass.name);
+          if (futureClass != null && futureClass.getAbiDigest() == changedClass.getAbiDigest()) {
+            // only private members or method bodies were changed, so the class cannot affect its dependents
+            debug("ABI digest unchanged, dependents are not examined: ", changedClass.name);
+            continue;
+          }
+          debug("ABI digest changed: ", changedClass.name);
+
           myPresent.appendDependents(changedClass, state.myDependants);
 
           if (superClassChanged || interfacesChanged || signatureChanged) {
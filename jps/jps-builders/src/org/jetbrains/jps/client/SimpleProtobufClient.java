@@ -48,6 +48,8 @@ public class SimpleProtobufClient<T extends ProtobufResponseHandler> {
   protected final ChannelFactory myChannelFactory;
   protected volatile ChannelFuture myConnectFuture;
   private final ProtobufClientMessageHandler<T> myMessageHandler;
+  private final Object myReadingLock = new Object();
+  private int myReadingSuspensions = 0;
 
   public SimpleProtobufClient(final MessageLite msgDefaultInstance, final Executor asyncExec, final UUIDGetter uuidGetter) {
     myMessageHandler = new ProtobufClientMessageHandler<T>(uuidGetter, this, asyncExec);
@@ -170,6 +172,43 @@ public class SimpleProtobufClient<T extends ProtobufResponseHandler> {
     return requestFuture;
   }
 
+  /**
+   * Sends a message within an already started session. Responses are still processed by the handler registered for the session.
+   */
+  public final void sendSessionMessage(MessageLite message) {
+    final ChannelFuture connectFuture = myConnectFuture;
+    final Channel channel = connectFuture != null? connectFuture.getChannel() : null;
+    if (channel != null && channel.isConnected()) {
+      Channels.write(channel, message);
+    }
+  }
+
+  /**
+   * Stops reading messages from the server until {@link #resumeReading()} is called the same number of times. Unlike waiting in a
+   * response handler, this doesn't block the I/O thread, the server is slowed down because the connection is not read.
+   */
+  public final void suspendReading() {
+    updateReadingSuspensions(1);
+  }
+
+  public final void resumeReading() {
+    updateReadingSuspensions(-1);
+  }
+
+  private void updateReadingSuspensions(int delta) {
+    final ChannelFuture connectFuture = myConnectFuture;
+    final Channel channel = connectFuture != null? connectFuture.getChannel() : null;
+    synchronized (myReadingLock) {
+      final boolean wasSuspended = myReadingSuspensions > 0;
+      myReadingSuspensions = Math.max(0, myReadingSuspensions + delta);
+      final boolean suspended = myReadingSuspensions > 0;
+      // the channel requests are queued in the same order as the changes of the counter
+      if (channel != null && suspended != wasSuspended) {
+        channel.setReadable(!suspended);
+      }
+    }
+  }
+
   private void notifyTerminated(UUID messageId, RequestFuture<T> requestFuture, @Nullable T responseHandler) {
     try {
       myMessageHandler.removeFuture(messageId);
@@ -96,6 +96,8 @@ public class BuildMain {
   private static class MyMessageHandler extends SimpleChannelHandler {
     private final UUID mySessionId;
     private volatile BuildSession mySession;
+    // in keep-alive mode, the session requested by the controller while the previous one is finishing
+    private volatile BuildSession myPendingSession;
 
     private MyMessageHandler(UUID sessionId) {
       mySessionId = sessionId;
@@ -112,30 +114,31 @@ public class BuildMain {
         switch (controllerMessage.getType()) {
 
           case BUILD_PARAMETERS: {
-            if (mySession == null) {
-              final CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = controllerMessage.hasFsEvent()? controllerMessage.getFsEvent() : null;
-              final BuildSession session = new BuildSession(mySessionId, channel, controllerMessage.getParamsMessage(), delta);
-              mySession = session;
-              SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
-                public void run() {
-                  try {
-                    session.run();
-                  }
-                  finally {
-                    channel.close();
-                    System.exit(0);
-                  }
-                }
-              });
+            final CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = controllerMessage.hasFsEvent()? controllerMessage.getFsEvent() : null;
+            // in keep-alive mode the controller may reuse this process for subsequent sessions
+            final UUID sessionId = ProjectStateCache.ENABLED ? toJavaUUID(message.getSessionId()) : mySessionId;
+            BuildSession sessionToStart = null;
+            synchronized (this) {
+              if (mySession == null) {
+                sessionToStart = new BuildSession(sessionId, channel, controllerMessage.getParamsMessage(), delta);
+                mySession = sessionToStart;
+              }
+              else if (ProjectStateCache.ENABLED && myPendingSession == null) {
+                // the controller may send the next request as soon as it gets 'build completed' of the running session
+                myPendingSession = new BuildSession(sessionId, channel, controllerMessage.getParamsMessage(), delta);
+              }
+              else {
+                LOG.info("Cannot start another build session because one is already running");
+              }
             }
-            else {
-              LOG.info("Cannot start another build session because one is already running");
+            if (sessionToStart != null) {
+              runSession(sessionToStart, channel);
             }
             return;
           }
 
           case FS_EVENT: {
-            final BuildSession session = mySession;
+            final BuildSession session = findSession(message);
             if (session != null) {
               session.processFSEvent(controllerMessage.getFsEvent());
             }
@@ -143,7 +146,7 @@ public class BuildMain {
           }
 
           case CONSTANT_SEARCH_RESULT: {
-            final BuildSession session = mySession;
+            final BuildSession session = findSession(message);
             if (session != null) {
               session.processConstantSearchResult(controllerMessage.getConstantSearchResult());
             }
@@ -151,7 +154,7 @@ public class BuildMain {
           }
 
           case CANCEL_BUILD_COMMAND: {
-            final BuildSession session = mySession;
+            final BuildSession session = findSession(message);
             if (session != null) {
               session.cancel();
             }
@@ -167,6 +170,46 @@ public class BuildMain {
       Channels.write(channel, CmdlineProtoUtil.toMessage(mySessionId, CmdlineProtoUtil.createFailure("Unsupported message type: " + type.name(), null)));
     }
 
+    private void runSession(final BuildSession session, final Channel channel) {
+      SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+        public void run() {
+          try {
+            session.run();
+          }
+          finally {
+            if (ProjectStateCache.ENABLED) {
+              final BuildSession next;
+              synchronized (MyMessageHandler.this) {
+                next = myPendingSession;
+                myPendingSession = null;
+                mySession = next;
+              }
+              if (next != null) {
+                runSession(next, channel);
+              }
+            }
+            else {
+              channel.close();
+              System.exit(0);
+            }
+          }
+        }
+      });
+    }
+
+    @Nullable
+    private BuildSession findSession(CmdlineRemoteProto.Message message) {
+      final BuildSession pending = myPendingSession;
+      if (pending != null && pending.getId().equals(toJavaUUID(message.getSessionId()))) {
+        return pending;
+      }
+      return mySession;
+    }
+
+    private static UUID toJavaUUID(CmdlineRemoteProto.Message.UUID id) {
+      return new UUID(id.getMostSigBits(), id.getLeastSigBits());
+    }
+
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
       try {
@@ -176,6 +219,7 @@ public class BuildMain {
         new Thread("Shutdown thread") {
           public void run() {
             try {
+              ProjectStateCache.getInstance().dropState();
               ourChannelFactory.releaseExternalResources();
             }
             finally {
@@ -31,6 +31,7 @@ import org.jetbrains.jps.api.*;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
 import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
+import org.jetbrains.jps.incremental.BuildEventTrace;
 import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ModuleBuildTarget;
 import org.jetbrains.jps.incremental.Utils;
@@ -58,6 +59,7 @@ import static org.jetbrains.jps.api.CmdlineRemoteProto.Message.ControllerMessage
 final class BuildSession implements Runnable, CanceledStatus {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.BuildSession");
   private static final String FS_STATE_FILE = "fs_state.dat";
+  private static final String TRACE_FILE_NAME = "build-trace.json";
   private final UUID mySessionId;
   private final Channel myChannel;
   private volatile boolean myCanceled = false;
@@ -72,6 +74,7 @@ final class BuildSession implements Runnable, CanceledStatus {
   private final ConstantSearch myConstantSearch = new ConstantSearch();
   private final BuildRunner myBuildRunner;
   private final boolean myForceModelLoading;
+  private final String myGlobalSettingsStamp;
   private BuildType myBuildType;
 
   BuildSession(UUID sessionId,
@@ -102,12 +105,20 @@ final class BuildSession implements Runnable, CanceledStatus {
     JpsModelLoaderImpl loader = new JpsModelLoaderImpl(myProjectPath, globalOptionsPath, pathVars, null);
     myForceModelLoading = Boolean.parseBoolean(builderParams.get(BuildMain.FORCE_MODEL_LOADING_PARAMETER.toString()));
     myBuildRunner = new BuildRunner(loader, scopes, filePaths, builderParams);
+    // computed before the model is loaded, so changes made during loading invalidate the state kept after this session
+    myGlobalSettingsStamp = ProjectStateCache.ENABLED ? ProjectStateCache.computeGlobalSettingsStamp(globalOptionsPath, pathVars) : null;
+  }
+
+  UUID getId() {
+    return mySessionId;
   }
 
   public void run() {
     Throwable error = null;
     final Ref<Boolean> hasErrors = new Ref<Boolean>(false);
     final Ref<Boolean> doneSomething = new Ref<Boolean>(false);
+    BuildEventTrace.startRecording();
+    final BuildEventTrace.Event traceEvent = BuildEventTrace.start("build", myBuildType.name());
     try {
       ProfilingHelper profilingHelper = null;
       if (Utils.IS_PROFILING_MODE) {
@@ -167,6 +178,9 @@ final class BuildSession implements Runnable, CanceledStatus {
       error = e;
     }
     finally {
+      traceEvent.finish();
+      final File dataStorageRoot = BuildEventTrace.ENABLED ? Utils.getDataStorageRoot(myProjectPath) : null;
+      BuildEventTrace.stopRecording(dataStorageRoot != null ? new File(dataStorageRoot, TRACE_FILE_NAME) : null);
       finishBuild(error, hasErrors.get(), doneSomething.get());
     }
   }
@@ -189,11 +203,28 @@ final class BuildSession implements Runnable, CanceledStatus {
       final boolean hasWorkToDoWithModules = fsStateStream.readBoolean();
       if (!myForceModelLoading && (myBuildType == BuildType.MAKE || myBuildType == BuildType.UP_TO_DATE_CHECK) && !hasWorkToDoWithModules && scopeContainsModulesOnly(myBuildRunner.getScopes()) && !containsChanges(myInitialFSDelta)) {
         updateFsStateOnDisk(dataStorageRoot, fsStateStream, myInitialFSDelta.getOrdinal());
+        if (ProjectStateCache.ENABLED) {
+          ProjectStateCache.getInstance().eventApplied(myProjectPath, myInitialFSDelta.getOrdinal());
+        }
+        return;
+      }
+    }
+
+    if (ProjectStateCache.ENABLED) {
+      final ProjectDescriptor preloaded =
+        ProjectStateCache.getInstance().takeState(myProjectPath, dataStorageRoot, myGlobalSettingsStamp, myInitialFSDelta);
+      if (preloaded != null) {
+        if (fsStateStream != null) {
+          fsStateStream.close();
+        }
+        LOG.info("Using preloaded project state for " + myProjectPath);
+        runBuild(preloaded, msgHandler, cs, dataStorageRoot);
         return;
       }
     }
 
     final BuildFSState fsState = new BuildFSState(false);
+    boolean completed = false;
     try {
       final ProjectDescriptor pd = myBuildRunner.load(msgHandler, dataStorageRoot, fsState);
       myProjectDescriptor = pd;
@@ -220,12 +251,52 @@ final class BuildSession implements Runnable, CanceledStatus {
       myEventsProcessor.startProcessing();
 
       myBuildRunner.runBuild(pd, cs, myConstantSearch, msgHandler, myBuildType);
+      completed = true;
     }
     finally {
+      keepProjectStateLoaded(completed, dataStorageRoot);
       saveData(fsState, dataStorageRoot);
     }
   }
 
+  private void runBuild(ProjectDescriptor preloaded, MessageHandler msgHandler, CanceledStatus cs, File dataStorageRoot) throws Throwable {
+    myProjectDescriptor = preloaded;
+    boolean completed = false;
+    try {
+      applyFSEvent(preloaded, myInitialFSDelta, false);
+      myLastEventOrdinal = myInitialFSDelta != null ? myInitialFSDelta.getOrdinal() : 0L;
+      myInitialFSDelta = null;
+      myEventsProcessor.startProcessing();
+
+      myBuildRunner.runBuild(preloaded, cs, myConstantSearch, msgHandler, myBuildType);
+      completed = true;
+    }
+    finally {
+      keepProjectStateLoaded(completed, dataStorageRoot);
+      saveData(preloaded.fsState, dataStorageRoot);
+    }
+  }
+
+  private void keepProjectStateLoaded(boolean buildCompleted, File dataStorageRoot) {
+    final ProjectDescriptor pd = myProjectDescriptor;
+    if (!ProjectStateCache.ENABLED || pd == null) {
+      return;
+    }
+    try {
+      if (buildCompleted && !myCanceled) {
+        // if an event is applied after this point, the ordinal of the next session's delta won't match and the state will be dropped
+        ProjectStateCache.getInstance().putState(myProjectPath, dataStorageRoot, myGlobalSettingsStamp, pd, myLastEventOrdinal);
+      }
+      else {
+        ProjectStateCache.getInstance().dropState();
+      }
+    }
+    catch (Throwable e) {
+      LOG.info(e);
+      ProjectStateCache.getInstance().dropState();
+    }
+  }
+
   private static boolean scopeContainsModulesOnly(List<TargetTypeBuildScope> scopes) {
     for (TargetTypeBuildScope scope : scopes) {
       String typeId = scope.getTypeId();
@@ -325,8 +396,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             if (fileStamp == -1L) {
               fileStamp = FileSystemUtil.lastModified(file); // lazy init
             }
-            long stamp = timestamps.getStamp(file, descriptor.getTarget());
-            if (stamp != fileStamp) {
+            if (timestamps.isFileChanged(file, descriptor.getTarget(), fileStamp)) {
               if (!cacheCleared) {
                 pd.getFSCache().clear();
                 cacheCleared = true;
@@ -17,10 +17,14 @@ package org.jetbrains.jps.cmdline;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.ParameterizedRunnable;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.incremental.Utils;
 import org.jetbrains.jps.model.JpsElementFactory;
 import org.jetbrains.jps.model.JpsModel;
 import org.jetbrains.jps.model.serialization.JpsGlobalLoader;
 import org.jetbrains.jps.model.serialization.JpsProjectLoader;
+import org.jetbrains.jps.model.serialization.JpsXmlFileCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -31,6 +35,8 @@ import java.util.Map;
  */
 public class JpsModelLoaderImpl implements JpsModelLoader {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.JpsModelLoaderImpl");
+  private static final boolean USE_PROJECT_FILES_SNAPSHOT = Boolean.parseBoolean(System.getProperty(GlobalOptions.USE_PROJECT_FILES_SNAPSHOT_OPTION, "true"));
+  private static final String PROJECT_FILES_SNAPSHOT_FILE_NAME = "project-files.dat";
   private final String myProjectPath;
   private final String myGlobalOptionsPath;
   private final Map<String, String> myPathVars;
@@ -53,7 +59,11 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
         if (myGlobalOptionsPath != null) {
           JpsGlobalLoader.loadGlobalSettings(model.getGlobal(), myPathVars, myGlobalOptionsPath);
         }
-        JpsProjectLoader.loadProject(model.getProject(), myPathVars, myProjectPath);
+        final JpsXmlFileCache fileCache = createFileCache();
+        JpsProjectLoader.loadProject(model.getProject(), myPathVars, myProjectPath, fileCache);
+        if (fileCache != null) {
+          fileCache.save();
+        }
         if (myModelInitializer != null) {
           myModelInitializer.run(model);
         }
@@ -70,6 +80,19 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
     }
   }
 
+  @Nullable
+  private JpsXmlFileCache createFileCache() {
+    if (!USE_PROJECT_FILES_SNAPSHOT) {
+      return null;
+    }
+    final File dataStorageRoot = Utils.getDataStorageRoot(myProjectPath);
+    // don't create the data storage root here: its absence means that the project must be rebuilt
+    if (dataStorageRoot == null || !dataStorageRoot.isDirectory()) {
+      return null;
+    }
+    return JpsXmlFileCache.load(new File(dataStorageRoot, PROJECT_FILES_SNAPSHOT_FILE_NAME));
+  }
+
   private static boolean isDirectoryBased(File projectFile) {
     return !(projectFile.isFile() && projectFile.getName().endsWith(".ipr"));
   }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.model.serialization.JpsGlobalLoader;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the loaded project model, file system state and opened storages of the last built project while the build process
+ * is kept alive between build sessions. The state is reused only if the next session continues the sequence of file system events,
+ * none of the events touches project configuration files and global settings (path variables, SDK table, global libraries)
+ * are the same; otherwise the state is released and the project is loaded from scratch.
+ */
+final class ProjectStateCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.ProjectStateCache");
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(GlobalOptions.KEEP_BUILD_PROCESS_ALIVE_OPTION, "false"));
+  private static final ProjectStateCache ourInstance = new ProjectStateCache();
+
+  private String myProjectPath;
+  private File myDataStorageRoot;
+  private String myGlobalSettingsStamp;
+  private ProjectDescriptor myDescriptor;
+  private long myLastEventOrdinal;
+
+  static ProjectStateCache getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * Global settings are loaded from files outside the project, so changes in them are not reported by file system events
+   * @return string which changes if path variables or any of files global settings are loaded from change
+   */
+  static String computeGlobalSettingsStamp(@Nullable String globalOptionsPath, Map<String, String> pathVariables) {
+    final StringBuilder stamp = new StringBuilder();
+    stamp.append(new TreeMap<String, String>(pathVariables));
+    if (globalOptionsPath != null) {
+      for (File file : JpsGlobalLoader.getGlobalSettingsFiles(globalOptionsPath)) {
+        stamp.append('\n').append(file.getPath()).append(':').append(file.length()).append(':').append(file.lastModified());
+      }
+    }
+    return stamp.toString();
+  }
+
+  /**
+   * Passes ownership of the cached descriptor to the caller, so the caller is responsible for {@link ProjectDescriptor#release()}
+   * @return cached descriptor if it is still valid for the session with the specified global settings and initial file system delta
+   */
+  @Nullable
+  synchronized ProjectDescriptor takeState(String projectPath, File dataStorageRoot, String globalSettingsStamp,
+                                           @Nullable CmdlineRemoteProto.Message.ControllerMessage.FSEvent initialDelta) {
+    final ProjectDescriptor pd = myDescriptor;
+    if (pd == null) {
+      return null;
+    }
+    final String cachedProjectPath = myProjectPath;
+    final boolean sameProject =
+      FileUtil.pathsEqual(projectPath, cachedProjectPath) && FileUtil.filesEqual(dataStorageRoot, myDataStorageRoot);
+    final String cachedGlobalSettingsStamp = myGlobalSettingsStamp;
+    final long lastEventOrdinal = myLastEventOrdinal;
+    clear();
+
+    if (!sameProject) {
+      LOG.info("Dropping preloaded state of " + cachedProjectPath + ": another project is being built");
+    }
+    else if (!globalSettingsStamp.equals(cachedGlobalSettingsStamp)) {
+      LOG.info("Dropping preloaded state of " + projectPath + ": global settings were changed");
+    }
+    else if (initialDelta == null || initialDelta.getOrdinal() != lastEventOrdinal + 1) {
+      LOG.info("Dropping preloaded state of " + projectPath + ": file system events were missed");
+    }
+    else if (affectsProjectModel(initialDelta)) {
+      LOG.info("Dropping preloaded state of " + projectPath + ": project configuration was changed");
+    }
+    else {
+      return pd;
+    }
+    pd.release();
+    return null;
+  }
+
+  /**
+   * Flushes storages of the descriptor and keeps it loaded until the next session
+   */
+  synchronized void putState(String projectPath, File dataStorageRoot, String globalSettingsStamp, ProjectDescriptor pd,
+                             long lastEventOrdinal) {
+    pd.dataManager.flush(false);
+    pd.getTargetsState().save();
+    pd.timestamps.getStorage().force();
+    if (myDescriptor != pd) {
+      if (myDescriptor != null) {
+        myDescriptor.release();
+      }
+      pd.incUsageCounter();
+    }
+    myDescriptor = pd;
+    myProjectPath = projectPath;
+    myDataStorageRoot = dataStorageRoot;
+    myGlobalSettingsStamp = globalSettingsStamp;
+    myLastEventOrdinal = lastEventOrdinal;
+  }
+
+  /**
+   * Called when a session with no file system changes finishes without loading the project, so the cached state stays valid
+   */
+  synchronized void eventApplied(String projectPath, long eventOrdinal) {
+    if (myDescriptor != null && FileUtil.pathsEqual(projectPath, myProjectPath) && eventOrdinal == myLastEventOrdinal + 1) {
+      myLastEventOrdinal = eventOrdinal;
+    }
+  }
+
+  synchronized void dropState() {
+    final ProjectDescriptor pd = myDescriptor;
+    clear();
+    if (pd != null) {
+      pd.release();
+    }
+  }
+
+  private void clear() {
+    myDescriptor = null;
+    myProjectPath = null;
+    myDataStorageRoot = null;
+    myGlobalSettingsStamp = null;
+  }
+
+  private static boolean affectsProjectModel(CmdlineRemoteProto.Message.ControllerMessage.FSEvent event) {
+    for (String path : event.getChangedPathsList()) {
+      if (isProjectConfigurationFile(path)) {
+        return true;
+      }
+    }
+    for (String path : event.getDeletedPathsList()) {
+      if (isProjectConfigurationFile(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isProjectConfigurationFile(String path) {
+    final String systemIndependentPath = FileUtil.toSystemIndependentName(path);
+    return systemIndependentPath.endsWith(".iml") || systemIndependentPath.endsWith(".ipr") ||
+           systemIndependentPath.contains("/.idea/") || systemIndependentPath.endsWith("/.idea");
+  }
+}
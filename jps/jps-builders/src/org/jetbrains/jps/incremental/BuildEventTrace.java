@@ -0,0 +1,226 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records start and end of build activities (chunks, builders, storage flushes, javac calls) with the threads they are performed in.
+ * When recording stops, the timeline of chunks and the total time spent in each builder are logged. If the
+ * '{@link GlobalOptions#BUILD_TRACE_OPTION}' system property is set, the recorded events are also written in the Trace Event format
+ * which can be opened in chrome://tracing. Usage:
+ * <pre>
+ *   final BuildEventTrace.Event event = BuildEventTrace.start(BuildEventTrace.BUILDER, builder.getPresentableName());
+ *   try {
+ *     ...
+ *   }
+ *   finally {
+ *     event.finish();
+ *   }
+ * </pre>
+ */
+public class BuildEventTrace {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.BuildEventTrace");
+  public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(GlobalOptions.BUILD_TRACE_OPTION, "false"));
+  public static final String CHUNK = "chunk";
+  public static final String BUILDER = "builder";
+  private static final Event NULL_EVENT = new Event(null, null, null, 0);
+  private static volatile Recording ourRecording;
+
+  public static void startRecording() {
+    ourRecording = new Recording();
+  }
+
+  /**
+   * Stops recording, logs the summary of recorded events and writes the events to the file if it is specified
+   * @return the logged summary or null if recording wasn't started
+   */
+  @Nullable
+  public static String stopRecording(@Nullable File traceFile) {
+    final Recording recording = ourRecording;
+    ourRecording = null;
+    if (recording == null) {
+      return null;
+    }
+    final String summary = recording.createSummary();
+    LOG.info(summary);
+    if (traceFile != null) {
+      writeTrace(recording, traceFile);
+    }
+    return summary;
+  }
+
+  private static void writeTrace(Recording recording, File traceFile) {
+    try {
+      FileUtil.createParentDirs(traceFile);
+      final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(traceFile), "UTF-8"));
+      try {
+        recording.write(writer);
+      }
+      finally {
+        writer.close();
+      }
+      LOG.info("Build trace written to " + traceFile.getPath());
+    }
+    catch (IOException e) {
+      LOG.info("Cannot write build trace to " + traceFile.getPath() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return an event which must be finished when the activity ends, if recording is not started the event does nothing
+   */
+  @NotNull
+  public static Event start(@NotNull String category, @NotNull String name) {
+    final Recording recording = ourRecording;
+    if (recording == null) {
+      return NULL_EVENT;
+    }
+    return new Event(recording, category, name, System.nanoTime());
+  }
+
+  public static class Event {
+    private final Recording myRecording;
+    private final String myCategory;
+    private final String myName;
+    private final long myStart;
+    private long myEnd;
+    private long myThreadId;
+
+    private Event(@Nullable Recording recording, String category, String name, long start) {
+      myRecording = recording;
+      myCategory = category;
+      myName = name;
+      myStart = start;
+    }
+
+    public void finish() {
+      if (myRecording != null) {
+        myEnd = System.nanoTime();
+        final Thread thread = Thread.currentThread();
+        myThreadId = thread.getId();
+        myRecording.add(this, thread);
+      }
+    }
+  }
+
+  private static class Recording {
+    private final long myStart = System.nanoTime();
+    private final Collection<Event> myEvents = new ConcurrentLinkedQueue<Event>();
+    private final Map<Long, String> myThreadNames = new ConcurrentHashMap<Long, String>();
+
+    private void add(Event event, Thread thread) {
+      myEvents.add(event);
+      if (!myThreadNames.containsKey(event.myThreadId)) {
+        myThreadNames.put(event.myThreadId, thread.getName());
+      }
+    }
+
+    private String createSummary() {
+      final List<Event> chunks = new ArrayList<Event>();
+      final Map<String, Long> builderTimes = new HashMap<String, Long>();
+      for (Event event : myEvents) {
+        if (CHUNK.equals(event.myCategory)) {
+          chunks.add(event);
+        }
+        else if (BUILDER.equals(event.myCategory)) {
+          final Long time = builderTimes.get(event.myName);
+          builderTimes.put(event.myName, (time != null ? time : 0L) + event.myEnd - event.myStart);
+        }
+      }
+      Collections.sort(chunks, new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+          return o1.myStart < o2.myStart ? -1 : o1.myStart > o2.myStart ? 1 : 0;
+        }
+      });
+      final StringBuilder builder = new StringBuilder("Build timeline, ms from start:");
+      for (Event chunk : chunks) {
+        builder.append("\n  ").append(toMillis(chunk.myStart - myStart)).append(" - ").append(toMillis(chunk.myEnd - myStart))
+          .append(" (").append(toMillis(chunk.myEnd - chunk.myStart)).append(") [").append(myThreadNames.get(chunk.myThreadId))
+          .append("] ").append(chunk.myName);
+      }
+      final List<Map.Entry<String, Long>> times = new ArrayList<Map.Entry<String, Long>>(builderTimes.entrySet());
+      Collections.sort(times, new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+          return o2.getValue().compareTo(o1.getValue());
+        }
+      });
+      builder.append("\nTotal time spent in builders, ms:");
+      for (Map.Entry<String, Long> time : times) {
+        builder.append("\n  ").append(time.getKey()).append(": ").append(toMillis(time.getValue()));
+      }
+      return builder.toString();
+    }
+
+    private static long toMillis(long nanos) {
+      return nanos / 1000000;
+    }
+
+    private void write(Writer writer) throws IOException {
+      final List<Event> events = new ArrayList<Event>(myEvents);
+      writer.write("{\"traceEvents\":[");
+      boolean first = true;
+      for (Map.Entry<Long, String> entry : myThreadNames.entrySet()) {
+        writer.write(first ? "\n" : ",\n");
+        first = false;
+        writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + entry.getKey() + ",\"args\":{\"name\":");
+        writeString(writer, entry.getValue());
+        writer.write("}}");
+      }
+      for (Event event : events) {
+        writer.write(first ? "\n" : ",\n");
+        first = false;
+        writer.write("{\"name\":");
+        writeString(writer, event.myName);
+        writer.write(",\"cat\":");
+        writeString(writer, event.myCategory);
+        writer.write(",\"ph\":\"X\",\"pid\":1,\"tid\":" + event.myThreadId);
+        // timestamps are in microseconds
+        writer.write(",\"ts\":" + (event.myStart - myStart) / 1000 + ",\"dur\":" + (event.myEnd - event.myStart) / 1000 + "}");
+      }
+      writer.write("\n]}\n");
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+      writer.write('"');
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          writer.write('\\');
+          writer.write(c);
+        }
+        else if (c < ' ') {
+          writer.write(String.format("\\u%04x", (int)c));
+        }
+        else {
+          writer.write(c);
+        }
+      }
+      writer.write('"');
+    }
+  }
+}
@@ -176,7 +176,7 @@ public class FSOperations {
       if (filter == null || filter.accept(file)) {
         boolean markDirty = forceDirty;
         if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
+          markDirty = tsStorage.isFileChanged(file, rd.getTarget(), FileSystemUtil.lastModified(file));
         }
         if (markDirty) {
           // if it is full project rebuild, all storages are already completely cleared;
@@ -50,6 +50,7 @@ import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.fs.BuildFSState;
 import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
 import org.jetbrains.jps.incremental.messages.*;
+import org.jetbrains.jps.incremental.storage.BuildTargetsState;
 import org.jetbrains.jps.incremental.storage.OneToManyPathsMapping;
 import org.jetbrains.jps.indices.ModuleExcludeIndex;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -110,6 +111,7 @@ public class IncProjectBuilder {
   private final float myTotalTargetsWork;
   private final int myTotalModuleLevelBuilderCount;
   private final List<Future> myAsyncTasks = Collections.synchronizedList(new ArrayList<Future>());
+  @Nullable private final ModuleOutputCache myOutputCache = ModuleOutputCache.create();
 
   public IncProjectBuilder(ProjectDescriptor pd, BuilderRegistry builderRegistry, Map<String, String> builderParams, CanceledStatus cs,
                            @Nullable Callbacks.ConstantAffectionResolver constantSearch) {
@@ -527,13 +529,17 @@ public class IncProjectBuilder {
     }
   }
 
-  private static class BuildChunkTask {
+  static class BuildChunkTask {
     private final BuildTargetChunk myChunk;
+    private final int myIndex;
     private final Set<BuildChunkTask> myNotBuiltDependencies = new THashSet<BuildChunkTask>();
     private final List<BuildChunkTask> myTasksDependsOnThis = new ArrayList<BuildChunkTask>();
+    private long myEstimatedCost;
+    private long myCriticalPathCost;
 
-    private BuildChunkTask(BuildTargetChunk chunk) {
+    BuildChunkTask(BuildTargetChunk chunk, int index) {
       myChunk = chunk;
+      myIndex = index;
     }
 
     public BuildTargetChunk getChunk() {
@@ -550,6 +556,18 @@ public class IncProjectBuilder {
       }
     }
 
+    /**
+     * Must be called for dependent tasks before their dependencies, i.e. in reversed topological order
+     */
+    public void computeCriticalPathCost(long estimatedCost) {
+      myEstimatedCost = estimatedCost;
+      long maxDependentCost = 0;
+      for (BuildChunkTask task : myTasksDependsOnThis) {
+        maxDependentCost = Math.max(maxDependentCost, task.myCriticalPathCost);
+      }
+      myCriticalPathCost = estimatedCost + maxDependentCost;
+    }
+
     public List<BuildChunkTask> markAsFinishedAndGetNextReadyTasks() {
       List<BuildChunkTask> nextTasks = new SmartList<BuildChunkTask>();
       for (BuildChunkTask task : myTasksDependsOnThis) {
@@ -564,13 +582,26 @@ public class IncProjectBuilder {
     }
   }
 
+  /**
+   * Tasks with the longest chain of dependent work go first; ties are resolved by the topological order of chunks
+   */
+  static final Comparator<BuildChunkTask> CRITICAL_PATH_FIRST = new Comparator<BuildChunkTask>() {
+    @Override
+    public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+      if (o1.myCriticalPathCost != o2.myCriticalPathCost) {
+        return o1.myCriticalPathCost > o2.myCriticalPathCost ? -1 : 1;
+      }
+      return o1.myIndex - o2.myIndex;
+    }
+  };
+
   private class BuildParallelizer {
-    private final BoundedTaskExecutor myParallelBuildExecutor =
-      new BoundedTaskExecutor(SharedThreadPool.getInstance(),
-                              Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())));
+    private final int myThreadCount = Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final BoundedTaskExecutor myParallelBuildExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), myThreadCount);
     private final CompileContext myContext;
     private final AtomicReference<Throwable> myException = new AtomicReference<Throwable>();
     private final Object myQueueLock = new Object();
+    private final PriorityQueue<BuildChunkTask> myReadyTasks = new PriorityQueue<BuildChunkTask>(11, CRITICAL_PATH_FIRST);
     private final CountDownLatch myTasksCountDown;
     private final List<BuildChunkTask> myTasks;
 
@@ -583,7 +614,7 @@ public class IncProjectBuilder {
       myTasks = new ArrayList<BuildChunkTask>(chunks.size());
       Map<BuildTarget<?>, BuildChunkTask> targetToTask = new THashMap<BuildTarget<?>, BuildChunkTask>();
       for (BuildTargetChunk chunk : chunks) {
-        BuildChunkTask task = new BuildChunkTask(chunk);
+        BuildChunkTask task = new BuildChunkTask(chunk, myTasks.size());
         myTasks.add(task);
         for (BuildTarget<?> target : chunk.getTargets()) {
           targetToTask.put(target, task);
@@ -601,9 +632,40 @@ public class IncProjectBuilder {
         }
       }
 
+      computeCriticalPathCosts();
       myTasksCountDown = new CountDownLatch(myTasks.size());
     }
 
+    private void computeCriticalPathCosts() {
+      final BuildTargetsState targetsState = myProjectDescriptor.getTargetsState();
+      long knownTimeSum = 0;
+      int knownTimeCount = 0;
+      for (BuildChunkTask task : myTasks) {
+        for (BuildTarget<?> target : task.getChunk().getTargets()) {
+          final long time = targetsState.getAverageBuildTime(target);
+          if (time >= 0) {
+            knownTimeSum += time;
+            knownTimeCount++;
+          }
+        }
+      }
+      // targets which were never built are assumed to be as expensive as an average target
+      final long defaultTime = knownTimeCount > 0 ? Math.max(1, knownTimeSum / knownTimeCount) : 1;
+
+      final CompileScope scope = myContext.getScope();
+      for (int i = myTasks.size() - 1; i >= 0; i--) {
+        final BuildChunkTask task = myTasks.get(i);
+        long cost = 0;
+        if (isAffected(scope, task.getChunk())) {
+          for (BuildTarget<?> target : task.getChunk().getTargets()) {
+            final long time = targetsState.getAverageBuildTime(target);
+            cost += time >= 0 ? time : defaultTime;
+          }
+        }
+        task.computeCriticalPathCost(cost);
+      }
+    }
+
     public void buildInParallel() throws IOException, ProjectBuildException {
       List<BuildChunkTask> initialTasks = new ArrayList<BuildChunkTask>();
       for (BuildChunkTask task : myTasks) {
@@ -630,33 +692,36 @@ public class IncProjectBuilder {
     }
 
     private void queueTasks(List<BuildChunkTask> tasks) {
-      List<BuildTargetChunk> chunksToLog = LOG.isDebugEnabled() ? new ArrayList<BuildTargetChunk>() : null;
-      for (BuildChunkTask task : tasks) {
-        if (chunksToLog != null) {
-          chunksToLog.add(task.getChunk());
-        }
-        queueTask(task);
+      List<BuildChunkTask> tasksToLog = LOG.isDebugEnabled() ? new ArrayList<BuildChunkTask>(tasks) : null;
+      synchronized (myQueueLock) {
+        myReadyTasks.addAll(tasks);
+      }
+      // each submitted runnable picks the most important task which is ready at the moment it is started
+      for (int i = 0; i < tasks.size(); i++) {
+        queueNextReadyTask();
       }
 
-      if (chunksToLog != null && !chunksToLog.isEmpty()) {
-        final StringBuilder logBuilder = new StringBuilder("Queuing " + chunksToLog.size() + " chunks in parallel: ");
-        Collections.sort(chunksToLog, new Comparator<BuildTargetChunk>() {
-          public int compare(final BuildTargetChunk o1, final BuildTargetChunk o2) {
-            return o1.toString().compareTo(o2.toString());
-          }
-        });
-        for (BuildTargetChunk chunk : chunksToLog) {
-          logBuilder.append(chunk.toString()).append("; ");
+      if (tasksToLog != null && !tasksToLog.isEmpty()) {
+        final StringBuilder logBuilder = new StringBuilder("Queuing " + tasksToLog.size() + " chunks in parallel: ");
+        Collections.sort(tasksToLog, CRITICAL_PATH_FIRST);
+        for (BuildChunkTask task : tasksToLog) {
+          logBuilder.append(task.getChunk().toString()).append(" (estimated ").append(task.myEstimatedCost)
+            .append("ms, critical path ").append(task.myCriticalPathCost).append("ms); ");
         }
         LOG.debug(logBuilder.toString());
       }
     }
 
-    private void queueTask(final BuildChunkTask task) {
+    private void queueNextReadyTask() {
       final CompileContext chunkLocalContext = createContextWrapper(myContext);
       myParallelBuildExecutor.execute(new Runnable() {
         @Override
         public void run() {
+          final BuildChunkTask task;
+          synchronized (myQueueLock) {
+            task = myReadyTasks.poll();
+          }
+          LOG.assertTrue(task != null, "No ready chunks in queue");
           try {
             try {
               if (myException.get() == null) {
@@ -691,7 +756,23 @@ public class IncProjectBuilder {
 
   private void buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk) throws ProjectBuildException {
     if (isAffected(scope, chunk)) {
-      buildTargetsChunk(context, chunk);
+      final long start = System.currentTimeMillis();
+      final BuildEventTrace.Event traceEvent = BuildEventTrace.start(BuildEventTrace.CHUNK, chunk.toString());
+      boolean doneSomething = false;
+      try {
+        doneSomething = buildTargetsChunk(context, chunk);
+      }
+      finally {
+        traceEvent.finish();
+        final long end = System.currentTimeMillis();
+        // up-to-date checks take almost no time, they must not replace the cost of the real build
+        if (doneSomething) {
+          final Set<? extends BuildTarget<?>> targets = chunk.getTargets();
+          for (BuildTarget<?> target : targets) {
+            myProjectDescriptor.getTargetsState().updateAverageBuildTime(target, (end - start) / targets.size());
+          }
+        }
+      }
     }
     else {
       updateDoneFraction(context, chunk.getTargets().size());
@@ -733,7 +814,13 @@ public class IncProjectBuilder {
 
     final List<TargetBuilder<?, ?>> builders = BuilderRegistry.getInstance().getTargetBuilders();
     for (TargetBuilder<?, ?> builder : builders) {
-      BuildOperations.buildTarget(target, context, builder);
+      final BuildEventTrace.Event traceEvent = BuildEventTrace.start(BuildEventTrace.BUILDER, builder.getPresentableName());
+      try {
+        BuildOperations.buildTarget(target, context, builder);
+      }
+      finally {
+        traceEvent.finish();
+      }
       updateDoneFraction(context, 1.0f / builders.size());
     }
     return true;
@@ -745,7 +832,10 @@ public class IncProjectBuilder {
     context.setDone(processed / myTotalTargetsWork);
   }
 
-  private void buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
+  /**
+   * @return true if the chunk wasn't up to date
+   */
+  private boolean buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
     boolean doneSomething;
     try {
       Utils.ERRORS_DETECTED_KEY.set(context, Boolean.FALSE);
@@ -758,10 +848,19 @@ public class IncProjectBuilder {
 
       myProjectDescriptor.fsState.beforeChunkBuildStart(context, chunk);
 
+      final ModuleBuildTarget cacheableTarget = getCacheableTarget(chunk);
+      if (cacheableTarget != null) {
+        doneSomething |= myOutputCache.restoreOutputs(context, cacheableTarget);
+      }
+
       doneSomething |= runBuildersForChunk(context, chunk);
 
       onChunkBuildComplete(context, chunk);
 
+      if (cacheableTarget != null) {
+        myOutputCache.storeOutputs(context, cacheableTarget);
+      }
+
       //if (doneSomething && GENERATE_CLASSPATH_INDEX) {
       //  myAsyncTasks.add(SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
       //    @Override
@@ -770,6 +869,7 @@ public class IncProjectBuilder {
       //    }
       //  }));
       //}
+      return doneSomething;
     }
     catch (ProjectBuildException e) {
       throw e;
@@ -806,6 +906,19 @@ public class IncProjectBuilder {
     }
   }
 
+  @Nullable
+  private ModuleBuildTarget getCacheableTarget(BuildTargetChunk chunk) {
+    if (myOutputCache == null) {
+      return null;
+    }
+    final Set<? extends BuildTarget<?>> targets = chunk.getTargets();
+    if (targets.size() != 1) {
+      return null;
+    }
+    final BuildTarget<?> target = targets.iterator().next();
+    return target instanceof ModuleBuildTarget ? (ModuleBuildTarget)target : null;
+  }
+
   private static void createClasspathIndex(final BuildTargetChunk chunk) {
     final Set<File> outputDirs = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
     for (BuildTarget<?> target : chunk.getTargets()) {
@@ -981,7 +1094,14 @@ public class IncProjectBuilder {
 
           for (ModuleLevelBuilder builder : builders) {
             processDeletedPaths(context, chunk.getTargets());
-            final ModuleLevelBuilder.ExitCode buildResult = builder.build(context, chunk, dirtyFilesHolder, outputConsumer);
+            final BuildEventTrace.Event traceEvent = BuildEventTrace.start(BuildEventTrace.BUILDER, builder.getPresentableName());
+            final ModuleLevelBuilder.ExitCode buildResult;
+            try {
+              buildResult = builder.build(context, chunk, dirtyFilesHolder, outputConsumer);
+            }
+            finally {
+              traceEvent.finish();
+            }
 
             doneSomething |= (buildResult != ModuleLevelBuilder.ExitCode.NOTHING_DONE);
 
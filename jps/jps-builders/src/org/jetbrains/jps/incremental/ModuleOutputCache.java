@@ -0,0 +1,433 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.asm4.ClassReader;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.ProjectPaths;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.builders.impl.DirtyFilesHolderBase;
+import org.jetbrains.jps.builders.java.JavaBuilderUtil;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
+import org.jetbrains.jps.builders.java.dependencyView.Mappings;
+import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.messages.FileGeneratedEvent;
+import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.incremental.storage.Timestamps;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerConfiguration;
+import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerOptions;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Local content-addressed cache of compiled module outputs. An entry is keyed by a digest of the target's sources,
+ * its configuration, compiler options, compilation classpath and the keys of the module targets it depends on,
+ * and holds a copy of the produced class files together with the source-to-output relation.
+ * Dependency information is not kept in the cache: it is recreated from the restored class files.
+ */
+class ModuleOutputCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.ModuleOutputCache");
+  private static final String FORMAT_VERSION = "1";
+  private static final String MANIFEST_FILE_NAME = "manifest.txt";
+  private static final String OUTPUTS_DIR_NAME = "out";
+  private static final String NOT_CACHEABLE = "";
+
+  private final File myCacheRoot;
+  // target -> its key for the current build, NOT_CACHEABLE if outputs of the target cannot be cached
+  private final Map<BuildTarget<?>, String> myFingerprints = Collections.synchronizedMap(new HashMap<BuildTarget<?>, String>());
+
+  private ModuleOutputCache(File cacheRoot) {
+    myCacheRoot = cacheRoot;
+  }
+
+  @Nullable
+  public static ModuleOutputCache create() {
+    final String path = System.getProperty(GlobalOptions.OUTPUT_CACHE_DIR_OPTION);
+    return StringUtil.isEmptyOrSpaces(path) ? null : new ModuleOutputCache(new File(path));
+  }
+
+  /**
+   * @return true if the outputs of the target were restored from the cache, false if the target has to be compiled
+   */
+  public boolean restoreOutputs(CompileContext context, ModuleBuildTarget target) throws ProjectBuildException {
+    final File outputDir = target.getOutputDir();
+    if (outputDir == null || !hasFilesToRecompile(context, target)) {
+      return false;
+    }
+    final String fingerprint;
+    try {
+      fingerprint = getFingerprint(context, target, new THashSet<BuildTarget<?>>());
+    }
+    catch (IOException e) {
+      LOG.info("Cannot compute output cache key for " + target, e);
+      return false;
+    }
+    if (fingerprint == null) {
+      return false;
+    }
+    final File entryDir = new File(myCacheRoot, fingerprint);
+    final File manifestFile = new File(entryDir, MANIFEST_FILE_NAME);
+    if (!manifestFile.isFile()) {
+      return false;
+    }
+
+    context.processMessage(new ProgressMessage("Restoring outputs of " + target.getPresentableName() + " from cache"));
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    try {
+      final Map<String, List<String>> entries = loadManifest(manifestFile);
+
+      IncProjectBuilder.clearOutputFiles(context, target);
+      final SourceToOutputMapping mapping = pd.dataManager.getSourceToOutputMap(target);
+      for (String source : new ArrayList<String>(mapping.getSources())) {
+        if (!entries.containsKey(source)) {
+          mapping.remove(source);
+        }
+      }
+
+      final Mappings delta = pd.dataManager.getMappings().createDelta();
+      final Callbacks.Backend callback = delta.getCallback();
+      final File outputsDir = new File(entryDir, OUTPUTS_DIR_NAME);
+      final FileGeneratedEvent generatedEvent = new FileGeneratedEvent();
+      final Set<File> restoredSources = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+      for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+        final String source = entry.getKey();
+        final List<String> outputs = new ArrayList<String>(entry.getValue().size());
+        for (String relativePath : entry.getValue()) {
+          final File output = new File(outputDir, relativePath);
+          FileUtil.copyContent(new File(outputsDir, relativePath), output);
+          outputs.add(output.getPath());
+          generatedEvent.add(outputDir.getPath(), relativePath);
+          if (relativePath.endsWith(".class")) {
+            final ClassReader reader = new ClassReader(FileUtil.loadFileBytes(output));
+            callback.associate(FileUtil.toSystemIndependentName(output.getPath()), FileUtil.toSystemIndependentName(source), reader);
+          }
+        }
+        mapping.setOutputs(source, outputs);
+        restoredSources.add(new File(source));
+      }
+      context.processMessage(generatedEvent);
+
+      // sources are up-to-date now; files affected by the restored classes will be marked dirty by the dependency analysis
+      final Timestamps timestamps = pd.timestamps.getStorage();
+      for (BuildRootDescriptor rd : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+        pd.fsState.markAllUpToDate(context, rd, timestamps);
+      }
+      final ModuleChunk chunk = new ModuleChunk(Collections.singleton(target));
+      JavaBuilderUtil.updateMappings(context, delta, createDirtyFilesHolder(context, chunk), chunk, restoredSources, restoredSources);
+
+      LOG.info("Outputs of " + target + " restored from cache entry " + fingerprint);
+      return true;
+    }
+    catch (IOException e) {
+      markTargetDirty(context, target, e);
+    }
+    catch (RuntimeException e) {
+      // corrupted class file in the cache entry
+      markTargetDirty(context, target, e);
+    }
+    return false;
+  }
+
+  public void storeOutputs(CompileContext context, ModuleBuildTarget target) {
+    if (Utils.errorsDetected(context) || context.getCancelStatus().isCanceled()) {
+      return;
+    }
+    final String fingerprint = myFingerprints.get(target);
+    final File outputDir = target.getOutputDir();
+    if (fingerprint == null || NOT_CACHEABLE.equals(fingerprint) || outputDir == null) {
+      return;
+    }
+    if (hasFilesToRecompile(context, target)) {
+      // sources were changed during compilation, the outputs do not correspond to the key
+      return;
+    }
+    final File entryDir = new File(myCacheRoot, fingerprint);
+    if (entryDir.exists()) {
+      return;
+    }
+
+    final File tempDir = new File(myCacheRoot, fingerprint + ".tmp" + Thread.currentThread().getId());
+    try {
+      final File outputsDir = new File(tempDir, OUTPUTS_DIR_NAME);
+      final StringBuilder manifest = new StringBuilder();
+      final SourceToOutputMapping mapping = context.getProjectDescriptor().dataManager.getSourceToOutputMap(target);
+      for (String source : mapping.getSources()) {
+        manifest.append(source).append('\n');
+        final Collection<String> outputs = mapping.getOutputs(source);
+        if (outputs != null) {
+          for (String output : outputs) {
+            final File outputFile = new File(output);
+            if (!FileUtil.isAncestor(outputDir, outputFile, true)) {
+              LOG.debug("Outputs of " + target + " are not cached: " + output + " is outside of the output directory");
+              return;
+            }
+            final String relativePath = FileUtil.toSystemIndependentName(FileUtil.getRelativePath(outputDir, outputFile));
+            FileUtil.copy(outputFile, new File(outputsDir, relativePath));
+            manifest.append('\t').append(relativePath).append('\n');
+          }
+        }
+      }
+      FileUtil.writeToFile(new File(tempDir, MANIFEST_FILE_NAME), manifest.toString());
+      if (tempDir.renameTo(entryDir)) {
+        LOG.info("Outputs of " + target + " stored in cache entry " + fingerprint);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store outputs of " + target + " in cache", e);
+    }
+    finally {
+      if (tempDir.exists()) {
+        FileUtil.delete(tempDir);
+      }
+    }
+  }
+
+  private static void markTargetDirty(CompileContext context, ModuleBuildTarget target, Exception cause) throws ProjectBuildException {
+    LOG.info("Cannot restore outputs of " + target + " from cache, the target will be compiled", cause);
+    try {
+      IncProjectBuilder.clearOutputFiles(context, target);
+      FSOperations.markDirtyFiles(context, target, context.getProjectDescriptor().timestamps.getStorage(), true, null, null);
+    }
+    catch (IOException e) {
+      throw new ProjectBuildException(e);
+    }
+  }
+
+  private static boolean hasFilesToRecompile(CompileContext context, ModuleBuildTarget target) {
+    final Map<BuildRootDescriptor, Set<File>> sources = context.getProjectDescriptor().fsState.getSourcesToRecompile(context, target);
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+    synchronized (sources) {
+      for (Set<File> files : sources.values()) {
+        if (!files.isEmpty()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> createDirtyFilesHolder(final CompileContext context,
+                                                                                                   final ModuleChunk chunk) {
+    return new DirtyFilesHolderBase<JavaSourceRootDescriptor, ModuleBuildTarget>(context) {
+      @Override
+      public void processDirtyFiles(@NotNull FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget> processor) throws IOException {
+        FSOperations.processFilesToRecompile(context, chunk, processor);
+      }
+    };
+  }
+
+  private static Map<String, List<String>> loadManifest(File manifestFile) throws IOException {
+    final Map<String, List<String>> entries = new LinkedHashMap<String, List<String>>();
+    List<String> current = null;
+    for (String line : StringUtil.splitByLines(FileUtil.loadFile(manifestFile))) {
+      if (line.startsWith("\t")) {
+        if (current == null) {
+          throw new IOException("Malformed cache manifest " + manifestFile.getPath());
+        }
+        current.add(line.substring(1));
+      }
+      else {
+        current = new ArrayList<String>();
+        entries.put(line, current);
+      }
+    }
+    return entries;
+  }
+
+  @Nullable
+  private String getFingerprint(CompileContext context, ModuleBuildTarget target, Set<BuildTarget<?>> visited) throws IOException {
+    final String known = myFingerprints.get(target);
+    if (known != null) {
+      return NOT_CACHEABLE.equals(known) ? null : known;
+    }
+    if (!visited.add(target)) {
+      // circular dependency
+      return null;
+    }
+    final String fingerprint = computeFingerprint(context, target, visited);
+    myFingerprints.put(target, fingerprint != null ? fingerprint : NOT_CACHEABLE);
+    return fingerprint;
+  }
+
+  @Nullable
+  private String computeFingerprint(CompileContext context, ModuleBuildTarget target, Set<BuildTarget<?>> visited) throws IOException {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final MessageDigest digest = createDigest();
+    update(digest, FORMAT_VERSION);
+    update(digest, target.getTargetType().getTypeId());
+    update(digest, target.getId());
+
+    final StringWriter configuration = new StringWriter();
+    target.writeConfiguration(new PrintWriter(configuration), pd.dataManager.getDataPaths(), pd.getBuildRootIndex());
+    update(digest, configuration.toString());
+
+    final JpsJavaCompilerConfiguration compilerConfiguration =
+      JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(pd.getProject());
+    final JpsJavaCompilerOptions options = compilerConfiguration.getCurrentCompilerOptions();
+    update(digest, compilerConfiguration.getJavaCompilerId());
+    update(digest, String.valueOf(compilerConfiguration.isAddNotNullAssertions()));
+    update(digest, options.DEBUGGING_INFO + ";" + options.GENERATE_NO_WARNINGS + ";" + options.DEPRECATION + ";" + options.ADDITIONAL_OPTIONS_STRING);
+
+    // module dependencies contribute their own keys, so a change in a dependency changes the key of all dependent targets
+    // outputs of module targets are described by their keys and mustn't be hashed, they are changed by the build itself
+    final Set<File> moduleOutputs = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+    ContainerUtil.addIfNotNull(target.getOutputDir(), moduleOutputs);
+    for (BuildTarget<?> dependency : pd.getBuildTargetIndex().getDependencies(target, context)) {
+      if (dependency instanceof ResourcesTarget) {
+        // resources are copied by their own target and aren't among the outputs of the module target
+        continue;
+      }
+      if (!(dependency instanceof ModuleBuildTarget)) {
+        return null;
+      }
+      final String dependencyFingerprint = getFingerprint(context, (ModuleBuildTarget)dependency, visited);
+      if (dependencyFingerprint == null) {
+        return null;
+      }
+      update(digest, dependencyFingerprint);
+      ContainerUtil.addIfNotNull(((ModuleBuildTarget)dependency).getOutputDir(), moduleOutputs);
+    }
+    // library jars and class directories are not hashed by content, sizes and timestamps of their files are used instead
+    final ModuleChunk chunk = new ModuleChunk(Collections.singleton(target));
+    for (File file : ProjectPaths.getCompilationClasspathFiles(chunk, target.isTests(), false, false)) {
+      update(digest, file.getPath());
+      if (file.isFile()) {
+        update(digest, file.length() + ";" + file.lastModified());
+      }
+      else if (file.isDirectory() && !moduleOutputs.contains(file)) {
+        updateWithDirectoryStamps(digest, file, "");
+      }
+    }
+
+    final SortedMap<String, File> sources = new TreeMap<String, File>();
+    for (JavaSourceRootDescriptor rd : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+      if (rd.isTemp) {
+        continue;
+      }
+      if (rd.isGeneratedSources) {
+        // generated sources are produced by the build itself and are not restored from the cache
+        return null;
+      }
+      final FileFilter filter = pd.getBuildRootIndex().getRootFilter(rd, pd);
+      if (!collectSources(context, rd, rd.getRootFile(), filter, sources)) {
+        return null;
+      }
+    }
+    final byte[] buffer = new byte[8 * 1024];
+    for (Map.Entry<String, File> entry : sources.entrySet()) {
+      update(digest, entry.getKey());
+      final InputStream in = new FileInputStream(entry.getValue());
+      try {
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    return toHexString(digest.digest());
+  }
+
+  private static void updateWithDirectoryStamps(MessageDigest digest, File dir, String relativePath) {
+    final File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      final String childPath = relativePath + "/" + child.getName();
+      if (child.isDirectory()) {
+        updateWithDirectoryStamps(digest, child, childPath);
+      }
+      else {
+        update(digest, childPath);
+        update(digest, child.length() + ";" + child.lastModified());
+      }
+    }
+  }
+
+  private static boolean collectSources(CompileContext context, JavaSourceRootDescriptor rd, File file, FileFilter filter,
+                                        Map<String, File> sources) {
+    if (context.getProjectDescriptor().getIgnoredFileIndex().isIgnored(file.getName())) {
+      return true;
+    }
+    final File[] children = file.listFiles();
+    if (children != null) {
+      if (!rd.getExcludedRoots().contains(file)) {
+        for (File child : children) {
+          if (!collectSources(context, rd, child, filter, sources)) {
+            return false;
+          }
+        }
+      }
+    }
+    else if (file.isFile() && filter.accept(file)) {
+      if (!context.getScope().isAffected(rd.target, file)) {
+        // only a part of the target is being compiled
+        return false;
+      }
+      sources.put(FileUtil.toSystemIndependentName(file.getPath()), file);
+    }
+    return true;
+  }
+
+  private static MessageDigest createDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static void update(MessageDigest digest, @Nullable String value) {
+    if (value != null) {
+      try {
+        digest.update(value.getBytes("UTF-8"));
+      }
+      catch (UnsupportedEncodingException ignored) {
+      }
+    }
+    digest.update((byte)0);
+  }
+
+  private static String toHexString(byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
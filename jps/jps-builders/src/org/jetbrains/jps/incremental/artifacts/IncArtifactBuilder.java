@@ -19,6 +19,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -48,6 +49,7 @@ import java.util.*;
  */
 public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, ArtifactBuildTarget> {
   public static final String BUILDER_NAME = "Artifacts builder";
+  private static final String PREVIOUS_JARS_DIR_NAME = "previous-jars";
 
   public IncArtifactBuilder() {
     super(Collections.singletonList(ArtifactBuildTargetType.INSTANCE));
@@ -124,6 +126,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
+      final Map<String, File> previousJars = preserveJarsToRebuild(context, target, changedOutputPaths, filesToDelete.keySet());
       BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
       for (String outputPath : changedOutputPaths) {
         outSrcMapping.remove(outputPath);
@@ -159,8 +162,11 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousJars);
       builder.buildJars();
+      for (File previousJar : previousJars.values()) {
+        FileUtil.delete(previousJar);
+      }
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
@@ -168,6 +174,38 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
   }
 
+  /**
+   * Moves jars which are going to be rebuilt to the target data directory, so {@link JarsBuilder} can copy unchanged entries from them.
+   * If a jar cannot be moved it is deleted as usual and built from scratch.
+   */
+  private static Map<String, File> preserveJarsToRebuild(CompileContext context, ArtifactBuildTarget target,
+                                                         Collection<String> changedOutputPaths, Collection<String> outputPathsToDelete) {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final File previousJarsDir = new File(pd.dataManager.getDataPaths().getTargetDataRoot(target), PREVIOUS_JARS_DIR_NAME);
+    FileUtil.delete(previousJarsDir);
+
+    final Set<String> jarPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor descriptor : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+      if (descriptor.getDestinationInfo() instanceof JarDestinationInfo) {
+        jarPaths.add(descriptor.getDestinationInfo().getOutputFilePath());
+      }
+    }
+    final Map<String, File> previousJars = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (Collection<String> outputPaths : Arrays.asList(changedOutputPaths, outputPathsToDelete)) {
+      for (String outputPath : outputPaths) {
+        final String jarPath = FileUtil.toSystemIndependentName(outputPath);
+        if (jarPaths.contains(jarPath) && !previousJars.containsKey(jarPath)) {
+          final File jarFile = new File(FileUtil.toSystemDependentName(jarPath));
+          final File previousJar = new File(previousJarsDir, previousJars.size() + ".jar");
+          if (jarFile.isFile() && FileUtil.createParentDirs(previousJar) && jarFile.renameTo(previousJar)) {
+            previousJars.put(jarPath, previousJar);
+          }
+        }
+      }
+    }
+    return previousJars;
+  }
+
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
     throws ProjectBuildException {
     for (ArtifactBuildTaskProvider provider : JpsServiceManager.getInstance().getExtensions(ArtifactBuildTaskProvider.class)) {
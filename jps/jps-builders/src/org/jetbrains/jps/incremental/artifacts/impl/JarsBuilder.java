@@ -26,7 +26,7 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
-import com.intellij.util.io.ZipUtil;
+import com.intellij.util.io.zip.JBZipEntry;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -45,10 +45,9 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import java.io.*;
 import java.util.*;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 /**
  * @author nik
@@ -60,11 +59,17 @@ public class JarsBuilder {
   private Map<JarInfo, File> myBuiltJars;
   private final BuildOutputConsumer myOutputConsumer;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
+  private final Map<String, File> myPreviousJars;
+  private final Map<JarInfo, File> myPreviousNestedJars = new HashMap<JarInfo, File>();
 
+  /**
+   * @param previousJars output path of a jar -> previous version of the jar; unchanged entries are copied from it without recompression
+   */
   public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
-                     ArtifactOutputToSourceMapping outSrcMapping) {
+                     ArtifactOutputToSourceMapping outSrcMapping, Map<String, File> previousJars) {
     myOutputConsumer = outputConsumer;
     myOutSrcMapping = outSrcMapping;
+    myPreviousJars = previousJars;
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
     for (JarInfo jarInfo : jarsToBuild) {
       evaluator.addJarWithDependencies(jarInfo);
@@ -103,6 +108,11 @@ public class JarsBuilder {
     for (File file : myBuiltJars.values()) {
       FileUtil.delete(file);
     }
+    for (File file : myPreviousNestedJars.values()) {
+      if (file != null) {
+        FileUtil.delete(file);
+      }
+    }
   }
 
   private void copyJars() throws IOException {
@@ -148,12 +158,16 @@ public class JarsBuilder {
     FileUtil.createParentDirs(jarFile);
     final String targetJarPath = jar.getDestination().getOutputFilePath();
     List<String> packedFilePaths = new ArrayList<String>();
-    Manifest manifest = loadManifest(jar, packedFilePaths);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    final Ref<Long> manifestTimestamp = Ref.create(null);
+    Manifest manifest = loadManifest(jar, packedFilePaths, manifestTimestamp);
+    final ParallelJarWriter jarWriter = new ParallelJarWriter(jarFile, getPreviousJarFile(jar));
 
     final THashSet<String> writtenPaths = new THashSet<String>();
     try {
       if (manifest != null) {
+        final ByteArrayOutputStream manifestContent = new ByteArrayOutputStream();
+        manifest.write(manifestContent);
+        jarWriter.addBytes(JarFile.MANIFEST_NAME, manifestContent.toByteArray(), manifestTimestamp.get());
         writtenPaths.add(JarFile.MANIFEST_NAME);
       }
 
@@ -163,7 +177,7 @@ public class JarsBuilder {
           final ArtifactRootDescriptor descriptor = (ArtifactRootDescriptor)pair.getSecond();
           final int rootIndex = descriptor.getRootIndex();
           if (descriptor instanceof FileBasedArtifactRootDescriptor) {
-            addFileToJar(jarOutputStream, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, writtenPaths,
+            addFileToJar(jarWriter, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, writtenPaths,
                          packedFilePaths, rootIndex);
           }
           else {
@@ -171,14 +185,14 @@ public class JarsBuilder {
             packedFilePaths.add(filePath);
             myOutSrcMapping.appendData(targetJarPath, Collections
               .singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
-            extractFileAndAddToJar(jarOutputStream, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
+            extractFileAndAddToJar(jarWriter, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
           }
         }
         else {
           JarInfo nestedJar = (JarInfo)pair.getSecond();
           File nestedJarFile = myBuiltJars.get(nestedJar);
           if (nestedJarFile != null) {
-            addFileToJar(jarOutputStream, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, writtenPaths,
+            addFileToJar(jarWriter, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, writtenPaths,
                          packedFilePaths, -1);
           }
           else {
@@ -192,6 +206,8 @@ public class JarsBuilder {
         return;
       }
 
+      jarWriter.write();
+
       final ProjectBuilderLogger logger = myContext.getLoggingManager().getProjectBuilderLogger();
       if (logger.isEnabled()) {
         logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
@@ -200,31 +216,81 @@ public class JarsBuilder {
 
     }
     finally {
+      jarWriter.closeSourceArchives();
       if (writtenPaths.isEmpty()) {
-        try {
-          jarOutputStream.close();
-        }
-        catch (IOException ignored) {
-        }
         FileUtil.delete(jarFile);
         myBuiltJars.remove(jar);
       }
-      else {
-        jarOutputStream.close();
-      }
     }
   }
 
-  private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
-    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
-    if (manifest != null) {
-      return new JarOutputStream(outputStream, manifest);
+  /**
+   * @return previous version of the jar, for a jar nested into another jar it's extracted from the previous version of the outer jar
+   */
+  @Nullable
+  private File getPreviousJarFile(JarInfo jar) {
+    final DestinationInfo destination = jar.getDestination();
+    if (destination instanceof ExplodedDestinationInfo) {
+      return myPreviousJars.get(destination.getOutputFilePath());
+    }
+    if (myPreviousNestedJars.containsKey(jar)) {
+      return myPreviousNestedJars.get(jar);
+    }
+
+    File previousJar = null;
+    final JarDestinationInfo jarDestination = (JarDestinationInfo)destination;
+    final File previousOuterJar = getPreviousJarFile(jarDestination.getJarInfo());
+    if (previousOuterJar != null) {
+      previousJar = extractNestedJar(previousOuterJar, JpsArtifactPathUtil.trimForwardSlashes(jarDestination.getPathInJar()));
+    }
+    myPreviousNestedJars.put(jar, previousJar);
+    return previousJar;
+  }
+
+  @Nullable
+  private static File extractNestedJar(File outerJar, String pathInJar) {
+    File nestedJar = null;
+    try {
+      final ZipFile zipFile = new ZipFile(outerJar);
+      try {
+        final ZipEntry entry = zipFile.getEntry(pathInJar);
+        if (entry == null || entry.isDirectory()) {
+          return null;
+        }
+        nestedJar = FileUtil.createTempFile("artifactCompiler", "tmp");
+        final InputStream input = zipFile.getInputStream(entry);
+        try {
+          final OutputStream output = new FileOutputStream(nestedJar);
+          try {
+            FileUtil.copy(input, output);
+          }
+          finally {
+            output.close();
+          }
+        }
+        finally {
+          input.close();
+        }
+        return nestedJar;
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot extract previous version of " + pathInJar + " from " + outerJar + ": " + e.getMessage());
+      if (nestedJar != null) {
+        FileUtil.delete(nestedJar);
+      }
+      return null;
     }
-    return new JarOutputStream(outputStream);
   }
 
+  /**
+   * @param manifestTimestamp is set to the timestamp of the file the manifest is loaded from
+   */
   @Nullable
-  private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths) throws IOException {
+  private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths, Ref<Long> manifestTimestamp) throws IOException {
     for (Pair<String, Object> pair : jar.getContent()) {
       if (pair.getSecond() instanceof ArtifactRootDescriptor) {
         final String rootPath = pair.getFirst();
@@ -238,6 +304,7 @@ public class JarsBuilder {
           if (manifestFile.exists()) {
             final String fullManifestPath = FileUtil.toSystemIndependentName(manifestFile.getAbsolutePath());
             packedFilePaths.add(fullManifestPath);
+            manifestTimestamp.set(FileSystemUtil.lastModified(manifestFile));
             //noinspection IOResourceOpenedButNotSafelyClosed
             return createManifest(new FileInputStream(manifestFile), manifestFile);
           }
@@ -253,6 +320,7 @@ public class JarsBuilder {
             }
           });
           if (!manifestRef.isNull()) {
+            manifestTimestamp.set(FileSystemUtil.lastModified(descriptor.getRootFile()));
             return manifestRef.get();
           }
         }
@@ -279,48 +347,39 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
+  private static void extractFileAndAddToJar(final ParallelJarWriter jarWriter, final JarBasedArtifactRootDescriptor root,
                                              final String relativeOutputPath, final Set<String> writtenPaths)
     throws IOException {
     final long timestamp = FileSystemUtil.lastModified(root.getRootFile());
-    root.processEntries(new JarBasedArtifactRootDescriptor.EntryProcessor() {
+    // entries are copied without decompression
+    root.processEntries(jarWriter.openSourceArchive(root.getRootFile()), new JarBasedArtifactRootDescriptor.CompressedEntryProcessor() {
       @Override
-      public void process(@Nullable InputStream inputStream, @NotNull String relativePath, ZipEntry entry) throws IOException {
-        String pathInJar = addParentDirectories(jarOutputStream, writtenPaths, JpsArtifactPathUtil
-          .appendToPath(relativeOutputPath, relativePath));
+      public void process(@NotNull String relativePath, @NotNull JBZipEntry entry) throws IOException {
+        String pathInJar = addParentDirectories(jarWriter, writtenPaths, JpsArtifactPathUtil.appendToPath(relativeOutputPath, relativePath));
 
-        if (inputStream == null) {
-          addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
+        if (entry.isDirectory()) {
+          addDirectoryEntry(jarWriter, pathInJar + "/", writtenPaths);
         }
         else if (writtenPaths.add(pathInJar)) {
-          ZipEntry newEntry = new ZipEntry(pathInJar);
-          newEntry.setTime(timestamp);
-          if (entry.getMethod() == ZipEntry.STORED) {
-            newEntry.setMethod(ZipEntry.STORED);
-            newEntry.setSize(entry.getSize());
-            newEntry.setCrc(entry.getCrc());
-          }
-          jarOutputStream.putNextEntry(newEntry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+          jarWriter.addArchiveEntry(pathInJar, entry, timestamp);
         }
       }
     });
 
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
+  private void addFileToJar(final @NotNull ParallelJarWriter jarWriter, final @NotNull File jarFile, @NotNull File file,
                             SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
                             final @NotNull Set<String> writtenPaths, List<String> packedFilePaths, final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
       return;
     }
 
-    relativePath = addParentDirectories(jarOutputStream, writtenPaths, relativePath);
-    addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
+    relativePath = addParentDirectories(jarWriter, writtenPaths, relativePath);
+    addFileOrDirRecursively(jarWriter, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull ParallelJarWriter jarWriter,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
@@ -336,19 +395,22 @@ public class JarsBuilder {
     if (file.isDirectory()) {
       final String directoryPath = relativePath.length() == 0 ? "" : relativePath + "/";
       if (!directoryPath.isEmpty()) {
-        addDirectoryEntry(jarOutputStream, directoryPath, writtenItemRelativePaths);
+        addDirectoryEntry(jarWriter, directoryPath, writtenItemRelativePaths);
       }
       final File[] children = file.listFiles();
       if (children != null) {
         for (File child : children) {
-          addFileOrDirRecursively(jarOutputStream, child, filter, directoryPath + child.getName(), targetJarPath, writtenItemRelativePaths,
+          addFileOrDirRecursively(jarWriter, child, filter, directoryPath + child.getName(), targetJarPath, writtenItemRelativePaths,
                                   packedFilePaths, rootIndex);
         }
       }
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    final boolean added = writtenItemRelativePaths.add(relativePath);
+    if (added) {
+      jarWriter.addFile(relativePath, file);
+    }
     if (rootIndex != -1) {
       myOutSrcMapping.appendData(targetJarPath, Collections.singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
       if (added) {
@@ -358,7 +420,7 @@ public class JarsBuilder {
   }
 
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
+  private static String addParentDirectories(ParallelJarWriter jarWriter, Set<String> writtenPaths, String relativePath) {
     while (StringUtil.startsWithChar(relativePath, '/')) {
       relativePath = relativePath.substring(1);
     }
@@ -366,22 +428,17 @@ public class JarsBuilder {
     while (i != -1) {
       String prefix = relativePath.substring(0, i+1);
       if (prefix.length() > 1) {
-        addDirectoryEntry(jarOutputStream, prefix, writtenPaths);
+        addDirectoryEntry(jarWriter, prefix, writtenPaths);
       }
       i = relativePath.indexOf('/', i + 1);
     }
     return relativePath;
   }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
+  private static void addDirectoryEntry(final ParallelJarWriter jarWriter, @NonNls final String relativePath, Set<String> writtenPaths) {
     if (!writtenPaths.add(relativePath)) return;
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+    jarWriter.addDirectory(relativePath);
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
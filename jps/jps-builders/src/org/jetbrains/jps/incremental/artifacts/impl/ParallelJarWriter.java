@@ -0,0 +1,343 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a jar file, compressing the content of files on pooled threads. Data of entries taken from other archives and data of
+ * entries which are equal to the corresponding entries of the previous version of the jar is copied as is, without recompression.
+ * <p/>
+ * Files compressed ahead of the writer are kept in memory, so their total size is bounded. Large files are compressed on the writer
+ * thread by chunks, and copied data is never loaded to memory as a whole.
+ *
+ * @see JarsBuilder
+ */
+class ParallelJarWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.impl.ParallelJarWriter");
+  private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  private static final int MAX_PENDING_ENTRIES = THREAD_COUNT * 4;
+  private static final long MAX_PENDING_BYTES = 32 * 1024 * 1024;
+  static final long LARGE_FILE_SIZE = 4 * 1024 * 1024;
+  /**
+   * Directory entries get a fixed timestamp (which is written as the earliest date a zip file can hold), so the bytes of a jar depend
+   * only on the packed files. Otherwise a jar nested into another jar would never be equal to its previous version.
+   */
+  private static final long DIRECTORY_TIMESTAMP = 0;
+  private final File myJarFile;
+  @Nullable private final File myPreviousJarFile;
+  private final List<EntryData> myEntries = new ArrayList<EntryData>();
+  private final Map<File, JBZipFile> mySourceArchives = new HashMap<File, JBZipFile>();
+  private int myReusedEntriesCount;
+
+  /**
+   * @param previousJarFile previous version of the jar, entries which are not changed will be copied from it
+   */
+  public ParallelJarWriter(@NotNull File jarFile, @Nullable File previousJarFile) {
+    myJarFile = jarFile;
+    myPreviousJarFile = previousJarFile;
+  }
+
+  public void addDirectory(@NotNull String path) {
+    myEntries.add(new EntryData(path, DIRECTORY_TIMESTAMP, null, 0, null, null));
+  }
+
+  public void addBytes(@NotNull String path, @NotNull byte[] content, long timestamp) {
+    myEntries.add(new EntryData(path, timestamp, null, 0, content, null));
+  }
+
+  public void addFile(@NotNull String path, @NotNull File file) {
+    myEntries.add(new EntryData(path, file.lastModified(), file, file.length(), null, null));
+  }
+
+  /**
+   * @param entry entry of an archive opened by {@link #openSourceArchive(File)}
+   */
+  public void addArchiveEntry(@NotNull String path, @NotNull JBZipEntry entry, long timestamp) {
+    myEntries.add(new EntryData(path, timestamp, null, 0, null, entry));
+  }
+
+  /**
+   * Opens an archive for reading. The archive is kept open until the jar is written.
+   */
+  @NotNull
+  public JBZipFile openSourceArchive(@NotNull File archive) throws IOException {
+    JBZipFile zipFile = mySourceArchives.get(archive);
+    if (zipFile == null) {
+      zipFile = new JBZipFile(archive, "UTF-8", true);
+      mySourceArchives.put(archive, zipFile);
+    }
+    return zipFile;
+  }
+
+  public void write() throws IOException {
+    final JBZipFile previousJar = openPreviousJar();
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), THREAD_COUNT);
+    final Map<EntryData, Future<CompressedData>> pending = new HashMap<EntryData, Future<CompressedData>>();
+    final JBZipFile jar = new JBZipFile(myJarFile);
+    try {
+      int submitted = 0;
+      long pendingBytes = 0;
+      for (int i = 0; i < myEntries.size(); i++) {
+        // keep the pool busy while entries are written in their original order
+        // and the total size of files loaded to memory ahead of the writer is bounded
+        while (submitted < myEntries.size() && submitted < i + MAX_PENDING_ENTRIES
+               && (submitted == i || pendingBytes < MAX_PENDING_BYTES)) {
+          final EntryData data = myEntries.get(submitted++);
+          if (data.myFile != null && data.myFileLength <= LARGE_FILE_SIZE) {
+            pending.put(data, executor.submit(new CompressFileTask(data.myFile, getPreviousEntry(previousJar, data.myPath))));
+            pendingBytes += data.myFileLength;
+          }
+        }
+
+        final EntryData data = myEntries.get(i);
+        final JBZipEntry entry = jar.getOrCreateEntry(data.myPath);
+        entry.setTime(data.myTimestamp);
+        if (data.myArchiveEntry != null) {
+          copyEntry(data.myArchiveEntry, entry);
+        }
+        else if (data.myContent != null) {
+          entry.setMethod(ZipEntry.DEFLATED);
+          entry.setData(data.myContent);
+        }
+        else if (data.myFile != null && data.myFileLength > LARGE_FILE_SIZE) {
+          writeLargeFile(data.myFile, getPreviousEntry(previousJar, data.myPath), entry);
+        }
+        else if (data.myFile != null) {
+          final CompressedData compressed = getResult(pending.remove(data));
+          pendingBytes -= data.myFileLength;
+          if (compressed.myPreviousEntry != null) {
+            myReusedEntriesCount++;
+            copyEntry(compressed.myPreviousEntry, entry);
+          }
+          else {
+            entry.setMethod(compressed.myMethod);
+            entry.setCompressedData(compressed.myBytes, compressed.myLength, compressed.mySize, compressed.myCrc);
+          }
+        }
+        else {
+          entry.setMethod(ZipEntry.STORED);
+          entry.setData(new byte[0]);
+        }
+      }
+    }
+    finally {
+      for (Future<CompressedData> future : pending.values()) {
+        future.cancel(false);
+      }
+      jar.close();
+      if (previousJar != null) {
+        previousJar.close();
+      }
+      closeSourceArchives();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(myJarFile + ": " + myEntries.size() + " entries written, " + myReusedEntriesCount + " copied from the previous version");
+    }
+  }
+
+  int getReusedEntriesCount() {
+    return myReusedEntriesCount;
+  }
+
+  public void closeSourceArchives() {
+    for (JBZipFile zipFile : mySourceArchives.values()) {
+      try {
+        zipFile.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+    mySourceArchives.clear();
+  }
+
+  @Nullable
+  private JBZipFile openPreviousJar() {
+    if (myPreviousJarFile == null || !myPreviousJarFile.isFile()) {
+      return null;
+    }
+    try {
+      return new JBZipFile(myPreviousJarFile, "UTF-8", true);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read previous version of " + myJarFile + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private static JBZipEntry getPreviousEntry(@Nullable JBZipFile previousJar, String path) {
+    return previousJar != null ? previousJar.getEntry(path) : null;
+  }
+
+  private void writeLargeFile(File file, @Nullable JBZipEntry previousEntry, JBZipEntry entry) throws IOException {
+    if (previousEntry != null && previousEntry.getSize() == file.length() && previousEntry.getCrc() == computeCrc(file)) {
+      myReusedEntriesCount++;
+      copyEntry(previousEntry, entry);
+      return;
+    }
+
+    entry.setMethod(ZipEntry.DEFLATED);
+    final InputStream input = new FileInputStream(file);
+    try {
+      entry.setData(input);
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  private static long computeCrc(File file) throws IOException {
+    final CRC32 crc = new CRC32();
+    final byte[] buffer = new byte[64 * 1024];
+    final InputStream input = new FileInputStream(file);
+    try {
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    finally {
+      input.close();
+    }
+    return crc.getValue();
+  }
+
+  private static void copyEntry(JBZipEntry from, JBZipEntry to) throws IOException {
+    final int method = from.getMethod();
+    if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+      to.setCompressedData(from);
+    }
+    else {
+      to.setMethod(ZipEntry.DEFLATED);
+      to.setData(from.getData());
+    }
+  }
+
+  private static CompressedData getResult(Future<CompressedData> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e.getMessage());
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new IOException(cause != null ? cause.getMessage() : e.getMessage());
+    }
+  }
+
+  private static class EntryData {
+    private final String myPath;
+    private final long myTimestamp;
+    @Nullable private final File myFile;
+    private final long myFileLength;
+    @Nullable private final byte[] myContent;
+    @Nullable private final JBZipEntry myArchiveEntry;
+
+    private EntryData(String path, long timestamp, @Nullable File file, long fileLength, @Nullable byte[] content,
+                      @Nullable JBZipEntry archiveEntry) {
+      myPath = path;
+      myTimestamp = timestamp;
+      myFile = file;
+      myFileLength = fileLength;
+      myContent = content;
+      myArchiveEntry = archiveEntry;
+    }
+  }
+
+  private static class CompressedData {
+    private final int myMethod;
+    private final byte[] myBytes;
+    private final int myLength;
+    private final long mySize;
+    private final long myCrc;
+    @Nullable private final JBZipEntry myPreviousEntry;
+
+    private CompressedData(int method, byte[] bytes, int length, long size, long crc, @Nullable JBZipEntry previousEntry) {
+      myMethod = method;
+      myBytes = bytes;
+      myLength = length;
+      mySize = size;
+      myCrc = crc;
+      myPreviousEntry = previousEntry;
+    }
+  }
+
+  private static class CompressFileTask implements Callable<CompressedData> {
+    private final File myFile;
+    @Nullable private final JBZipEntry myPreviousEntry;
+
+    private CompressFileTask(File file, @Nullable JBZipEntry previousEntry) {
+      myFile = file;
+      myPreviousEntry = previousEntry;
+    }
+
+    @Override
+    public CompressedData call() throws IOException {
+      final byte[] content = FileUtil.loadFileBytes(myFile);
+      final CRC32 crc = new CRC32();
+      crc.update(content);
+      final long crcValue = crc.getValue();
+      if (myPreviousEntry != null && myPreviousEntry.getSize() == content.length && myPreviousEntry.getCrc() == crcValue) {
+        return new CompressedData(myPreviousEntry.getMethod(), null, 0, content.length, crcValue, myPreviousEntry);
+      }
+      if (content.length == 0) {
+        return new CompressedData(ZipEntry.STORED, content, 0, 0, crcValue, null);
+      }
+
+      final BufferExposingByteArrayOutputStream compressed = new BufferExposingByteArrayOutputStream(content.length / 2 + 16);
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try {
+        final DeflaterOutputStream stream = new DeflaterOutputStream(compressed, deflater);
+        stream.write(content);
+        stream.close();
+      }
+      finally {
+        deflater.end();
+      }
+      return new CompressedData(ZipEntry.DEFLATED, compressed.getInternalBuffer(), compressed.size(), content.length, crcValue, null);
+    }
+  }
+}
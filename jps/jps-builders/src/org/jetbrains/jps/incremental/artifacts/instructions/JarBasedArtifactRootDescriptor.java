@@ -17,6 +17,8 @@ package org.jetbrains.jps.incremental.artifacts.instructions;
 
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
@@ -50,12 +52,7 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
   }
 
   public void processEntries(EntryProcessor processor) throws IOException {
-    String prefix = StringUtil.trimStart(myPathInJar, "/");
-    if (!StringUtil.endsWithChar(prefix, '/')) prefix += "/";
-    if (prefix.equals("/")) {
-      prefix = "";
-    }
-
+    final String prefix = getEntriesPrefix();
     ZipFile zipFile = new ZipFile(myRoot);
     try {
       final Enumeration<? extends ZipEntry> entries = zipFile.entries();
@@ -74,6 +71,28 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
     }
   }
 
+  /**
+   * Processes entries of the jar opened by the caller; unlike {@link #processEntries} the content of entries isn't decompressed
+   */
+  public void processEntries(@NotNull JBZipFile zipFile, CompressedEntryProcessor processor) throws IOException {
+    final String prefix = getEntriesPrefix();
+    for (JBZipEntry entry : zipFile.getEntries()) {
+      final String name = entry.getName();
+      if (name.startsWith(prefix)) {
+        processor.process(name.substring(prefix.length()), entry);
+      }
+    }
+  }
+
+  private String getEntriesPrefix() {
+    String prefix = StringUtil.trimStart(myPathInJar, "/");
+    if (!StringUtil.endsWithChar(prefix, '/')) prefix += "/";
+    if (prefix.equals("/")) {
+      prefix = "";
+    }
+    return prefix;
+  }
+
   @Override
   protected String getFullPath() {
     return myRoot.getPath() + JarPathUtil.JAR_SEPARATOR + myPathInJar;
@@ -121,4 +140,8 @@ public class JarBasedArtifactRootDescriptor extends ArtifactRootDescriptor {
   public interface EntryProcessor {
     void process(@Nullable InputStream inputStream, @NotNull String relativePath, ZipEntry entry) throws IOException;
   }
+
+  public interface CompressedEntryProcessor {
+    void process(@NotNull String relativePath, @NotNull JBZipEntry entry) throws IOException;
+  }
 }
@@ -171,6 +171,7 @@ public class BuildFSState extends FSState {
       FileFilter filter = context.getProjectDescriptor().getBuildRootIndex().getRootFilter(rd, context.getProjectDescriptor());
       CompileScope scope = context.getScope();
       final long compilationStartStamp = context.getCompilationStartStamp();
+      final boolean projectRebuild = context.isProjectRebuild();
       for (File file : files) {
         if (filter.accept(file)) {
           if (scope.isAffected(rd.getTarget(), file)) {
@@ -185,7 +186,12 @@ public class BuildFSState extends FSState {
             }
             else {
               marked = true;
-              stamps.saveStamp(file, rd.getTarget(), currentFileStamp);
+              if (projectRebuild) {
+                stamps.saveStampDeferringDigest(file, rd.getTarget(), currentFileStamp);
+              }
+              else {
+                stamps.saveStamp(file, rd.getTarget(), currentFileStamp);
+              }
             }
           }
           else {
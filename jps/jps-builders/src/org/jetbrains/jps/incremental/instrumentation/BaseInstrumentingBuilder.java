@@ -19,6 +19,7 @@ import com.intellij.compiler.instrumentation.InstrumentationClassFinder;
 import com.intellij.compiler.instrumentation.InstrumenterClassWriter;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.ClassWriter;
@@ -27,8 +28,16 @@ import org.jetbrains.jps.incremental.BinaryContent;
 import org.jetbrains.jps.incremental.BuilderCategory;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.CompiledClass;
+import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene Zhuravlev
@@ -36,6 +45,8 @@ import org.jetbrains.jps.incremental.messages.CompilerMessage;
  */
 public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.instrumentation.BaseInstrumentingBuilder");
+  private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  private static final int BATCH_SIZE = 64;
   // every instance of builder must have its own marker!
   private final Key<Boolean> IS_INSTRUMENTED_KEY = Key.create("_instrumentation_marker_" + getPresentableName());
 
@@ -44,9 +55,54 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   }
 
   @Override
-  protected final ExitCode performBuild(CompileContext context, ModuleChunk chunk, InstrumentationClassFinder finder, OutputConsumer outputConsumer) {
-    ExitCode exitCode = ExitCode.NOTHING_DONE;
-    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
+  protected final ExitCode performBuild(final CompileContext context, ModuleChunk chunk, final InstrumentationClassFinder finder, OutputConsumer outputConsumer)
+    throws ProjectBuildException {
+    final List<CompiledClass> classes = new ArrayList<CompiledClass>(outputConsumer.getCompiledClasses().values());
+    final AtomicBoolean instrumented = new AtomicBoolean(false);
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    if (classes.size() <= BATCH_SIZE) {
+      instrumentBatch(context, classes, finder, instrumented, aborted);
+    }
+    else {
+      // the finder is thread-safe, so classes are instrumented in batches sharing the cache of loaded classes
+      final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), THREAD_COUNT);
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int start = 0; start < classes.size(); start += BATCH_SIZE) {
+        final List<CompiledClass> batch = classes.subList(start, Math.min(start + BATCH_SIZE, classes.size()));
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            instrumentBatch(context, batch, finder, instrumented, aborted);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        }
+        catch (InterruptedException e) {
+          // batches that haven't finished would leave part of the classes not instrumented
+          aborted.set(true);
+          for (Future<?> f : futures) {
+            f.cancel(false);
+          }
+          Thread.currentThread().interrupt();
+          throw new ProjectBuildException(getPresentableName() + " was interrupted", e);
+        }
+        catch (ExecutionException e) {
+          LOG.error(e);
+        }
+      }
+    }
+    return instrumented.get() ? ExitCode.OK : ExitCode.NOTHING_DONE;
+  }
+
+  private void instrumentBatch(CompileContext context, List<CompiledClass> batch, InstrumentationClassFinder finder, AtomicBoolean instrumented,
+                               AtomicBoolean aborted) {
+    for (CompiledClass compiledClass : batch) {
+      if (context.getCancelStatus().isCanceled() || aborted.get()) {
+        return;
+      }
       final BinaryContent originalContent = compiledClass.getContent();
       final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
       final int version = getClassFileVersion(reader);
@@ -56,12 +112,12 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
       }
       final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
       try {
-        final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
-        if (instrumented != null) {
-          compiledClass.setContent(instrumented);
+        final BinaryContent instrumentedContent = instrument(context, compiledClass, reader, writer, finder);
+        if (instrumentedContent != null) {
+          compiledClass.setContent(instrumentedContent);
           finder.cleanCachedData(compiledClass.getClassName());
           IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
-          exitCode = ExitCode.OK;
+          instrumented.set(true);
         }
       }
       catch (Throwable e) {
@@ -75,7 +131,6 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
         }
       }
     }
-    return exitCode;
   }
 
   protected abstract boolean canInstrument(CompiledClass compiledClass, int classFileVersion);
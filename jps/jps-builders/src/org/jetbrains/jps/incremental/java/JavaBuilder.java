@@ -297,9 +297,6 @@ public class JavaBuilder extends ModuleLevelBuilder {
     DiagnosticOutputConsumer diagnosticSink,
     final OutputFileConsumer outputSink) throws Exception {
 
-    final TasksCounter counter = new TasksCounter();
-    COUNTER_KEY.set(context, counter);
-
     final JpsJavaExtensionService javaExt = JpsJavaExtensionService.getInstance();
     final JpsJavaCompilerConfiguration compilerConfig = javaExt.getCompilerConfiguration(context.getProjectDescriptor().getProject());
     assert compilerConfig != null;
@@ -344,16 +341,19 @@ public class JavaBuilder extends ModuleLevelBuilder {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Compiling chunk [" + chunk.getName() + "] with options: \"" + StringUtil.join(options, " ") + "\"");
     }
+    final JavacServerClient client = USE_EMBEDDED_JAVAC ? null : ensureJavacServerLaunched(context);
+    final TasksCounter counter = new TasksCounter(client);
+    COUNTER_KEY.set(context, counter);
+    final BuildEventTrace.Event traceEvent = BuildEventTrace.start("javac", chunk.getName());
     try {
       final boolean rc;
-      if (USE_EMBEDDED_JAVAC) {
+      if (client == null) {
         final boolean useEclipse = useEclipseCompiler(context);
         rc = JavacMain.compile(
           options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer, context.getCancelStatus(), useEclipse
         );
       }
       else {
-        final JavacServerClient client = ensureJavacServerLaunched(context);
         final RequestFuture<JavacServerResponseHandler> future = client.sendCompileRequest(
           options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer
         );
@@ -368,6 +368,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
     }
     finally {
       counter.await();
+      traceEvent.finish();
     }
   }
 
@@ -882,29 +883,4 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
 
   private static final Key<TasksCounter> COUNTER_KEY = Key.create("_async_task_counter_");
-
-  private static final class TasksCounter {
-    private int myCounter = 0;
-
-    public synchronized void incTaskCount() {
-      myCounter++;
-    }
-
-    public synchronized void decTaskCounter() {
-      myCounter = Math.max(0, myCounter - 1);
-      if (myCounter == 0) {
-        notifyAll();
-      }
-    }
-
-    public synchronized void await() {
-      while (myCounter > 0) {
-        try {
-          wait();
-        }
-        catch (InterruptedException e) {
-        }
-      }
-    }
-  }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.client.SimpleProtobufClient;
+
+/**
+ * Counts pending class post-processing tasks. If class files are produced faster than they are processed, the producer is slowed down
+ * instead of keeping the content of all compiled classes in memory. In-process javac waits for the tasks, while output of the external
+ * javac server is delivered on the I/O thread of the client connection which must not wait: it also delivers messages of other
+ * compilations, so reading of the connection is suspended instead.
+ */
+final class TasksCounter {
+  private static final int MAX_PENDING_TASKS = 1024;
+  @Nullable private final SimpleProtobufClient<?> myClient;
+  private final int myMaxPendingTasks;
+  private int myCounter = 0;
+  private boolean myReadingSuspended = false;
+
+  TasksCounter(@Nullable SimpleProtobufClient<?> client) {
+    this(client, MAX_PENDING_TASKS);
+  }
+
+  TasksCounter(@Nullable SimpleProtobufClient<?> client, int maxPendingTasks) {
+    myClient = client;
+    myMaxPendingTasks = maxPendingTasks;
+  }
+
+  public void incTaskCount() {
+    if (myClient == null) {
+      waitAndIncTaskCount();
+      return;
+    }
+    synchronized (this) {
+      myCounter++;
+      if (myReadingSuspended || myCounter < myMaxPendingTasks) {
+        return;
+      }
+      myReadingSuspended = true;
+      // messages already received are still delivered, so the limit may be slightly exceeded
+      myClient.suspendReading();
+    }
+  }
+
+  private synchronized void waitAndIncTaskCount() {
+    while (myCounter >= myMaxPendingTasks) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        // the task is still counted, so the limit is exceeded, but the interrupted thread doesn't hang
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    myCounter++;
+  }
+
+  public synchronized void decTaskCounter() {
+    myCounter = Math.max(0, myCounter - 1);
+    final SimpleProtobufClient<?> client = myClient;
+    if (client != null && myReadingSuspended && myCounter <= myMaxPendingTasks / 2) {
+      myReadingSuspended = false;
+      client.resumeReading();
+    }
+    if (myCounter == 0 || myCounter == myMaxPendingTasks - 1) {
+      notifyAll();
+    }
+  }
+
+  synchronized boolean isReadingSuspended() {
+    return myReadingSuspended;
+  }
+
+  public synchronized void await() {
+    while (myCounter > 0) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.resources;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copies resource files in batches on pooled threads. A file isn't copied if the target file has the same size and timestamp, the
+ * timestamp of the source file is set to the target file after copying. If the '{@link GlobalOptions#RESOURCES_HARD_LINKS_OPTION}'
+ * property is set, the target files are created as hard links to the source files where the file system supports it.
+ *
+ * @see ResourcesBuilder
+ */
+class ResourceCopier {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.resources.ResourceCopier");
+  private static final int THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static final int BATCH_SIZE = 128;
+  private static final boolean USE_HARD_LINKS = Boolean.parseBoolean(System.getProperty(GlobalOptions.RESOURCES_HARD_LINKS_OPTION, "false"));
+  @Nullable private static final HardLinkCreator ourHardLinkCreator = USE_HARD_LINKS ? HardLinkCreator.create() : null;
+  private final List<CopyTask> myTasks = new ArrayList<CopyTask>();
+
+  public void addFile(@NotNull File source, @NotNull File target) {
+    myTasks.add(new CopyTask(source, target));
+  }
+
+  public boolean isEmpty() {
+    return myTasks.isEmpty();
+  }
+
+  /**
+   * Copies all added files. Files which failed to copy have non-null {@link CopyTask#getError()}, files which weren't processed because
+   * the build was canceled have {@link CopyTask#isProcessed()} false.
+   *
+   * @throws ProjectBuildException if the thread is interrupted while waiting for the files to be copied
+   */
+  @NotNull
+  public List<CopyTask> copy(@NotNull final CanceledStatus canceledStatus) throws ProjectBuildException {
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    if (myTasks.size() <= BATCH_SIZE) {
+      copyBatch(myTasks, canceledStatus, aborted);
+      return myTasks;
+    }
+
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), THREAD_COUNT);
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int start = 0; start < myTasks.size(); start += BATCH_SIZE) {
+      final List<CopyTask> batch = myTasks.subList(start, Math.min(start + BATCH_SIZE, myTasks.size()));
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          copyBatch(batch, canceledStatus, aborted);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        // batches that haven't finished must not be reported as copied
+        aborted.set(true);
+        for (Future<?> f : futures) {
+          f.cancel(false);
+        }
+        Thread.currentThread().interrupt();
+        throw new ProjectBuildException("Copying of resources was interrupted", e);
+      }
+      catch (ExecutionException e) {
+        LOG.error(e);
+      }
+    }
+    return myTasks;
+  }
+
+  private static void copyBatch(List<CopyTask> batch, CanceledStatus canceledStatus, AtomicBoolean aborted) {
+    for (CopyTask task : batch) {
+      if (canceledStatus.isCanceled() || aborted.get()) {
+        return;
+      }
+      try {
+        copyFile(task.mySource, task.myTarget);
+      }
+      catch (IOException e) {
+        task.myError = e;
+      }
+      task.myProcessed = true;
+    }
+  }
+
+  private static void copyFile(File source, File target) throws IOException {
+    final long sourceLength = source.length();
+    final long sourceTimestamp = source.lastModified();
+    if (target.exists()) {
+      if (target.length() == sourceLength && target.lastModified() == sourceTimestamp) {
+        return;
+      }
+      // the target may be a hard link to the previous version of the source, so it must not be overwritten in place
+      FileUtil.delete(target);
+    }
+
+    if (ourHardLinkCreator != null) {
+      FileUtil.createParentDirs(target);
+      if (ourHardLinkCreator.createLink(source, target)) {
+        return;
+      }
+    }
+
+    final FileInputStream input = new FileInputStream(source);
+    try {
+      final FileOutputStream output = openOutputStream(target);
+      try {
+        final FileChannel sourceChannel = input.getChannel();
+        final FileChannel targetChannel = output.getChannel();
+        final long size = sourceChannel.size();
+        long position = 0;
+        while (position < size) {
+          position += sourceChannel.transferTo(position, size - position, targetChannel);
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    finally {
+      input.close();
+    }
+
+    if (sourceTimestamp > 0 && !target.setLastModified(sourceTimestamp)) {
+      LOG.info("Unable to set timestamp " + sourceTimestamp + " to '" + target + "'");
+    }
+    if (SystemInfo.isUnix && source.canExecute()) {
+      final int sourcePermissions = FileSystemUtil.getPermissions(source);
+      final int targetPermissions = FileSystemUtil.getPermissions(target);
+      if (sourcePermissions != -1 && targetPermissions != -1) {
+        FileSystemUtil.setPermissions(target, sourcePermissions | targetPermissions);
+      }
+    }
+  }
+
+  private static FileOutputStream openOutputStream(File file) throws IOException {
+    try {
+      return new FileOutputStream(file);
+    }
+    catch (FileNotFoundException e) {
+      // parent directories are created only when needed to avoid checking them for each file
+      FileUtil.createParentDirs(file);
+      return new FileOutputStream(file);
+    }
+  }
+
+  public static class CopyTask {
+    private final File mySource;
+    private final File myTarget;
+    private volatile boolean myProcessed;
+    @Nullable private volatile IOException myError;
+
+    private CopyTask(File source, File target) {
+      mySource = source;
+      myTarget = target;
+    }
+
+    @NotNull
+    public File getSource() {
+      return mySource;
+    }
+
+    @NotNull
+    public File getTarget() {
+      return myTarget;
+    }
+
+    public boolean isProcessed() {
+      return myProcessed;
+    }
+
+    @Nullable
+    public IOException getError() {
+      return myError;
+    }
+  }
+
+  // todo remove reflection after migration to JDK 7
+  private static class HardLinkCreator {
+    private final Method myToPath;
+    private final Method myCreateLink;
+    private volatile boolean myEnabled = true;
+
+    private HardLinkCreator() throws Exception {
+      myToPath = File.class.getMethod("toPath");
+      final Class<?> pathClass = Class.forName("java.nio.file.Path");
+      myCreateLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+    }
+
+    @Nullable
+    private static HardLinkCreator create() {
+      try {
+        return new HardLinkCreator();
+      }
+      catch (Exception e) {
+        LOG.info("Hard links are not supported: " + e.getMessage());
+        return null;
+      }
+    }
+
+    /**
+     * @return false if the link wasn't created and the file must be copied
+     */
+    private boolean createLink(File source, File target) {
+      if (!myEnabled) {
+        return false;
+      }
+      try {
+        myCreateLink.invoke(null, myToPath.invoke(target), myToPath.invoke(source));
+        return true;
+      }
+      catch (InvocationTargetException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof UnsupportedOperationException) {
+          myEnabled = false;
+        }
+        // e.g. the source and the target are on different file systems
+        LOG.debug(cause);
+        return false;
+      }
+      catch (IllegalAccessException e) {
+        myEnabled = false;
+        LOG.info(e);
+        return false;
+      }
+    }
+  }
+}
@@ -84,37 +84,24 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     assert patterns != null;
 
     try {
+      final ResourceCopier copier = new ResourceCopier();
       holder.processDirtyFiles(new FileProcessor<ResourceRootDescriptor, ResourcesTarget>() {
-        private final Map<ResourceRootDescriptor, Boolean> mySkippedRoots = new HashMap<ResourceRootDescriptor, Boolean>();
+        private final Map<ResourceRootDescriptor, String> myOutputPrefixes = new HashMap<ResourceRootDescriptor, String>();
         public boolean apply(ResourcesTarget target, final File file, final ResourceRootDescriptor sourceRoot) throws IOException {
-          Boolean isSkipped = mySkippedRoots.get(sourceRoot);
-          if (isSkipped == null) {
-            final File outputDir = target.getOutputDir();
-            isSkipped = Boolean.valueOf(outputDir == null || FileUtil.filesEqual(outputDir, sourceRoot.getRootFile()));
-            mySkippedRoots.put(sourceRoot, isSkipped);
+          String outputPrefix = myOutputPrefixes.get(sourceRoot);
+          if (outputPrefix == null) {
+            outputPrefix = getOutputPrefix(sourceRoot);
+            myOutputPrefixes.put(sourceRoot, outputPrefix);
           }
-          if (isSkipped.booleanValue()) {
+          if (outputPrefix.length() == 0) {
             return true;
           }
           if (patterns.isResourceFile(file, sourceRoot.getRootFile())) {
-            try {
-              copyResource(context, sourceRoot, file, outputConsumer);
-            }
-            catch (IOException e) {
-              LOG.info(e);
-              context.processMessage(
-                new CompilerMessage(
-                  "resources", BuildMessage.Kind.ERROR, e.getMessage(), FileUtil.toSystemIndependentName(file.getPath())
-                )
-              );
-              return false;
-            }
-            finally {
-              if (cleanedSources != null) {
-                final Set<File> files = cleanedSources.get(target);
-                if (files != null) {
-                  files.remove(file);
-                }
+            copier.addFile(file, new File(outputPrefix + getRelativePath(sourceRoot, file)));
+            if (cleanedSources != null) {
+              final Set<File> files = cleanedSources.get(target);
+              if (files != null) {
+                files.remove(file);
               }
             }
           }
@@ -122,6 +109,28 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
         }
       });
 
+      if (!copier.isEmpty()) {
+        context.processMessage(new ProgressMessage("Copying resources... [" + target.getModule().getName() + "]"));
+      }
+      for (ResourceCopier.CopyTask task : copier.copy(context.getCancelStatus())) {
+        final String sourcePath = task.getSource().getPath();
+        final IOException error = task.getError();
+        if (error != null) {
+          LOG.info(error);
+          context.processMessage(
+            new CompilerMessage("resources", BuildMessage.Kind.ERROR, error.getMessage(), FileUtil.toSystemIndependentName(sourcePath))
+          );
+        }
+        else if (task.isProcessed()) {
+          try {
+            outputConsumer.registerOutputFile(task.getTarget(), Collections.singletonList(sourcePath));
+          }
+          catch (Exception e) {
+            context.processMessage(new CompilerMessage(BUILDER_NAME, e));
+          }
+        }
+      }
+
       context.checkCanceled();
 
       if (cleanedSources != null) {
@@ -139,6 +148,9 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
 
       context.processMessage(new ProgressMessage(""));
     }
+    catch (ProjectBuildException e) {
+      throw e;
+    }
     catch (Exception e) {
       throw new ProjectBuildException(e.getMessage(), e);
     }
@@ -155,33 +167,32 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     return true;
   }
 
-  private static void copyResource(CompileContext context, ResourceRootDescriptor rd, File file, BuildOutputConsumer outputConsumer) throws IOException {
+  /**
+   * @return path of the directory where resources from the root are copied ending with '/' or empty string if the resources
+   * shouldn't be copied
+   */
+  private static String getOutputPrefix(ResourceRootDescriptor rd) {
     final File outputRoot = rd.getTarget().getOutputDir();
-    if (outputRoot == null) {
-      return;
+    if (outputRoot == null || FileUtil.filesEqual(outputRoot, rd.getRootFile())) {
+      return "";
     }
-    final String sourceRootPath = FileUtil.toSystemIndependentName(rd.getRootFile().getAbsolutePath());
-    final String relativePath = FileUtil.getRelativePath(sourceRootPath, FileUtil.toSystemIndependentName(file.getPath()), '/');
     final String prefix = rd.getPackagePrefix();
-
     final StringBuilder targetPath = new StringBuilder();
     targetPath.append(FileUtil.toSystemIndependentName(outputRoot.getPath()));
     if (prefix.length() > 0) {
       targetPath.append('/').append(prefix.replace('.', '/'));
     }
-    targetPath.append('/').append(relativePath);
-
-    context.processMessage(new ProgressMessage("Copying resources... [" + rd.getTarget().getModule().getName() + "]"));
+    targetPath.append('/');
+    return targetPath.toString();
+  }
 
-    final String outputPath = targetPath.toString();
-    final File targetFile = new File(outputPath);
-    FileUtil.copyContent(file, targetFile);
-    try {
-      outputConsumer.registerOutputFile(targetFile, Collections.singletonList(file.getPath()));
-    }
-    catch (Exception e) {
-      context.processMessage(new CompilerMessage(BUILDER_NAME, e));
+  private static String getRelativePath(ResourceRootDescriptor rd, File file) {
+    final String sourceRootPath = FileUtil.toSystemIndependentName(rd.getRootFile().getAbsolutePath());
+    final String filePath = FileUtil.toSystemIndependentName(file.getPath());
+    if (filePath.length() > sourceRootPath.length() && filePath.startsWith(sourceRootPath) && filePath.charAt(sourceRootPath.length()) == '/') {
+      return filePath.substring(sourceRootPath.length() + 1);
     }
+    return FileUtil.getRelativePath(sourceRootPath, filePath, '/');
   }
 
   @NotNull
@@ -26,6 +26,7 @@ import org.jetbrains.jps.builders.java.dependencyView.Mappings;
 import org.jetbrains.jps.builders.storage.BuildDataPaths;
 import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
 import org.jetbrains.jps.builders.storage.StorageProvider;
+import org.jetbrains.jps.incremental.BuildEventTrace;
 
 import java.io.*;
 import java.util.Collection;
@@ -37,7 +38,7 @@ import java.util.Map;
  *         Date: 10/7/11
  */
 public class BuildDataManager implements StorageOwner {
-  private static final int VERSION = 19;
+  private static final int VERSION = 22;
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.BuildDataManager");
   private static final String SRC_TO_FORM_STORAGE = "src-form";
   private static final String MAPPINGS_STORAGE = "mappings";
@@ -161,6 +162,16 @@ public class BuildDataManager implements StorageOwner {
   }
 
   public void flush(boolean memoryCachesOnly) {
+    final BuildEventTrace.Event traceEvent = BuildEventTrace.start("storage", memoryCachesOnly ? "drop memory caches" : "flush");
+    try {
+      doFlush(memoryCachesOnly);
+    }
+    finally {
+      traceEvent.finish();
+    }
+  }
+
+  private void doFlush(boolean memoryCachesOnly) {
     synchronized (myTargetStoragesLock) {
       myTargetStoragesOwner.flush(memoryCachesOnly);
     }
@@ -266,7 +277,7 @@ public class BuildDataManager implements StorageOwner {
     return myDataPaths;
   }
 
-  private static void wipeStorage(File root, @Nullable AbstractStateStorage<?, ?> storage) {
+  private static void wipeStorage(File root, @Nullable OneToManyPathsMapping storage) {
     if (storage != null) {
       synchronized (storage) {
         storage.wipe();
@@ -277,7 +288,7 @@ public class BuildDataManager implements StorageOwner {
     }
   }
 
-  private static void closeStorage(@Nullable AbstractStateStorage<?, ?> storage) throws IOException {
+  private static void closeStorage(@Nullable StorageOwner storage) throws IOException {
     if (storage != null) {
       synchronized (storage) {
         storage.close();
@@ -33,7 +33,9 @@ import java.util.concurrent.ConcurrentMap;
  */
 public class BuildTargetTypeState {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.BuildTargetTypeState");
+  private static final int VERSION = 1;
   private final Map<BuildTarget<?>, Integer> myTargetIds;
+  private final Map<BuildTarget<?>, Long> myTargetBuildTimes;
   private final ConcurrentMap<BuildTarget<?>, BuildTargetConfiguration> myConfigurations;
   private final BuildTargetType<?> myTargetType;
   private final BuildTargetsState myTargetsState;
@@ -45,6 +47,7 @@ public class BuildTargetTypeState {
     myTargetsFile = new File(state.getDataPaths().getTargetTypeDataRoot(targetType), "targets.dat");
     myConfigurations = new ConcurrentHashMap<BuildTarget<?>, BuildTargetConfiguration>();
     myTargetIds = new HashMap<BuildTarget<?>, Integer>();
+    myTargetBuildTimes = new HashMap<BuildTarget<?>, Long>();
     load();
   }
 
@@ -56,16 +59,20 @@ public class BuildTargetTypeState {
     try {
       DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myTargetsFile)));
       try {
-        input.readInt();//reserved for version
+        int version = input.readInt();
         int size = input.readInt();
         BuildTargetLoader<?> loader = myTargetType.createLoader(myTargetsState.getModel());
         while (size-- > 0) {
           String stringId = IOUtil.readString(input);
           int intId = input.readInt();
+          long buildTime = version >= 1 ? input.readLong() : -1;
           myTargetsState.markUsedId(intId);
           BuildTarget<?> target = loader.createTarget(stringId);
           if (target != null) {
             myTargetIds.put(target, intId);
+            if (buildTime >= 0) {
+              myTargetBuildTimes.put(target, buildTime);
+            }
           }
           else {
             LOG.info("Unknown " + myTargetType.getTypeId() + " target: " + stringId);
@@ -88,11 +95,13 @@ public class BuildTargetTypeState {
       FileUtil.createParentDirs(myTargetsFile);
       DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myTargetsFile)));
       try {
-        output.writeInt(0);
+        output.writeInt(VERSION);
         output.writeInt(myTargetIds.size());
         for (Map.Entry<BuildTarget<?>, Integer> entry : myTargetIds.entrySet()) {
           IOUtil.writeString(entry.getKey().getId(), output);
           output.writeInt(entry.getValue());
+          Long buildTime = myTargetBuildTimes.get(entry.getKey());
+          output.writeLong(buildTime != null ? buildTime.longValue() : -1);
         }
       }
       finally {
@@ -111,6 +120,21 @@ public class BuildTargetTypeState {
     return myTargetIds.get(target);
   }
 
+  /**
+   * @return average duration (in ms) of the builds of the target which weren't up to date or -1 if it is unknown
+   */
+  public synchronized long getAverageBuildTime(BuildTarget<?> target) {
+    Long time = myTargetBuildTimes.get(target);
+    return time != null ? time.longValue() : -1;
+  }
+
+  public synchronized void updateAverageBuildTime(BuildTarget<?> target, long time) {
+    getTargetId(target);
+    Long oldTime = myTargetBuildTimes.get(target);
+    // recent builds weigh more, but a single unusually fast or slow build doesn't replace the history
+    myTargetBuildTimes.put(target, oldTime != null ? (oldTime.longValue() + time) / 2 : time);
+  }
+
   public BuildTargetConfiguration getConfiguration(BuildTarget<?> target) {
     BuildTargetConfiguration configuration = myConfigurations.get(target);
     if (configuration == null) {
@@ -17,57 +17,90 @@ package org.jetbrains.jps.incremental.storage;
 
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.io.DataExternalizer;
-import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Set;
+import java.util.*;
 
 /**
+ * Paths are stored as int ids of {@link PersistentPathEnumerator} which shares common prefixes of paths, so the mapping doesn't store
+ * the same directory paths again and again for every key and value.
+ *
  * @author Eugene Zhuravlev
  *         Date: 10/11/12
  */
-public class OneToManyPathsMapping extends AbstractStateStorage<String, Collection<String>> {
+public class OneToManyPathsMapping implements StorageOwner {
+  private static final String PATHS_STORAGE_PREFIX = "paths-";
+  private final File myPathsFile;
+  private final IdsMapping myMapping;
+  // ids are valid only for the enumerator they were obtained from, so the enumerator is accessed under the lock of the mapping
+  // which is also held when both are replaced by wipe()
+  private PersistentPathEnumerator myPathEnumerator;
+
   public OneToManyPathsMapping(File storePath) throws IOException {
-    super(storePath, new PathStringDescriptor(), new PathCollectionExternalizer());
+    // the name must not start with the name of the mapping storage, otherwise its files would be deleted when the mapping is wiped
+    myPathsFile = new File(storePath.getParentFile(), PATHS_STORAGE_PREFIX + storePath.getName());
+    myPathEnumerator = createPathEnumerator(myPathsFile);
+    myMapping = new IdsMapping(storePath);
   }
 
-  @Override
   public void update(@NotNull String keyPath, @NotNull Collection<String> boundPaths) throws IOException {
-    super.update(FileUtil.toSystemIndependentName(keyPath), normalizePaths(boundPaths));
+    synchronized (myMapping.myDataLock) {
+      myMapping.update(enumerate(keyPath), enumerate(boundPaths));
+    }
   }
 
   public final void update(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
-    super.update(FileUtil.toSystemIndependentName(keyPath), Collections.singleton(FileUtil.toSystemIndependentName(boundPath)));
+    update(keyPath, Collections.singleton(boundPath));
   }
 
   public final void appendData(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
-    super.appendData(FileUtil.toSystemIndependentName(keyPath), Collections.singleton(FileUtil.toSystemIndependentName(boundPath)));
+    appendData(keyPath, Collections.singleton(boundPath));
   }
 
-  @Override
   public void appendData(@NotNull String keyPath, @NotNull Collection<String> boundPaths) throws IOException {
-    super.appendData(FileUtil.toSystemIndependentName(keyPath), normalizePaths(boundPaths));
+    synchronized (myMapping.myDataLock) {
+      myMapping.appendData(enumerate(keyPath), enumerate(boundPaths));
+    }
   }
 
   @Nullable
-  @Override
   public Collection<String> getState(@NotNull String keyPath) throws IOException {
-    return super.getState(FileUtil.toSystemIndependentName(keyPath));
+    synchronized (myMapping.myDataLock) {
+      final int keyId = myPathEnumerator.tryEnumerate(FileUtil.toSystemIndependentName(keyPath));
+      if (keyId == 0) {
+        return null;
+      }
+      final TIntHashSet ids = myMapping.getState(keyId);
+      if (ids == null) {
+        return null;
+      }
+      final Set<String> result = new THashSet<String>(ids.size(), FileUtil.PATH_HASHING_STRATEGY);
+      for (TIntIterator it = ids.iterator(); it.hasNext(); ) {
+        result.add(myPathEnumerator.valueOf(it.next()));
+      }
+      return result;
+    }
   }
 
-  @Override
   public void remove(@NotNull String keyPath) throws IOException {
-    super.remove(FileUtil.toSystemIndependentName(keyPath));
+    synchronized (myMapping.myDataLock) {
+      final int keyId = myPathEnumerator.tryEnumerate(FileUtil.toSystemIndependentName(keyPath));
+      if (keyId != 0) {
+        myMapping.remove(keyId);
+      }
+    }
   }
 
   public final void removeData(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
-    final Collection<String> outputPaths = getState(FileUtil.toSystemIndependentName(keyPath));
+    final Collection<String> outputPaths = getState(keyPath);
     if (outputPaths != null) {
       final boolean removed = outputPaths.remove(FileUtil.toSystemIndependentName(boundPath));
       if (outputPaths.isEmpty()) {
@@ -81,30 +114,135 @@ public class OneToManyPathsMapping extends AbstractStateStorage<String, Collecti
     }
   }
 
-  private static class PathCollectionExternalizer implements DataExternalizer<Collection<String>> {
-    public void save(DataOutput out, Collection<String> value) throws IOException {
-      for (String str : value) {
-        IOUtil.writeString(str, out);
+  public Collection<String> getKeys() throws IOException {
+    synchronized (myMapping.myDataLock) {
+      final Collection<Integer> ids = myMapping.getKeys();
+      final List<String> result = new ArrayList<String>(ids.size());
+      for (Integer id : ids) {
+        result.add(myPathEnumerator.valueOf(id));
       }
+      return result;
     }
+  }
 
-    public Collection<String> read(DataInput in) throws IOException {
-      final Set<String> result = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
-      final DataInputStream stream = (DataInputStream)in;
-      while (stream.available() > 0) {
-        final String str = IOUtil.readString(stream);
-        result.add(str);
+  /**
+   * Only key ids are loaded when the iterator is created, paths are restored from the ids while iterating
+   */
+  public Iterator<String> getKeysIterator() throws IOException {
+    final Iterator<Integer> ids;
+    final PersistentPathEnumerator enumerator;
+    synchronized (myMapping.myDataLock) {
+      ids = myMapping.getKeysIterator();
+      enumerator = myPathEnumerator;
+    }
+    return new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return ids.hasNext();
       }
-      return result;
+
+      @Override
+      public String next() {
+        final Integer id = ids.next();
+        synchronized (myMapping.myDataLock) {
+          try {
+            return enumerator.valueOf(id);
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void flush(boolean memoryCachesOnly) {
+    synchronized (myMapping.myDataLock) {
+      myMapping.flush(memoryCachesOnly);
+      if (!memoryCachesOnly && myPathEnumerator.isDirty()) {
+        myPathEnumerator.force();
+      }
+    }
+  }
+
+  @Override
+  public void clean() throws IOException {
+    wipe();
+  }
+
+  public boolean wipe() {
+    synchronized (myMapping.myDataLock) {
+      try {
+        myPathEnumerator.close();
+      }
+      catch (IOException ignored) {
+      }
+      PersistentHashMap.deleteFilesStartingWith(myPathsFile);
+      try {
+        myPathEnumerator = createPathEnumerator(myPathsFile);
+      }
+      catch (IOException ignored) {
+        return false;
+      }
+      return myMapping.wipe();
     }
   }
 
-  private static Collection<String> normalizePaths(Collection<String> outputs) {
-    Collection<String> normalized = new ArrayList<String>(outputs.size());
-    for (String out : outputs) {
-      normalized.add(FileUtil.toSystemIndependentName(out));
+  @Override
+  public void close() throws IOException {
+    synchronized (myMapping.myDataLock) {
+      try {
+        myMapping.close();
+      }
+      finally {
+        myPathEnumerator.close();
+      }
     }
-    return normalized;
   }
 
+  private int enumerate(String path) throws IOException {
+    return myPathEnumerator.enumerate(FileUtil.toSystemIndependentName(path));
+  }
+
+  private TIntHashSet enumerate(Collection<String> paths) throws IOException {
+    final TIntHashSet ids = new TIntHashSet(paths.size());
+    for (String path : paths) {
+      ids.add(enumerate(path));
+    }
+    return ids;
+  }
+
+  private static PersistentPathEnumerator createPathEnumerator(File file) throws IOException {
+    FileUtil.createIfDoesntExist(file);
+    return new PersistentPathEnumerator(file);
+  }
+
+  private static class IdsMapping extends AbstractStateStorage<Integer, TIntHashSet> {
+    private IdsMapping(File storePath) throws IOException {
+      super(storePath, EnumeratorIntegerDescriptor.INSTANCE, new IdsExternalizer());
+    }
+  }
+
+  private static class IdsExternalizer implements DataExternalizer<TIntHashSet> {
+    public void save(DataOutput out, TIntHashSet value) throws IOException {
+      for (TIntIterator it = value.iterator(); it.hasNext(); ) {
+        DataInputOutputUtil.writeINT(out, it.next());
+      }
+    }
+
+    public TIntHashSet read(DataInput in) throws IOException {
+      final TIntHashSet result = new TIntHashSet();
+      final DataInputStream stream = (DataInputStream)in;
+      while (stream.available() > 0) {
+        result.add(DataInputOutputUtil.readINT(stream));
+      }
+      return result;
+    }
+  }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import com.intellij.util.io.PersistentEnumerator;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Persistent enumerator of system-independent paths. Paths are stored as a trie: every path is enumerated as a pair of the id of its
+ * parent path and its last name, so common prefixes of paths are stored only once. Names are compared in the same way as
+ * {@link FileUtil#pathsEqual} compares paths.
+ *
+ * @see com.intellij.util.containers.PathInterner
+ */
+public class PersistentPathEnumerator {
+  private static final int NULL_ID = 0;
+  private final NodeEnumerator myEnumerator;
+  private final TIntObjectHashMap<String> myParentPaths = new TIntObjectHashMap<String>();
+
+  public PersistentPathEnumerator(@NotNull File file) throws IOException {
+    myEnumerator = new NodeEnumerator(file);
+  }
+
+  public synchronized int enumerate(@NotNull String path) throws IOException {
+    int id = NULL_ID;
+    int start = 0;
+    while (true) {
+      final int end = path.indexOf('/', start);
+      final String name = end < 0 ? path.substring(start) : path.substring(start, end);
+      id = myEnumerator.enumerate(new Node(id, name));
+      if (end < 0) {
+        return id;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   * @return id of the path or 0 if the path wasn't enumerated yet
+   */
+  public synchronized int tryEnumerate(@NotNull String path) throws IOException {
+    int id = NULL_ID;
+    int start = 0;
+    while (true) {
+      final int end = path.indexOf('/', start);
+      final String name = end < 0 ? path.substring(start) : path.substring(start, end);
+      id = myEnumerator.find(new Node(id, name));
+      if (id == NULL_ID || end < 0) {
+        return id;
+      }
+      start = end + 1;
+    }
+  }
+
+  @NotNull
+  public synchronized String valueOf(int id) throws IOException {
+    final Node node = myEnumerator.valueOf(id);
+    if (node.myParent == NULL_ID) {
+      return node.myName;
+    }
+    return getParentPath(node.myParent) + "/" + node.myName;
+  }
+
+  private String getParentPath(int id) throws IOException {
+    // there are much less parent directories than files, so their paths are cached to avoid walking up the trie for every file
+    String path = myParentPaths.get(id);
+    if (path == null) {
+      path = valueOf(id);
+      myParentPaths.put(id, path);
+    }
+    return path;
+  }
+
+  public synchronized boolean isDirty() {
+    return myEnumerator.isDirty();
+  }
+
+  public synchronized void force() {
+    myEnumerator.force();
+  }
+
+  public synchronized void close() throws IOException {
+    myParentPaths.clear();
+    myEnumerator.close();
+  }
+
+  private static class Node {
+    private final int myParent;
+    private final String myName;
+
+    private Node(int parent, String name) {
+      myParent = parent;
+      myName = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Node node = (Node)o;
+      return myParent == node.myParent && FileUtil.pathsEqual(myName, node.myName);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myParent + FileUtil.pathHashCode(myName);
+    }
+  }
+
+  private static class NodeEnumerator extends PersistentEnumerator<Node> {
+    private NodeEnumerator(File file) throws IOException {
+      super(file, new NodeDescriptor(), 4096);
+    }
+
+    private int find(Node node) throws IOException {
+      return tryEnumerate(node);
+    }
+  }
+
+  private static class NodeDescriptor implements KeyDescriptor<Node> {
+    @Override
+    public void save(DataOutput out, Node value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.myParent);
+      IOUtil.writeString(value.myName, out);
+    }
+
+    @Override
+    public Node read(DataInput in) throws IOException {
+      final int parent = DataInputOutputUtil.readINT(in);
+      return new Node(parent, IOUtil.readString(in));
+    }
+
+    @Override
+    public int getHashCode(Node value) {
+      return value.hashCode();
+    }
+
+    @Override
+    public boolean isEqual(Node val1, Node val2) {
+      return val1.equals(val2);
+    }
+  }
+}
@@ -15,26 +15,61 @@
  */
 package org.jetbrains.jps.incremental.storage;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.SequentialTaskExecutor;
 import com.intellij.util.io.DataExternalizer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.service.SharedThreadPool;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author Eugene Zhuravlev
  *         Date: 10/7/11
  */
 public class TimestampStorage extends AbstractStateStorage<File, TimestampStorage.TimestampPerTarget[]> implements Timestamps {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.TimestampStorage");
+  private static final boolean USE_CONTENT_DIGESTS = Boolean.parseBoolean(System.getProperty(GlobalOptions.USE_CONTENT_DIGESTS_OPTION, "false"));
+  private static final int MAX_CACHED_DIGESTS = 1024;
   private final BuildTargetsState myTargetsState;
+  private final boolean myUseContentDigests;
+  /**
+   * recently computed digests, valid as long as the file's length and modification time are the same. A digest computed for a dirty
+   * file is needed again when the stamp of the compiled file is saved, so only a limited number of recent ones is kept
+   */
+  private final Map<File, CachedDigest> myDigestCache = new LinkedHashMap<File, CachedDigest>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, CachedDigest> eldest) {
+      return size() > MAX_CACHED_DIGESTS;
+    }
+  };
+  /**
+   * computes digests of stamps saved by {@link #saveStampDeferringDigest}, one file at a time
+   */
+  private final SequentialTaskExecutor myDigestExecutor = new SequentialTaskExecutor(SharedThreadPool.getInstance());
+  private volatile Future<?> myLastDigestTask;
+  private volatile boolean myDigestsCancelled;
 
   public TimestampStorage(File storePath, BuildTargetsState targetsState) throws IOException {
+    this(storePath, targetsState, USE_CONTENT_DIGESTS);
+  }
+
+  public TimestampStorage(File storePath, BuildTargetsState targetsState, boolean useContentDigests) throws IOException {
     super(storePath, new FileKeyDescriptor(), new StateExternalizer());
     myTargetsState = targetsState;
+    myUseContentDigests = useContentDigests;
   }
 
   @Override
@@ -45,6 +80,39 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
   @Override
   public void clean() throws IOException {
     super.clean();
+    synchronized (myDigestCache) {
+      myDigestCache.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    waitForDeferredDigests();
+    synchronized (myDigestCache) {
+      myDigestCache.clear();
+    }
+    super.close();
+  }
+
+  /**
+   * Waits until digests of the stamps saved by {@link #saveStampDeferringDigest} are stored. If interrupted, the remaining ones
+   * are not computed, so such files will be considered changed as soon as their stamps change
+   */
+  void waitForDeferredDigests() {
+    final Future<?> task = myLastDigestTask;
+    if (task == null) {
+      return;
+    }
+    try {
+      task.get();
+    }
+    catch (InterruptedException e) {
+      myDigestsCancelled = true;
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      LOG.info(e);
+    }
   }
 
   @Override
@@ -61,15 +129,141 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
     return -1L;
   }
 
+  @Override
+  public boolean isFileChanged(File file, BuildTarget<?> target, long currentStamp) throws IOException {
+    final TimestampPerTarget[] state = getState(file);
+    if (state == null) {
+      return true;
+    }
+    final int targetId = myTargetsState.getBuildTargetId(target);
+    for (TimestampPerTarget timestampPerTarget : state) {
+      if (timestampPerTarget.targetId == targetId) {
+        if (timestampPerTarget.timestamp == currentStamp) {
+          return false;
+        }
+        if (!myUseContentDigests || timestampPerTarget.digest == null) {
+          return true;
+        }
+        final byte[] currentDigest = getDigest(file, currentStamp);
+        if (currentDigest == null || !Arrays.equals(currentDigest, timestampPerTarget.digest)) {
+          return true;
+        }
+        // only the timestamp was changed: remember it to avoid computing the digest next time
+        update(file, updateTimestamp(state, targetId, currentStamp, currentDigest));
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException {
     int targetId = myTargetsState.getBuildTargetId(buildTarget);
-    update(file, updateTimestamp(getState(file), targetId, timestamp));
+    final byte[] digest = myUseContentDigests ? getDigest(file, timestamp) : null;
+    update(file, updateTimestamp(getState(file), targetId, timestamp, digest));
+  }
+
+  @Override
+  public void saveStampDeferringDigest(final File file, BuildTarget<?> buildTarget, final long timestamp) throws IOException {
+    final int targetId = myTargetsState.getBuildTargetId(buildTarget);
+    update(file, updateTimestamp(getState(file), targetId, timestamp, null));
+    if (myUseContentDigests) {
+      myLastDigestTask = myDigestExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            storeDeferredDigest(file, targetId, timestamp);
+          }
+          catch (IOException e) {
+            LOG.info(e);
+          }
+        }
+      });
+    }
+  }
+
+  private void storeDeferredDigest(File file, int targetId, long timestamp) throws IOException {
+    if (myDigestsCancelled || FileSystemUtil.lastModified(file) != timestamp) {
+      // the file was changed after its stamp was saved, it is considered changed without the digest
+      return;
+    }
+    final long length = file.length();
+    final byte[] digest = computeDigest(file);
+    if (file.length() != length || FileSystemUtil.lastModified(file) != timestamp) {
+      return;
+    }
+    synchronized (myDataLock) {
+      if (myDigestsCancelled) {
+        return;
+      }
+      final TimestampPerTarget[] state = getState(file);
+      if (state != null) {
+        for (TimestampPerTarget timestampPerTarget : state) {
+          // the stamp could have been saved again or removed meanwhile
+          if (timestampPerTarget.targetId == targetId && timestampPerTarget.timestamp == timestamp && timestampPerTarget.digest == null) {
+            update(file, updateTimestamp(state, targetId, timestamp, digest));
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private byte[] getDigest(File file, long timestamp) {
+    final long length = file.length();
+    synchronized (myDigestCache) {
+      final CachedDigest cached = myDigestCache.get(file);
+      if (cached != null && cached.length == length && cached.timestamp == timestamp) {
+        return cached.digest;
+      }
+    }
+    final byte[] digest;
+    try {
+      digest = computeDigest(file);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot compute digest of " + file.getPath() + ": " + e.getMessage());
+      return null;
+    }
+    // the file could have been changed while its digest was being computed
+    if (file.length() == length && FileSystemUtil.lastModified(file) == timestamp) {
+      synchronized (myDigestCache) {
+        myDigestCache.put(file, new CachedDigest(length, timestamp, digest));
+      }
+      return digest;
+    }
+    return null;
+  }
+
+  private static byte[] computeDigest(File file) throws IOException {
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+    final byte[] buffer = new byte[8 * 1024];
+    final InputStream in = new FileInputStream(file);
+    try {
+      while (true) {
+        final int read = in.read(buffer);
+        if (read < 0) {
+          break;
+        }
+        md.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return md.digest();
   }
 
   @NotNull
-  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp) {
-    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp);
+  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp, @Nullable byte[] digest) {
+    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp, digest);
     if (oldState == null) {
       return new TimestampPerTarget[]{newItem};
     }
@@ -105,10 +299,24 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
   public static class TimestampPerTarget {
     public final int targetId;
     public final long timestamp;
+    @Nullable public final byte[] digest;
 
-    public TimestampPerTarget(int targetId, long timestamp) {
+    public TimestampPerTarget(int targetId, long timestamp, @Nullable byte[] digest) {
       this.targetId = targetId;
       this.timestamp = timestamp;
+      this.digest = digest;
+    }
+  }
+
+  private static class CachedDigest {
+    final long length;
+    final long timestamp;
+    final byte[] digest;
+
+    CachedDigest(long length, long timestamp, byte[] digest) {
+      this.length = length;
+      this.timestamp = timestamp;
+      this.digest = digest;
     }
   }
 
@@ -118,6 +326,11 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (TimestampPerTarget target : value) {
         out.writeInt(target.targetId);
         out.writeLong(target.timestamp);
+        final byte[] digest = target.digest;
+        out.writeByte(digest != null ? digest.length : 0);
+        if (digest != null) {
+          out.write(digest);
+        }
       }
     }
 
@@ -127,7 +340,13 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (int i = 0; i < size; i++) {
         int id = in.readInt();
         long timestamp = in.readLong();
-        targets[i] = new TimestampPerTarget(id, timestamp);
+        int digestLength = in.readUnsignedByte();
+        byte[] digest = null;
+        if (digestLength > 0) {
+          digest = new byte[digestLength];
+          in.readFully(digest);
+        }
+        targets[i] = new TimestampPerTarget(id, timestamp, digest);
       }
       return targets;
     }
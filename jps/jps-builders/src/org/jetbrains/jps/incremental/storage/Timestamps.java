@@ -29,9 +29,22 @@ public interface Timestamps {
 
   void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException;
 
+  /**
+   * Saves the stamp at once and computes the content digest, if digests are enabled, on a pooled thread. Used by project rebuild,
+   * which compiles every file and shouldn't wait while all of them are read and hashed. Until its digest is stored, the file
+   * is considered changed as soon as its stamp is changed
+   */
+  void saveStampDeferringDigest(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException;
+
   void removeStamp(File file, BuildTarget<?> buildTarget) throws IOException;
 
   void clean() throws IOException;
 
   long getStamp(File file, BuildTarget<?> target) throws IOException;
+
+  /**
+   * @return false if the saved stamp matches the current one or, when content digests are enabled, if the file content is the same
+   * as the content for which the stamp was saved
+   */
+  boolean isFileChanged(File file, BuildTarget<?> target, long currentStamp) throws IOException;
 }
@@ -15,6 +15,7 @@
  */
 package org.jetbrains.jps.javac;
 
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -42,10 +43,16 @@ public class JavacServer {
   public static final int DEFAULT_SERVER_PORT = 7878;
   public static final String SERVER_SUCCESS_START_MESSAGE = "Javac server started successfully. Listening on port: ";
   public static final String SERVER_ERROR_START_MESSAGE = "Error starting Javac Server: ";
+  public static final String MAX_CONCURRENT_COMPILATIONS_PROPERTY = "javac.server.max.concurrent.compilations";
+  private static final int MAX_CONCURRENT_COMPILATIONS = Integer.getInteger(
+    MAX_CONCURRENT_COMPILATIONS_PROPERTY, Runtime.getRuntime().availableProcessors()
+  );
 
   private final ChannelGroup myAllOpenChannels = new DefaultChannelGroup("javac-server");
   private final ChannelFactory myChannelFactory;
   private final ChannelPipelineFactory myPipelineFactory;
+  // compilation requests exceeding the limit are queued until one of the running compilations finishes
+  private final BoundedTaskExecutor myCompilationExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), Math.max(1, MAX_CONCURRENT_COMPILATIONS));
 
   public JavacServer() {
     myChannelFactory = new NioServerSocketChannelFactory(SharedThreadPool.getInstance(), SharedThreadPool.getInstance(), 1);
@@ -127,24 +134,24 @@ public class JavacServer {
                                                  final CanceledStatus canceledStatus) {
     final DiagnosticOutputConsumer diagnostic = new DiagnosticOutputConsumer() {
       public void outputLineAvailable(String line) {
-        Channels.write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createStdOutputResponse(line)));
+        write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createStdOutputResponse(line)));
       }
 
       public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
         final JavacRemoteProto.Message.Response response = JavacProtoUtil.createBuildMessageResponse(diagnostic);
-        Channels.write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, response));
+        write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, response));
       }
 
       @Override
       public void registerImports(String className, Collection<String> imports, Collection<String> staticImports) {
         final JavacRemoteProto.Message.Response response = JavacProtoUtil.createClassDataResponse(className, imports, staticImports);
-        Channels.write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, response));
+        write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, response));
       }
     };
 
     final OutputFileConsumer outputSink = new OutputFileConsumer() {
       public void save(@NotNull OutputFileObject fileObject) {
-        Channels.write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createOutputObjectResponse(fileObject)));
+        write(ctx.getChannel(), JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createOutputObjectResponse(fileObject)));
       }
     };
 
@@ -158,11 +165,22 @@ public class JavacServer {
     }
   }
 
-  private final Set<CancelHandler> myCancelHandlers = Collections.synchronizedSet(new HashSet<CancelHandler>());
+  /**
+   * Output is sent while javac is running. If the client doesn't read it fast enough, the compiler thread waits until
+   * the pending data is written instead of buffering all the output in memory.
+   */
+  private static void write(Channel channel, JavacRemoteProto.Message message) {
+    final ChannelFuture future = Channels.write(channel, message);
+    if (!channel.isWritable()) {
+      future.awaitUninterruptibly();
+    }
+  }
+
+  private final Map<UUID, CancelHandler> myCancelHandlers = Collections.synchronizedMap(new HashMap<UUID, CancelHandler>());
 
   public void cancelBuilds() {
     synchronized (myCancelHandlers) {
-      for (CancelHandler handler : myCancelHandlers) {
+      for (CancelHandler handler : myCancelHandlers.values()) {
         handler.cancel();
       }
     }
@@ -206,23 +224,31 @@ public class JavacServer {
             }
 
             final CancelHandler cancelHandler = new CancelHandler();
-            myCancelHandlers.add(cancelHandler);
-            SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+            myCancelHandlers.put(sessionId, cancelHandler);
+            myCompilationExecutor.execute(new Runnable() {
               public void run() {
                 try {
-                  final JavacRemoteProto.Message exitMsg =
+                  final JavacRemoteProto.Message exitMsg = cancelHandler.isCanceled()?
+                    JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createBuildCompletedResponse(false)) :
                     compile(ctx, sessionId, options, files, cp, platformCp, srcPath, outs, cancelHandler);
                   Channels.write(ctx.getChannel(), exitMsg);
                 }
                 finally {
-                  myCancelHandlers.remove(cancelHandler);
+                  myCancelHandlers.remove(sessionId);
                 }
               }
             });
           }
           else if (requestType == JavacRemoteProto.Message.Request.Type.CANCEL){
-            cancelBuilds();
-            reply = JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createRequestAckResponse());
+            // only the compilation started within the same session is canceled, other compilations continue
+            final CancelHandler cancelHandler = myCancelHandlers.get(sessionId);
+            if (cancelHandler != null) {
+              // the session will be finished by the 'build completed' response
+              cancelHandler.cancel();
+            }
+            else {
+              reply = JavacProtoUtil.toMessage(sessionId, JavacProtoUtil.createRequestAckResponse());
+            }
           }
           else if (requestType == JavacRemoteProto.Message.Request.Type.SHUTDOWN){
             cancelBuilds();
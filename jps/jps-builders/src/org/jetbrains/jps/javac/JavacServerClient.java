@@ -46,8 +46,9 @@ public class JavacServerClient extends SimpleProtobufClient<JavacServerResponseH
     final JavacServerResponseHandler rh = new JavacServerResponseHandler(diagnosticSink, outputSink);
     final JavacRemoteProto.Message.Request request = JavacProtoUtil.createCompilationRequest(options, files, classpath, platformCp, sourcePath, outs);
     return sendRequest(request, rh, new RequestFuture.CancelAction<JavacServerResponseHandler>() {
-      public void cancel(RequestFuture<JavacServerResponseHandler> javacServerResponseHandlerRequestFuture) throws Exception {
-        sendRequest(JavacProtoUtil.createCancelRequest(), null, null);
+      public void cancel(RequestFuture<JavacServerResponseHandler> future) throws Exception {
+        // several compilations may run in the server simultaneously, so cancel is sent within the session of the compilation
+        sendSessionMessage(JavacProtoUtil.toMessage(future.getRequestID(), JavacProtoUtil.createCancelRequest()));
       }
     });
   }
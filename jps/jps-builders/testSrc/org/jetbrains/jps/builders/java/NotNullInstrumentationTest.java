@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java;
+
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+public class NotNullInstrumentationTest extends JpsBuildTestCase {
+  private static final int CLASS_COUNT = 300;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(myProject).setAddNotNullAssertions(true);
+  }
+
+  /**
+   * Classes are instrumented in parallel batches which share the class finder, the finder is used concurrently to compute frames
+   * for the conditional expressions mixing the classes being instrumented
+   */
+  public void testManyClassesAreInstrumentedInParallel() throws Exception {
+    createFile("src/org/jetbrains/annotations/NotNull.java",
+               "package org.jetbrains.annotations;\n" +
+               "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS)\n" +
+               "public @interface NotNull {}");
+    createFile("src/p/Base.java", "package p; public class Base {}");
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      final String next = "C" + (i + 1) % CLASS_COUNT;
+      createFile("src/p/C" + i + ".java",
+                 "package p;\n" +
+                 "import org.jetbrains.annotations.NotNull;\n" +
+                 "public class C" + i + " extends Base {\n" +
+                 "  public String m(@NotNull Object o) { return o.toString(); }\n" +
+                 "  public Base choose(boolean b, " + next + " other) { return b ? this : other; }\n" +
+                 "}");
+    }
+    addModule("m", getAbsolutePath("src"));
+    rebuildAll();
+
+    final URLClassLoader loader = new URLClassLoader(new URL[]{new File(getAbsolutePath("out/production/m")).toURI().toURL()}, null);
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      final Class<?> aClass = loader.loadClass("p.C" + i);
+      final Method method = aClass.getMethod("m", Object.class);
+      final Object instance = aClass.newInstance();
+      assertEquals("x", method.invoke(instance, "x"));
+      try {
+        method.invoke(instance, (Object)null);
+        fail("@NotNull assertion wasn't added to " + aClass.getName());
+      }
+      catch (InvocationTargetException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalArgumentException);
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.asm4.ClassReader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+
+public class AbiDigestTest extends TestCase {
+  private static final String BASE = "import java.util.List;\n" +
+                                     "public class A {\n" +
+                                     "  public static final int CONST = 1;\n" +
+                                     "  private int myField;\n" +
+                                     "  @Deprecated public List<String> foo(int x) throws Exception { return null; }\n" +
+                                     "  protected void bar() { myField++; }\n" +
+                                     "  private void baz() {}\n" +
+                                     "}";
+  private File myDir;
+  private DependencyContext myContext;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("abi-digest", null);
+    myContext = new DependencyContext(new File(myDir, "context"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myContext.close();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testMethodBodyAndPrivateMembersDoNotChangeDigest() throws Exception {
+    final long digest = computeDigest(BASE);
+    assertEquals(digest, computeDigest(BASE));
+    assertEquals(digest, computeDigest(BASE.replace("myField++;", "myField += 2; System.out.println(myField);")));
+    assertEquals(digest, computeDigest(BASE.replace("private void baz() {}", "private void baz() {} private String qux(int y) { return null; }")));
+    assertEquals(digest, computeDigest(BASE.replace("private int myField;", "private long myField;")));
+  }
+
+  public void testApiChangesChangeDigest() throws Exception {
+    final long digest = computeDigest(BASE);
+    assertFalse(digest == computeDigest(BASE.replace("CONST = 1", "CONST = 2")));
+    assertFalse(digest == computeDigest(BASE.replace("List<String>", "List<Object>")));
+    assertFalse(digest == computeDigest(BASE.replace("throws Exception", "")));
+    assertFalse(digest == computeDigest(BASE.replace("@Deprecated ", "")));
+    assertFalse(digest == computeDigest(BASE.replace("protected void bar()", "public void bar()")));
+    assertFalse(digest == computeDigest(BASE.replace("private void baz()", "void baz()")));
+    assertFalse(digest == computeDigest(BASE.replace("public class A {", "public class A implements Runnable { public void run() {}")));
+  }
+
+  private long computeDigest(String text) throws Exception {
+    final File srcDir = FileUtil.createTempDirectory(myDir, "src", null);
+    final File source = new File(srcDir, "A.java");
+    FileUtil.writeToFile(source, text);
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, compiler.run(null, null, null, "-d", srcDir.getPath(), source.getPath()));
+    final ClassReader reader = new ClassReader(FileUtil.loadFileBytes(new File(srcDir, "A.class")));
+    final ClassRepr repr = new ClassfileAnalyzer(myContext).analyze(myContext.get(source.getPath()), reader).first;
+    assertNotNull(repr);
+    return repr.getAbiDigest();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IntInlineKeyDescriptor;
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class IntIntInMemoryMultiMapletTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("in-memory-maplet", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testSnapshotIsWrittenOnClose() throws Exception {
+    final File file = new File(myDir, "table.tab");
+    IntIntInMemoryMultiMaplet maplet = new IntIntInMemoryMultiMaplet(file, new IntInlineKeyDescriptor());
+    maplet.put(1, 10);
+    maplet.put(1, 11);
+    maplet.put(2, 20);
+    maplet.put(3, 30);
+    maplet.removeFrom(1, 10);
+    maplet.remove(3);
+    maplet.close();
+
+    final IntIntPersistentMultiMaplet persistent = new IntIntPersistentMultiMaplet(file, new IntInlineKeyDescriptor());
+    try {
+      assertSameValues(persistent.get(1), 11);
+      assertSameValues(persistent.get(2), 20);
+      assertFalse(persistent.containsKey(3));
+    }
+    finally {
+      persistent.close();
+    }
+
+    maplet = new IntIntInMemoryMultiMaplet(file, new IntInlineKeyDescriptor());
+    try {
+      assertSameValues(maplet.get(1), 11);
+      assertSameValues(maplet.get(2), 20);
+      assertNull(maplet.get(3));
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  public void testConcurrentUpdates() throws Exception {
+    final IntIntInMemoryMultiMaplet maplet = new IntIntInMemoryMultiMaplet(new File(myDir, "table.tab"), new IntInlineKeyDescriptor());
+    final int threadCount = 4;
+    final int keyCount = 1000;
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final int value = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int key = 0; key < keyCount; key++) {
+            maplet.put(key, value);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    try {
+      for (int key = 0; key < keyCount; key++) {
+        assertSameValues(maplet.get(key), 0, 1, 2, 3);
+      }
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  public void testSetsAreNotShared() throws Exception {
+    final IntIntInMemoryMultiMaplet maplet = new IntIntInMemoryMultiMaplet(new File(myDir, "table.tab"), new IntInlineKeyDescriptor());
+    try {
+      final TIntHashSet replacement = new TIntHashSet(new int[]{10, 11});
+      maplet.replace(1, replacement);
+      replacement.add(12);
+      assertSameValues(maplet.get(1), 10, 11);
+
+      maplet.get(1).remove(10);
+      assertSameValues(maplet.get(1), 10, 11);
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  public void testInterruptedReplacementIsFinishedOnLoad() throws Exception {
+    final File file = new File(myDir, "table.tab");
+    IntIntInMemoryMultiMaplet maplet = new IntIntInMemoryMultiMaplet(file, new IntInlineKeyDescriptor());
+    maplet.put(1, 10);
+    maplet.close();
+
+    // emulate a crash after the old storage was deleted but before the snapshot was renamed
+    for (File child : myDir.listFiles()) {
+      assertTrue(child.renameTo(new File(myDir, "snapshot." + child.getName())));
+    }
+    maplet = new IntIntInMemoryMultiMaplet(file, new IntInlineKeyDescriptor());
+    try {
+      assertSameValues(maplet.get(1), 10);
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  private static void assertSameValues(TIntHashSet actual, int... expected) {
+    assertNotNull(actual);
+    assertEquals(expected.length, actual.size());
+    for (int value : expected) {
+      assertTrue(String.valueOf(value), actual.contains(value));
+    }
+  }
+}
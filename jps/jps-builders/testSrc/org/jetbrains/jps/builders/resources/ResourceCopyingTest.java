@@ -16,6 +16,7 @@
 package org.jetbrains.jps.builders.resources;
 
 import com.intellij.util.PathUtil;
+import com.intellij.util.io.TestFileSystemBuilder;
 import org.jetbrains.jps.builders.JpsBuildTestCase;
 import org.jetbrains.jps.model.JpsSimpleElement;
 import org.jetbrains.jps.model.java.JavaSourceRootProperties;
@@ -53,4 +54,30 @@ public class ResourceCopyingTest extends JpsBuildTestCase {
     rebuildAll();
     assertOutput(m, fs().dir("xxx").file("a.xml"));
   }
+
+  public void testManyFiles() {
+    TestFileSystemBuilder expected = fs();
+    String root = null;
+    for (int i = 0; i < 10; i++) {
+      TestFileSystemBuilder dir = expected.dir("d" + i);
+      for (int j = 0; j < 30; j++) {
+        String file = createFile("src/d" + i + "/f" + j + ".xml", "content" + i + j);
+        root = PathUtil.getParentPath(PathUtil.getParentPath(file));
+        dir.file("f" + j + ".xml", "content" + i + j);
+      }
+    }
+    JpsModule m = addModule("m", root);
+    rebuildAll();
+    assertOutput(m, expected);
+  }
+
+  public void testChangedFile() {
+    String file = createFile("src/a.xml", "a");
+    JpsModule m = addModule("m", PathUtil.getParentPath(file));
+    rebuildAll();
+    assertOutput(m, fs().file("a.xml", "a"));
+    change(file, "changed");
+    makeAll();
+    assertOutput(m, fs().file("a.xml", "changed"));
+  }
 }
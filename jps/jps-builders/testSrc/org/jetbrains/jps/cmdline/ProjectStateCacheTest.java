@@ -0,0 +1,154 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.jetbrains.jps.api.CmdlineRemoteProto.Message.ControllerMessage.FSEvent;
+import static org.jetbrains.jps.builders.CompileScopeTestBuilder.make;
+
+/**
+ * Emulates back-to-back sessions of a build process kept alive between builds
+ */
+public class ProjectStateCacheTest extends JpsBuildTestCase {
+  private ProjectStateCache myCache;
+  private File myOptionsDir;
+  private File myDataStorageRoot;
+  private Map<String, String> myPathVariables;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCache = new ProjectStateCache();
+    myOptionsDir = FileUtil.createTempDirectory("options", null);
+    myDataStorageRoot = FileUtil.createTempDirectory("data", null);
+    myPathVariables = new HashMap<String, String>();
+    FileUtil.writeToFile(new File(myOptionsDir, "jdk.table.xml"), "<application/>");
+    FileUtil.writeToFile(new File(myOptionsDir, "applicationLibraries.xml"), "<application/>");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myCache.dropState();
+    FileUtil.delete(myOptionsDir);
+    FileUtil.delete(myDataStorageRoot);
+    super.tearDown();
+  }
+
+  public void testStateIsReusedBySubsequentSessions() {
+    String a = createFile("src/A.java", "class A{}");
+    addModule("m", PathUtil.getParentPath(a));
+    ProjectDescriptor first = startSession(1);
+    doBuild(first, make().all()).assertSuccessful();
+    finishSession(first, 1);
+
+    change(a, "class A{ int i; }");
+    ProjectDescriptor second = startSession(2, a);
+    assertSame(first, second);
+    doBuild(second, make().all()).assertSuccessful();
+    finishSession(second, 2);
+
+    ProjectDescriptor third = startSession(3);
+    assertSame(first, third);
+    doBuild(third, make().all()).assertUpToDate();
+    finishSession(third, 3);
+  }
+
+  public void testNoChangesSessionKeepsState() {
+    ProjectDescriptor pd = startSession(1);
+    finishSession(pd, 1);
+    // a session without changes may skip loading the project
+    myCache.eventApplied(getProjectPath(), 2);
+    assertSame(pd, startSession(3));
+    pd.release();
+  }
+
+  public void testMissedEventsDropState() {
+    finishSession(startSession(1), 1);
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(3)));
+  }
+
+  public void testProjectConfigurationChangeDropsState() {
+    finishSession(startSession(1), 1);
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2, getAbsolutePath("m.iml"))));
+  }
+
+  public void testJdkTableChangeDropsState() throws IOException {
+    finishSession(startSession(1), 1);
+    changeOptionsFile("jdk.table.xml");
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2)));
+  }
+
+  public void testGlobalLibrariesChangeDropsState() throws IOException {
+    finishSession(startSession(1), 1);
+    changeOptionsFile("applicationLibraries.xml");
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2)));
+  }
+
+  public void testPathVariablesChangeDropsState() {
+    finishSession(startSession(1), 1);
+    myPathVariables.put("VAR", "value");
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2)));
+  }
+
+  public void testAnotherProjectDropsState() {
+    finishSession(startSession(1), 1);
+    assertNull(myCache.takeState(getAbsolutePath("another"), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2)));
+    // the state is dropped, not kept for the first project
+    assertNull(myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), createDelta(2)));
+  }
+
+  private ProjectDescriptor startSession(long ordinal, String... changedPaths) {
+    FSEvent delta = createDelta(ordinal, changedPaths);
+    ProjectDescriptor pd = myCache.takeState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), delta);
+    return pd != null ? pd : createProjectDescriptor(BuildLoggingManager.DEFAULT);
+  }
+
+  private void finishSession(ProjectDescriptor pd, long lastEventOrdinal) {
+    myCache.putState(getProjectPath(), myDataStorageRoot, getGlobalSettingsStamp(), pd, lastEventOrdinal);
+    pd.release();
+  }
+
+  private String getProjectPath() {
+    return getOrCreateProjectDir().getAbsolutePath();
+  }
+
+  private String getGlobalSettingsStamp() {
+    return ProjectStateCache.computeGlobalSettingsStamp(myOptionsDir.getAbsolutePath(), myPathVariables);
+  }
+
+  private void changeOptionsFile(String fileName) throws IOException {
+    File file = new File(myOptionsDir, fileName);
+    FileUtil.writeToFile(file, "<application><component name=\"changed\"/></application>");
+    assertTrue(file.setLastModified(file.lastModified() + 2000));
+  }
+
+  private static FSEvent createDelta(long ordinal, String... changedPaths) {
+    FSEvent.Builder builder = FSEvent.newBuilder().setOrdinal(ordinal);
+    for (String path : changedPaths) {
+      builder.addChangedPaths(path);
+    }
+    return builder.build();
+  }
+}
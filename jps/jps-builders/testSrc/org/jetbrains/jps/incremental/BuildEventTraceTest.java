@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class BuildEventTraceTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("build-trace", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEventsAreWritten() throws Exception {
+    BuildEventTrace.start("builder", "not recorded").finish();
+
+    BuildEventTrace.startRecording();
+    final BuildEventTrace.Event chunk = BuildEventTrace.start("chunk", "module \"a\"");
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        BuildEventTrace.start("javac", "a").finish();
+      }
+    }, "javac thread");
+    thread.start();
+    thread.join();
+    chunk.finish();
+    final File file = new File(myDir, "trace.json");
+    BuildEventTrace.stopRecording(file);
+    BuildEventTrace.start("builder", "after recording").finish();
+
+    final String trace = FileUtil.loadFile(file);
+    assertTrue(trace, trace.startsWith("{\"traceEvents\":["));
+    assertTrue(trace, trace.contains("\"name\":\"module \\\"a\\\"\",\"cat\":\"chunk\",\"ph\":\"X\",\"pid\":1,\"tid\":" + Thread.currentThread().getId()));
+    assertTrue(trace, trace.contains("\"name\":\"a\",\"cat\":\"javac\",\"ph\":\"X\",\"pid\":1,\"tid\":" + thread.getId()));
+    assertTrue(trace, trace.contains("\"args\":{\"name\":\"javac thread\"}"));
+    assertFalse(trace, trace.contains("not recorded"));
+    assertFalse(trace, trace.contains("after recording"));
+  }
+
+  public void testSummaryContainsChunkTimelineAndBuilderTotals() throws Exception {
+    BuildEventTrace.startRecording();
+    for (String module : new String[]{"a", "b"}) {
+      final BuildEventTrace.Event chunk = BuildEventTrace.start(BuildEventTrace.CHUNK, "module " + module);
+      BuildEventTrace.start(BuildEventTrace.BUILDER, "java").finish();
+      BuildEventTrace.start(BuildEventTrace.BUILDER, "NotNull instrumentation").finish();
+      chunk.finish();
+    }
+    final File file = new File(myDir, "trace.json");
+    final String summary = BuildEventTrace.stopRecording(null);
+    assertNotNull(summary);
+    assertFalse(file.exists());
+
+    final String thread = " [" + Thread.currentThread().getName() + "] ";
+    final int a = summary.indexOf(thread + "module a");
+    final int b = summary.indexOf(thread + "module b");
+    assertTrue(summary, a > 0 && b > a);
+    final int totals = summary.indexOf("Total time spent in builders, ms:");
+    assertTrue(summary, totals > b);
+    assertEquals(summary, totals, summary.lastIndexOf("Total time"));
+    assertTrue(summary, summary.indexOf("\n  java: ") > totals);
+    assertTrue(summary, summary.indexOf("\n  NotNull instrumentation: ") > totals);
+    assertNull(BuildEventTrace.stopRecording(null));
+  }
+}
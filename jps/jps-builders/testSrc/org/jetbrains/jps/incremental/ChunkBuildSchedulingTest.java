@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.builders.TestProjectBuilderLogger;
+import org.jetbrains.jps.builders.impl.BuildTargetChunk;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+public class ChunkBuildSchedulingTest extends JpsBuildTestCase {
+  public void testLongestChainOfDependentWorkGoesFirst() {
+    IncProjectBuilder.BuildChunkTask cheapWithExpensiveDependent = createTask(addModule("a"), 0);
+    IncProjectBuilder.BuildChunkTask expensiveDependent = createTask(addModule("b"), 1);
+    IncProjectBuilder.BuildChunkTask independent = createTask(addModule("c"), 2);
+    IncProjectBuilder.BuildChunkTask sameCostAsIndependent = createTask(addModule("d"), 3);
+    expensiveDependent.addDependency(cheapWithExpensiveDependent);
+
+    sameCostAsIndependent.computeCriticalPathCost(50);
+    independent.computeCriticalPathCost(50);
+    expensiveDependent.computeCriticalPathCost(100);
+    cheapWithExpensiveDependent.computeCriticalPathCost(10);
+
+    PriorityQueue<IncProjectBuilder.BuildChunkTask> queue =
+      new PriorityQueue<IncProjectBuilder.BuildChunkTask>(11, IncProjectBuilder.CRITICAL_PATH_FIRST);
+    queue.add(sameCostAsIndependent);
+    queue.add(independent);
+    queue.add(cheapWithExpensiveDependent);
+    assertSame(cheapWithExpensiveDependent, queue.poll());
+    assertSame(independent, queue.poll());
+    assertSame(sameCostAsIndependent, queue.poll());
+  }
+
+  public void testUpToDateBuildDoesNotChangeBuildTime() {
+    String file = createFile("src/A.java", "class A{}");
+    JpsModule module = addModule("m", PathUtil.getParentPath(file));
+    ModuleBuildTarget target = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    rebuildAll();
+    long buildTime = getAverageBuildTime(target);
+    assertTrue(buildTime >= 0);
+
+    makeAll().assertUpToDate();
+    assertEquals(buildTime, getAverageBuildTime(target));
+
+    change(file, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    assertTrue(getAverageBuildTime(target) >= 0);
+  }
+
+  private long getAverageBuildTime(BuildTarget<?> target) {
+    ProjectDescriptor descriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+    try {
+      return descriptor.getTargetsState().getAverageBuildTime(target);
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  private static IncProjectBuilder.BuildChunkTask createTask(JpsModule module, int index) {
+    BuildTarget<?> target = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    return new IncProjectBuilder.BuildChunkTask(new BuildTargetChunk(Collections.<BuildTarget<?>>singleton(target)), index);
+  }
+}
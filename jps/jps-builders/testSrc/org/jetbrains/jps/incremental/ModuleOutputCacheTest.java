@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+import org.jetbrains.jps.model.java.JpsJavaLibraryType;
+import org.jetbrains.jps.model.library.JpsLibrary;
+import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.util.JpsPathUtil;
+
+import java.io.File;
+
+import static com.intellij.util.io.TestFileSystemBuilder.fs;
+
+public class ModuleOutputCacheTest extends JpsBuildTestCase {
+  private File myCacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = FileUtil.createTempDirectory("output-cache", null);
+    System.setProperty(GlobalOptions.OUTPUT_CACHE_DIR_OPTION, myCacheDir.getAbsolutePath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    System.clearProperty(GlobalOptions.OUTPUT_CACHE_DIR_OPTION);
+    FileUtil.delete(myCacheDir);
+    super.tearDown();
+  }
+
+  public void testOutputsAreRestored() {
+    String a = createFile("src/A.java", "class A{}");
+    JpsModule module = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+
+    change(a, "class A{}");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+    assertOutput(module, fs().file("A.class"));
+    makeAll().assertUpToDate();
+  }
+
+  public void testSourceChangeIsMiss() {
+    String a = createFile("src/A.java", "class A{}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+  }
+
+  public void testDependencyChangeIsMiss() {
+    String a = createFile("src/A.java", "class A{ B b; }");
+    String b = createFile("depSrc/B.java", "public class B{}");
+    JpsModule main = addModule("main", PathUtil.getParentPath(a));
+    JpsModule dep = addModule("dep", PathUtil.getParentPath(b));
+    main.getDependenciesList().addModuleDependency(dep);
+    rebuildAll();
+    change(a, "class A{ B b; int i; }");
+    makeAll().assertSuccessful();
+
+    // the sources of 'main' are the same as in the first build, but 'dep' is different
+    change(a, "class A{ B b; }");
+    change(b, "public class B{ int i; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java", "depSrc/B.java");
+  }
+
+  public void testLibraryClassDirectoryChangeIsMiss() {
+    String a = createFile("src/A.java", "class A{}");
+    String libraryFile = createFile("lib/classes/data.txt", "1");
+    JpsModule module = addModule("m", PathUtil.getParentPath(a));
+    JpsLibrary library = myProject.addLibrary("lib", JpsJavaLibraryType.INSTANCE);
+    library.addRoot(JpsPathUtil.pathToUrl(PathUtil.getParentPath(libraryFile)), JpsOrderRootType.COMPILED);
+    module.getDependenciesList().addLibraryDependency(library);
+    rebuildAll();
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+
+    change(a, "class A{}");
+    change(libraryFile, "22");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+  }
+}
@@ -24,6 +24,8 @@ import org.jetbrains.jps.model.module.JpsModule;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static com.intellij.util.io.TestFileSystemItem.fs;
 import static org.jetbrains.jps.incremental.artifacts.LayoutElementTestUtil.archive;
@@ -78,6 +80,33 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testNestedArchiveIsNotChangedIfItsContentIsNotChanged() throws IOException {
+    createFile("dir1/sub/a.txt", "aaa");
+    String file2 = createFile("dir2/b.txt", "bbb");
+    JpsArtifact a = addArtifact(archive("a.jar").dir("lib").archive("nested.jar").dirCopy(getAbsolutePath("dir1")).end().end()
+                                  .parentDirCopy(file2));
+    buildAll();
+    long nestedJarCrc = getEntryCrc("out/artifacts/a/a.jar", "lib/nested.jar");
+
+    change(file2, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").dir("lib").archive("nested.jar").dir("sub").file("a.txt", "aaa").end().end().end().file("b.txt", "xxx"));
+    assertEquals(nestedJarCrc, getEntryCrc("out/artifacts/a/a.jar", "lib/nested.jar"));
+    buildAllAndAssertUpToDate();
+  }
+
+  private long getEntryCrc(String jarPath, String entryPath) throws IOException {
+    ZipFile zipFile = new ZipFile(getAbsolutePath(jarPath));
+    try {
+      ZipEntry entry = zipFile.getEntry(entryPath);
+      assertNotNull(entryPath, entry);
+      return entry.getCrc();
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+
   public void testRemoveDeletedFileFromArchive() {
     String file1 = createFile("dir/a.txt");
     createFile("dir/b.txt");
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.zip.JBZipFile;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class ParallelJarWriterTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("jar-writer", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEntriesAreWrittenInOrder() throws IOException {
+    File jar = new File(myDir, "a.jar");
+    ParallelJarWriter writer = new ParallelJarWriter(jar, null);
+    writer.addBytes("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(), 0);
+    writer.addDirectory("dir/");
+    List<String> expected = new ArrayList<String>(Arrays.asList("META-INF/MANIFEST.MF", "dir/"));
+    for (int i = 0; i < 100; i++) {
+      String path = "dir/" + (100 - i) + ".txt";
+      writer.addFile(path, createFile("files/" + i + ".txt", "content " + i));
+      expected.add(path);
+    }
+    writer.write();
+
+    assertEquals(expected, getEntryNames(jar));
+    for (int i = 0; i < 100; i++) {
+      assertEquals("content " + i, loadEntry(jar, "dir/" + (100 - i) + ".txt"));
+    }
+  }
+
+  public void testLargeFile() throws IOException {
+    File jar = new File(myDir, "a.jar");
+    String content = createLargeContent('a');
+    ParallelJarWriter writer = new ParallelJarWriter(jar, null);
+    writer.addFile("small.txt", createFile("small.txt", "small"));
+    writer.addFile("large.txt", createFile("large.txt", content));
+    writer.write();
+
+    assertEquals(Arrays.asList("small.txt", "large.txt"), getEntryNames(jar));
+    assertEquals("small", loadEntry(jar, "small.txt"));
+    assertEquals(content, loadEntry(jar, "large.txt"));
+  }
+
+  public void testArchiveEntriesAreCopied() throws IOException {
+    File source = new File(myDir, "source.jar");
+    ZipOutputStream output = new ZipOutputStream(new FileOutputStream(source));
+    try {
+      output.putNextEntry(new ZipEntry("a.txt"));
+      output.write("aaa".getBytes());
+      output.closeEntry();
+    }
+    finally {
+      output.close();
+    }
+
+    File jar = new File(myDir, "a.jar");
+    ParallelJarWriter writer = new ParallelJarWriter(jar, null);
+    JBZipFile sourceArchive = writer.openSourceArchive(source);
+    writer.addArchiveEntry("copied/a.txt", sourceArchive.getEntry("a.txt"), 0);
+    writer.write();
+
+    assertEquals("aaa", loadEntry(jar, "copied/a.txt"));
+  }
+
+  public void testUnchangedEntriesAreCopiedFromPreviousVersion() throws IOException {
+    File a = createFile("a.txt", "a");
+    File b = createFile("b.txt", "b");
+    File large = createFile("large.txt", createLargeContent('a'));
+    File previousJar = new File(myDir, "previous.jar");
+    writeJar(previousJar, null, a, b, large);
+
+    FileUtil.writeToFile(a, "a2");
+    File jar = new File(myDir, "a.jar");
+    assertEquals(2, writeJar(jar, previousJar, a, b, large));
+    assertEquals("a2", loadEntry(jar, "a.txt"));
+    assertEquals("b", loadEntry(jar, "b.txt"));
+    assertEquals(createLargeContent('a'), loadEntry(jar, "large.txt"));
+
+    String changedLargeContent = createLargeContent('b');
+    FileUtil.writeToFile(large, changedLargeContent);
+    File newJar = new File(myDir, "b.jar");
+    assertEquals(2, writeJar(newJar, jar, a, b, large));
+    assertEquals(changedLargeContent, loadEntry(newJar, "large.txt"));
+  }
+
+  public void testSameContentGivesSameJar() throws IOException {
+    File a = createFile("a.txt", "a");
+    File first = new File(myDir, "first.jar");
+    File second = new File(myDir, "second.jar");
+    writeJar(first, null, a);
+    writeJar(second, null, a);
+    assertTrue(Arrays.equals(FileUtil.loadFileBytes(first), FileUtil.loadFileBytes(second)));
+  }
+
+  private static int writeJar(File jar, File previousJar, File... files) throws IOException {
+    ParallelJarWriter writer = new ParallelJarWriter(jar, previousJar);
+    writer.addDirectory("dir/");
+    for (File file : files) {
+      writer.addFile(file.getName(), file);
+    }
+    writer.write();
+    return writer.getReusedEntriesCount();
+  }
+
+  private File createFile(String relativePath, String content) throws IOException {
+    File file = new File(myDir, relativePath);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+
+  private static String createLargeContent(char first) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(first);
+    for (int i = 0; builder.length() <= ParallelJarWriter.LARGE_FILE_SIZE; i++) {
+      builder.append("line ").append(i).append('\n');
+    }
+    return builder.toString();
+  }
+
+  private static List<String> getEntryNames(File jar) throws IOException {
+    List<String> names = new ArrayList<String>();
+    ZipFile zipFile = new ZipFile(jar);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+    }
+    finally {
+      zipFile.close();
+    }
+    return names;
+  }
+
+  private static String loadEntry(File jar, String path) throws IOException {
+    ZipFile zipFile = new ZipFile(jar);
+    try {
+      ZipEntry entry = zipFile.getEntry(path);
+      assertNotNull(path, entry);
+      return new String(FileUtil.loadBytes(zipFile.getInputStream(entry)));
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.RequestFuture;
+import org.jetbrains.jps.javac.*;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs compilations in the javac server started in the same process, output is post-processed slower than it is produced
+ */
+public class TasksCounterTest extends TestCase {
+  private static final int CLASS_COUNT = 100;
+  private File myDir;
+  private JavacServer myServer;
+  private JavacServerClient myClient;
+  private ExecutorService myPostProcessor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("javac-server", null);
+    final ServerSocket socket = new ServerSocket(0);
+    final int port = socket.getLocalPort();
+    socket.close();
+    myServer = new JavacServer();
+    myServer.start(port);
+    myClient = new JavacServerClient();
+    try {
+      assertTrue(myClient.connect("127.0.0.1", port));
+    }
+    catch (Throwable e) {
+      throw new Exception(e);
+    }
+    myPostProcessor = Executors.newFixedThreadPool(2);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myPostProcessor.shutdownNow();
+      myClient.disconnect();
+      myServer.stop();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testOverlappingSessionIsCanceledWhileReadingIsSuspended() throws Exception {
+    final TasksCounter counter = new TasksCounter(myClient, 4);
+    final CountDownLatch postProcessingAllowed = new CountDownLatch(1);
+    final AtomicInteger activeSaves = new AtomicInteger();
+    final Set<String> savedA = Collections.synchronizedSet(new HashSet<String>());
+    final Set<String> savedB = Collections.synchronizedSet(new HashSet<String>());
+
+    final RequestFuture<JavacServerResponseHandler> a =
+      sendCompileRequest("a", new PostProcessingConsumer(counter, postProcessingAllowed, activeSaves, savedA));
+    waitForReadingSuspended(counter);
+
+    final RequestFuture<JavacServerResponseHandler> b =
+      sendCompileRequest("b", new PostProcessingConsumer(counter, postProcessingAllowed, activeSaves, savedB));
+    b.cancel(false);
+    Thread.sleep(200);
+    // the I/O thread isn't blocked by the pending tasks
+    assertEquals(0, activeSaves.get());
+    assertTrue(counter.isReadingSuspended());
+
+    postProcessingAllowed.countDown();
+    assertTrue(a.waitFor(60, TimeUnit.SECONDS));
+    assertTrue(b.waitFor(60, TimeUnit.SECONDS));
+    assertTrue(a.getMessageHandler().isTerminatedSuccessfully());
+    counter.await();
+    assertEquals(CLASS_COUNT, savedA.size());
+    assertTrue(savedB.size() < CLASS_COUNT || !b.getMessageHandler().isTerminatedSuccessfully() || b.isCancelled());
+    assertFalse(counter.isReadingSuspended());
+  }
+
+  public void testTasksArePostProcessedIfReadingIsNotSuspended() throws Exception {
+    final TasksCounter counter = new TasksCounter(myClient, CLASS_COUNT * 2);
+    final CountDownLatch postProcessingAllowed = new CountDownLatch(0);
+    final Set<String> saved = Collections.synchronizedSet(new HashSet<String>());
+    final RequestFuture<JavacServerResponseHandler> future =
+      sendCompileRequest("c", new PostProcessingConsumer(counter, postProcessingAllowed, new AtomicInteger(), saved));
+    assertTrue(future.waitFor(60, TimeUnit.SECONDS));
+    counter.await();
+    assertTrue(future.getMessageHandler().isTerminatedSuccessfully());
+    assertEquals(CLASS_COUNT, saved.size());
+    assertFalse(counter.isReadingSuspended());
+  }
+
+  private RequestFuture<JavacServerResponseHandler> sendCompileRequest(String name, OutputFileConsumer outputSink) throws Exception {
+    final File srcRoot = new File(myDir, name + "/src");
+    final File outRoot = new File(myDir, name + "/out");
+    final List<File> files = new ArrayList<File>();
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      final File file = new File(srcRoot, "p/C" + i + ".java");
+      FileUtil.writeToFile(file, "package p; public class C" + i + " { public int f() { return " + i + "; } }");
+      files.add(file);
+    }
+    final Map<File, Set<File>> outs = Collections.singletonMap(outRoot, Collections.singleton(srcRoot));
+    final List<File> platformCp = new ArrayList<File>();
+    for (String path : StringUtil.split(System.getProperty("sun.boot.class.path"), File.pathSeparator)) {
+      platformCp.add(new File(path));
+    }
+    return myClient.sendCompileRequest(Arrays.asList("-proc:none"), files, Collections.<File>emptyList(), platformCp,
+                                       Collections.singletonList(srcRoot), outs, new NullDiagnosticConsumer(), outputSink);
+  }
+
+  private static void waitForReadingSuspended(TasksCounter counter) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 60000;
+    while (!counter.isReadingSuspended()) {
+      assertTrue("reading wasn't suspended", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private class PostProcessingConsumer implements OutputFileConsumer {
+    private final TasksCounter myCounter;
+    private final CountDownLatch myPostProcessingAllowed;
+    private final AtomicInteger myActiveSaves;
+    private final Set<String> mySaved;
+
+    private PostProcessingConsumer(TasksCounter counter, CountDownLatch postProcessingAllowed, AtomicInteger activeSaves,
+                                   Set<String> saved) {
+      myCounter = counter;
+      myPostProcessingAllowed = postProcessingAllowed;
+      myActiveSaves = activeSaves;
+      mySaved = saved;
+    }
+
+    @Override
+    public void save(@NotNull final OutputFileObject fileObject) {
+      myActiveSaves.incrementAndGet();
+      try {
+        myCounter.incTaskCount();
+        myPostProcessor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              myPostProcessingAllowed.await();
+              mySaved.add(fileObject.getClassName());
+            }
+            catch (InterruptedException ignored) {
+            }
+            finally {
+              myCounter.decTaskCounter();
+            }
+          }
+        });
+      }
+      finally {
+        myActiveSaves.decrementAndGet();
+      }
+    }
+  }
+
+  private static class NullDiagnosticConsumer implements DiagnosticOutputConsumer {
+    @Override
+    public void outputLineAvailable(String line) {
+    }
+
+    @Override
+    public void registerImports(String className, Collection<String> imports, Collection<String> staticImports) {
+    }
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+    }
+  }
+}
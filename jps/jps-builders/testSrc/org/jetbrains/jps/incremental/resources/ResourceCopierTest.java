@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.resources;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+public class ResourceCopierTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("resources", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testFilesAreCopiedInBatches() throws Exception {
+    final ResourceCopier copier = createCopier(300);
+    for (ResourceCopier.CopyTask task : copier.copy(CanceledStatus.NULL)) {
+      assertTrue(task.isProcessed());
+      assertNull(task.getError());
+      assertEquals(FileUtil.loadFile(task.getSource()), FileUtil.loadFile(task.getTarget()));
+    }
+  }
+
+  public void testInterruptedCopyingFailsAndDoesNotReportFilesAsCopied() throws Exception {
+    final ResourceCopier copier = createCopier(300);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    // keeps the batches running until the waiting thread is interrupted
+    final CanceledStatus blockingStatus = new CanceledStatus() {
+      @Override
+      public boolean isCanceled() {
+        try {
+          interrupted.await();
+        }
+        catch (InterruptedException ignored) {
+        }
+        return false;
+      }
+    };
+    Thread.currentThread().interrupt();
+    try {
+      copier.copy(blockingStatus);
+      fail("interrupted copying must fail");
+    }
+    catch (ProjectBuildException expected) {
+      assertTrue(Thread.interrupted());
+    }
+    finally {
+      interrupted.countDown();
+    }
+  }
+
+  private ResourceCopier createCopier(int fileCount) throws Exception {
+    final ResourceCopier copier = new ResourceCopier();
+    for (int i = 0; i < fileCount; i++) {
+      final File source = new File(myDir, "src/r" + i + ".txt");
+      FileUtil.writeToFile(source, "resource " + i);
+      copier.addFile(source, new File(myDir, "out/r" + i + ".txt"));
+    }
+    return copier;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.*;
+
+public class OneToManyPathsMappingTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("paths-mapping", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testPathsAreRestored() throws Exception {
+    final File file = new File(myDir, "data");
+    OneToManyPathsMapping mapping = new OneToManyPathsMapping(file);
+    mapping.update("/src/com/a/A.java", Arrays.asList("/out/com/a/A.class", "/out/com/a/A$1.class"));
+    mapping.appendData("/src/com/a/B.java", "/out/com/a/B.class");
+    mapping.appendData("/src/com/a/B.java", "/out/com/a/B$Inner.class");
+    mapping.update("C:/src/C.java", "C:/out/C.class");
+    mapping.update("//server/share/D.java", "//server/share/out/");
+    mapping.close();
+
+    mapping = new OneToManyPathsMapping(file);
+    try {
+      assertPaths(mapping.getState("/src/com/a/A.java"), "/out/com/a/A.class", "/out/com/a/A$1.class");
+      assertPaths(mapping.getState("/src/com/a/B.java"), "/out/com/a/B.class", "/out/com/a/B$Inner.class");
+      assertPaths(mapping.getState("C:/src/C.java"), "C:/out/C.class");
+      assertPaths(mapping.getState("//server/share/D.java"), "//server/share/out/");
+      assertNull(mapping.getState("/src/com/a/Unknown.java"));
+      assertNull(mapping.getState("/src/com/b/A.java"));
+      assertEquals(new HashSet<String>(Arrays.asList("/src/com/a/A.java", "/src/com/a/B.java", "C:/src/C.java", "//server/share/D.java")),
+                   new HashSet<String>(mapping.getKeys()));
+    }
+    finally {
+      mapping.close();
+    }
+  }
+
+  public void testRemove() throws Exception {
+    final OneToManyPathsMapping mapping = new OneToManyPathsMapping(new File(myDir, "data"));
+    try {
+      mapping.update("/src/A.java", Arrays.asList("/out/A.class", "/out/A$1.class"));
+      mapping.update("/src/B.java", "/out/B.class");
+      mapping.removeData("/src/A.java", "/out/A$1.class");
+      assertPaths(mapping.getState("/src/A.java"), "/out/A.class");
+      mapping.removeData("/src/A.java", "/out/A.class");
+      assertNull(mapping.getState("/src/A.java"));
+      mapping.remove("/src/B.java");
+      assertNull(mapping.getState("/src/B.java"));
+      assertTrue(mapping.getKeys().isEmpty());
+    }
+    finally {
+      mapping.close();
+    }
+  }
+
+  public void testWipe() throws Exception {
+    final OneToManyPathsMapping mapping = new OneToManyPathsMapping(new File(myDir, "data"));
+    try {
+      mapping.update("/src/A.java", "/out/A.class");
+      assertTrue(mapping.wipe());
+      assertNull(mapping.getState("/src/A.java"));
+      mapping.update("/src/B.java", "/out/B.class");
+      assertPaths(mapping.getState("/src/B.java"), "/out/B.class");
+    }
+    finally {
+      mapping.close();
+    }
+  }
+
+  public void testKeysIterator() throws Exception {
+    final OneToManyPathsMapping mapping = new OneToManyPathsMapping(new File(myDir, "data"));
+    try {
+      mapping.update("/src/A.java", "/out/A.class");
+      mapping.update("/src/b/B.java", "/out/b/B.class");
+      final Set<String> keys = new HashSet<String>();
+      for (Iterator<String> iterator = mapping.getKeysIterator(); iterator.hasNext(); ) {
+        keys.add(iterator.next());
+      }
+      assertEquals(new HashSet<String>(Arrays.asList("/src/A.java", "/src/b/B.java")), keys);
+    }
+    finally {
+      mapping.close();
+    }
+  }
+
+  public void testUpdatesConcurrentWithWipe() throws Exception {
+    final OneToManyPathsMapping mapping = new OneToManyPathsMapping(new File(myDir, "data"));
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final Thread updater = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 2000; i++) {
+            final String source = "/src/p" + i % 10 + "/A" + i + ".java";
+            final String output = "/out/p" + i % 10 + "/A" + i + ".class";
+            mapping.update(source, output);
+            final Collection<String> state = mapping.getState(source);
+            // the mapping may be wiped in between, but ids must never be resolved by another enumerator
+            if (state != null) {
+              assertPaths(state, output);
+            }
+          }
+        }
+        catch (Throwable e) {
+          errors.add(e);
+        }
+      }
+    }, "updater");
+    try {
+      updater.start();
+      for (int i = 0; i < 50 && updater.isAlive(); i++) {
+        assertTrue(mapping.wipe());
+        Thread.sleep(1);
+      }
+      updater.join();
+      assertTrue(String.valueOf(errors), errors.isEmpty());
+    }
+    finally {
+      mapping.close();
+    }
+  }
+
+  private static void assertPaths(Collection<String> actual, String... expected) {
+    assertNotNull(actual);
+    assertEquals(new HashSet<String>(Arrays.asList(expected)), new HashSet<String>(actual));
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.builders.TestProjectBuilderLogger;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TimestampStorageTest extends JpsBuildTestCase {
+  private ProjectDescriptor myDescriptor;
+  private ModuleBuildTarget myTarget;
+  private File myFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = new File(createFile("src/A.java", "class A {}"));
+    myTarget = new ModuleBuildTarget(addModule("m", myFile.getParent()), JavaModuleBuildTargetType.PRODUCTION);
+    myDescriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myDescriptor.release();
+    super.tearDown();
+  }
+
+  public void testTouchWithoutContentChangeIsNotChange() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    try {
+      storage.saveStamp(myFile, myTarget, FileSystemUtil.lastModified(myFile));
+      long stamp = touch();
+      assertFalse(storage.isFileChanged(myFile, myTarget, stamp));
+      assertEquals(stamp, storage.getStamp(myFile, myTarget));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testContentChangeOfSameLengthIsChange() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    try {
+      storage.saveStamp(myFile, myTarget, FileSystemUtil.lastModified(myFile));
+      FileUtil.writeToFile(myFile, "class B {}");
+      long stamp = touch();
+      assertTrue(storage.isFileChanged(myFile, myTarget, stamp));
+      // the file stays changed until it is compiled and its stamp is saved
+      assertTrue(storage.isFileChanged(myFile, myTarget, stamp));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testContentChangeWithRestoredTimestampIsChangeAfterTouch() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    try {
+      long stamp = FileSystemUtil.lastModified(myFile);
+      storage.saveStamp(myFile, myTarget, stamp);
+      FileUtil.writeToFile(myFile, "class B {}");
+      assertTrue(myFile.setLastModified(stamp));
+      long newStamp = touch();
+      assertTrue(storage.isFileChanged(myFile, myTarget, newStamp));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testDigestOfStampSavedOnRebuildIsComputedLater() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    try {
+      storage.saveStampDeferringDigest(myFile, myTarget, FileSystemUtil.lastModified(myFile));
+      storage.waitForDeferredDigests();
+      long stamp = touch();
+      assertFalse(storage.isFileChanged(myFile, myTarget, stamp));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testDeferredDigestIsStoredOnClose() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    storage.saveStampDeferringDigest(myFile, myTarget, FileSystemUtil.lastModified(myFile));
+    storage.close();
+
+    storage = createStorage(true);
+    try {
+      assertFalse(storage.isFileChanged(myFile, myTarget, touch()));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testDeferredDigestIsNotStoredIfFileWasChanged() throws Exception {
+    TimestampStorage storage = createStorage(true);
+    try {
+      long compiledStamp = FileSystemUtil.lastModified(myFile);
+      FileUtil.writeToFile(myFile, "class B {}");
+      touch();
+      storage.saveStampDeferringDigest(myFile, myTarget, compiledStamp);
+      storage.waitForDeferredDigests();
+      // the digest of the new content must not be taken for the digest of the compiled one
+      assertTrue(storage.isFileChanged(myFile, myTarget, FileSystemUtil.lastModified(myFile)));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  public void testTouchIsChangeIfDigestsAreDisabled() throws Exception {
+    TimestampStorage storage = createStorage(false);
+    try {
+      storage.saveStamp(myFile, myTarget, FileSystemUtil.lastModified(myFile));
+      assertTrue(storage.isFileChanged(myFile, myTarget, touch()));
+    }
+    finally {
+      storage.close();
+    }
+  }
+
+  private TimestampStorage createStorage(boolean useContentDigests) throws IOException {
+    return new TimestampStorage(new File(getOrCreateProjectDir(), "timestamps/data"), myDescriptor.getTargetsState(), useContentDigests);
+  }
+
+  private long touch() {
+    long oldStamp = FileSystemUtil.lastModified(myFile);
+    assertTrue(myFile.setLastModified(oldStamp + 10000));
+    long stamp = FileSystemUtil.lastModified(myFile);
+    assertTrue(stamp != oldStamp);
+    return stamp;
+  }
+}
@@ -29,7 +29,11 @@ import org.jetbrains.jps.model.serialization.library.JpsSdkTableSerializer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author nik
@@ -53,6 +57,32 @@ public class JpsGlobalLoader extends JpsLoaderBase {
     new JpsGlobalLoader(global, pathVariables).load(optionsDir);
   }
 
+  /**
+   * @return files under the options directory which global settings (SDK table, global libraries, etc) are loaded from
+   */
+  public static List<File> getGlobalSettingsFiles(String optionsPath) {
+    File optionsDir = new File(FileUtil.toCanonicalPath(optionsPath));
+    Set<String> fileNames = new LinkedHashSet<String>();
+    for (JpsGlobalExtensionSerializer serializer : SERIALIZERS) {
+      fileNames.add(getConfigFileName(serializer));
+    }
+    for (JpsModelSerializerExtension extension : JpsModelSerializerExtension.getExtensions()) {
+      for (JpsGlobalExtensionSerializer serializer : extension.getGlobalExtensionSerializers()) {
+        fileNames.add(getConfigFileName(serializer));
+      }
+    }
+    List<File> files = new ArrayList<File>(fileNames.size());
+    for (String fileName : fileNames) {
+      files.add(new File(optionsDir, fileName));
+    }
+    return files;
+  }
+
+  private static String getConfigFileName(JpsGlobalExtensionSerializer serializer) {
+    String fileName = serializer.getConfigFileName();
+    return fileName != null ? fileName : "other.xml";
+  }
+
   @Nullable
   public static String getPathVariable(JpsGlobal global, String name) {
     JpsSimpleElement<Map<String, String>> child = global.getContainer().getChild(PATH_VARIABLES_ROLE);
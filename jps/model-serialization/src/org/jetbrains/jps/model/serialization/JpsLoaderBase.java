@@ -21,6 +21,7 @@ import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import org.jdom.Element;
 import org.jdom.JDOMException;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.model.JpsElement;
 
 import java.io.File;
@@ -32,13 +33,24 @@ import java.io.IOException;
 public abstract class JpsLoaderBase {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.model.serialization.JpsLoaderBase");
   private final JpsMacroExpander myMacroExpander;
+  @Nullable private final JpsXmlFileCache myFileCache;
 
   protected JpsLoaderBase(JpsMacroExpander macroExpander) {
+    this(macroExpander, null);
+  }
+
+  protected JpsLoaderBase(JpsMacroExpander macroExpander, @Nullable JpsXmlFileCache fileCache) {
     myMacroExpander = macroExpander;
+    myFileCache = fileCache;
   }
 
   protected Element loadRootElement(final File file) {
-    return loadRootElement(file, myMacroExpander);
+    return loadRootElement(file, myMacroExpander, myFileCache);
+  }
+
+  @Nullable
+  protected JpsXmlFileCache getFileCache() {
+    return myFileCache;
   }
 
   protected <E extends JpsElement> void loadComponents(File dir,
@@ -64,8 +76,12 @@ public abstract class JpsLoaderBase {
   }
 
   protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander) {
+    return loadRootElement(file, macroExpander, null);
+  }
+
+  protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander, @Nullable JpsXmlFileCache fileCache) {
     try {
-      final Element element = JDOMUtil.loadDocument(file).getRootElement();
+      final Element element = fileCache != null ? fileCache.loadRootElement(file) : JDOMUtil.loadDocument(file).getRootElement();
       macroExpander.substitute(element, SystemInfo.isFileSystemCaseSensitive);
       return element;
     }
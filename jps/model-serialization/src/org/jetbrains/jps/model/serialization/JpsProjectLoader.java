@@ -51,6 +51,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
@@ -64,8 +65,8 @@ public class JpsProjectLoader extends JpsLoaderBase {
   private final JpsProject myProject;
   private final Map<String, String> myPathVariables;
 
-  private JpsProjectLoader(JpsProject project, Map<String, String> pathVariables, File baseDir) {
-    super(createProjectMacroExpander(pathVariables, baseDir));
+  private JpsProjectLoader(JpsProject project, Map<String, String> pathVariables, File baseDir, @Nullable JpsXmlFileCache fileCache) {
+    super(createProjectMacroExpander(pathVariables, baseDir), fileCache);
     myProject = project;
     myPathVariables = pathVariables;
     myProject.getContainer().setChild(JpsProjectSerializationDataExtensionImpl.ROLE, new JpsProjectSerializationDataExtensionImpl(baseDir));
@@ -78,9 +79,18 @@ public class JpsProjectLoader extends JpsLoaderBase {
   }
 
   public static void loadProject(final JpsProject project, Map<String, String> pathVariables, String projectPath) throws IOException {
+    loadProject(project, pathVariables, projectPath, null);
+  }
+
+  /**
+   * @param fileCache if specified, unchanged configuration files are restored from this snapshot instead of being parsed. The caller
+   * is responsible for saving the snapshot after the project is loaded.
+   */
+  public static void loadProject(final JpsProject project, Map<String, String> pathVariables, String projectPath,
+                                 @Nullable JpsXmlFileCache fileCache) throws IOException {
     File file = new File(FileUtil.toCanonicalPath(projectPath));
     if (file.isFile() && projectPath.endsWith(".ipr")) {
-      new JpsProjectLoader(project, pathVariables, file.getParentFile()).loadFromIpr(file);
+      new JpsProjectLoader(project, pathVariables, file.getParentFile(), fileCache).loadFromIpr(file);
     }
     else {
       File directory;
@@ -93,7 +103,7 @@ public class JpsProjectLoader extends JpsLoaderBase {
           throw new IOException("Cannot find IntelliJ IDEA project files at " + projectPath);
         }
       }
-      new JpsProjectLoader(project, pathVariables, directory.getParentFile()).loadFromDirectory(directory);
+      new JpsProjectLoader(project, pathVariables, directory.getParentFile(), fileCache).loadFromDirectory(directory);
     }
   }
 
@@ -214,9 +224,8 @@ public class JpsProjectLoader extends JpsLoaderBase {
     Element componentRoot = JDomSerializationUtil.findComponent(root, "ProjectModuleManager");
     if (componentRoot == null) return;
     final Element modules = componentRoot.getChild("modules");
-    List<Future<JpsModule>> futures = new ArrayList<Future<JpsModule>>();
-    final List<String> paths = new ArrayList<String>();
-    final List<String> classpathDirs = new ArrayList<String>();
+    final List<File> moduleFiles = new ArrayList<File>();
+    final List<Future<Element>> rootFutures = new ArrayList<Future<Element>>();
     for (Element moduleElement : JDOMUtil.getChildren(modules, "module")) {
       final String path = moduleElement.getAttributeValue("filepath");
       final File file = new File(path);
@@ -225,46 +234,65 @@ public class JpsProjectLoader extends JpsLoaderBase {
         continue;
       }
 
-      final JpsMacroExpander expander = createModuleMacroExpander(myPathVariables, file);
-      final Element moduleRoot = loadRootElement(file, expander);
+      moduleFiles.add(file);
+      rootFutures.add(ourThreadPool.submit(new Callable<Element>() {
+        @Override
+        public Element call() throws Exception {
+          return loadRootElement(file, createModuleMacroExpander(myPathVariables, file), getFileCache());
+        }
+      }));
+    }
+
+    // classpath dirs of all modules are required to load a module, so modules are loaded after all files are parsed
+    final List<Element> moduleRoots = getResults(rootFutures);
+    final List<String> classpathDirs = new ArrayList<String>();
+    for (Element moduleRoot : moduleRoots) {
       final String classpathDir = moduleRoot.getAttributeValue(CLASSPATH_DIR_ATTRIBUTE);
       if (classpathDir != null) {
         classpathDirs.add(classpathDir);
       }
-      paths.add(path);
     }
-    for (final String path : paths) {
+
+    List<Future<JpsModule>> futures = new ArrayList<Future<JpsModule>>();
+    for (int i = 0; i < moduleFiles.size(); i++) {
+      final File file = moduleFiles.get(i);
+      final Element moduleRoot = moduleRoots.get(i);
       futures.add(ourThreadPool.submit(new Callable<JpsModule>() {
         @Override
         public JpsModule call() throws Exception {
-          return loadModule(path, classpathDirs, projectSdkType);
+          return loadModule(file, moduleRoot, classpathDirs, projectSdkType);
         }
       }));
     }
+    // modules are added in the order they are listed in modules.xml regardless of the order in which they were loaded
+    for (JpsModule module : getResults(futures)) {
+      myProject.addModule(module);
+    }
+  }
+
+  private static <T> List<T> getResults(List<Future<T>> futures) {
+    List<T> results = new ArrayList<T>(futures.size());
     try {
-      for (Future<JpsModule> future : futures) {
-        JpsModule module = future.get();
-        if (module != null) {
-          myProject.addModule(module);
-        }
+      for (Future<T> future : futures) {
+        results.add(future.get());
       }
     }
-    catch (Exception e) {
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    catch (InterruptedException e) {
       throw new RuntimeException(e);
     }
+    return results;
   }
 
-  @Nullable
-  private JpsModule loadModule(@NotNull String path, List<String> paths, @Nullable JpsSdkType<?> projectSdkType) {
-    final File file = new File(path);
+  @NotNull
+  private JpsModule loadModule(@NotNull File file, @NotNull Element moduleRoot, List<String> paths, @Nullable JpsSdkType<?> projectSdkType) {
     String name = FileUtil.getNameWithoutExtension(file);
-    if (!file.exists()) {
-      LOG.info("Module '" + name + "' is skipped: " + file.getAbsolutePath() + " doesn't exist");
-      return null;
-    }
-
     final JpsMacroExpander expander = createModuleMacroExpander(myPathVariables, file);
-    final Element moduleRoot = loadRootElement(file, expander);
     final String typeId = moduleRoot.getAttributeValue("type");
     final JpsModulePropertiesSerializer<?> serializer = getModulePropertiesSerializer(typeId);
     final JpsModule module = createModule(name, moduleRoot, serializer);
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.TObjectIntHashMap;
+import org.jdom.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary snapshot of parsed project configuration files. Each file is stored with its length, timestamp and the digest of its content;
+ * if the content of the file isn't changed since the snapshot was saved its root element is restored from the snapshot instead of
+ * parsing xml. The content is read and its digest is compared only if the length or the timestamp of the file differ.
+ * Elements are stored before macro substitution so the snapshot doesn't depend on path variables.
+ *
+ * @see JpsProjectLoader#loadProject(org.jetbrains.jps.model.JpsProject, java.util.Map, String, JpsXmlFileCache)
+ */
+public class JpsXmlFileCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.model.serialization.JpsXmlFileCache");
+  private static final int VERSION = 1;
+  private static final byte ELEMENT_CONTENT = 0;
+  private static final byte TEXT_CONTENT = 1;
+  private static final byte CDATA_CONTENT = 2;
+  private static final int MAX_UTF_LENGTH = 65535 / 3;
+  private static final JDOMFactory ourFactory = new UncheckedJDOMFactory();
+  private final File myStorageFile;
+  private final Map<String, CachedFile> myCachedFiles = new ConcurrentHashMap<String, CachedFile>();
+  private final Map<String, CachedFile> myUsedFiles = new ConcurrentHashMap<String, CachedFile>();
+  private volatile boolean myChanged;
+
+  private JpsXmlFileCache(File storageFile) {
+    myStorageFile = storageFile;
+  }
+
+  @NotNull
+  public static JpsXmlFileCache load(@NotNull File storageFile) {
+    JpsXmlFileCache cache = new JpsXmlFileCache(storageFile);
+    if (storageFile.isFile()) {
+      try {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(storageFile)));
+        try {
+          if (input.readInt() == VERSION) {
+            int count = DataInputOutputUtil.readINT(input);
+            for (int i = 0; i < count; i++) {
+              String path = IOUtil.readString(input);
+              long length = input.readLong();
+              long timestamp = input.readLong();
+              byte[] digest = readBytes(input);
+              byte[] data = readBytes(input);
+              cache.myCachedFiles.put(path, new CachedFile(length, timestamp, digest, data));
+            }
+          }
+        }
+        finally {
+          input.close();
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot load project files snapshot from " + storageFile + ": " + e.getMessage());
+        cache.myCachedFiles.clear();
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return root element of the file without macro substitution
+   */
+  @NotNull
+  public Element loadRootElement(@NotNull File file) throws IOException, JDOMException {
+    String path = FileUtil.toSystemIndependentName(file.getAbsolutePath());
+    long length = file.length();
+    long timestamp = file.lastModified();
+    CachedFile cached = myCachedFiles.get(path);
+    if (cached != null && cached.myLength == length && cached.myTimestamp == timestamp) {
+      Element element = restoreElement(path, cached);
+      if (element != null) {
+        myUsedFiles.put(path, cached);
+        return element;
+      }
+    }
+
+    // the timestamp may change without changing the content, e.g. after VCS update, so compare digests before parsing the file
+    byte[] content = FileUtil.loadFileBytes(file);
+    byte[] digest = computeDigest(content);
+    if (cached != null && Arrays.equals(cached.myDigest, digest)) {
+      Element element = restoreElement(path, cached);
+      if (element != null) {
+        myUsedFiles.put(path, new CachedFile(length, timestamp, digest, cached.myData));
+        myChanged = true;
+        return element;
+      }
+    }
+
+    Element element = JDOMUtil.loadDocument(content).getRootElement();
+    BufferExposingByteArrayOutputStream data = new BufferExposingByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(data);
+    writeElement(output, element, new TObjectIntHashMap<String>());
+    output.close();
+    myUsedFiles.put(path, new CachedFile(length, timestamp, digest, data.toByteArray()));
+    myChanged = true;
+    return element;
+  }
+
+  @Nullable
+  private static Element restoreElement(String path, CachedFile cached) {
+    try {
+      return readElement(new DataInputStream(new ByteArrayInputStream(cached.myData)), new ArrayList<String>());
+    }
+    catch (IOException e) {
+      LOG.info("Cannot restore " + path + " from project files snapshot: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Writes the snapshot to disk. Only files requested by {@link #loadRootElement(File)} are stored.
+   */
+  public void save() {
+    if (!myChanged && myUsedFiles.size() == myCachedFiles.size()) {
+      return;
+    }
+    try {
+      File tempFile = new File(myStorageFile.getPath() + ".tmp");
+      FileUtil.createParentDirs(tempFile);
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        output.writeInt(VERSION);
+        DataInputOutputUtil.writeINT(output, myUsedFiles.size());
+        for (Map.Entry<String, CachedFile> entry : myUsedFiles.entrySet()) {
+          CachedFile cachedFile = entry.getValue();
+          IOUtil.writeString(entry.getKey(), output);
+          output.writeLong(cachedFile.myLength);
+          output.writeLong(cachedFile.myTimestamp);
+          writeBytes(output, cachedFile.myDigest);
+          writeBytes(output, cachedFile.myData);
+        }
+      }
+      finally {
+        output.close();
+      }
+      FileUtil.delete(myStorageFile);
+      if (!tempFile.renameTo(myStorageFile)) {
+        LOG.info("Cannot rename " + tempFile + " to " + myStorageFile);
+        FileUtil.delete(tempFile);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save project files snapshot to " + myStorageFile + ": " + e.getMessage());
+    }
+  }
+
+  private static byte[] computeDigest(byte[] content) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(content);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void writeElement(DataOutput output, Element element, TObjectIntHashMap<String> names) throws IOException {
+    writeName(output, element.getName(), names);
+    writeNamespace(output, element.getNamespace(), names);
+    @SuppressWarnings("unchecked") List<Namespace> additionalNamespaces = element.getAdditionalNamespaces();
+    DataInputOutputUtil.writeINT(output, additionalNamespaces.size());
+    for (Namespace namespace : additionalNamespaces) {
+      writeNamespace(output, namespace, names);
+    }
+    @SuppressWarnings("unchecked") List<Attribute> attributes = element.getAttributes();
+    DataInputOutputUtil.writeINT(output, attributes.size());
+    for (Attribute attribute : attributes) {
+      writeName(output, attribute.getName(), names);
+      writeNamespace(output, attribute.getNamespace(), names);
+      writeText(output, attribute.getValue());
+    }
+
+    List<Content> children = new ArrayList<Content>();
+    for (Object child : element.getContent()) {
+      // comments and processing instructions aren't used by serializers
+      if (child instanceof Element || child instanceof Text) {
+        children.add((Content)child);
+      }
+    }
+    DataInputOutputUtil.writeINT(output, children.size());
+    for (Content child : children) {
+      if (child instanceof Element) {
+        output.writeByte(ELEMENT_CONTENT);
+        writeElement(output, (Element)child, names);
+      }
+      else {
+        output.writeByte(child instanceof CDATA ? CDATA_CONTENT : TEXT_CONTENT);
+        writeText(output, ((Text)child).getText());
+      }
+    }
+  }
+
+  private static Element readElement(DataInput input, List<String> names) throws IOException {
+    String name = readName(input, names);
+    Element element = ourFactory.element(name, readNamespace(input, names));
+    int additionalNamespacesCount = DataInputOutputUtil.readINT(input);
+    for (int i = 0; i < additionalNamespacesCount; i++) {
+      ourFactory.addNamespaceDeclaration(element, readNamespace(input, names));
+    }
+    int attributesCount = DataInputOutputUtil.readINT(input);
+    for (int i = 0; i < attributesCount; i++) {
+      String attributeName = readName(input, names);
+      Namespace namespace = readNamespace(input, names);
+      ourFactory.setAttribute(element, ourFactory.attribute(attributeName, readText(input), namespace));
+    }
+
+    int childrenCount = DataInputOutputUtil.readINT(input);
+    for (int i = 0; i < childrenCount; i++) {
+      byte kind = input.readByte();
+      if (kind == ELEMENT_CONTENT) {
+        ourFactory.addContent(element, readElement(input, names));
+      }
+      else if (kind == TEXT_CONTENT) {
+        ourFactory.addContent(element, ourFactory.text(readText(input)));
+      }
+      else if (kind == CDATA_CONTENT) {
+        ourFactory.addContent(element, ourFactory.cdata(readText(input)));
+      }
+      else {
+        throw new IOException("Unexpected content kind: " + kind);
+      }
+    }
+    return element;
+  }
+
+  private static void writeNamespace(DataOutput output, Namespace namespace, TObjectIntHashMap<String> names) throws IOException {
+    if (Namespace.NO_NAMESPACE.equals(namespace)) {
+      output.writeBoolean(false);
+    }
+    else {
+      output.writeBoolean(true);
+      writeName(output, namespace.getPrefix(), names);
+      writeName(output, namespace.getURI(), names);
+    }
+  }
+
+  private static Namespace readNamespace(DataInput input, List<String> names) throws IOException {
+    if (!input.readBoolean()) {
+      return Namespace.NO_NAMESPACE;
+    }
+    String prefix = readName(input, names);
+    return Namespace.getNamespace(prefix, readName(input, names));
+  }
+
+  /**
+   * Names are written once per file, subsequent occurrences are replaced by their indices
+   */
+  private static void writeName(DataOutput output, String name, TObjectIntHashMap<String> names) throws IOException {
+    int index = names.get(name);
+    if (index > 0) {
+      DataInputOutputUtil.writeINT(output, index);
+    }
+    else {
+      DataInputOutputUtil.writeINT(output, 0);
+      writeText(output, name);
+      names.put(name, names.size() + 1);
+    }
+  }
+
+  private static String readName(DataInput input, List<String> names) throws IOException {
+    int index = DataInputOutputUtil.readINT(input);
+    if (index > 0) {
+      if (index > names.size()) {
+        throw new IOException("Unknown name index: " + index);
+      }
+      return names.get(index - 1);
+    }
+    String name = readText(input);
+    names.add(name);
+    return name;
+  }
+
+  private static void writeText(DataOutput output, String text) throws IOException {
+    // modified UTF-8 is more compact and faster to decode, but it's limited to 65535 bytes
+    if (text.length() <= MAX_UTF_LENGTH) {
+      output.writeBoolean(true);
+      output.writeUTF(text);
+    }
+    else {
+      output.writeBoolean(false);
+      IOUtil.writeString(text, output);
+    }
+  }
+
+  private static String readText(DataInput input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : IOUtil.readString(input);
+  }
+
+  private static void writeBytes(DataOutput output, byte[] bytes) throws IOException {
+    DataInputOutputUtil.writeINT(output, bytes.length);
+    output.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput input) throws IOException {
+    byte[] bytes = new byte[DataInputOutputUtil.readINT(input)];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  private static class CachedFile {
+    private final long myLength;
+    private final long myTimestamp;
+    private final byte[] myDigest;
+    private final byte[] myData;
+
+    private CachedFile(long length, long timestamp, byte[] digest, byte[] data) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myDigest = digest;
+      myData = data;
+    }
+  }
+}
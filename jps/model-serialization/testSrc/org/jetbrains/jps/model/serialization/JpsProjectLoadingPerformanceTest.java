@@ -0,0 +1,139 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.impl.JpsModelImpl;
+import org.jetbrains.jps.model.module.JpsDependencyElement;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.model.module.JpsModuleDependency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class JpsProjectLoadingPerformanceTest extends JpsSerializationTestCase {
+  private static final int MODULES_COUNT = 3000;
+  private static final int DEPENDENCIES_COUNT = 10;
+  private File myProjectDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myProjectDir = FileUtil.createTempDirectory("largeProject", null);
+    generateProject(myProjectDir);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myProjectDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testLoadLargeProject() throws Exception {
+    PlatformTestUtil.startPerformanceTest("Loading project with " + MODULES_COUNT + " modules", 5000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        JpsProject project = new JpsModelImpl(myDispatcher).getProject();
+        JpsProjectLoader.loadProject(project, getPathVariables(), myProjectDir.getAbsolutePath());
+      }
+    }).cpuBound().assertTiming();
+
+    loadProjectByAbsolutePath(myProjectDir.getAbsolutePath());
+    List<JpsModule> modules = myProject.getModules();
+    assertEquals(MODULES_COUNT, modules.size());
+    for (int i = 0; i < MODULES_COUNT; i++) {
+      JpsModule module = modules.get(i);
+      assertEquals(getModuleName(i), module.getName());
+      List<JpsDependencyElement> dependencies = module.getDependenciesList().getDependencies();
+      int moduleDependenciesCount = 0;
+      for (JpsDependencyElement dependency : dependencies) {
+        if (dependency instanceof JpsModuleDependency) {
+          assertSame(modules.get(Math.max(0, i - DEPENDENCIES_COUNT) + moduleDependenciesCount), ((JpsModuleDependency)dependency).getModule());
+          moduleDependenciesCount++;
+        }
+      }
+      assertEquals(Math.min(i, DEPENDENCIES_COUNT), moduleDependenciesCount);
+    }
+  }
+
+  private static void generateProject(File projectDir) throws IOException {
+    File ideaDir = new File(projectDir, ".idea");
+    FileUtil.writeToFile(new File(ideaDir, "misc.xml"),
+                         "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                         "<project version=\"4\">\n" +
+                         "  <component name=\"ProjectRootManager\" version=\"2\" languageLevel=\"JDK_1_6\" project-jdk-name=\"1.6\" project-jdk-type=\"JavaSDK\">\n" +
+                         "    <output url=\"file://$PROJECT_DIR$/out\" />\n" +
+                         "  </component>\n" +
+                         "</project>\n");
+
+    StringBuilder modules = new StringBuilder();
+    modules.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    modules.append("<project version=\"4\">\n");
+    modules.append("  <component name=\"ProjectModuleManager\">\n");
+    modules.append("    <modules>\n");
+    for (int i = 0; i < MODULES_COUNT; i++) {
+      String name = getModuleName(i);
+      String path = "$PROJECT_DIR$/" + name + "/" + name + ".iml";
+      modules.append("      <module fileurl=\"file://").append(path).append("\" filepath=\"").append(path).append("\" />\n");
+      FileUtil.writeToFile(new File(projectDir, name + "/" + name + ".iml"), generateModuleFile(i));
+    }
+    modules.append("    </modules>\n");
+    modules.append("  </component>\n");
+    modules.append("</project>\n");
+    FileUtil.writeToFile(new File(ideaDir, "modules.xml"), modules.toString());
+  }
+
+  private static String generateModuleFile(int index) {
+    StringBuilder text = new StringBuilder();
+    text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    text.append("<module type=\"JAVA_MODULE\" version=\"4\">\n");
+    text.append("  <component name=\"NewModuleRootManager\" inherit-compiler-output=\"true\">\n");
+    text.append("    <exclude-output />\n");
+    text.append("    <content url=\"file://$MODULE_DIR$\">\n");
+    text.append("      <sourceFolder url=\"file://$MODULE_DIR$/src\" isTestSource=\"false\" />\n");
+    text.append("      <sourceFolder url=\"file://$MODULE_DIR$/testSrc\" isTestSource=\"true\" />\n");
+    text.append("    </content>\n");
+    text.append("    <orderEntry type=\"inheritedJdk\" />\n");
+    text.append("    <orderEntry type=\"sourceFolder\" forTests=\"false\" />\n");
+    for (int i = Math.max(0, index - DEPENDENCIES_COUNT); i < index; i++) {
+      text.append("    <orderEntry type=\"module\" module-name=\"").append(getModuleName(i)).append("\" />\n");
+    }
+    text.append("    <orderEntry type=\"module-library\" scope=\"TEST\">\n");
+    text.append("      <library>\n");
+    text.append("        <CLASSES>\n");
+    text.append("          <root url=\"jar://$MODULE_DIR$/lib/junit.jar!/\" />\n");
+    text.append("        </CLASSES>\n");
+    text.append("        <JAVADOC />\n");
+    text.append("        <SOURCES />\n");
+    text.append("      </library>\n");
+    text.append("    </orderEntry>\n");
+    text.append("  </component>\n");
+    text.append("</module>\n");
+    return text.toString();
+  }
+
+  private static String getModuleName(int index) {
+    return "module" + index;
+  }
+}
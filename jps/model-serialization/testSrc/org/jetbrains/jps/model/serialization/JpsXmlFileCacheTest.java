@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jdom.Element;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.impl.JpsModelImpl;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+import java.util.List;
+
+public class JpsXmlFileCacheTest extends JpsSerializationTestCase {
+  private File myTempDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("xmlFileCache", null);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myTempDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testLoadProjectFromSnapshot() throws Exception {
+    File snapshot = new File(myTempDir, "snapshot.dat");
+    String projectPath = getTestDataFileAbsolutePath(JpsProjectSerializationTest.SAMPLE_PROJECT_PATH);
+    JpsXmlFileCache cache = JpsXmlFileCache.load(snapshot);
+    JpsProjectLoader.loadProject(myProject, getPathVariables(), projectPath, cache);
+    cache.save();
+    assertTrue(snapshot.isFile());
+
+    JpsProject restored = new JpsModelImpl(myDispatcher).getProject();
+    JpsProjectLoader.loadProject(restored, getPathVariables(), projectPath, JpsXmlFileCache.load(snapshot));
+    assertEquals(myProject.getName(), restored.getName());
+    List<JpsModule> modules = myProject.getModules();
+    List<JpsModule> restoredModules = restored.getModules();
+    assertEquals(modules.size(), restoredModules.size());
+    for (int i = 0; i < modules.size(); i++) {
+      assertEquals(modules.get(i).getName(), restoredModules.get(i).getName());
+      assertEquals(modules.get(i).getContentRootsList().getUrls(), restoredModules.get(i).getContentRootsList().getUrls());
+      assertEquals(modules.get(i).getSourceRoots().size(), restoredModules.get(i).getSourceRoots().size());
+      assertEquals(modules.get(i).getDependenciesList().getDependencies().size(),
+                   restoredModules.get(i).getDependenciesList().getDependencies().size());
+    }
+    assertEquals(myProject.getLibraryCollection().getLibraries().size(), restored.getLibraryCollection().getLibraries().size());
+  }
+
+  public void testRestoredElementIsEqualToParsed() throws Exception {
+    File file = new File(myTempDir, "a.xml");
+    FileUtil.writeToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                               "<root a=\"1\" xmlns:x=\"http://x\"><x:child x:b=\"2\">text</x:child>" +
+                               "<child><![CDATA[<data>]]></child><child/></root>");
+    File snapshot = new File(myTempDir, "snapshot.dat");
+    JpsXmlFileCache cache = JpsXmlFileCache.load(snapshot);
+    Element parsed = cache.loadRootElement(file);
+    cache.save();
+
+    Element restored = JpsXmlFileCache.load(snapshot).loadRootElement(file);
+    assertTrue(JDOMUtil.areElementsEqual(parsed, restored));
+    assertEquals(JDOMUtil.writeElement(parsed, "\n"), JDOMUtil.writeElement(restored, "\n"));
+  }
+
+  public void testChangedFileIsParsedAgain() throws Exception {
+    File file = new File(myTempDir, "a.xml");
+    FileUtil.writeToFile(file, "<root><old/></root>");
+    File snapshot = new File(myTempDir, "snapshot.dat");
+    JpsXmlFileCache cache = JpsXmlFileCache.load(snapshot);
+    cache.loadRootElement(file);
+    cache.save();
+
+    FileUtil.writeToFile(file, "<root><newer/></root>");
+    Element element = JpsXmlFileCache.load(snapshot).loadRootElement(file);
+    assertNotNull(element.getChild("newer"));
+    assertNull(element.getChild("old"));
+  }
+}
@@ -50,6 +50,18 @@ public abstract class JobLauncher {
                                                      boolean failFastOnAcquireReadAction,
                                                      @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException;
 
+  /**
+   * Same as {@link #invokeConcurrentlyUnderProgress(List, ProgressIndicator, boolean, Processor)}, but if processInOrder is true,
+   * the elements are started approximately in the order of the list, e.g. cheap ones can be put first so their results appear sooner
+   */
+  public <T> boolean invokeConcurrentlyUnderProgress(@NotNull List<T> things,
+                                                     ProgressIndicator progress,
+                                                     boolean failFastOnAcquireReadAction,
+                                                     boolean processInOrder,
+                                                     @NotNull Processor<T> thingProcessor) throws ProcessCanceledException {
+    return invokeConcurrentlyUnderProgress(things, progress, failFastOnAcquireReadAction, thingProcessor);
+  }
+
   public abstract <T> AsyncFuture<Boolean> invokeConcurrentlyUnderProgressAsync(
                                                               @NotNull List<T> things,
                                                               ProgressIndicator progress,
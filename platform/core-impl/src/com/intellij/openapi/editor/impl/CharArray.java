@@ -24,6 +24,7 @@ import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.text.CharArrayCharSequence;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.CharSequenceBackedByArray;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -57,6 +58,14 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   private final TextChangesStorage myDeferredChangesStorage;
 
+  /**
+   * In the rope mode the text is always kept as an {@link ImmutableText} in {@link #myOriginalSequence}, so edits take O(log n) time
+   * instead of shifting the array tail and {@link #getCharArray()} returns an immutable snapshot of the text. {@link #myArray} is
+   * only a copy of the text materialized on {@link #getChars()} request, it's dropped on the next modification. Deferred changes
+   * mode is not used since the rope doesn't shift anything on changes.
+   */
+  private final boolean myUseRope;
+
   private volatile int myStart; // start offset in myArray (used as an optimization when call substring())
   private volatile int myCount;
 
@@ -100,9 +109,19 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   // bufferSize == 0 means unbounded
   CharArray(final int bufferSize, @NotNull char[] data, int length) {
+    this(bufferSize, data, length, false);
+  }
+
+  CharArray(final int bufferSize, @NotNull char[] data, int length, boolean useRope) {
     myBufferSize = bufferSize;
     myDeferredChangesStorage = new TextChangesStorage();
-    myArray = Arrays.copyOf(data, length);
+    myUseRope = useRope;
+    if (useRope) {
+      myOriginalSequence = ImmutableText.valueOf(new CharArrayCharSequence(data, 0, length));
+    }
+    else {
+      myArray = Arrays.copyOf(data, length);
+    }
     myCount = length;
 
     if (myDebug) {
@@ -167,7 +186,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   private void setText(@NotNull CharSequence chars) {
     assertConsistency();
-    myOriginalSequence = chars.toString();
+    myOriginalSequence = myUseRope ? ImmutableText.valueOf(chars) : chars.toString();
     myArray = null;
     myStringRef = null;
     myCount = chars.length();
@@ -256,7 +275,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private void doReplace(int startOffset, int endOffset, @NotNull CharSequence newString) {
     prepareForModification();
 
-    if (isDeferredChangeMode()) {
+    if (myUseRope) {
+      setRope(getRope().replace(startOffset, endOffset, newString));
+    }
+    else if (isDeferredChangeMode()) {
       storeChange(new TextChangeImpl(newString, startOffset, endOffset));
       if (myDebug) {
         myDebugArray.doReplace(startOffset, endOffset, newString);
@@ -293,7 +315,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
     prepareForModification();
 
-    if (isDeferredChangeMode()) {
+    if (myUseRope) {
+      setRope(getRope().delete(startIndex, endIndex));
+    }
+    else if (isDeferredChangeMode()) {
       storeChange(new TextChangeImpl("", startIndex, endIndex));
       if (myDebug) {
         myDebugArray.doRemove(startIndex, endIndex);
@@ -321,7 +346,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private void doInsert(@NotNull CharSequence s, final int startIndex) {
     prepareForModification();
 
-    if (isDeferredChangeMode()) {
+    if (myUseRope) {
+      setRope(getRope().insert(startIndex, s));
+    }
+    else if (isDeferredChangeMode()) {
       storeChange(new TextChangeImpl(s, startIndex));
       if (myDebug) {
         myDebugArray.doInsert(s, startIndex);
@@ -365,8 +393,22 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
   }
 
+  @NotNull
+  private ImmutableText getRope() {
+    return (ImmutableText)myOriginalSequence;
+  }
+
+  private void setRope(@NotNull ImmutableText rope) {
+    myOriginalSequence = rope;
+    myCount = rope.length();
+  }
+
   private void prepareForModification() {
-    if (myOriginalSequence != null) {
+    if (myUseRope) {
+      // the materialized array would become stale
+      myArray = null;
+    }
+    else if (myOriginalSequence != null) {
       myArray = new char[myOriginalSequence.length()];
       CharArrayUtil.getChars(myOriginalSequence, myArray, 0);
       myCount = myArray.length;
@@ -600,7 +642,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    * @param deferredChangeMode    flag that defines if <code>'defer changes'</code> mode should be used by the current object
    */
   public void setDeferredChangeMode(boolean deferredChangeMode) {
-    if (!DISABLE_DEFERRED_PROCESSING) {
+    if (!DISABLE_DEFERRED_PROCESSING && !myUseRope) {
       if (deferredChangeMode) {
         if (myDebug) {
           myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
@@ -37,6 +37,7 @@ import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.text.CharArrayUtil;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -51,6 +52,11 @@ import java.util.List;
 public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.impl.DocumentImpl");
   public static boolean CHECK_DOCUMENT_CONSISTENCY = ApplicationManager.getApplication().isUnitTestMode();
+  /**
+   * Keep document text in a rope instead of a plain char array, see {@link #getImmutableCharSequence()}
+   */
+  @SuppressWarnings("UseOfArchaicSystemPropertyAccessors")
+  private static final boolean USE_ROPE = Boolean.getBoolean("idea.document.use.rope");
 
   private final List<DocumentListener> myDocumentListeners = ContainerUtil.createLockFreeCopyOnWriteList();
   private final RangeMarkerTree<RangeMarkerEx> myRangeMarkers = new RangeMarkerTree<RangeMarkerEx>(this);
@@ -86,7 +92,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
 
   public DocumentImpl(@NotNull CharSequence chars, boolean forUseInNonAWTThread) {
     assertValidSeparators(chars);
-    myText = new MyCharArray(CharArrayUtil.fromSequence(chars), chars.length());
+    myText = new MyCharArray(CharArrayUtil.fromSequence(chars), chars.length(), USE_ROPE);
     myLineSet.documentCreated(this);
     setCyclicBufferSize(0);
     setModificationStamp(LocalTimeCounter.currentTime());
@@ -644,6 +650,16 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     return myText.getCharArray();
   }
 
+  /**
+   * @return snapshot of the current document text which isn't affected by subsequent document changes. It's taken in constant time
+   *         when the document text is kept in a rope ('idea.document.use.rope' system property), otherwise the text is copied
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    final CharSequence text = myText.getCharArray();
+    return text instanceof ImmutableText ? text : myText.toString();
+  }
+
 
   @Override
   public void addDocumentListener(@NotNull DocumentListener listener) {
@@ -838,8 +854,8 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   }
 
   private class MyCharArray extends CharArray {
-    private MyCharArray(@NotNull char[] chars, int length) {
-      super(0, chars, length);
+    private MyCharArray(@NotNull char[] chars, int length, boolean useRope) {
+      super(0, chars, length, useRope);
     }
 
     @Override
@@ -19,27 +19,58 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.ex.LineIterator;
-import com.intellij.openapi.editor.ex.util.SegmentArrayWithData;
 import com.intellij.openapi.editor.impl.event.DocumentEventImpl;
 import com.intellij.openapi.util.text.LineTokenizer;
-import com.intellij.util.text.MergingCharSequence;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Data structure specialized for working with document text lines, i.e. stores information about line mapping to document
  * offsets and provides convenient ways to work with that information like retrieving target line by document offset etc.
  * <p/>
+ * Lines are kept in a balanced tree of small line chunks where every subtree knows its number of lines and total text length, so
+ * a document change updates the line set in O(log n) time plus time proportional to the number of changed lines, and all lookups
+ * take O(log n) time. Lookups of lines near the previously accessed one are served from the last accessed chunk.
+ * <p/>
  * Not thread-safe.
  */
 public class LineSet{
-  private SegmentArrayWithData mySegments = new SegmentArrayWithData();
-  private static final int MODIFIED_MASK = 0x4;
-  private static final int SEPARATOR_MASK = 0x3;
+  /**
+   * Maximum number of lines in a chunk. Small chunks created by changes are merged with neighbours while their total size fits.
+   */
+  private static final int LEAF_SIZE = 64;
+
+  private volatile Node myRoot = Leaf.EMPTY;
+  /**
+   * A line is modified if its modification stamp equals to the current generation, so all lines are marked as unmodified at once
+   * by starting a new generation.
+   */
+  private volatile int myGeneration = 1;
+  private volatile LeafPosition myLastLeaf;
 
   public int findLineIndex(int offset) {
-    int lineIndex = mySegments.findSegmentIndex(offset);
-    assert lineIndex >= 0;
-    return lineIndex;
+    final Node root = myRoot;
+    if (root.myLineCount == 0) {
+      if (offset == 0) return 0;
+      throw new IllegalStateException("no segments available. offset = "+offset);
+    }
+    if (offset > root.myLength || offset < 0) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + offset + ". Should be in range: [0, " + root.myLength + "]");
+    }
+    if (offset == root.myLength) return root.myLineCount - 1;
+
+    LeafPosition position = myLastLeaf;
+    if (position == null || position.myRoot != root || offset < position.myStartOffset ||
+        offset >= position.myStartOffset + position.myLeaf.myLength) {
+      position = findLeafByOffset(root, offset);
+      myLastLeaf = position;
+    }
+    final int[] ends = position.myLeaf.myEnds;
+    final int relativeOffset = offset - position.myStartOffset;
+    int i = 0;
+    while (ends[i] <= relativeOffset) i++;
+    return position.myStartLine + i;
   }
 
   public LineIterator createIterator() {
@@ -47,28 +78,37 @@ public class LineSet{
   }
 
   public final int getLineStart(int index) {
-    int lineStart = mySegments.getSegmentStart(index);
-    assert lineStart >= 0;
-    return lineStart;
+    final LeafPosition position = getLeafPosition(index);
+    final int i = index - position.myStartLine;
+    return position.myStartOffset + (i == 0 ? 0 : position.myLeaf.myEnds[i - 1]);
   }
 
   public final int getLineEnd(int index) {
-    return mySegments.getSegmentEnd(index);
+    final LeafPosition position = getLeafPosition(index);
+    return position.myStartOffset + position.myLeaf.myEnds[index - position.myStartLine];
   }
 
   final boolean isModified(int index) {
-    return (mySegments.getSegmentData(index) & MODIFIED_MASK) != 0;
+    final LeafPosition position = getLeafPosition(index);
+    return position.myLeaf.myStamps[index - position.myStartLine] == myGeneration;
   }
+
   final void setModified(int index) {
-    setSegmentModified(mySegments, index);
+    final LeafPosition position = getLeafPosition(index);
+    final int i = index - position.myStartLine;
+    final Leaf leaf = position.myLeaf;
+    if (leaf.myStamps[i] != myGeneration) {
+      setRoot(replaceLine(myRoot, index, leaf.getLineLength(i), leaf.mySeparators[i], myGeneration));
+    }
   }
 
   final int getSeparatorLength(int index) {
-    return mySegments.getSegmentData(index) & SEPARATOR_MASK;
+    final LeafPosition position = getLeafPosition(index);
+    return position.myLeaf.mySeparators[index - position.myStartLine];
   }
 
   final int getLineCount() {
-    return mySegments.getSegmentCount();
+    return myRoot.myLineCount;
   }
 
   public void documentCreated(@NotNull Document document) {
@@ -77,28 +117,15 @@ public class LineSet{
 
   public void changedUpdate(DocumentEvent e1) {
     DocumentEventImpl e = (DocumentEventImpl) e1;
-    if (e.isOnlyOneLineChanged() && mySegments.getSegmentCount() > 0) {
+    final int lineCount = getLineCount();
+    if (e.isOnlyOneLineChanged() && lineCount > 0) {
       processOneLineChange(e);
     } else {
-      if (mySegments.getSegmentCount() == 0 || e.getStartOldIndex() >= mySegments.getSegmentCount() ||
-          e.getStartOldIndex() < 0) {
+      if (lineCount == 0 || e.getStartOldIndex() >= lineCount || e.getStartOldIndex() < 0) {
         initSegments(e.getDocument().getCharsSequence(), true);
         return;
       }
-
-      final int optimizedLineShift = e.getOptimizedLineShift();
-
-      if (optimizedLineShift != -1) {
-        processOptimizedMultilineInsert(e, optimizedLineShift);
-      } else {
-        final int optimizedOldLineShift = e.getOptimizedOldLineShift();
-
-        if (optimizedOldLineShift != -1) {
-          processOptimizedMultilineDelete(e, optimizedOldLineShift);
-        } else {
-          processMultilineChange(e);
-        }
-      }
+      processMultilineChange(e);
     }
 
     if (e.isWholeTextReplaced()) {
@@ -113,274 +140,392 @@ public class LineSet{
 
   private static boolean doTest = false;
 
-  private void processOptimizedMultilineDelete(final DocumentEventImpl e, final int optimizedLineShift) {
-    final int insertionPoint = e.getOffset();
-    final int changedLineIndex = e.getStartOldIndex();
-    final int lengthDiff = e.getOldLength();
+  private void processMultilineChange(DocumentEventImpl e) {
+    final CharSequence chars = e.getDocument().getCharsSequence();
+    int startLine = e.getStartOldIndex();
+    final int endLine = findLineIndex(e.getOffset() + e.getOldLength());
+    int startOffset = getLineStart(startLine);
+    if (startLine > 0 && startOffset < chars.length() && chars.charAt(startOffset) == '\n' && chars.charAt(startOffset - 1) == '\r') {
+      // the new text joins the separator of the previous line
+      startLine--;
+      startOffset = getLineStart(startLine);
+    }
+    final int endOffset = getLineEnd(endLine) + e.getNewLength() - e.getOldLength();
 
-    SegmentArrayWithData workingCopySegmentsForTesting = null;
-    SegmentArrayWithData segments; //
+    final Node root = myRoot;
+    final Node newLines = createLines(chars.subSequence(startOffset, endOffset), myGeneration);
+    setRoot(concat(concat(subNode(root, 0, startLine), newLines), subNode(root, endLine + 1, root.myLineCount)));
+    // We add empty line at the end, if the last line ends by line separator.
+    addEmptyLineAtEnd();
 
     if (doTest) {
-      segments = new SegmentArrayWithData();
-      workingCopySegmentsForTesting = new SegmentArrayWithData();
-      fillSegments(segments, workingCopySegmentsForTesting);
-    } else {
-      segments = mySegments;
+      checkLines(chars);
     }
+  }
 
-    final int oldSegmentStart = segments.getSegmentStart(changedLineIndex);
-    final int lastChangedEnd = segments.getSegmentEnd(changedLineIndex + optimizedLineShift);
-    final short lastChangedData = segments.getSegmentData(changedLineIndex + optimizedLineShift);
-    final int newSegmentEnd = oldSegmentStart + (insertionPoint - oldSegmentStart) + (lastChangedEnd - insertionPoint - lengthDiff);
+  private void processOneLineChange(DocumentEventImpl e) {
+    // Check, if the change on the end of text
+    final int index = e.getOffset() >= myRoot.myLength ? getLineCount() - 1 : e.getStartOldIndex();
+    final LeafPosition position = getLeafPosition(index);
+    final int i = index - position.myStartLine;
+    final Leaf leaf = position.myLeaf;
+    final int length = leaf.getLineLength(i) + e.getNewLength() - e.getOldLength();
+    setRoot(replaceLine(myRoot, index, length, leaf.mySeparators[i], myGeneration));
+  }
 
-    segments.remove(changedLineIndex, changedLineIndex + optimizedLineShift);
+  public void clearModificationFlags() {
+    myGeneration++;
+  }
 
-    if (newSegmentEnd != 0) {
-      segments.setElementAt(
-        changedLineIndex,
-        oldSegmentStart, newSegmentEnd,
-        lastChangedData | MODIFIED_MASK
-      );
-    } else {
-      segments.remove(changedLineIndex, changedLineIndex + 1);
-    }
+  private void initSegments(CharSequence text, boolean toSetModified) {
+    setRoot(createLines(text, toSetModified ? myGeneration : 0));
+    // We add empty line at the end, if the last line ends by line separator.
+    addEmptyLineAtEnd();
+  }
 
-// update data after lineIndex, shifting with optimizedLineShift
-    final int segmentCount = segments.getSegmentCount();
-    for(int i = changedLineIndex + 1; i < segmentCount; ++i) {
-      segments.setElementAt(i, segments.getSegmentStart(i) - lengthDiff,
-        segments.getSegmentEnd(i) - lengthDiff,
-        segments.getSegmentData(i)
-      );
+  // Add empty line at the end, if the last line ends by line separator.
+  private void addEmptyLineAtEnd() {
+    int lineCount = getLineCount();
+    if (lineCount > 0 && getSeparatorLength(lineCount - 1) > 0) {
+      setRoot(concat(myRoot, new Leaf(new int[]{0}, new byte[]{0}, new int[]{myGeneration})));
     }
+  }
 
-    if (doTest) {
-      final SegmentArrayWithData data = mySegments;
-      mySegments = segments;
-      addEmptyLineAtEnd();
+  private void setRoot(@NotNull Node root) {
+    myRoot = root;
+    myLastLeaf = null;
+  }
 
-      doCheckResults(workingCopySegmentsForTesting, e, data, segments);
-    } else {
-      addEmptyLineAtEnd();
+  private void checkLines(@NotNull CharSequence text) {
+    final LineSet expected = new LineSet();
+    expected.initSegments(text, false);
+    assert expected.getLineCount() == getLineCount() : expected.getLineCount() + " lines expected, got " + getLineCount();
+    for (int i = 0; i < getLineCount(); i++) {
+      assert expected.getLineStart(i) == getLineStart(i) : "line " + i;
+      assert expected.getLineEnd(i) == getLineEnd(i) : "line " + i;
+      assert expected.getSeparatorLength(i) == getSeparatorLength(i) : "line " + i;
     }
+    assert checkBalanced(myRoot);
   }
 
-  private void processOptimizedMultilineInsert(final DocumentEventImpl e, final int optimizedLineShift) {
-    final int insertionPoint = e.getOffset();
-    final int changedLineIndex = e.getStartOldIndex();
-    final int lengthDiff = e.getNewLength();
-    final LineTokenizer tokenizer = new LineTokenizer(e.getNewFragment());
-
-    SegmentArrayWithData workingCopySegmentsForTesting = null;
-    SegmentArrayWithData segments; //
+  private static boolean checkBalanced(@NotNull Node node) {
+    if (node instanceof Leaf) return true;
+    final Concat concat = (Concat)node;
+    return Math.abs(concat.myLeft.myHeight - concat.myRight.myHeight) <= 1 && checkBalanced(concat.myLeft) && checkBalanced(concat.myRight);
+  }
 
-    if (doTest) {
-      segments = new SegmentArrayWithData();
-      workingCopySegmentsForTesting = new SegmentArrayWithData();
-      fillSegments(segments, workingCopySegmentsForTesting);
-    } else {
-      segments = mySegments;
+  @NotNull
+  private LeafPosition getLeafPosition(int index) {
+    final Node root = myRoot;
+    if (index < 0 || index >= root.myLineCount) {
+      throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + root.myLineCount);
     }
-
-    int i;
-
-    // update data after lineIndex, shifting with optimizedLineShift
-    for(i = segments.getSegmentCount() - 1; i > changedLineIndex; --i) {
-      segments.setElementAt(i + optimizedLineShift, segments.getSegmentStart(i) + lengthDiff,
-        segments.getSegmentEnd(i) + lengthDiff,
-        segments.getSegmentData(i)
-      );
+    LeafPosition position = myLastLeaf;
+    if (position == null || position.myRoot != root || index < position.myStartLine ||
+        index >= position.myStartLine + position.myLeaf.myLineCount) {
+      position = findLeafByLine(root, index);
+      myLastLeaf = position;
     }
+    return position;
+  }
 
-    final int oldSegmentEnd = segments.getSegmentEnd(changedLineIndex);
-    final int oldSegmentStart = segments.getSegmentStart(changedLineIndex);
-    final short oldSegmentData = segments.getSegmentData(changedLineIndex);
-
-    final int newChangedLineEnd = insertionPoint + tokenizer.getLineSeparatorLength() + tokenizer.getOffset() + tokenizer.getLength();
-    segments.setElementAt(
-      changedLineIndex,
-      oldSegmentStart, newChangedLineEnd,
-      tokenizer.getLineSeparatorLength() | MODIFIED_MASK
-    );
-
-    tokenizer.advance();
-    i = 1;
-    int lastFragmentLength = 0;
-
-    while(!tokenizer.atEnd()) {
-      lastFragmentLength = tokenizer.getLineSeparatorLength() != 0 ? 0:tokenizer.getLength();
-      segments.setElementAt(
-        changedLineIndex + i,
-        insertionPoint + tokenizer.getOffset(),
-        insertionPoint + tokenizer.getOffset() + tokenizer.getLength() + tokenizer.getLineSeparatorLength(),
-        tokenizer.getLineSeparatorLength() | MODIFIED_MASK
-      );
-      i++;
-      tokenizer.advance();
+  @NotNull
+  private static LeafPosition findLeafByLine(@NotNull Node root, int index) {
+    Node node = root;
+    int startLine = 0;
+    int startOffset = 0;
+    while (node instanceof Concat) {
+      final Concat concat = (Concat)node;
+      if (index - startLine < concat.myLeft.myLineCount) {
+        node = concat.myLeft;
+      }
+      else {
+        startLine += concat.myLeft.myLineCount;
+        startOffset += concat.myLeft.myLength;
+        node = concat.myRight;
+      }
     }
+    return new LeafPosition(root, (Leaf)node, startLine, startOffset);
+  }
 
-    segments.setElementAt(
-      changedLineIndex + optimizedLineShift, insertionPoint + lengthDiff - lastFragmentLength,
-      oldSegmentEnd + lengthDiff,
-      oldSegmentData | MODIFIED_MASK
-    );
-
-    if (doTest) {
-      final SegmentArrayWithData data = mySegments;
-      mySegments = segments;
-      addEmptyLineAtEnd();
-
-      doCheckResults(workingCopySegmentsForTesting, e, data, segments);
-    } else {
-      addEmptyLineAtEnd();
+  @NotNull
+  private static LeafPosition findLeafByOffset(@NotNull Node root, int offset) {
+    Node node = root;
+    int startLine = 0;
+    int startOffset = 0;
+    while (node instanceof Concat) {
+      final Concat concat = (Concat)node;
+      if (offset - startOffset < concat.myLeft.myLength) {
+        node = concat.myLeft;
+      }
+      else {
+        startLine += concat.myLeft.myLineCount;
+        startOffset += concat.myLeft.myLength;
+        node = concat.myRight;
+      }
     }
+    return new LeafPosition(root, (Leaf)node, startLine, startOffset);
   }
 
-  private void doCheckResults(final SegmentArrayWithData workingCopySegmentsForTesting, final DocumentEventImpl e,
-                              final SegmentArrayWithData data,
-                              final SegmentArrayWithData segments) {
-    mySegments = workingCopySegmentsForTesting;
-    processMultilineChange(e);
-    mySegments = data;
-
-    assert workingCopySegmentsForTesting.getSegmentCount() == segments.getSegmentCount();
-    for(int i =0; i < segments.getSegmentCount();++i) {
-      assert workingCopySegmentsForTesting.getSegmentStart(i) == segments.getSegmentStart(i);
-      assert workingCopySegmentsForTesting.getSegmentEnd(i) == segments.getSegmentEnd(i);
-      assert workingCopySegmentsForTesting.getSegmentData(i) == segments.getSegmentData(i);
+  @NotNull
+  private static Node createLines(@NotNull CharSequence text, int stamp) {
+    final TIntArrayList lengths = new TIntArrayList();
+    final TIntArrayList separators = new TIntArrayList();
+    final LineTokenizer lineTokenizer = new LineTokenizer(text);
+    while (!lineTokenizer.atEnd()) {
+      lengths.add(lineTokenizer.getLength() + lineTokenizer.getLineSeparatorLength());
+      separators.add(lineTokenizer.getLineSeparatorLength());
+      lineTokenizer.advance();
     }
-
-    processMultilineChange(e);
+    return build(lengths, separators, stamp, 0, lengths.size());
   }
 
-  private void fillSegments(final SegmentArrayWithData segments, final SegmentArrayWithData workingCopySegmentsForTesting) {
-    for(int i = mySegments.getSegmentCount() - 1; i >=0; --i) {
-      segments.setElementAt(
-        i,
-        mySegments.getSegmentStart(i),
-        mySegments.getSegmentEnd(i),
-        mySegments.getSegmentData(i)
-      );
-      workingCopySegmentsForTesting.setElementAt(
-        i,
-        mySegments.getSegmentStart(i),
-        mySegments.getSegmentEnd(i),
-        mySegments.getSegmentData(i)
-      );
+  @NotNull
+  private static Node build(@NotNull TIntArrayList lengths, @NotNull TIntArrayList separators, int stamp, int start, int end) {
+    final int count = end - start;
+    if (count <= LEAF_SIZE) {
+      final int[] ends = new int[count];
+      final byte[] separatorLengths = new byte[count];
+      final int[] stamps = new int[count];
+      int offset = 0;
+      for (int i = 0; i < count; i++) {
+        offset += lengths.get(start + i);
+        ends[i] = offset;
+        separatorLengths[i] = (byte)separators.get(start + i);
+        stamps[i] = stamp;
+      }
+      return new Leaf(ends, separatorLengths, stamps);
     }
+    // the split point is aligned to the leaf size, so all leaves except the last one are full
+    final int leaves = (count + LEAF_SIZE - 1) / LEAF_SIZE;
+    final int middle = start + leaves / 2 * LEAF_SIZE;
+    return new Concat(build(lengths, separators, stamp, start, middle), build(lengths, separators, stamp, middle, end));
   }
 
-  private void processMultilineChange(DocumentEventImpl e) {
-    int offset = e.getOffset();
-    CharSequence newString = e.getNewFragment();
-    CharSequence chars = e.getDocument().getCharsSequence();
-
-    int oldStartLine = e.getStartOldIndex();
-    int offset1 = getLineStart(oldStartLine);
-    if (offset1 != offset) {
-      CharSequence prefix = chars.subSequence(offset1, offset);
-      newString = new MergingCharSequence(prefix, newString);
+  /**
+   * Replaces the line copying only the chunk which contains it and the path to that chunk
+   */
+  @NotNull
+  private static Node replaceLine(@NotNull Node node, int index, int length, byte separatorLength, int stamp) {
+    if (node instanceof Leaf) {
+      final Leaf leaf = (Leaf)node;
+      final int[] ends = leaf.myEnds.clone();
+      final int diff = length - leaf.getLineLength(index);
+      for (int i = index; i < ends.length; i++) {
+        ends[i] += diff;
+      }
+      final byte[] separators = leaf.mySeparators.clone();
+      separators[index] = separatorLength;
+      final int[] stamps = leaf.myStamps.clone();
+      stamps[index] = stamp;
+      return new Leaf(ends, separators, stamps);
+    }
+    final Concat concat = (Concat)node;
+    final int leftCount = concat.myLeft.myLineCount;
+    if (index < leftCount) {
+      return new Concat(replaceLine(concat.myLeft, index, length, separatorLength, stamp), concat.myRight);
     }
+    return new Concat(concat.myLeft, replaceLine(concat.myRight, index - leftCount, length, separatorLength, stamp));
+  }
 
-    int oldEndLine = findLineIndex(e.getOffset() + e.getOldLength());
-    if (oldEndLine < 0) {
-      oldEndLine = getLineCount() - 1;
+  @NotNull
+  private static Node subNode(@NotNull Node node, int start, int end) {
+    if (start == 0 && end == node.myLineCount) {
+      return node;
+    }
+    if (start == end) {
+      return Leaf.EMPTY;
+    }
+    if (node instanceof Leaf) {
+      return ((Leaf)node).subLeaf(start, end);
+    }
+    final Concat concat = (Concat)node;
+    final int leftCount = concat.myLeft.myLineCount;
+    if (end <= leftCount) {
+      return subNode(concat.myLeft, start, end);
     }
-    int offset2 = getLineEnd(oldEndLine);
-    if (offset2 != offset + e.getOldLength()) {
-      final int start = offset + e.getNewLength();
-      final int length = offset2 - offset - e.getOldLength();
-      CharSequence postfix = chars.subSequence(start, start + length);
-      newString = new MergingCharSequence(newString, postfix);
+    if (start >= leftCount) {
+      return subNode(concat.myRight, start - leftCount, end - leftCount);
     }
+    return concat(subNode(concat.myLeft, start, leftCount), subNode(concat.myRight, 0, end - leftCount));
+  }
 
-    updateSegments(newString, oldStartLine, oldEndLine, offset1, e);
-    // We add empty line at the end, if the last line ends by line separator.
-    addEmptyLineAtEnd();
+  /**
+   * Joins two balanced trees into a balanced one in time proportional to the difference of their heights. A small chunk is merged
+   * into the adjacent chunk of the other tree if they fit together, so repeated changes don't fragment the tree.
+   */
+  @NotNull
+  private static Node concat(@NotNull Node left, @NotNull Node right) {
+    if (left.myLineCount == 0) return right;
+    if (right.myLineCount == 0) return left;
+    if (right instanceof Leaf) {
+      final Node merged = appendToLastLeaf(left, (Leaf)right);
+      if (merged != null) return merged;
+    }
+    if (left instanceof Leaf) {
+      final Node merged = prependToFirstLeaf((Leaf)left, right);
+      if (merged != null) return merged;
+    }
+    if (left.myHeight > right.myHeight + 1) {
+      return joinRight((Concat)left, right);
+    }
+    if (right.myHeight > left.myHeight + 1) {
+      return joinLeft(left, (Concat)right);
+    }
+    return new Concat(left, right);
   }
 
-  private void updateSegments(CharSequence newText, int oldStartLine, int oldEndLine, int offset1,
-                                              DocumentEventImpl e) {
-    int count = 0;
-    LineTokenizer lineTokenizer = new LineTokenizer(newText);
-    for (int index = oldStartLine; index <= oldEndLine; index++) {
-      if (!lineTokenizer.atEnd()) {
-        setSegmentAt(mySegments, index, lineTokenizer, offset1, true);
-        lineTokenizer.advance();
-      } else {
-        mySegments.remove(index, oldEndLine + 1);
-        break;
-      }
-      count++;
-    }
-    if (!lineTokenizer.atEnd()) {
-      SegmentArrayWithData insertSegments = new SegmentArrayWithData();
-      int i = 0;
-      while (!lineTokenizer.atEnd()) {
-        setSegmentAt(insertSegments, i, lineTokenizer, offset1, true);
-        lineTokenizer.advance();
-        count++;
-        i++;
-      }
-      mySegments.insert(insertSegments, oldEndLine + 1);
+  @Nullable
+  private static Node appendToLastLeaf(@NotNull Node node, @NotNull Leaf leaf) {
+    if (node instanceof Leaf) {
+      return node.myLineCount + leaf.myLineCount <= LEAF_SIZE ? Leaf.merge((Leaf)node, leaf) : null;
     }
-    int shift = e.getNewLength() - e.getOldLength();
-    mySegments.shiftSegments(oldStartLine + count, shift);
+    final Concat concat = (Concat)node;
+    final Node right = appendToLastLeaf(concat.myRight, leaf);
+    return right == null ? null : new Concat(concat.myLeft, right);
   }
 
-  private void processOneLineChange(DocumentEventImpl e) {
-    // Check, if the change on the end of text
-    if (e.getOffset() >= mySegments.getSegmentEnd(mySegments.getSegmentCount() - 1)) {
-      mySegments.changeSegmentLength(mySegments.getSegmentCount() - 1, e.getNewLength() - e.getOldLength());
-      setSegmentModified(mySegments, mySegments.getSegmentCount() - 1);
-    } else {
-      mySegments.changeSegmentLength(e.getStartOldIndex(), e.getNewLength() - e.getOldLength());
-      setSegmentModified(mySegments, e.getStartOldIndex());
+  @Nullable
+  private static Node prependToFirstLeaf(@NotNull Leaf leaf, @NotNull Node node) {
+    if (node instanceof Leaf) {
+      return node.myLineCount + leaf.myLineCount <= LEAF_SIZE ? Leaf.merge(leaf, (Leaf)node) : null;
     }
+    final Concat concat = (Concat)node;
+    final Node left = prependToFirstLeaf(leaf, concat.myLeft);
+    return left == null ? null : new Concat(left, concat.myRight);
   }
 
-  public void clearModificationFlags() {
-    for (int i = 0; i < mySegments.getSegmentCount(); i++) {
-      mySegments.setSegmentData(i, mySegments.getSegmentData(i) & ~MODIFIED_MASK);
+  @NotNull
+  private static Node joinRight(@NotNull Concat left, @NotNull Node right) {
+    final Node outer = left.myLeft;
+    final Node inner = left.myRight;
+    if (inner.myHeight <= right.myHeight + 1) {
+      final Node joined = concat(inner, right);
+      if (joined.myHeight <= outer.myHeight + 1) {
+        return new Concat(outer, joined);
+      }
+      return rotateLeft(new Concat(outer, rotateRight((Concat)joined)));
     }
+    final Node joined = joinRight((Concat)inner, right);
+    final Concat result = new Concat(outer, joined);
+    return joined.myHeight <= outer.myHeight + 1 ? result : rotateLeft(result);
   }
 
-  private static void setSegmentAt(SegmentArrayWithData segmentArrayWithData, int index, LineTokenizer lineTokenizer, int offsetShift, boolean isModified) {
-    int offset = lineTokenizer.getOffset() + offsetShift;
-    int length = lineTokenizer.getLength();
-    int separatorLength = lineTokenizer.getLineSeparatorLength();
-    int separatorAndModifiedFlag = separatorLength;
-    if(isModified) {
-      separatorAndModifiedFlag |= MODIFIED_MASK;
+  @NotNull
+  private static Node joinLeft(@NotNull Node left, @NotNull Concat right) {
+    final Node outer = right.myRight;
+    final Node inner = right.myLeft;
+    if (inner.myHeight <= left.myHeight + 1) {
+      final Node joined = concat(left, inner);
+      if (joined.myHeight <= outer.myHeight + 1) {
+        return new Concat(joined, outer);
+      }
+      return rotateRight(new Concat(rotateLeft((Concat)joined), outer));
     }
-    segmentArrayWithData.setElementAt(index, offset, offset + length + separatorLength, separatorAndModifiedFlag);
+    final Node joined = joinLeft(left, (Concat)inner);
+    final Concat result = new Concat(joined, outer);
+    return joined.myHeight <= outer.myHeight + 1 ? result : rotateRight(result);
   }
 
-  private static void setSegmentModified(SegmentArrayWithData segments, int i) {
-    segments.setSegmentData(i, segments.getSegmentData(i)|MODIFIED_MASK);
+  @NotNull
+  private static Concat rotateLeft(@NotNull Concat node) {
+    final Concat right = (Concat)node.myRight;
+    return new Concat(new Concat(node.myLeft, right.myLeft), right.myRight);
   }
 
-  private void initSegments(CharSequence text, boolean toSetModified) {
-    mySegments.removeAll();
-    LineTokenizer lineTokenizer = new LineTokenizer(text);
-    int i = 0;
-    while(!lineTokenizer.atEnd()) {
-      setSegmentAt(mySegments, i, lineTokenizer, 0, toSetModified);
-      i++;
-      lineTokenizer.advance();
+  @NotNull
+  private static Concat rotateRight(@NotNull Concat node) {
+    final Concat left = (Concat)node.myLeft;
+    return new Concat(left.myLeft, new Concat(left.myRight, node.myRight));
+  }
+
+  private abstract static class Node {
+    final int myLineCount;
+    final int myLength;
+    final int myHeight;
+
+    Node(int lineCount, int length, int height) {
+      myLineCount = lineCount;
+      myLength = length;
+      myHeight = height;
     }
-    // We add empty line at the end, if the last line ends by line separator.
-    addEmptyLineAtEnd();
   }
 
-  // Add empty line at the end, if the last line ends by line separator.
-  private void addEmptyLineAtEnd() {
-    int segmentCount = mySegments.getSegmentCount();
-    if(segmentCount > 0 && getSeparatorLength(segmentCount-1) > 0) {
-      mySegments.setElementAt(segmentCount, mySegments.getSegmentEnd(segmentCount-1),  mySegments.getSegmentEnd(segmentCount-1), 0);
-      setSegmentModified(mySegments, segmentCount);
+  private static class Leaf extends Node {
+    private static final Leaf EMPTY = new Leaf(new int[0], new byte[0], new int[0]);
+
+    /**
+     * End offsets of lines (including line separators) relative to the chunk start
+     */
+    private final int[] myEnds;
+    private final byte[] mySeparators;
+    private final int[] myStamps;
+
+    private Leaf(@NotNull int[] ends, @NotNull byte[] separators, @NotNull int[] stamps) {
+      super(ends.length, ends.length == 0 ? 0 : ends[ends.length - 1], 0);
+      myEnds = ends;
+      mySeparators = separators;
+      myStamps = stamps;
+    }
+
+    private int getLineLength(int i) {
+      return i == 0 ? myEnds[0] : myEnds[i] - myEnds[i - 1];
+    }
+
+    @NotNull
+    private Leaf subLeaf(int start, int end) {
+      final int[] ends = new int[end - start];
+      final int shift = start == 0 ? 0 : myEnds[start - 1];
+      for (int i = start; i < end; i++) {
+        ends[i - start] = myEnds[i] - shift;
+      }
+      final byte[] separators = new byte[end - start];
+      System.arraycopy(mySeparators, start, separators, 0, separators.length);
+      final int[] stamps = new int[end - start];
+      System.arraycopy(myStamps, start, stamps, 0, stamps.length);
+      return new Leaf(ends, separators, stamps);
+    }
+
+    @NotNull
+    private static Leaf merge(@NotNull Leaf left, @NotNull Leaf right) {
+      final int count = left.myLineCount + right.myLineCount;
+      final int[] ends = new int[count];
+      System.arraycopy(left.myEnds, 0, ends, 0, left.myLineCount);
+      for (int i = 0; i < right.myLineCount; i++) {
+        ends[left.myLineCount + i] = right.myEnds[i] + left.myLength;
+      }
+      final byte[] separators = new byte[count];
+      System.arraycopy(left.mySeparators, 0, separators, 0, left.myLineCount);
+      System.arraycopy(right.mySeparators, 0, separators, left.myLineCount, right.myLineCount);
+      final int[] stamps = new int[count];
+      System.arraycopy(left.myStamps, 0, stamps, 0, left.myLineCount);
+      System.arraycopy(right.myStamps, 0, stamps, left.myLineCount, right.myLineCount);
+      return new Leaf(ends, separators, stamps);
     }
   }
 
+  private static class Concat extends Node {
+    private final Node myLeft;
+    private final Node myRight;
+
+    private Concat(@NotNull Node left, @NotNull Node right) {
+      super(left.myLineCount + right.myLineCount, left.myLength + right.myLength, Math.max(left.myHeight, right.myHeight) + 1);
+      myLeft = left;
+      myRight = right;
+    }
+  }
+
+  private static class LeafPosition {
+    private final Node myRoot;
+    private final Leaf myLeaf;
+    private final int myStartLine;
+    private final int myStartOffset;
+
+    private LeafPosition(@NotNull Node root, @NotNull Leaf leaf, int startLine, int startOffset) {
+      myRoot = root;
+      myLeaf = leaf;
+      myStartLine = startLine;
+      myStartOffset = startOffset;
+    }
+  }
 }
@@ -51,7 +51,7 @@ public class CompositeFilter implements Filter, FilterMixin {
     Result finalResult = null;
     for (int i = 0; i < count; i++) {
       Filter filter = filters.get(i);
-      if (!dumb || DumbService.isDumbAware(filter)) {
+      if ((!dumb || DumbService.isDumbAware(filter)) && passesPrefilter(filter, line)) {
         long t0 = System.currentTimeMillis();
         Result result = filter.applyFilter(line, entireLength);
         finalResult = merge(finalResult, result);
@@ -67,6 +67,16 @@ public class CompositeFilter implements Filter, FilterMixin {
     return finalResult;
   }
 
+  private static boolean passesPrefilter(@NotNull Filter filter, @NotNull String line) {
+    if (!(filter instanceof PrefilteredFilter)) return true;
+    String[] substrings = ((PrefilteredFilter)filter).getRequiredSubstrings();
+    if (substrings.length == 0) return true;
+    for (String substring : substrings) {
+      if (line.contains(substring)) return true;
+    }
+    return false;
+  }
+
   protected Result merge(@Nullable Result finalResult, @Nullable Result result) {
     if (result != null) {
       if (finalResult == null) {
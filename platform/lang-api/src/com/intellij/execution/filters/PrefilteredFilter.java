@@ -0,0 +1,32 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.filters;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A filter which can match only the lines containing particular substrings. {@link CompositeFilter} checks the substrings first
+ * and doesn't call {@link #applyFilter(String, int)} for the rest of the lines, which is much cheaper than running a regexp
+ * or a parser on every line of the console output.
+ */
+public interface PrefilteredFilter extends Filter {
+  /**
+   * @return substrings at least one of which a line has to contain to be passed to the filter, an empty array if every line
+   *         has to be passed
+   */
+  @NotNull
+  String[] getRequiredSubstrings();
+}
@@ -15,6 +15,7 @@
  */
 package com.intellij.execution.filters;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.regex.Matcher;
@@ -23,8 +24,15 @@ import java.util.regex.Pattern;
 /**
  * @author yole
  */
-public class UrlFilter implements Filter {
+public class UrlFilter implements PrefilteredFilter {
   private static final Pattern URL_PATTERN = Pattern.compile("\\bhttps?://[-A-Za-z0-9+&@#/%?=~_|!:,.;]*[-A-Za-z0-9+&@#/%=~_|]");
+  private static final String[] REQUIRED_SUBSTRINGS = {"://"};
+
+  @NotNull
+  @Override
+  public String[] getRequiredSubstrings() {
+    return REQUIRED_SUBSTRINGS;
+  }
 
   @Nullable
   @Override
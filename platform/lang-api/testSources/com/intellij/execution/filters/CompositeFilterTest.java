@@ -88,6 +88,29 @@ public class CompositeFilterTest {
 
   }
 
+  @Test
+  public void testPrefilter() throws Exception {
+    final int[] calls = {0};
+    myCompositeFilter.addFilter(new PrefilteredFilter() {
+      @NotNull
+      @Override
+      public String[] getRequiredSubstrings() {
+        return new String[]{"bar", "oo"};
+      }
+
+      @Nullable
+      @Override
+      public Result applyFilter(String line, int entireLength) {
+        calls[0]++;
+        return createResult();
+      }
+    });
+
+    notNullResultOfSize(applyFilter(), 1);
+    Assert.assertNull(myCompositeFilter.applyFilter("baz\n", 10));
+    Assert.assertEquals(1, calls[0]);
+  }
+
   private Filter.Result applyFilter() {
     return myCompositeFilter.applyFilter("foo\n", 10);
   }
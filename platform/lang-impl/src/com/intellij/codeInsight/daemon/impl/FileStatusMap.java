@@ -46,6 +46,7 @@ public class FileStatusMap implements Disposable {
   private final Project myProject;
   private final Map<Document,FileStatus> myDocumentToStatusMap = new WeakHashMap<Document, FileStatus>(); // all dirty if absent
   private boolean myAllowDirt = true;
+  private volatile long myAllFilesDirtyCount;
 
   public FileStatusMap(@NotNull Project project) {
     myProject = project;
@@ -155,9 +156,17 @@ public class FileStatusMap implements Disposable {
     LOG.debug("********************************* Mark all dirty");
     synchronized (myDocumentToStatusMap) {
       myDocumentToStatusMap.clear();
+      myAllFilesDirtyCount++;
     }
   }
 
+  /**
+   * @return the number of times all files were marked dirty, e.g. on daemon restart after settings change
+   */
+  public long getAllFilesDirtyCount() {
+    return myAllFilesDirtyCount;
+  }
+
   private void assertAllowModifications() {
     try {
       assert myAllowDirt;
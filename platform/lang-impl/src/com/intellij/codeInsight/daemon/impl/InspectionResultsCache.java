@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ex.LocalInspectionToolWrapper;
+import com.intellij.codeInspection.ex.ProblemDescriptorImpl;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.containers.SLRUMap;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Results of {@link LocalInspectionsPass} for the change-local scopes of a file (see {@link com.intellij.codeInsight.daemon.ChangeLocalityDetector}),
+ * e.g. method bodies in Java. Entries are looked up by a hash of the scope PSI structure, so the results are reused when the file is
+ * re-inspected with the scope unchanged, or when the scope returns to one of its recent states after undo.
+ * <p/>
+ * The results of a change-local scope don't depend on the code in other change-local scopes, so an entry stays valid while there are
+ * no out-of-code-block modifications and the daemon isn't restarted, e.g. because of an inspection profile change.
+ */
+class InspectionResultsCache {
+  private static final Key<InspectionResultsCache> INSPECTION_RESULTS_CACHE = Key.create("INSPECTION_RESULTS_CACHE");
+  private static final int CACHE_SIZE = 100;
+
+  private final long myOutOfCodeBlockModificationCount;
+  private final long myAllFilesDirtyCount;
+  private final Set<String> myTools;
+  private final SLRUMap<Long, Entry> myEntries = new SLRUMap<Long, Entry>(CACHE_SIZE, CACHE_SIZE);
+
+  private static class Entry {
+    private final String myText;
+    private final Map<String, List<ProblemDescriptor>> myResults;
+    private final Map<ProblemDescriptor, TextRange> myRelativeRanges;
+
+    private Entry(@NotNull String text,
+                  @NotNull Map<String, List<ProblemDescriptor>> results,
+                  @NotNull Map<ProblemDescriptor, TextRange> relativeRanges) {
+      myText = text;
+      myResults = results;
+      myRelativeRanges = relativeRanges;
+    }
+  }
+
+  private InspectionResultsCache(long outOfCodeBlockModificationCount, long allFilesDirtyCount, @NotNull Set<String> tools) {
+    myOutOfCodeBlockModificationCount = outOfCodeBlockModificationCount;
+    myAllFilesDirtyCount = allFilesDirtyCount;
+    myTools = tools;
+  }
+
+  /**
+   * @return the cache for the file, empty if the file was inspected with other tools or the cached results may be out of date
+   */
+  @NotNull
+  static InspectionResultsCache getInstance(@NotNull PsiFile file, @NotNull List<LocalInspectionToolWrapper> tools) {
+    Project project = file.getProject();
+    long outOfCodeBlockCount = PsiManager.getInstance(project).getModificationTracker().getOutOfCodeBlockModificationCount();
+    long allFilesDirtyCount = ((DaemonCodeAnalyzerImpl)DaemonCodeAnalyzer.getInstance(project)).getFileStatusMap().getAllFilesDirtyCount();
+    Set<String> toolNames = new THashSet<String>(tools.size());
+    for (LocalInspectionToolWrapper tool : tools) {
+      toolNames.add(tool.getShortName());
+    }
+    InspectionResultsCache cache = file.getUserData(INSPECTION_RESULTS_CACHE);
+    if (cache == null ||
+        cache.myOutOfCodeBlockModificationCount != outOfCodeBlockCount ||
+        cache.myAllFilesDirtyCount != allFilesDirtyCount ||
+        !cache.myTools.equals(toolNames)) {
+      cache = new InspectionResultsCache(outOfCodeBlockCount, allFilesDirtyCount, toolNames);
+      file.putUserData(INSPECTION_RESULTS_CACHE, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * @return results of the scope by tool short name, or <code>null</code> if the scope is not cached or some of the problems can't be
+   * found in it anymore
+   */
+  @Nullable
+  Map<String, List<ProblemDescriptor>> get(@NotNull PsiElement scope) {
+    String text = scope.getText();
+    Entry entry;
+    synchronized (myEntries) {
+      entry = myEntries.get(computeStructureHash(scope));
+    }
+    if (entry == null || !entry.myText.equals(text)) return null;
+
+    // problems are anchored by smart pointers, check that they still point to the same places in the scope
+    int scopeStart = scope.getTextRange().getStartOffset();
+    for (Map.Entry<ProblemDescriptor, TextRange> e : entry.myRelativeRanges.entrySet()) {
+      ProblemDescriptorImpl descriptor = (ProblemDescriptorImpl)e.getKey();
+      TextRange range = descriptor.getTextRange();
+      if (range == null || descriptor.getPsiElement() == null || !range.shiftRight(-scopeStart).equals(e.getValue())) {
+        return null;
+      }
+    }
+    return entry.myResults;
+  }
+
+  /**
+   * Does nothing if the problems can't be cached, e.g. if some of them are outside the scope
+   */
+  void put(@NotNull PsiElement scope, @NotNull Map<String, List<ProblemDescriptor>> results) {
+    TextRange scopeRange = scope.getTextRange();
+    Map<ProblemDescriptor, TextRange> relativeRanges = new THashMap<ProblemDescriptor, TextRange>();
+    for (List<ProblemDescriptor> descriptors : results.values()) {
+      for (ProblemDescriptor descriptor : descriptors) {
+        if (!(descriptor instanceof ProblemDescriptorImpl)) return;
+        TextRange range = ((ProblemDescriptorImpl)descriptor).getTextRange();
+        if (range == null || !scopeRange.contains(range)) return;
+        relativeRanges.put(descriptor, range.shiftRight(-scopeRange.getStartOffset()));
+      }
+    }
+    Entry entry = new Entry(scope.getText(), results, relativeRanges);
+    synchronized (myEntries) {
+      myEntries.put(computeStructureHash(scope), entry);
+    }
+  }
+
+  private static long computeStructureHash(@NotNull PsiElement element) {
+    return computeStructureHash(element.getNode(), 0);
+  }
+
+  private static long computeStructureHash(@Nullable ASTNode node, long hash) {
+    if (node == null) return hash;
+    hash = hash * 31 + node.getElementType().getIndex();
+    ASTNode child = node.getFirstChildNode();
+    if (child == null) {
+      return hash * 31 + StringUtil.stringHashCode(node.getChars());
+    }
+    while (child != null) {
+      hash = computeStructureHash(child, hash);
+      child = child.getTreeNext();
+    }
+    return hash;
+  }
+}
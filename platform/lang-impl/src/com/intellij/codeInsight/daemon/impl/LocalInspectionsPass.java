@@ -55,6 +55,7 @@ import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
 import com.intellij.profile.codeInspection.SeverityProvider;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.source.tree.injected.InjectedLanguageUtil;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Function;
 import com.intellij.util.Processor;
@@ -65,6 +66,7 @@ import com.intellij.util.ui.UIUtil;
 import com.intellij.xml.util.XmlStringUtil;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
+import gnu.trove.TObjectLongHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -216,11 +218,30 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     setProgressLimit(1L * tools.size() * 2);
     final LocalInspectionToolSession session = new LocalInspectionToolSession(myFile, myStartOffset, myEndOffset);
 
+    // results computed in dumb mode are incomplete, and whole file tools have to see all the elements
+    InspectionResultsCache cache = isOnTheFly && !checkDumbAwareness && !hasWholeFileTools(toolWrappers)
+                                   ? InspectionResultsCache.getInstance(myFile, toolWrappers) : null;
+    Map<String, LocalInspectionToolWrapper> toolsByName = new THashMap<String, LocalInspectionToolWrapper>();
+    for (LocalInspectionToolWrapper wrapper : toolWrappers) {
+      toolsByName.put(wrapper.getShortName(), wrapper);
+    }
+    Map<String, List<ProblemDescriptor>> restored = new THashMap<String, List<ProblemDescriptor>>();
+    List<PsiElement> scopesToCache = new ArrayList<PsiElement>();
+    List<PsiElement> insideToVisit = inside;
+    List<PsiElement> outsideToVisit = outside;
+    if (cache != null) {
+      insideToVisit = skipCachedScopes(cache, inside, true, toolsByName, restored, scopesToCache, indicator);
+      outsideToVisit = skipCachedScopes(cache, outside, false, toolsByName, restored, scopesToCache, indicator);
+    }
+
     List<InspectionContext> init =
-      visitPriorityElementsAndInit(tools, iManager, isOnTheFly, indicator, inside, session, toolWrappers, checkDumbAwareness);
-    visitRestElementsAndCleanup(iManager, isOnTheFly, indicator, outside, session, init, toolWrappers, checkDumbAwareness);
+      visitPriorityElementsAndInit(tools, iManager, isOnTheFly, indicator, insideToVisit, inside, session, toolWrappers, checkDumbAwareness);
+    visitRestElementsAndCleanup(iManager, isOnTheFly, indicator, outsideToVisit, outside, session, init, toolWrappers, checkDumbAwareness);
 
     indicator.checkCanceled();
+    if (cache != null) {
+      addCachedResults(cache, toolsByName, restored, scopesToCache);
+    }
 
     myInfos = new ArrayList<HighlightInfo>();
     addHighlightsFromResults(myInfos, indicator);
@@ -298,12 +319,16 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                             final boolean isOnTheFly,
                                             @NotNull final ProgressIndicator indicator,
                                             @NotNull final List<PsiElement> elements,
+                                            @NotNull List<PsiElement> injectionHosts,
                                             @NotNull final LocalInspectionToolSession session,
                                             List<LocalInspectionToolWrapper> wrappers, boolean checkDumbAwareness) {
 
     final ArrayList<InspectionContext> init = new ArrayList<InspectionContext>();
     List<Map.Entry<LocalInspectionToolWrapper, Collection<String>>> entries = new ArrayList<Map.Entry<LocalInspectionToolWrapper, Collection<String>>>(tools.entrySet());
-    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(entries, indicator, myFailFastOnAcquireReadAction,
+    if (isOnTheFly) {
+      entries = sortCheapFirst(entries);
+    }
+    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(entries, indicator, myFailFastOnAcquireReadAction, isOnTheFly,
                                                                                new Processor<Map.Entry<LocalInspectionToolWrapper, Collection<String>>>() {
                                                                                  @Override
                                                                                  public boolean process(final Map.Entry<LocalInspectionToolWrapper, Collection<String>> pair) {
@@ -326,10 +351,19 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                                        }
                                                                                      };
                                                                                    Set<String> languages = (Set<String>)pair.getValue();
-                                                                                   PsiElementVisitor visitor =
-                                                                                     createVisitorAndAcceptElements(tool, holder,
-                                                                                                                    isOnTheFly, session,
-                                                                                                                    elements, languages);
+                                                                                   PsiElementVisitor visitor;
+                                                                                   long start = System.nanoTime();
+                                                                                   try {
+                                                                                     visitor = createVisitorAndAcceptElements(tool, holder,
+                                                                                                                              isOnTheFly, session,
+                                                                                                                              elements, languages);
+                                                                                   }
+                                                                                   finally {
+                                                                                     // the time is recorded even if cancelled, otherwise a tool which is too slow to ever finish would look cheap
+                                                                                     if (isOnTheFly) {
+                                                                                       LocalInspectionsStatistics.getInstance().addInvocation(wrapper.getShortName(), System.nanoTime() - start);
+                                                                                     }
+                                                                                   }
 
                                                                                    synchronized (init) {
                                                                                      init.add(
@@ -348,10 +382,32 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                                  }
                                                                                });
     if (!result) throw new ProcessCanceledException();
-    inspectInjectedPsi(elements, isOnTheFly, indicator, iManager, true, checkDumbAwareness, wrappers);
+    inspectInjectedPsi(injectionHosts, isOnTheFly, indicator, iManager, true, checkDumbAwareness, wrappers);
     return init;
   }
 
+  /**
+   * Orders the tools by their average time so that the results of the cheap tools show up sooner and the known-expensive tools run last.
+   */
+  @NotNull
+  private static <T extends Map.Entry<LocalInspectionToolWrapper, ?>> List<T> sortCheapFirst(@NotNull List<T> entries) {
+    final LocalInspectionsStatistics statistics = LocalInspectionsStatistics.getInstance();
+    final TObjectLongHashMap<T> averageTimes = new TObjectLongHashMap<T>(entries.size());
+    for (T entry : entries) {
+      averageTimes.put(entry, statistics.getAverageTime(entry.getKey().getShortName()));
+    }
+    List<T> sorted = new ArrayList<T>(entries);
+    Collections.sort(sorted, new Comparator<T>() {
+      @Override
+      public int compare(T o1, T o2) {
+        long t1 = averageTimes.get(o1);
+        long t2 = averageTimes.get(o2);
+        return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+      }
+    });
+    return sorted;
+  }
+
   private static PsiElementVisitor createVisitorAndAcceptElements(@NotNull LocalInspectionTool tool,
                                                                   @NotNull ProblemsHolder holder,
                                                                   boolean isOnTheFly,
@@ -375,6 +431,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                            final boolean isOnTheFly,
                                            @NotNull final ProgressIndicator indicator,
                                            @NotNull final List<PsiElement> elements,
+                                           @NotNull List<PsiElement> injectionHosts,
                                            @NotNull final LocalInspectionToolSession session,
                                            @NotNull List<InspectionContext> init,
                                            List<LocalInspectionToolWrapper> wrappers, boolean checkDumbAwareness) {
@@ -385,9 +442,17 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
           
           indicator.checkCanceled();
           ApplicationManager.getApplication().assertReadAccessAllowed();
-          acceptElements(elements, context.visitor, context.languageIds);
-          advanceProgress(1);
-          context.tool.getTool().inspectionFinished(session, context.holder);
+          long start = System.nanoTime();
+          try {
+            acceptElements(elements, context.visitor, context.languageIds);
+            advanceProgress(1);
+            context.tool.getTool().inspectionFinished(session, context.holder);
+          }
+          finally {
+            if (isOnTheFly) {
+              LocalInspectionsStatistics.getInstance().addTime(context.tool.getShortName(), System.nanoTime() - start);
+            }
+          }
 
           if (context.holder.hasResults()) {
             appendDescriptors(myFile, context.holder.getResults(), context.tool);
@@ -399,7 +464,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     if (!result) {
       throw new ProcessCanceledException();
     }
-    inspectInjectedPsi(elements, isOnTheFly, indicator, iManager, false, checkDumbAwareness, wrappers);
+    inspectInjectedPsi(injectionHosts, isOnTheFly, indicator, iManager, false, checkDumbAwareness, wrappers);
   }
 
   private static void acceptElements(@NotNull List<PsiElement> elements,
@@ -415,6 +480,146 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     }
   }
 
+  private static boolean hasWholeFileTools(@NotNull List<LocalInspectionToolWrapper> toolWrappers) {
+    for (LocalInspectionToolWrapper wrapper : toolWrappers) {
+      if (wrapper.runForWholeFile()) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Restores the results of the change-local scopes (see {@link com.intellij.codeInsight.daemon.ChangeLocalityDetector}) which didn't
+   * change since they were inspected last time.
+   *
+   * @return the elements which still have to be visited by the tools
+   */
+  @NotNull
+  private List<PsiElement> skipCachedScopes(@NotNull InspectionResultsCache cache,
+                                            @NotNull List<PsiElement> elements,
+                                            boolean inside,
+                                            @NotNull Map<String, LocalInspectionToolWrapper> toolsByName,
+                                            @NotNull Map<String, List<ProblemDescriptor>> outRestored,
+                                            @NotNull List<PsiElement> outScopesToCache,
+                                            @NotNull ProgressIndicator indicator) {
+    Set<PsiElement> scopes = new THashSet<PsiElement>();
+    for (PsiElement element : elements) {
+      PsiElement scope = PsiChangeHandler.getChangeHighlightingScope(element);
+      if (scope == null || scope instanceof PsiFile || scope.getFirstChild() == null) continue;
+      // the elements under the scope have to be all in the same list
+      if (!inside && myPriorityRange.intersects(scope.getTextRange())) continue;
+      scopes.add(scope);
+    }
+    if (scopes.isEmpty()) return elements;
+
+    // elements are in post order, so the scope comes right after its descendants, and the outer scopes come after the inner ones
+    boolean[] skipped = new boolean[elements.size()];
+    int skippedCount = 0;
+    for (int end = elements.size() - 1; end >= 0; end--) {
+      PsiElement scope = elements.get(end);
+      if (skipped[end] || !scopes.contains(scope)) continue;
+      indicator.checkCanceled();
+      Map<String, List<ProblemDescriptor>> results = cache.get(scope);
+      if (results == null) {
+        outScopesToCache.add(scope);
+        continue;
+      }
+      int start = end;
+      while (start > 0 && PsiTreeUtil.isAncestor(scope, elements.get(start - 1), true)) {
+        start--;
+      }
+      for (int i = start; i <= end; i++) {
+        if (!skipped[i]) {
+          skipped[i] = true;
+          skippedCount++;
+        }
+      }
+      for (Map.Entry<String, List<ProblemDescriptor>> entry : results.entrySet()) {
+        List<ProblemDescriptor> restored = outRestored.get(entry.getKey());
+        if (restored == null) {
+          restored = new ArrayList<ProblemDescriptor>();
+          outRestored.put(entry.getKey(), restored);
+        }
+        restored.addAll(entry.getValue());
+        if (inside) {
+          LocalInspectionToolWrapper wrapper = toolsByName.get(entry.getKey());
+          for (ProblemDescriptor descriptor : entry.getValue()) {
+            addDescriptorIncrementally(descriptor, wrapper, indicator);
+          }
+        }
+      }
+    }
+    if (skippedCount == 0) return elements;
+
+    List<PsiElement> toVisit = new ArrayList<PsiElement>(elements.size() - skippedCount);
+    for (int i = 0; i < elements.size(); i++) {
+      if (!skipped[i]) toVisit.add(elements.get(i));
+    }
+    return toVisit;
+  }
+
+  private void addCachedResults(@NotNull InspectionResultsCache cache,
+                                @NotNull Map<String, LocalInspectionToolWrapper> toolsByName,
+                                @NotNull Map<String, List<ProblemDescriptor>> restored,
+                                @NotNull List<PsiElement> scopesToCache) {
+    List<InspectionResult> results = result.get(myFile);
+    if (results == null) {
+      results = new ArrayList<InspectionResult>();
+    }
+    if (!restored.isEmpty()) {
+      // tools may report problems in a restored scope while visiting its parents, don't show such problems twice
+      Set<Trinity<String, TextRange, String>> restoredProblems = new THashSet<Trinity<String, TextRange, String>>();
+      for (Map.Entry<String, List<ProblemDescriptor>> entry : restored.entrySet()) {
+        for (ProblemDescriptor descriptor : entry.getValue()) {
+          restoredProblems.add(getProblemKey(entry.getKey(), descriptor));
+        }
+      }
+      List<InspectionResult> merged = new ArrayList<InspectionResult>(results.size() + restored.size());
+      for (InspectionResult inspectionResult : results) {
+        List<ProblemDescriptor> found = new ArrayList<ProblemDescriptor>(inspectionResult.foundProblems.size());
+        for (ProblemDescriptor descriptor : inspectionResult.foundProblems) {
+          if (!restoredProblems.contains(getProblemKey(inspectionResult.tool.getShortName(), descriptor))) {
+            found.add(descriptor);
+          }
+        }
+        merged.add(new InspectionResult(inspectionResult.tool, found));
+      }
+      for (Map.Entry<String, List<ProblemDescriptor>> entry : restored.entrySet()) {
+        merged.add(new InspectionResult(toolsByName.get(entry.getKey()), entry.getValue()));
+      }
+      results = merged;
+      result.put(myFile, results);
+    }
+
+    if (scopesToCache.isEmpty()) return;
+    Map<PsiElement, Map<String, List<ProblemDescriptor>>> scopeResults = new THashMap<PsiElement, Map<String, List<ProblemDescriptor>>>();
+    for (PsiElement scope : scopesToCache) {
+      scopeResults.put(scope, new THashMap<String, List<ProblemDescriptor>>());
+    }
+    for (InspectionResult inspectionResult : results) {
+      for (ProblemDescriptor descriptor : inspectionResult.foundProblems) {
+        for (PsiElement element = descriptor.getPsiElement(); element != null && !(element instanceof PsiFile); element = element.getParent()) {
+          Map<String, List<ProblemDescriptor>> toolResults = scopeResults.get(element);
+          if (toolResults == null) continue;
+          List<ProblemDescriptor> descriptors = toolResults.get(inspectionResult.tool.getShortName());
+          if (descriptors == null) {
+            descriptors = new ArrayList<ProblemDescriptor>();
+            toolResults.put(inspectionResult.tool.getShortName(), descriptors);
+          }
+          descriptors.add(descriptor);
+        }
+      }
+    }
+    for (Map.Entry<PsiElement, Map<String, List<ProblemDescriptor>>> entry : scopeResults.entrySet()) {
+      cache.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @NotNull
+  private static Trinity<String, TextRange, String> getProblemKey(@NotNull String toolName, @NotNull ProblemDescriptor descriptor) {
+    TextRange range = descriptor instanceof ProblemDescriptorImpl ? ((ProblemDescriptorImpl)descriptor).getTextRange() : null;
+    return Trinity.create(toolName, range, descriptor.getDescriptionTemplate());
+  }
+
   void inspectInjectedPsi(@NotNull final List<PsiElement> elements,
                           final boolean onTheFly,
                           @NotNull final ProgressIndicator indicator,
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.openapi.components.*;
+import com.intellij.openapi.util.text.StringUtil;
+import gnu.trove.THashMap;
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time spent by the local inspection tools in {@link LocalInspectionsPass}, used to run the cheap tools first. The statistics are kept
+ * between sessions since they depend on the machine and the code rather than on the session.
+ */
+@State(
+  name = "LocalInspectionsStatistics",
+  roamingType = RoamingType.DISABLED,
+  storages = {
+    @Storage(
+      file = StoragePathMacros.APP_CONFIG + "/inspectionStatistics.xml")
+  }
+)
+public class LocalInspectionsStatistics implements PersistentStateComponent<Element> {
+  @NonNls private static final String TOOL_TAG = "tool";
+  @NonNls private static final String NAME_ATTR = "name";
+  @NonNls private static final String INVOCATIONS_ATTR = "invocations";
+  @NonNls private static final String TIME_ATTR = "time";
+
+  private final Map<String, ToolStatistics> myStatistics = new THashMap<String, ToolStatistics>();
+
+  public static class ToolStatistics {
+    private final String myToolName;
+    private long myInvocations;
+    private long myTime;
+
+    private ToolStatistics(@NotNull String toolName, long invocations, long time) {
+      myToolName = toolName;
+      myInvocations = invocations;
+      myTime = time;
+    }
+
+    @NotNull
+    public String getToolName() {
+      return myToolName;
+    }
+
+    public long getInvocations() {
+      return myInvocations;
+    }
+
+    /**
+     * @return total time in nanoseconds
+     */
+    public long getTime() {
+      return myTime;
+    }
+
+    public long getAverageTime() {
+      return myInvocations == 0 ? 0 : myTime / myInvocations;
+    }
+  }
+
+  public static LocalInspectionsStatistics getInstance() {
+    return ServiceManager.getService(LocalInspectionsStatistics.class);
+  }
+
+  /**
+   * Records the time the tool spent inspecting a file
+   */
+  public void addInvocation(@NotNull String toolName, long time) {
+    synchronized (myStatistics) {
+      ToolStatistics statistics = getOrCreate(toolName);
+      statistics.myInvocations++;
+      statistics.myTime += time;
+    }
+  }
+
+  /**
+   * Records more time the tool spent inspecting the file of its last invocation
+   */
+  public void addTime(@NotNull String toolName, long time) {
+    synchronized (myStatistics) {
+      getOrCreate(toolName).myTime += time;
+    }
+  }
+
+  /**
+   * @return average time in nanoseconds the tool spends inspecting a file, 0 if the tool has never run
+   */
+  public long getAverageTime(@NotNull String toolName) {
+    synchronized (myStatistics) {
+      ToolStatistics statistics = myStatistics.get(toolName);
+      return statistics == null ? 0 : statistics.getAverageTime();
+    }
+  }
+
+  @NotNull
+  public List<ToolStatistics> getStatistics() {
+    synchronized (myStatistics) {
+      List<ToolStatistics> result = new ArrayList<ToolStatistics>(myStatistics.size());
+      for (ToolStatistics statistics : myStatistics.values()) {
+        result.add(new ToolStatistics(statistics.myToolName, statistics.myInvocations, statistics.myTime));
+      }
+      return result;
+    }
+  }
+
+  public void clear() {
+    synchronized (myStatistics) {
+      myStatistics.clear();
+    }
+  }
+
+  @NotNull
+  private ToolStatistics getOrCreate(@NotNull String toolName) {
+    ToolStatistics statistics = myStatistics.get(toolName);
+    if (statistics == null) {
+      statistics = new ToolStatistics(toolName, 0, 0);
+      myStatistics.put(toolName, statistics);
+    }
+    return statistics;
+  }
+
+  @Override
+  public Element getState() {
+    Element state = new Element("state");
+    synchronized (myStatistics) {
+      for (ToolStatistics statistics : myStatistics.values()) {
+        Element tool = new Element(TOOL_TAG);
+        tool.setAttribute(NAME_ATTR, statistics.myToolName);
+        tool.setAttribute(INVOCATIONS_ATTR, String.valueOf(statistics.myInvocations));
+        tool.setAttribute(TIME_ATTR, String.valueOf(statistics.myTime));
+        state.addContent(tool);
+      }
+    }
+    return state;
+  }
+
+  @Override
+  public void loadState(Element state) {
+    synchronized (myStatistics) {
+      myStatistics.clear();
+      for (Object child : state.getChildren(TOOL_TAG)) {
+        Element tool = (Element)child;
+        String name = tool.getAttributeValue(NAME_ATTR);
+        if (StringUtil.isEmpty(name)) continue;
+        long invocations = parseLong(tool.getAttributeValue(INVOCATIONS_ATTR));
+        long time = parseLong(tool.getAttributeValue(TIME_ATTR));
+        myStatistics.put(name, new ToolStatistics(name, invocations, time));
+      }
+    }
+  }
+
+  private static long parseLong(String value) {
+    if (value == null) return 0;
+    try {
+      return Long.parseLong(value);
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -231,7 +231,7 @@ public class PsiChangeHandler extends PsiTreeChangeAdapter implements Disposable
   }
 
   @Nullable
-  private static PsiElement getChangeHighlightingScope(PsiElement element) {
+  static PsiElement getChangeHighlightingScope(PsiElement element) {
     DefaultChangeLocalityDetector defaultDetector = null;
     for (ChangeLocalityDetector detector : Extensions.getExtensions(EP_NAME)) {
       if (detector instanceof DefaultChangeLocalityDetector) {
@@ -71,11 +71,14 @@ import com.intellij.psi.PsiFileFactory;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.*;
+import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.text.CharArrayUtil;
+import com.intellij.util.ui.UIUtil;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
@@ -92,6 +95,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleViewImpl");
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
+  private static final int FILTER_BATCH_LINE_COUNT = 200;
 
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
@@ -113,6 +117,18 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   @Nullable
   private final Alarm myHeavyAlarm;
   private       int   myHeavyUpdateTicket;
+  /**
+   * Runs the filters over the flushed text, the results are applied to the editor batch by batch.
+   */
+  private final Alarm myFilterAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+  /**
+   * Changed when the console is cleared, so the filter results for the removed text are discarded.
+   */
+  private volatile int myFilterTicket;
+  /**
+   * Tests run the filters synchronously unless a test {@link #setFilterInBackground(boolean) opts in}.
+   */
+  private boolean myFilterInBackground = !ApplicationManager.getApplication().isUnitTestMode();
 
   private final CopyOnWriteArraySet<ChangeListener> myListeners             = new CopyOnWriteArraySet<ChangeListener>();
   private final ArrayList<AnAction>                 customActions           = new ArrayList<AnAction>();
@@ -610,6 +626,8 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     if (clear) {
       final DocumentEx document;
       synchronized (LOCK) {
+        myFilterTicket++;
+        myFilterAlarm.cancelAllRequests();
         myHyperlinks.clearHyperlinks();
         myTokens.clear();
         editor.getMarkupModel().removeAllHighlighters();
@@ -927,7 +945,12 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     ApplicationManager.getApplication().assertIsDispatchThread();
     PsiDocumentManager.getInstance(myProject).commitAllDocuments();
     if (canHighlightHyperlinks) {
-      myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      if (myFilterInBackground) {
+        highlightHyperlinksInBackground(line1, endLine);
+      }
+      else {
+        myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      }
     }
     
     if (myAllowHeavyFilters && myPredefinedMessageFilter.isAnyHeavy() && myPredefinedMessageFilter.shouldRunHeavy()) {
@@ -938,6 +961,128 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * Filters are run on a pooled thread over a copy of the text, so long or numerous lines don't block the EDT. The text may be
+   * trimmed by the cyclic buffer meanwhile, so the results are applied at the current position of the copied text, and only if
+   * their text is still in the document.
+   */
+  private void highlightHyperlinksInBackground(int line1, int endLine) {
+    final int startLine = Math.max(0, line1);
+    if (startLine > endLine) return;
+
+    final Document document = myEditor.getDocument();
+    final int startOffset = document.getLineStartOffset(startLine);
+    int endOffset = document.getLineEndOffset(endLine);
+    if (endOffset < document.getTextLength()) {
+      endOffset++; // add '\n'
+    }
+    final String text = document.getCharsSequence().subSequence(startOffset, endOffset).toString();
+    final RangeMarker marker = document.createRangeMarker(startOffset, endOffset);
+    final int ticket = myFilterTicket;
+    myFilterAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        runFilters(text, startOffset, marker, ticket);
+      }
+    }, 0);
+  }
+
+  private void runFilters(@NotNull String text, int startOffset, @NotNull RangeMarker marker, int ticket) {
+    List<Filter.ResultItem> batch = new ArrayList<Filter.ResultItem>();
+    int batchLineCount = 0;
+    int lineStart = 0;
+    while (lineStart < text.length()) {
+      if (myFilterTicket != ticket) break;
+      int lineEnd = text.indexOf('\n', lineStart);
+      lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+      final String line = text.substring(lineStart, lineEnd);
+      final int entireLength = startOffset + lineEnd;
+      Filter.Result result = ApplicationManager.getApplication().runReadAction(new Computable<Filter.Result>() {
+        @Override
+        public Filter.Result compute() {
+          Filter.Result result = myCustomFilter.applyFilter(line, entireLength);
+          return result != null ? result : myPredefinedMessageFilter.applyFilter(line, entireLength);
+        }
+      });
+      if (result != null) {
+        batch.addAll(result.getResultItems());
+      }
+      lineStart = lineEnd;
+      if (++batchLineCount >= FILTER_BATCH_LINE_COUNT && !batch.isEmpty()) {
+        applyFilterResults(text, startOffset, marker, batch, ticket, false);
+        batch = new ArrayList<Filter.ResultItem>();
+        batchLineCount = 0;
+      }
+    }
+    applyFilterResults(text, startOffset, marker, batch, ticket, true);
+  }
+
+  private void applyFilterResults(@NotNull final String text,
+                                  final int startOffset,
+                                  @NotNull final RangeMarker marker,
+                                  @NotNull final List<Filter.ResultItem> items,
+                                  final int ticket,
+                                  final boolean last) {
+    if (myFlushAlarm.isDisposed()) return;
+    addFlushRequest(new MyFlushRunnable(false) {
+      @Override
+      public void doRun() {
+        try {
+          if (myFilterTicket != ticket || myEditor == null || !marker.isValid()) return;
+          // the text is only appended and trimmed at the start, so its end keeps the same position relative to the copied text
+          int delta = marker.getEndOffset() - (startOffset + text.length());
+          CharSequence chars = myEditor.getDocument().getCharsSequence();
+          for (Filter.ResultItem item : items) {
+            int textStart = item.highlightStartOffset - startOffset;
+            int textEnd = item.highlightEndOffset - startOffset;
+            if (textStart < 0 || textEnd > text.length() || textStart > textEnd) continue;
+            int documentStart = textStart + marker.getEndOffset() - text.length();
+            if (documentStart < 0 ||
+                !StringUtil.equals(chars.subSequence(documentStart, documentStart + textEnd - textStart), text.substring(textStart, textEnd))) {
+              continue;
+            }
+            myHyperlinks.applyResultItem(item, delta);
+          }
+        }
+        finally {
+          if (last) {
+            marker.dispose();
+          }
+        }
+      }
+    });
+  }
+
+  @TestOnly
+  void setFilterInBackground(boolean filterInBackground) {
+    myFilterInBackground = filterInBackground;
+  }
+
+  /**
+   * Waits until the filters are run over the flushed text and their results are applied or discarded
+   */
+  @TestOnly
+  void waitForFilterResults() {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    final Semaphore applied = new Semaphore();
+    applied.down();
+    // the filters are run one request after another, and the results are applied in the order they are ready
+    myFilterAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        addFlushRequest(new MyFlushRunnable(false) {
+          @Override
+          public void doRun() {
+            applied.up();
+          }
+        });
+      }
+    }, 0);
+    while (!applied.waitFor(10)) {
+      UIUtil.dispatchAllInvocationEvents();
+    }
+  }
+
   private void runHeavyFilters(int line1, int endLine) {
     final int startLine = Math.max(0, line1);
 
@@ -959,17 +1104,12 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
             @Override
             public void consume(final FilterMixin.AdditionalHighlight additionalHighlight) {
               if (myFlushAlarm.isDisposed()) return;
-              addFlushRequest(new MyFlushRunnable() {
+              addFlushRequest(new MyFlushRunnable(false) {
                 @Override
                 public void doRun() {
                   if (myHeavyUpdateTicket != currentValue) return;
                   myHyperlinks.adjustHighlighters(Collections.singletonList(additionalHighlight));
                 }
-
-                @Override
-                public boolean equals(Object o) {
-                  return this == o && super.equals(o);
-                }
               });
             }
           });
@@ -1766,6 +1906,19 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   private class MyFlushRunnable implements Runnable {
     private volatile boolean myValid = true;
+    /**
+     * Whether the request may be dropped if an equal one is already queued, i.e. it flushes the text rather than applies its own data.
+     */
+    private final boolean myMergeable;
+
+    MyFlushRunnable() {
+      this(true);
+    }
+
+    MyFlushRunnable(boolean mergeable) {
+      myMergeable = mergeable;
+    }
+
     @Override
     public final void run() {
       synchronized (myCurrentRequests) {
@@ -1795,7 +1948,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
       MyFlushRunnable runnable = (MyFlushRunnable)o;
 
-      return myValid == runnable.myValid;
+      return myMergeable && runnable.myMergeable && myValid == runnable.myValid;
     }
 
     @Override
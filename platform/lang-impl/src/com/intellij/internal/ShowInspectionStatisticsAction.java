@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.codeInsight.daemon.impl.LocalInspectionsStatistics;
+import com.intellij.codeInsight.daemon.impl.LocalInspectionsStatistics.ToolStatistics;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.table.TableView;
+import com.intellij.util.ui.ColumnInfo;
+import com.intellij.util.ui.ListTableModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Shows the time spent by the local inspection tools in the editor highlighting, slowest first.
+ */
+public class ShowInspectionStatisticsAction extends AnAction implements DumbAware {
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    new InspectionStatisticsDialog(e.getData(PlatformDataKeys.PROJECT)).show();
+  }
+
+  private static class InspectionStatisticsDialog extends DialogWrapper {
+    private static final ColumnInfo[] COLUMNS = {
+      new ColumnInfo<ToolStatistics, String>("Inspection") {
+        @Override
+        public String valueOf(ToolStatistics statistics) {
+          return statistics.getToolName();
+        }
+
+        @Override
+        public Comparator<ToolStatistics> getComparator() {
+          return new Comparator<ToolStatistics>() {
+            @Override
+            public int compare(ToolStatistics o1, ToolStatistics o2) {
+              return o1.getToolName().compareTo(o2.getToolName());
+            }
+          };
+        }
+      },
+      new LongColumn("Invocations") {
+        @Override
+        protected long getValue(ToolStatistics statistics) {
+          return statistics.getInvocations();
+        }
+      },
+      new LongColumn("Total time, ms") {
+        @Override
+        protected long getValue(ToolStatistics statistics) {
+          return statistics.getTime() / 1000000;
+        }
+      },
+      new LongColumn("Average time, ms") {
+        @Override
+        protected long getValue(ToolStatistics statistics) {
+          return statistics.getAverageTime() / 1000000;
+        }
+      }
+    };
+    private static final int TOTAL_TIME_COLUMN = 2;
+
+    private final ListTableModel<ToolStatistics> myModel =
+      new ListTableModel<ToolStatistics>(COLUMNS, LocalInspectionsStatistics.getInstance().getStatistics(), TOTAL_TIME_COLUMN,
+                                         SortOrder.DESCENDING);
+
+    private InspectionStatisticsDialog(@Nullable Project project) {
+      super(project, false);
+      setTitle("Local Inspections Statistics");
+      setModal(false);
+      init();
+    }
+
+    @Override
+    protected JComponent createCenterPanel() {
+      TableView<ToolStatistics> table = new TableView<ToolStatistics>(myModel);
+      JScrollPane pane = ScrollPaneFactory.createScrollPane(table);
+      pane.setPreferredSize(new Dimension(600, 400));
+      return pane;
+    }
+
+    @NotNull
+    @Override
+    protected Action[] createLeftSideActions() {
+      return new Action[]{new AbstractAction("Reset") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          LocalInspectionsStatistics.getInstance().clear();
+          myModel.setItems(Collections.<ToolStatistics>emptyList());
+        }
+      }};
+    }
+
+    @NotNull
+    @Override
+    protected Action[] createActions() {
+      return new Action[]{getOKAction()};
+    }
+
+    @Override
+    protected String getDimensionServiceKey() {
+      return "#com.intellij.internal.ShowInspectionStatisticsAction";
+    }
+  }
+
+  private abstract static class LongColumn extends ColumnInfo<ToolStatistics, Long> {
+    private LongColumn(String name) {
+      super(name);
+    }
+
+    protected abstract long getValue(ToolStatistics statistics);
+
+    @Override
+    public Long valueOf(ToolStatistics statistics) {
+      return getValue(statistics);
+    }
+
+    @Override
+    public Class getColumnClass() {
+      return Long.class;
+    }
+
+    @Override
+    public Comparator<ToolStatistics> getComparator() {
+      return new Comparator<ToolStatistics>() {
+        @Override
+        public int compare(ToolStatistics o1, ToolStatistics o2) {
+          long v1 = getValue(o1);
+          long v2 = getValue(o2);
+          return v1 < v2 ? -1 : v1 == v2 ? 0 : 1;
+        }
+      };
+    }
+  }
+}
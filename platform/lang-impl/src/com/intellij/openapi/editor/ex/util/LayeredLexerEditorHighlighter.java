@@ -155,6 +155,12 @@ public class LayeredLexerEditorHighlighter extends LexerEditorHighlighter {
 
   protected boolean updateLayers() { return false; }
 
+  @Override
+  protected boolean isBackgroundLexingSupported() {
+    // mapping of the layers isn't adapted to lexing the text by chunks
+    return false;
+  }
+
   @Override
   public void documentChanged(DocumentEvent e) {
     // do NOT synchronize before updateLayers due to deadlock with PsiLock
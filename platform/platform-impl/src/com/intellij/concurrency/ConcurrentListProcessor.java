@@ -0,0 +1,209 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.concurrency;
+
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processes list elements by several workers with work stealing. The list is split into a range of indices per worker. A worker
+ * takes elements from the start of its own range and, when the range is exhausted, steals the second half of the largest remaining
+ * range of another worker, so a few expensive elements don't leave other workers idle.
+ * <p/>
+ * Workers are started independently and may start late or not start at all: the work of a worker which hasn't started yet is
+ * stolen by the others. {@link #waitForWorkers()} waits only for workers which are actually processing elements, so the caller may
+ * return even if some of the submitted workers are still in a queue.
+ * <p/>
+ * If the elements are processed in order, they are dealt to the ranges in turn, so every worker starts with the first elements of
+ * the list and the last elements are processed last.
+ */
+class ConcurrentListProcessor<T> {
+  private final List<T> myItems;
+  // indices of elements by their positions in the ranges, null if the ranges contain consecutive elements
+  @Nullable private final int[] myOrder;
+  private final Processor<T> myProcessor;
+  // every range is packed into a long: start index in the high half, end index in the low half
+  private final AtomicLong[] myRanges;
+  private final AtomicInteger myActiveWorkers = new AtomicInteger();
+  private final AtomicReference<Throwable> myException = new AtomicReference<Throwable>();
+  private volatile boolean myStopped;
+
+  ConcurrentListProcessor(@NotNull List<T> items, int workers, @NotNull Processor<T> processor) {
+    this(items, workers, false, processor);
+  }
+
+  ConcurrentListProcessor(@NotNull List<T> items, int workers, boolean processInOrder, @NotNull Processor<T> processor) {
+    myItems = items;
+    myProcessor = processor;
+    myRanges = new AtomicLong[workers];
+    for (int i = 0; i < workers; i++) {
+      myRanges[i] = new AtomicLong(pack(rangeStart(items.size(), workers, i), rangeStart(items.size(), workers, i + 1)));
+    }
+    myOrder = processInOrder && workers > 1 ? dealInOrder(items.size(), workers) : null;
+  }
+
+  private static int rangeStart(int size, int workers, int worker) {
+    return (int)((long)size * worker / workers);
+  }
+
+  /**
+   * @return indices of elements by positions in the ranges, the elements are dealt to the ranges in turn skipping the filled ones
+   */
+  @NotNull
+  static int[] dealInOrder(int size, int workers) {
+    final int[] next = new int[workers];
+    for (int i = 0; i < workers; i++) {
+      next[i] = rangeStart(size, workers, i);
+    }
+    final int[] order = new int[size];
+    int worker = 0;
+    for (int index = 0; index < size; index++) {
+      while (next[worker] == rangeStart(size, workers, worker + 1)) {
+        worker = (worker + 1) % workers;
+      }
+      order[next[worker]++] = index;
+      worker = (worker + 1) % workers;
+    }
+    return order;
+  }
+
+  int getWorkersCount() {
+    return myRanges.length;
+  }
+
+  /**
+   * Processes elements until there are no elements left, a processor returns <code>false</code> or throws an exception
+   */
+  void runWorker(int worker) {
+    myActiveWorkers.incrementAndGet();
+    try {
+      while (!myStopped) {
+        final int position = claim(worker);
+        if (position < 0) break;
+        if (!myProcessor.process(myItems.get(myOrder == null ? position : myOrder[position]))) {
+          myStopped = true;
+        }
+      }
+    }
+    catch (Throwable e) {
+      myException.compareAndSet(null, e);
+      myStopped = true;
+    }
+    finally {
+      if (myActiveWorkers.decrementAndGet() == 0) {
+        synchronized (this) {
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until the started workers finish. The wait can't be interrupted because the workers may use the resources of the caller
+   * like its read access.
+   */
+  void waitForWorkers() {
+    boolean interrupted = false;
+    synchronized (this) {
+      while (myActiveWorkers.get() > 0) {
+        try {
+          wait(10);
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if processing was stopped before all elements were processed
+   */
+  boolean isStopped() {
+    return myStopped;
+  }
+
+  @Nullable
+  Throwable getException() {
+    return myException.get();
+  }
+
+  private int claim(int worker) {
+    while (true) {
+      final int index = takeFirst(myRanges[worker]);
+      if (index >= 0 || !steal(worker)) {
+        return index;
+      }
+    }
+  }
+
+  private static int takeFirst(@NotNull AtomicLong range) {
+    while (true) {
+      final long value = range.get();
+      final int start = start(value);
+      final int end = end(value);
+      if (start >= end) return -1;
+      if (range.compareAndSet(value, pack(start + 1, end))) return start;
+    }
+  }
+
+  /**
+   * @return <code>false</code> if there's nothing to steal
+   */
+  private boolean steal(int thief) {
+    while (true) {
+      AtomicLong victim = null;
+      long victimValue = 0;
+      for (AtomicLong range : myRanges) {
+        final long value = range.get();
+        if (end(value) - start(value) > (victim == null ? 0 : end(victimValue) - start(victimValue))) {
+          victim = range;
+          victimValue = value;
+        }
+      }
+      if (victim == null) return false;
+
+      final int start = start(victimValue);
+      final int end = end(victimValue);
+      final int middle = start + (end - start) / 2;
+      if (victim.compareAndSet(victimValue, pack(start, middle))) {
+        myRanges[thief].set(pack(middle, end));
+        return true;
+      }
+    }
+  }
+
+  private static long pack(int start, int end) {
+    return (long)start << 32 | end & 0xFFFFFFFFL;
+  }
+
+  private static int start(long range) {
+    return (int)(range >>> 32);
+  }
+
+  private static int end(long range) {
+    return (int)range;
+  }
+}
@@ -197,6 +197,19 @@ public class JobImpl<T> implements Job<T> {
     return canceled;
   }
 
+  /**
+   * Submits the tasks without waiting for them. If the caller has read access, the tasks are run with it too, so the caller must keep it
+   * until the tasks either complete or are cancelled.
+   */
+  void submit() {
+    checkCanSchedule();
+    final Application application = ApplicationManager.getApplication();
+    boolean callerHasReadAccess = application != null && application.isReadAccessAllowed();
+    scheduled = true;
+
+    submitTasks(getTasks(), callerHasReadAccess, false);
+  }
+
   @Override
   public void schedule() {
     checkCanSchedule();
@@ -39,43 +39,50 @@ public class JobLauncherImpl extends JobLauncher {
 
   private <T> boolean invokeConcurrentlyForAll(@NotNull final List<T> things,
                                                       boolean failFastOnAcquireReadAction,
+                                                      boolean processInOrder,
                                                       @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
-    final Job<String> job = new JobImpl<String>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction);
-
-    final int chunkSize = Math.max(1, things.size() / JobSchedulerImpl.CORES_COUNT / 20);
-    for (int i = 0; i < things.size(); i += chunkSize) {
-      // this job chunk is i..i+chunkSize-1
-      final int finalI = i;
-      job.addTask(new Runnable() {
-        public void run() {
-          try {
-            for (int k = finalI; k < finalI + chunkSize && k < things.size(); k++) {
-              T thing = things.get(k);
-              if (!thingProcessor.process(thing)) {
-                job.cancel();
-                break;
-              }
-            }
-          }
-          catch (ProcessCanceledException e) {
-            job.cancel();
-            throw e;
-          }
-        }
-      });
+    final int workers = Math.min(JobSchedulerImpl.CORES_COUNT, things.size());
+    final JobImpl<Void> job = workers > 1 ? new JobImpl<Void>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction) : null;
+    final ConcurrentListProcessor<T> processor = new ConcurrentListProcessor<T>(things, workers, processInOrder, new Processor<T>() {
+      public boolean process(T thing) {
+        // the job is cancelled when a worker fails to acquire read action
+        return (job == null || !job.isCanceled()) && thingProcessor.process(thing);
+      }
+    });
+    if (job == null) {
+      processor.runWorker(0);
     }
-    try {
-      job.scheduleAndWaitForResults();
+    else {
+      // the calling thread is a worker too and it never waits for workers which haven't started,
+      // so nested calls from the pool threads don't deadlock even if all the pool threads are busy
+      for (int i = 1; i < workers; i++) {
+        final int worker = i;
+        job.addTask(new Runnable() {
+          public void run() {
+            processor.runWorker(worker);
+          }
+        });
+      }
+      job.submit();
+      try {
+        processor.runWorker(0);
+        processor.waitForWorkers();
+      }
+      finally {
+        // workers which are still in the queue have nothing to do
+        job.cancel();
+      }
     }
-    catch (RuntimeException e) {
-      job.cancel();
-      throw e;
+
+    final Throwable exception = processor.getException();
+    if (exception instanceof RuntimeException) {
+      throw (RuntimeException)exception;
     }
-    catch (Throwable throwable) {
-      job.cancel();
-      LOG.error(throwable);
+    if (exception != null) {
+      LOG.error(exception);
+      return false;
     }
-    return !job.isCanceled();
+    return !processor.isStopped();
   }
 
   /**
@@ -97,6 +104,15 @@ public class JobLauncherImpl extends JobLauncher {
                                                             ProgressIndicator progress,
                                                             boolean failFastOnAcquireReadAction,
                                                             @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
+    return invokeConcurrentlyUnderProgress(things, progress, failFastOnAcquireReadAction, false, thingProcessor);
+  }
+
+  @Override
+  public <T> boolean invokeConcurrentlyUnderProgress(@NotNull List<T> things,
+                                                     ProgressIndicator progress,
+                                                     boolean failFastOnAcquireReadAction,
+                                                     boolean processInOrder,
+                                                     @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
     if (things.isEmpty()) {
       return true;
     }
@@ -107,8 +123,12 @@ public class JobLauncherImpl extends JobLauncher {
 
     // can be already wrapped
     final ProgressWrapper wrapper = progress instanceof ProgressWrapper ? (ProgressWrapper)progress : ProgressWrapper.wrap(progress);
-    return invokeConcurrentlyForAll(things, failFastOnAcquireReadAction, new Processor<T>() {
+    return invokeConcurrentlyForAll(things, failFastOnAcquireReadAction, processInOrder, new Processor<T>() {
       public boolean process(final T t) {
+        if (wrapper != null) {
+          // stop all the workers as soon as the progress is cancelled, even if the processor doesn't check it
+          wrapper.checkCanceled();
+        }
         final boolean[] result = new boolean[1];
         ((ProgressManagerImpl)ProgressManager.getInstance()).executeProcessUnderProgress(new Runnable() {
           public void run() {
@@ -289,17 +289,26 @@ public class EditorHyperlinkSupport {
       }
       if (result != null) {
         for (Filter.ResultItem resultItem : result.getResultItems()) {
-          if (resultItem.hyperlinkInfo != null) {
-            addHyperlink(resultItem.highlightStartOffset, resultItem.highlightEndOffset, resultItem.highlightAttributes, resultItem.hyperlinkInfo);
-          }
-          else if (resultItem.highlightAttributes != null) {
-            addHighlighter(resultItem.highlightStartOffset, resultItem.highlightEndOffset, resultItem.highlightAttributes);
-          }
+          applyResultItem(resultItem, 0);
         }
       }
     }
   }
 
+  /**
+   * @param offsetDelta shift of the document text since the result was produced
+   */
+  public void applyResultItem(@NotNull Filter.ResultItem resultItem, int offsetDelta) {
+    int startOffset = resultItem.highlightStartOffset + offsetDelta;
+    int endOffset = resultItem.highlightEndOffset + offsetDelta;
+    if (resultItem.hyperlinkInfo != null) {
+      addHyperlink(startOffset, endOffset, resultItem.highlightAttributes, resultItem.hyperlinkInfo);
+    }
+    else if (resultItem.highlightAttributes != null) {
+      addHighlighter(startOffset, endOffset, resultItem.highlightAttributes);
+    }
+  }
+
   private void addHighlighter(int highlightStartOffset, int highlightEndOffset, TextAttributes highlightAttributes) {
     final RangeHighlighter highlighter = myEditor.getMarkupModel().addRangeHighlighter(highlightStartOffset,
                                                                                        highlightEndOffset,
@@ -62,6 +62,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.EventDispatcher;
 import com.intellij.util.ReflectionCache;
 import com.intellij.util.Restarter;
+import com.intellij.util.concurrency.ReadMostlyRWLock;
 import com.intellij.util.containers.Stack;
 import com.intellij.util.io.storage.HeavyProcessLatch;
 import com.intellij.util.ui.UIUtil;
@@ -80,17 +81,15 @@ import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
 public class ApplicationImpl extends ComponentManagerImpl implements ApplicationEx {
   private static final Logger LOG = Logger.getInstance("#com.intellij.application.impl.ApplicationImpl");
   private final ModalityState MODALITY_STATE_NONE = ModalityState.NON_MODAL;
 
-  // about writer preference: the way the java.util.concurrent.locks.ReentrantReadWriteLock.NonfairSync is implemented, the
-  // writer thread will be always at the queue head and therefore, java.util.concurrent.locks.ReentrantReadWriteLock.NonfairSync.readerShouldBlock()
-  // will return true if the write action is pending, exactly as we need
-  private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock(false);
+  // read actions are run from many threads at once, so readers must not contend on a shared lock state;
+  // the lock prefers writers: new read actions are blocked while the write action is pending, exactly as we need
+  private final ReadMostlyRWLock myLock = new ReadMostlyRWLock();
 
   private final ModalityInvokator myInvokator = new ModalityInvokatorImpl();
 
@@ -363,7 +362,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
   @Override
   public boolean holdsReadLock() {
-    return myLock.getReadHoldCount() != 0;
+    return myLock.isReadLockedByCurrentThread();
   }
 
   @Override
@@ -927,7 +926,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     else {
       assertReadActionAllowed();
       try {
-        myLock.readLock().lockInterruptibly();
+        myLock.readLock();
       }
       catch (InterruptedException e) {
         throw new RuntimeInterruptedException(e);
@@ -936,7 +935,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
         action.run();
       }
       finally {
-        myLock.readLock().unlock();
+        myLock.readUnlock();
       }
     }
   }
@@ -948,7 +947,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     else {
       assertReadActionAllowed();
       try {
-        myLock.readLock().lockInterruptibly();
+        myLock.readLock();
       }
       catch (InterruptedException e) {
         throw new RuntimeInterruptedException(e);
@@ -957,7 +956,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
         return computation.compute();
       }
       finally {
-        myLock.readLock().unlock();
+        myLock.readUnlock();
       }
     }
   }
@@ -1143,13 +1142,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
     if (mustAcquire) {
       LOG.assertTrue(myTestModeFlag || !Thread.holdsLock(PsiLock.LOCK), "Thread must not hold PsiLock while performing readAction");
-      try {
-        // timed version of tryLock() respects fairness unlike the no-args method
-        if (!myLock.readLock().tryLock(0, TimeUnit.MILLISECONDS)) return false;
-      }
-      catch (InterruptedException e) {
-        throw new RuntimeInterruptedException(e);
-      }
+      if (!myLock.tryReadLock()) return false;
     }
 
     try {
@@ -1157,7 +1150,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     }
     finally {
       if (mustAcquire) {
-        myLock.readLock().unlock();
+        myLock.readUnlock();
       }
     }
     return true;
@@ -1223,7 +1216,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
       LOG.assertTrue(isWriteAccessAllowed() || !Thread.holdsLock(PsiLock.LOCK), "Thread must not hold PsiLock while performing writeAction");
       try {
-        if (!myLock.writeLock().tryLock()) {
+        if (!myLock.tryWriteLock()) {
           if (ourDumpThreadsOnLongWriteActionWaiting > 0) {
             executeOnPooledThread(new Runnable() {
               @Override
@@ -1241,7 +1234,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
               }
             });
           }
-          myLock.writeLock().lockInterruptibly();
+          myLock.writeLock();
         }
         acquired();
       }
@@ -1263,7 +1256,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
         myWriteActionsStack.pop();
       }
       finally {
-        myLock.writeLock().unlock();
+        myLock.writeUnlock();
         released();
       }
     }
@@ -1311,7 +1304,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     private ReadAccessToken() {
       assertReadActionAllowed();
       try {
-        myLock.readLock().lockInterruptibly();
+        myLock.readLock();
         acquired();
       }
       catch (InterruptedException e) {
@@ -1321,7 +1314,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
     @Override
     public void finish() {
-      myLock.readLock().unlock();
+      myLock.readUnlock();
       released();
     }
   }
@@ -1338,7 +1331,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
   @Override
   public boolean isWriteAccessAllowed() {
-    return myLock.writeLock().isHeldByCurrentThread();
+    return myLock.isWriteLockedByCurrentThread();
   }
 
   public void editorPaintStart() {
@@ -17,6 +17,7 @@ package com.intellij.openapi.editor.ex.util;
 
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.HighlighterColors;
@@ -34,6 +35,7 @@ import com.intellij.openapi.fileTypes.PlainSyntaxHighlighter;
 import com.intellij.openapi.fileTypes.SyntaxHighlighter;
 import com.intellij.openapi.project.DumbAwareRunnable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.ui.UIUtil;
@@ -45,6 +47,20 @@ import java.util.Map;
 
 public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDocumentListener {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.ex.util.LexerEditorHighlighter");
+  /**
+   * Texts longer than that are lexed synchronously only up to the requested offset, the rest is lexed in background
+   */
+  private static final int BACKGROUND_LEXING_THRESHOLD = 512 * 1024;
+  /**
+   * How far beyond the requested offset the text is lexed synchronously, should cover the visible area
+   */
+  private static final int VISIBLE_RANGE_MARGIN = 64 * 1024;
+  private static final int BACKGROUND_CHUNK_SIZE = 256 * 1024;
+  /**
+   * If on-demand lexing has to be restarted from a segment that far before the end of the lexed text, the lexer rarely returns to its
+   * initial state, and the whole text is lexed at once instead of relexing the same text on every request
+   */
+  private static final int MAX_RESTART_DISTANCE = 256 * 1024;
   private HighlighterClient myEditor;
   private final Lexer myLexer;
   private final Map<IElementType, TextAttributes> myAttributesMap = new HashMap<IElementType, TextAttributes>();
@@ -52,6 +68,15 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   private final SyntaxHighlighter myHighlighter;
   private EditorColorsScheme myScheme;
   private final int myInitialState;
+  /**
+   * <code>false</code> while the tail of the text isn't lexed yet, segments end at {@link SegmentArray#getLastValidOffset()} then
+   */
+  private boolean myLexingComplete = true;
+  /**
+   * Incremented on every change of the text and every change of segments other than appending background lexing results; background
+   * lexing for another stamp stops and its results are dropped
+   */
+  private int myLexingStamp;
 
   public LexerEditorHighlighter(@NotNull SyntaxHighlighter highlighter, @NotNull EditorColorsScheme scheme) {
     myScheme = scheme;
@@ -114,6 +139,13 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
         doSetText(document.getCharsSequence());
       }
 
+      // segments are read on the EDT without synchronization, so they are changed only there; iterators created in background
+      // (e.g. by highlighting passes) see the lexed part of the text only
+      if (!myLexingComplete && document != null && ApplicationManager.getApplication().isDispatchThread()) {
+        // don't wait for background lexing if its results are needed right now
+        lexUpTo(document.getCharsSequence(), startOffset + VISIBLE_RANGE_MARGIN);
+      }
+
       final int latestValidOffset = mySegments.getLastValidOffset();
       return new HighlighterIteratorImpl(startOffset <= latestValidOffset ? startOffset : latestValidOffset);
     }
@@ -140,6 +172,7 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   @Override
   public synchronized void documentChanged(DocumentEvent e) {
     final Document document = e.getDocument();
+    restartBackgroundLexing();
 
     if (document instanceof DocumentEx && ((DocumentEx)document).isInBulkUpdate()) {
       mySegments.removeAll();
@@ -153,6 +186,13 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
     CharSequence text = document.getCharsSequence();
     int oldStartOffset = e.getOffset();
+    final int oldLexedEnd = mySegments.getLastValidOffset();
+    if (!myLexingComplete && oldStartOffset >= oldLexedEnd) {
+      // the change is in the part which isn't lexed yet
+      return;
+    }
+    // while lexing isn't complete, relexing stops where the lexed part ends
+    final int lexedEndAfterChange = Math.max(e.getOffset() + e.getNewLength(), oldLexedEnd + e.getNewLength() - e.getOldLength());
 
     final int segmentIndex;
     try {
@@ -222,6 +262,11 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
       int tokenEnd = myLexer.getTokenEnd();
       data = packData(myLexer.getTokenType(), lexerState);
+      if (!myLexingComplete && tokenStart >= lexedEndAfterChange) {
+        repaintEnd = tokenStart;
+        oldEndIndex = mySegments.getSegmentCount();
+        break;
+      }
       if(tokenStart >= newEndOffset && lexerState == myInitialState) {
         int shiftedTokenStart = tokenStart - e.getNewLength() + e.getOldLength();
         int index = mySegments.findSegmentIndex(shiftedTokenStart);
@@ -303,9 +348,32 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   }
 
   private void doSetText(final CharSequence text) {
+    mySegments.removeAll();
+    if (text.length() > BACKGROUND_LEXING_THRESHOLD && getDocument() != null && isBackgroundLexingSupported() &&
+        myHighlighter.getHighlightingLexer() != myLexer) {
+      myLexingComplete = false;
+      lexUpTo(text, VISIBLE_RANGE_MARGIN);
+    }
+    else {
+      lexAll(text);
+    }
+
+    if(myEditor != null && !ApplicationManager.getApplication().isHeadlessEnvironment()) {
+      UIUtil.invokeLaterIfNeeded(new DumbAwareRunnable() {
+        @Override
+        public void run() {
+          myEditor.repaint(0, text.length());
+        }
+      });
+    }
+  }
+
+  private void lexAll(final CharSequence text) {
+    myLexingComplete = true;
+    restartBackgroundLexing();
+    mySegments.removeAll();
     final TokenProcessor processor = createTokenProcessor(0);
     myLexer.start(text, 0, text.length(),myInitialState);
-    mySegments.removeAll();
     int i = 0;
     while (true) {
       final IElementType tokenType = myLexer.getTokenType();
@@ -317,19 +385,197 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
       myLexer.advance();
     }
     processor.finish();
+  }
 
-    if(myEditor != null && !ApplicationManager.getApplication().isHeadlessEnvironment()) {
-      UIUtil.invokeLaterIfNeeded(new DumbAwareRunnable() {
+  protected TokenProcessor createTokenProcessor(final int startIndex) {
+    return new TokenProcessor();
+  }
+
+  /**
+   * Background lexing also requires {@link SyntaxHighlighter#getHighlightingLexer()} to return a new lexer on every call.
+   *
+   * @return <code>false</code> if the whole text must be lexed at once when it's set, e.g. because the token processor can't be
+   *         started in the middle of the text
+   */
+  protected boolean isBackgroundLexingSupported() {
+    return true;
+  }
+
+  /**
+   * Lexes the text which isn't lexed yet up to the given offset. Lexing is restarted from the last segment which starts in the
+   * initial lexer state, as the lexer state at the end of lexed text is unknown.
+   */
+  private void lexUpTo(@NotNull CharSequence text, int offset) {
+    if (myLexingComplete || mySegments.getLastValidOffset() >= Math.min(offset, text.length())) {
+      return;
+    }
+    final int checkpoint = findCheckpoint();
+    final int startOffset = getCheckpointOffset(checkpoint);
+    if (mySegments.getLastValidOffset() - startOffset > MAX_RESTART_DISTANCE) {
+      lexAll(text);
+      return;
+    }
+    myLexer.start(text, startOffset, text.length(), myInitialState);
+    addSegments(checkpoint, collectTokens(myLexer, offset, startOffset), text.length());
+  }
+
+  private int findCheckpoint() {
+    int index = mySegments.getSegmentCount() - 1;
+    while (index > 0 && !isInitialState(mySegments.getSegmentData(index))) {
+      index--;
+    }
+    return Math.max(0, index);
+  }
+
+  private int getCheckpointOffset(int checkpoint) {
+    return checkpoint < mySegments.getSegmentCount() ? mySegments.getSegmentStart(checkpoint) : 0;
+  }
+
+  /**
+   * @return tokens which start between <code>skipUntil</code> and <code>endOffset</code>, the lexer is left at the first token
+   *         which starts after <code>endOffset</code>
+   */
+  @NotNull
+  private SegmentArrayWithData collectTokens(@NotNull Lexer lexer, int endOffset, int skipUntil) {
+    final SegmentArrayWithData result = new SegmentArrayWithData();
+    int i = 0;
+    while (true) {
+      final IElementType tokenType = lexer.getTokenType();
+      if (tokenType == null || lexer.getTokenStart() >= endOffset) break;
+      if (lexer.getTokenStart() >= skipUntil) {
+        result.setElementAt(i++, lexer.getTokenStart(), lexer.getTokenEnd(), packData(tokenType, lexer.getState()));
+      }
+      lexer.advance();
+    }
+    return result;
+  }
+
+  /**
+   * Replaces segments starting from the given index with the given ones
+   */
+  private void setSegments(int startIndex, @NotNull SegmentArrayWithData segments) {
+    mySegments.remove(startIndex, mySegments.getSegmentCount());
+    final TokenProcessor processor = createTokenProcessor(startIndex);
+    for (int i = 0; i < segments.getSegmentCount(); i++) {
+      final short data = segments.getSegmentData(i);
+      processor.addToken(startIndex + i, segments.getSegmentStart(i), segments.getSegmentEnd(i), data, unpackToken(data));
+    }
+    processor.finish();
+  }
+
+  /**
+   * Replaces segments starting from the checkpoint with the given ones and schedules lexing of the rest of the text
+   */
+  private void addSegments(int checkpoint, @NotNull SegmentArrayWithData segments, int textLength) {
+    final int oldLexedEnd = mySegments.getLastValidOffset();
+    setSegments(checkpoint, segments);
+
+    final int lexedEnd = mySegments.getLastValidOffset();
+    // no progress means that the lexer stopped before the end of the text
+    myLexingComplete = lexedEnd >= textLength || lexedEnd <= oldLexedEnd;
+    restartBackgroundLexing();
+  }
+
+  /**
+   * Invalidates the lexing being performed in background and starts it anew if the text isn't lexed completely
+   */
+  private void restartBackgroundLexing() {
+    final int stamp = ++myLexingStamp;
+    if (myLexingComplete) return;
+
+    ApplicationManager.getApplication().executeOnPooledThread(new BackgroundLexingTask(stamp));
+  }
+
+  /**
+   * Lexes the rest of the text by chunks with its own lexer, which continues from the token where the previous chunk stopped, so the
+   * text is lexed once however rarely the lexer returns to its initial state. A chunk is lexed under a read action, but the highlighter
+   * monitor is held only to check the stamp, so neither painting nor document changes wait for more than a chunk. Lexing stops as soon
+   * as the stamp changes.
+   */
+  private class BackgroundLexingTask implements Runnable {
+    private final int myStamp;
+    private final Lexer myTaskLexer = myHighlighter.getHighlightingLexer();
+    private boolean myStarted;
+    private int myNextIndex;
+    private int mySkipUntil;
+    private int myTextLength;
+
+    private BackgroundLexingTask(int stamp) {
+      myStamp = stamp;
+    }
+
+    @Override
+    public void run() {
+      while (ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
         @Override
-        public void run() {
-          myEditor.repaint(0, text.length());
+        public Boolean compute() {
+          return lexNextChunk();
         }
-      });
+      })) {
+      }
     }
-  }
 
-  protected TokenProcessor createTokenProcessor(final int startIndex) {
-    return new TokenProcessor();
+    /**
+     * @return <code>true</code> if there is more text to lex
+     */
+    private boolean lexNextChunk() {
+      synchronized (LexerEditorHighlighter.this) {
+        final Document document = getDocument();
+        if (myStamp != myLexingStamp || myLexingComplete || document == null) return false;
+
+        if (!myStarted) {
+          // tokens before the end of the lexed text are lexed again only to get the lexer state, they are equal to the existing ones
+          final int checkpoint = findCheckpoint();
+          final CharSequence text = document.getCharsSequence();
+          myTaskLexer.start(text, getCheckpointOffset(checkpoint), text.length(), myInitialState);
+          myNextIndex = mySegments.getSegmentCount();
+          mySkipUntil = mySegments.getLastValidOffset();
+          myTextLength = text.length();
+          myStarted = true;
+        }
+      }
+
+      // the text can't change while the read action is held, and a stamp check above guarantees that it's the text the lexer started with
+      final SegmentArrayWithData segments = collectTokens(myTaskLexer, myTaskLexer.getTokenStart() + BACKGROUND_CHUNK_SIZE, mySkipUntil);
+      final boolean finished = myTaskLexer.getTokenType() == null;
+      if (segments.getSegmentCount() > 0 || finished) {
+        publish(myNextIndex, segments, finished);
+        myNextIndex += segments.getSegmentCount();
+      }
+      return !finished;
+    }
+
+    private void publish(final int startIndex, @NotNull final SegmentArrayWithData segments, final boolean finished) {
+      // segments are read on the EDT without synchronization, so the result is applied there
+      ApplicationManager.getApplication().invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (LexerEditorHighlighter.this) {
+            if (myStamp != myLexingStamp) return;
+            final int startOffset = mySegments.getLastValidOffset();
+            if (startIndex != mySegments.getSegmentCount() ||
+                segments.getSegmentCount() > 0 && segments.getSegmentStart(0) != startOffset) {
+              LOG.warn("Background lexing results don't match the lexed text, lexer: " + myLexer);
+              final Document document = getDocument();
+              if (document != null) {
+                lexAll(document.getCharsSequence());
+                if (myEditor != null) {
+                  myEditor.repaint(0, document.getTextLength());
+                }
+              }
+              return;
+            }
+            setSegments(startIndex, segments);
+            if (finished) {
+              myLexingComplete = true;
+            }
+            if (myEditor != null) {
+              myEditor.repaint(startOffset, finished ? myTextLength : mySegments.getLastValidOffset());
+            }
+          }
+        }
+      }, ModalityState.any());
+    }
   }
 
   private TextAttributes getAttributes(IElementType tokenType) {
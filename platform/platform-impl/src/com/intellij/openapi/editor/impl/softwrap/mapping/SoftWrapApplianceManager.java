@@ -17,6 +17,8 @@ package com.intellij.openapi.editor.impl.softwrap.mapping;
 
 import com.intellij.diagnostic.Dumpable;
 import com.intellij.diagnostic.LogMessageEx;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.ex.ApplicationManagerEx;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.*;
@@ -35,6 +37,7 @@ import com.intellij.openapi.util.text.StringUtil;
 import org.intellij.lang.annotations.JdkConstants;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
@@ -58,6 +61,12 @@ import java.util.List;
 public class SoftWrapApplianceManager implements SoftWrapFoldingListener, DocumentListener, Dumpable {
   
   private static final Logger LOG = Logger.getInstance("#" + SoftWrapApplianceManager.class.getName());
+
+  /**
+   * Number of logical lines below the visible area for which soft wraps are calculated at once, soft wraps for the rest
+   * of the document are calculated later by portions of the same size.
+   */
+  private static final int DEFERRED_RECALCULATION_LINES = 1000;
   
   /** Enumerates possible type of soft wrap indents to use. */
   enum IndentType {
@@ -105,6 +114,19 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   private boolean                        myInProgress;
   private boolean                        myHasLinesWithFailedWrap;
 
+  /**
+   * Document region which soft wraps are not calculated yet, the range marker keeps it up to date on document changes.
+   */
+  @Nullable private RangeMarker          myDeferredRegion;
+  private boolean                        myDeferredRecalculationScheduled;
+  private boolean                        myProcessingDeferredRegion;
+  /**
+   * Current value of {@link #DEFERRED_RECALCULATION_LINES}; non-positive value means that soft wraps for the whole document
+   * are calculated at once. Deferred recalculation is switched off in tests unless they switch it on explicitly.
+   */
+  private int                            myDeferredRecalculationLines =
+    ApplicationManager.getApplication().isUnitTestMode() ? 0 : DEFERRED_RECALCULATION_LINES;
+
   public SoftWrapApplianceManager(@NotNull SoftWrapsStorage storage,
                                   @NotNull EditorEx editor,
                                   @NotNull SoftWrapPainter painter,
@@ -127,11 +149,17 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     return myHasLinesWithFailedWrap;
   }
 
+  @TestOnly
+  public void setDeferredRecalculationLines(int lines) {
+    myDeferredRecalculationLines = lines;
+  }
+
   public void registerSoftWrapIfNecessary() {
     recalculateIfNecessary();
   }
 
   public void reset() {
+    dropDeferredRegion();
     myEventsStorage.release();
     myEventsStorage.add(myEditor.getDocument(), new IncrementalCacheUpdateEvent(myEditor.getDocument()));
     for (SoftWrapAwareDocumentParsingListener listener : myListeners) {
@@ -140,6 +168,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   }
   
   public void release() {
+    dropDeferredRegion();
     myEventsStorage.release();
     myLineWrapPositionStrategy = null;
   }
@@ -191,7 +220,9 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     myInProgress = true;
     myHasLinesWithFailedWrap = false;
     try {
+      int lastLineToProcess = getLastLineToProcessNow();
       for (IncrementalCacheUpdateEvent event : events) {
+        event = deferTailIfNecessary(event, lastLineToProcess);
         myEventBeingProcessed = event;
         recalculateSoftWraps(event);
       }
@@ -202,12 +233,143 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
       myEventBeingProcessed = null;
     }
     updateLastTopLeftCornerOffset();
-    for (SoftWrapAwareDocumentParsingListener listener : myListeners) {
-      listener.recalculationEnds();
+    if (!myProcessingDeferredRegion) {
+      // Listeners react by moving the caret into view, that's not desired when regions outside the visible area are processed.
+      for (SoftWrapAwareDocumentParsingListener listener : myListeners) {
+        listener.recalculationEnds();
+      }
     }
+    scheduleDeferredRecalculationIfNecessary();
     return true;
   }
 
+  /**
+   * Soft wraps for a visual line depend on the soft wraps before it, so the visible area can't be processed before the text above it.
+   * However, there is no need to process the text below the visible area before the user sees the result. Current method returns
+   * the last logical line to process immediately, the rest is processed later in portions, so that big documents don't block
+   * the EDT for long.
+   *
+   * @return    last logical line which soft wraps should be calculated immediately; <code>-1</code> if the whole document should be
+   *            processed immediately
+   */
+  private int getLastLineToProcessNow() {
+    if (myProcessingDeferredRegion || myDeferredRecalculationLines <= 0) {
+      return -1;
+    }
+    Rectangle visibleArea = myEditor.getScrollingModel().getVisibleArea();
+    int lineHeight = Math.max(1, myEditor.getLineHeight());
+    int visibleLines = visibleArea.height / lineHeight + 1;
+    // The visual line is mapped without soft wraps, so, the logical line is not less than the last visible one.
+    int lastVisibleLine = myEditor.visualToLogicalPosition(new VisualPosition((visibleArea.y + visibleArea.height) / lineHeight, 0),
+                                                           false).line;
+    return lastVisibleLine + Math.max(visibleLines, myDeferredRecalculationLines);
+  }
+
+  /**
+   * @return    given event if it should be processed as is; an event for its part up to the given line otherwise, the rest is
+   *            remembered to be processed later
+   */
+  @NotNull
+  private IncrementalCacheUpdateEvent deferTailIfNecessary(@NotNull IncrementalCacheUpdateEvent event, int lastLineToProcess) {
+    // Events for document changes hold information about the change, only the events for document regions are split.
+    if (lastLineToProcess < 0 || event.getExactOffsetsDiff() != 0) {
+      return event;
+    }
+    Document document = myEditor.getDocument();
+    int endOffset = Math.min(event.getOldEndOffset(), document.getTextLength());
+    int startLine = document.getLineNumber(Math.min(event.getOldStartOffset(), endOffset));
+    int splitLine = Math.max(startLine, lastLineToProcess);
+    if (document.getLineNumber(endOffset) - splitLine <= myDeferredRecalculationLines) {
+      return event;
+    }
+    int splitOffset = document.getLineEndOffset(splitLine);
+    deferRegion(splitOffset + 1, endOffset);
+    return new IncrementalCacheUpdateEvent(document, event.getOldStartOffset(), splitOffset);
+  }
+
+  private void deferRegion(int startOffset, int endOffset) {
+    if (myDeferredRegion != null) {
+      startOffset = Math.min(startOffset, myDeferredRegion.getStartOffset());
+      endOffset = Math.max(endOffset, myDeferredRegion.getEndOffset());
+      myDeferredRegion.dispose();
+    }
+    myDeferredRegion = myEditor.getDocument().createRangeMarker(startOffset, endOffset);
+    myDeferredRegion.setGreedyToLeft(true);
+    myDeferredRegion.setGreedyToRight(true);
+  }
+
+  private void dropDeferredRegion() {
+    if (myDeferredRegion != null) {
+      myDeferredRegion.dispose();
+      myDeferredRegion = null;
+    }
+  }
+
+  private void scheduleDeferredRecalculationIfNecessary() {
+    if (myDeferredRegion == null || myDeferredRecalculationScheduled) {
+      return;
+    }
+    myDeferredRecalculationScheduled = true;
+    // Let the pending input events be processed before the next portion.
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        myDeferredRecalculationScheduled = false;
+        if (!myEditor.isDisposed()) {
+          recalculateDeferredRegion();
+        }
+      }
+    }, ModalityState.any());
+  }
+
+  private void recalculateDeferredRegion() {
+    RangeMarker region = myDeferredRegion;
+    if (region == null) {
+      return;
+    }
+    if (myInProgress) {
+      scheduleDeferredRecalculationIfNecessary();
+      return;
+    }
+    myDeferredRegion = null;
+    DocumentEx document = myEditor.getDocument();
+    if (document.isInBulkUpdate()) {
+      // Soft wraps are recalculated for the whole document on bulk update end.
+      region.dispose();
+      return;
+    }
+    int startOffset = region.isValid() ? Math.min(region.getStartOffset(), document.getTextLength()) : document.getTextLength();
+    int endOffset = region.isValid() ? Math.min(region.getEndOffset(), document.getTextLength()) : document.getTextLength();
+    region.dispose();
+    if (startOffset >= endOffset) {
+      return;
+    }
+
+    // The region might be shifted by document changes, so, it's aligned to the line boundaries again.
+    int startLine = document.getLineNumber(startOffset);
+    int endLine = document.getLineNumber(endOffset);
+    int lastLineToProcess = myDeferredRecalculationLines > 0 ? Math.min(endLine, startLine + myDeferredRecalculationLines) : endLine;
+    int lastOffsetToProcess = document.getLineEndOffset(lastLineToProcess);
+    if (lastLineToProcess < endLine) {
+      deferRegion(lastOffsetToProcess + 1, endOffset);
+    }
+    myEventsStorage.add(document, new IncrementalCacheUpdateEvent(document, document.getLineStartOffset(startLine), lastOffsetToProcess));
+
+    myProcessingDeferredRegion = true;
+    try {
+      if (!recalculateSoftWraps()) {
+        // There is no information about the visible area width at the moment, soft wraps will be recalculated when it's available.
+        dropDeferredRegion();
+        return;
+      }
+    }
+    finally {
+      myProcessingDeferredRegion = false;
+    }
+    // New soft wraps change the editor size, which is validated on repaint.
+    myEditor.getContentComponent().repaint();
+  }
+
   private void recalculateSoftWraps(IncrementalCacheUpdateEvent event) {
     event.updateNewOffsetsIfNecessary(myEditor.getDocument(), myEditor.getFoldingModel());
     
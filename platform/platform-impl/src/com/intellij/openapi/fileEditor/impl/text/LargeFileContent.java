@@ -0,0 +1,266 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.fileEditor.impl.text;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.util.io.ByteBufferWrapper;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only text of a file which is too large to be loaded into memory. The file is memory-mapped by pages on demand and only a few
+ * recently used pages are kept mapped, so heap usage doesn't depend on the file size.
+ * <p/>
+ * Lines are found by {@link #indexLines()} which is supposed to be run in background, lines are available as soon as they are
+ * indexed. Only the start offset of every {@link #LINES_PER_CHECKPOINT}-th line, or of the first line after
+ * {@link #BYTES_PER_CHECKPOINT} bytes, is stored. Other lines are found by scanning from the nearest stored one, so finding a line
+ * never scans more than {@link #BYTES_PER_CHECKPOINT} bytes, however long the lines are.
+ * <p/>
+ * Only charsets which encode the line feed as a single byte are supported, see {@link #isCharsetSupported(Charset)}.
+ */
+public class LargeFileContent implements Disposable {
+  private static final int PAGE_SIZE = 16 * 1024 * 1024;
+  private static final int MAX_MAPPED_PAGES = 4;
+  /**
+   * Line count is published to readers after indexing this number of bytes
+   */
+  private static final int PUBLISH_STEP = 1024 * 1024;
+  static final int LINES_PER_CHECKPOINT = 256;
+  static final int BYTES_PER_CHECKPOINT = 64 * 1024;
+
+  private final File myFile;
+  private final Charset myCharset;
+  private final long myLength;
+
+  private final Map<Long, ByteBufferWrapper> myPages = new LinkedHashMap<Long, ByteBufferWrapper>(MAX_MAPPED_PAGES, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, ByteBufferWrapper> eldest) {
+      if (size() > MAX_MAPPED_PAGES) {
+        eldest.getValue().dispose();
+        return true;
+      }
+      return false;
+    }
+  };
+  private final TIntArrayList myCheckpointLines = new TIntArrayList(); // guarded by myCheckpoints
+  private final TLongArrayList myCheckpoints = new TLongArrayList(); // guarded by itself
+  private volatile int myLineCount = 1;
+  private volatile long myIndexedLength;
+  private volatile boolean myIndexed;
+  private volatile boolean myDisposed;
+
+  public LargeFileContent(@NotNull File file, @NotNull Charset charset) {
+    myFile = file;
+    myCharset = charset;
+    myLength = file.length();
+    myCheckpointLines.add(0);
+    myCheckpoints.add(0);
+  }
+
+  /**
+   * @return <code>true</code> if line feed can be found in a text of this charset without decoding it, i.e. the line feed is encoded
+   *         as 0x0A byte, which never appears in encodings of other characters
+   */
+  public static boolean isCharsetSupported(@NotNull Charset charset) {
+    return Arrays.equals(new byte[]{'\n'}, "\n".getBytes(charset)) && Arrays.equals(new byte[]{'a'}, "a".getBytes(charset));
+  }
+
+  public long getLength() {
+    return myLength;
+  }
+
+  /**
+   * @return number of lines indexed so far, the last of them may be incomplete while {@link #isIndexed() indexing} isn't finished
+   */
+  public int getLineCount() {
+    return myLineCount;
+  }
+
+  public boolean isIndexed() {
+    return myIndexed;
+  }
+
+  public long getIndexedLength() {
+    return myIndexedLength;
+  }
+
+  /**
+   * Scans the whole file for line starts. It's a long operation which may be interrupted by disposing the content.
+   */
+  public void indexLines() throws IOException {
+    int lines = 1;
+    int lastCheckpointLine = 0;
+    long lastCheckpoint = 0;
+    for (long pageStart = 0; pageStart < myLength && !myDisposed; pageStart += PAGE_SIZE) {
+      // the page isn't cached, so the indexing doesn't evict pages used for showing the text
+      final ByteBufferWrapper page = ByteBufferWrapper.readOnly(myFile, pageStart, Math.min(PAGE_SIZE, myLength - pageStart));
+      try {
+        final ByteBuffer buffer = page.getBuffer();
+        final int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+          if (buffer.get(i) == '\n') {
+            final long lineStart = pageStart + i + 1;
+            if (lines - lastCheckpointLine >= LINES_PER_CHECKPOINT || lineStart - lastCheckpoint > BYTES_PER_CHECKPOINT) {
+              synchronized (myCheckpoints) {
+                myCheckpointLines.add(lines);
+                myCheckpoints.add(lineStart);
+              }
+              lastCheckpointLine = lines;
+              lastCheckpoint = lineStart;
+            }
+            lines++;
+          }
+          if (i % PUBLISH_STEP == PUBLISH_STEP - 1) {
+            if (myDisposed) return;
+            myLineCount = lines;
+            myIndexedLength = pageStart + i + 1;
+          }
+        }
+      }
+      finally {
+        page.dispose();
+      }
+      myLineCount = lines;
+      myIndexedLength = Math.min(myLength, pageStart + PAGE_SIZE);
+    }
+    myIndexed = !myDisposed;
+  }
+
+  public long getLineStartOffset(int line) throws IOException {
+    if (line < 0 || line >= myLineCount) {
+      throw new IndexOutOfBoundsException("Wrong line: " + line + ". Available lines count: " + myLineCount);
+    }
+    int checkpointLine;
+    long offset;
+    synchronized (myCheckpoints) {
+      int index = myCheckpointLines.binarySearch(line);
+      if (index < 0) {
+        index = -index - 2;
+      }
+      checkpointLine = myCheckpointLines.get(index);
+      offset = myCheckpoints.get(index);
+    }
+    for (int i = line - checkpointLine; i > 0; i--) {
+      offset = findLineFeed(offset, myLength) + 1;
+    }
+    return offset;
+  }
+
+  /**
+   * @param maxLength lines longer than that are truncated, so a single huge line doesn't occupy the heap
+   * @return texts of the given lines without line separators
+   */
+  @NotNull
+  public String[] getLines(int startLine, int count, int maxLength) throws IOException {
+    count = Math.max(0, Math.min(count, myLineCount - startLine));
+    final String[] result = new String[count];
+    final int maxBytes = maxLength * (int)Math.ceil(myCharset.newEncoder().maxBytesPerChar());
+    long offset = count > 0 ? getLineStartOffset(startLine) : 0;
+    for (int i = 0; i < count; i++) {
+      // the end of a truncated line isn't looked for, the next line is found by the index instead
+      final long lineFeed = findLineFeed(offset, maxBytes + 1L);
+      long end = lineFeed != -1 ? lineFeed : offset + maxBytes;
+      if (lineFeed != -1 && end > offset && getByte(end - 1) == '\r') {
+        end--;
+      }
+      final byte[] bytes = readBytes(offset, (int)Math.min(end - offset, maxBytes));
+      String text = new String(bytes, myCharset);
+      if (text.length() > maxLength) {
+        text = text.substring(0, maxLength);
+      }
+      result[i] = text;
+      if (i + 1 < count) {
+        offset = lineFeed != -1 ? lineFeed + 1 : getLineStartOffset(startLine + i + 1);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return offset of the first line feed at or after the given offset, the file length if there are no more line feeds, or -1 if
+   *         there is no line feed among the first <code>maxBytes</code> bytes
+   */
+  private long findLineFeed(long offset, long maxBytes) throws IOException {
+    final long end = Math.min(myLength, offset + maxBytes);
+    while (offset < end) {
+      final long pageStart = offset / PAGE_SIZE * PAGE_SIZE;
+      final ByteBuffer page = getPage(pageStart);
+      final int limit = (int)Math.min(page.limit(), end - pageStart);
+      for (int i = (int)(offset - pageStart); i < limit; i++) {
+        if (page.get(i) == '\n') {
+          return pageStart + i;
+        }
+      }
+      offset = pageStart + limit;
+    }
+    return end == myLength ? myLength : -1;
+  }
+
+  private byte getByte(long offset) throws IOException {
+    final long pageStart = offset / PAGE_SIZE * PAGE_SIZE;
+    return getPage(pageStart).get((int)(offset - pageStart));
+  }
+
+  @NotNull
+  private byte[] readBytes(long offset, int length) throws IOException {
+    final byte[] result = new byte[length];
+    int copied = 0;
+    while (copied < length) {
+      final long pageStart = (offset + copied) / PAGE_SIZE * PAGE_SIZE;
+      final ByteBuffer page = getPage(pageStart).duplicate();
+      page.position((int)(offset + copied - pageStart));
+      final int chunk = Math.min(length - copied, page.remaining());
+      page.get(result, copied, chunk);
+      copied += chunk;
+    }
+    return result;
+  }
+
+  @NotNull
+  private ByteBuffer getPage(long pageStart) throws IOException {
+    synchronized (myPages) {
+      if (myDisposed) {
+        throw new IOException("Content of " + myFile + " is disposed");
+      }
+      ByteBufferWrapper page = myPages.get(pageStart);
+      if (page == null) {
+        page = ByteBufferWrapper.readOnly(myFile, pageStart, Math.min(PAGE_SIZE, myLength - pageStart));
+        myPages.put(pageStart, page);
+      }
+      return page.getBuffer();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    myDisposed = true;
+    synchronized (myPages) {
+      for (ByteBufferWrapper page : myPages.values()) {
+        page.dispose();
+      }
+      myPages.clear();
+    }
+  }
+}
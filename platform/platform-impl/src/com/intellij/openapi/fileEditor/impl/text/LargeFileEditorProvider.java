@@ -23,10 +23,12 @@ import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.SingleRootFileViewProvider;
 import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.beans.PropertyChangeListener;
@@ -45,7 +47,7 @@ public class LargeFileEditorProvider implements FileEditorProvider, DumbAware {
 
   @NotNull
   public FileEditor createEditor(@NotNull Project project, @NotNull final VirtualFile file) {
-    return new LargeFileEditor(file);
+    return new LargeFileEditor(project, file);
   }
 
   public void disposeEditor(@NotNull FileEditor editor) {
@@ -72,23 +74,44 @@ public class LargeFileEditorProvider implements FileEditorProvider, DumbAware {
 
   private static class LargeFileEditor extends UserDataHolderBase implements FileEditor {
     private final VirtualFile myFile;
+    @Nullable private final LargeFileViewer myViewer;
+    private final JComponent myComponent;
 
-    public LargeFileEditor(VirtualFile file) {
+    public LargeFileEditor(Project project, VirtualFile file) {
       myFile = file;
+      myViewer = createViewer(project, file);
+      if (myViewer != null) {
+        myComponent = myViewer;
+      }
+      else {
+        JLabel label = new JLabel(
+          "File " + myFile.getPath() + " is too large for " + ApplicationNamesInfo.getInstance().getFullProductName() + " editor");
+        label.setHorizontalAlignment(SwingConstants.CENTER);
+        myComponent = label;
+      }
+    }
+
+    /**
+     * Local files in charsets where line feeds can be found without decoding are shown by a read-only viewer which maps the file
+     * by pages instead of loading it
+     */
+    @Nullable
+    private static LargeFileViewer createViewer(Project project, VirtualFile file) {
+      if (!file.isInLocalFileSystem() || !LargeFileContent.isCharsetSupported(file.getCharset())) {
+        return null;
+      }
+      return new LargeFileViewer(project, file, new LargeFileContent(VfsUtilCore.virtualToIoFile(file), file.getCharset()));
     }
 
     @NotNull
     @Override
     public JComponent getComponent() {
-      JLabel label = new JLabel(
-        "File " + myFile.getPath() + " is too large for " + ApplicationNamesInfo.getInstance().getFullProductName() + " editor");
-      label.setHorizontalAlignment(SwingConstants.CENTER);
-      return label;
+      return myComponent;
     }
 
     @Override
     public JComponent getPreferredFocusedComponent() {
-      return null;
+      return myViewer != null ? myViewer.getPreferredFocusedComponent() : null;
     }
 
     @NotNull
@@ -150,6 +173,9 @@ public class LargeFileEditorProvider implements FileEditorProvider, DumbAware {
 
     @Override
     public void dispose() {
+      if (myViewer != null) {
+        Disposer.dispose(myViewer);
+      }
     }
 
   }
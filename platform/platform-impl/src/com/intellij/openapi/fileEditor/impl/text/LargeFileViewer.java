@@ -0,0 +1,436 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.fileEditor.impl.text;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.HighlighterColors;
+import com.intellij.openapi.editor.colors.EditorColors;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.EditorFontType;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Read-only view of a file which is too large for the editor. Lines are read from {@link LargeFileContent} only for the visible
+ * window, and only the window is highlighted: the lexer starts at the first visible line, so constructs opened above it (e.g. block
+ * comments) may be highlighted incorrectly.
+ */
+class LargeFileViewer extends JPanel implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.fileEditor.impl.text.LargeFileViewer");
+  private static final int MAX_LINE_LENGTH = 10000;
+  private static final int TAB_SIZE = 4;
+  private static final int GUTTER_GAP = 8;
+
+  private final LargeFileContent myContent;
+  @Nullable private final SyntaxHighlighter myHighlighter;
+  private final EditorColorsScheme myScheme = EditorColorsManager.getInstance().getGlobalScheme();
+  private final Map<IElementType, TextAttributes> myAttributes = new HashMap<IElementType, TextAttributes>();
+
+  private final ViewComponent myView = new ViewComponent();
+  private final JScrollBar myVerticalBar = new JScrollBar(Adjustable.VERTICAL);
+  private final JScrollBar myHorizontalBar = new JScrollBar(Adjustable.HORIZONTAL);
+  private final JLabel myStatus = new JLabel();
+  private final Timer myIndexingTimer;
+  private volatile String myIndexingError;
+
+  // the window of lines which was read and highlighted last time
+  private int myWindowStart = -1;
+  private String[] myWindowLines = ArrayUtil.EMPTY_STRING_ARRAY;
+  private List<List<Segment>> myWindowSegments = Collections.emptyList();
+
+  LargeFileViewer(@Nullable Project project, @NotNull VirtualFile file, @NotNull final LargeFileContent content) {
+    super(new BorderLayout());
+    myContent = content;
+    myHighlighter = SyntaxHighlighterFactory.getSyntaxHighlighter(file.getFileType(), project, file);
+
+    final JPanel center = new JPanel(new BorderLayout());
+    center.add(myView, BorderLayout.CENTER);
+    center.add(myVerticalBar, BorderLayout.EAST);
+    center.add(myHorizontalBar, BorderLayout.SOUTH);
+    add(center, BorderLayout.CENTER);
+    myStatus.setBorder(BorderFactory.createEmptyBorder(2, GUTTER_GAP, 2, GUTTER_GAP));
+    add(myStatus, BorderLayout.SOUTH);
+
+    final AdjustmentListener repaint = new AdjustmentListener() {
+      @Override
+      public void adjustmentValueChanged(AdjustmentEvent e) {
+        myView.repaint();
+      }
+    };
+    myVerticalBar.addAdjustmentListener(repaint);
+    myHorizontalBar.addAdjustmentListener(repaint);
+    myView.addComponentListener(new ComponentAdapter() {
+      @Override
+      public void componentResized(ComponentEvent e) {
+        updateScrollBars();
+      }
+    });
+    myView.addMouseWheelListener(new MouseWheelListener() {
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        if (e.isShiftDown()) {
+          scrollHorizontally(e.getUnitsToScroll() * getCharWidth());
+        }
+        else {
+          scrollTo(myVerticalBar.getValue() + e.getUnitsToScroll());
+        }
+      }
+    });
+    myView.addKeyListener(new KeyAdapter() {
+      @Override
+      public void keyPressed(KeyEvent e) {
+        processKey(e);
+      }
+    });
+    myView.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mousePressed(MouseEvent e) {
+        myView.requestFocusInWindow();
+      }
+    });
+
+    myIndexingTimer = new Timer(300, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        updateIndexingStatus();
+      }
+    });
+    myIndexingTimer.start();
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          content.indexLines();
+        }
+        catch (IOException e) {
+          LOG.info(e);
+          myIndexingError = e.getMessage();
+        }
+      }
+    });
+    updateIndexingStatus();
+  }
+
+  @NotNull
+  JComponent getPreferredFocusedComponent() {
+    return myView;
+  }
+
+  private void updateIndexingStatus() {
+    final int lineCount = myContent.getLineCount();
+    if (myIndexingError != null) {
+      myIndexingTimer.stop();
+      myStatus.setText("Failed to read the file: " + myIndexingError);
+    }
+    else if (myContent.isIndexed()) {
+      myIndexingTimer.stop();
+      myStatus.setText("Read-only view of a large file, " + lineCount + " lines");
+    }
+    else {
+      final long percent = myContent.getLength() == 0 ? 100 : myContent.getIndexedLength() * 100 / myContent.getLength();
+      myStatus.setText("Read-only view of a large file, indexing lines: " + percent + "%");
+    }
+    if (myWindowStart + myWindowLines.length >= lineCount - 1) {
+      // the last line of the window might have been incomplete
+      myWindowStart = -1;
+    }
+    updateScrollBars();
+    myView.repaint();
+  }
+
+  private void updateScrollBars() {
+    final int visibleLines = getVisibleLineCount();
+    final int lineCount = myContent.getLineCount();
+    myVerticalBar.setValues(Math.min(myVerticalBar.getValue(), Math.max(0, lineCount - 1)), visibleLines, 0, lineCount + visibleLines - 1);
+    myVerticalBar.setBlockIncrement(Math.max(1, visibleLines - 1));
+    final int textWidth = Math.max(0, myView.getWidth() - getGutterWidth());
+    myHorizontalBar.setValues(myHorizontalBar.getValue(), textWidth, 0, Math.max(textWidth, myView.myMaxLineWidth + getCharWidth()));
+    myHorizontalBar.setUnitIncrement(getCharWidth());
+    myHorizontalBar.setBlockIncrement(Math.max(1, textWidth / 2));
+  }
+
+  private void processKey(@NotNull KeyEvent e) {
+    final int line = myVerticalBar.getValue();
+    final int page = Math.max(1, getVisibleLineCount() - 1);
+    switch (e.getKeyCode()) {
+      case KeyEvent.VK_UP: scrollTo(line - 1); break;
+      case KeyEvent.VK_DOWN: scrollTo(line + 1); break;
+      case KeyEvent.VK_PAGE_UP: scrollTo(line - page); break;
+      case KeyEvent.VK_PAGE_DOWN: scrollTo(line + page); break;
+      case KeyEvent.VK_HOME: if (e.isControlDown()) scrollTo(0); else myHorizontalBar.setValue(0); break;
+      case KeyEvent.VK_END: if (e.isControlDown()) scrollTo(myContent.getLineCount() - 1); break;
+      case KeyEvent.VK_LEFT: scrollHorizontally(-getCharWidth()); break;
+      case KeyEvent.VK_RIGHT: scrollHorizontally(getCharWidth()); break;
+      default: return;
+    }
+    e.consume();
+  }
+
+  private void scrollTo(int line) {
+    myVerticalBar.setValue(Math.max(0, Math.min(line, myContent.getLineCount() - 1)));
+  }
+
+  private void scrollHorizontally(int delta) {
+    myHorizontalBar.setValue(myHorizontalBar.getValue() + delta);
+  }
+
+  private int getVisibleLineCount() {
+    return Math.max(1, myView.getHeight() / getLineHeight() + 1);
+  }
+
+  private int getLineHeight() {
+    return getFontMetrics(myScheme.getFont(EditorFontType.PLAIN)).getHeight();
+  }
+
+  private int getCharWidth() {
+    return getFontMetrics(myScheme.getFont(EditorFontType.PLAIN)).charWidth(' ');
+  }
+
+  private int getGutterWidth() {
+    return getFontMetrics(myScheme.getFont(EditorFontType.PLAIN)).stringWidth(String.valueOf(myContent.getLineCount())) + 2 * GUTTER_GAP;
+  }
+
+  /**
+   * Reads the given window of lines and highlights it unless it's the window read last time
+   */
+  private void loadWindow(int startLine, int count) {
+    if (startLine == myWindowStart && count <= myWindowLines.length) {
+      return;
+    }
+    try {
+      final String[] lines = myContent.getLines(startLine, count, MAX_LINE_LENGTH);
+      for (int i = 0; i < lines.length; i++) {
+        lines[i] = expandTabs(lines[i]);
+      }
+      myWindowSegments = highlight(lines);
+      myWindowLines = lines;
+      myWindowStart = startLine;
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      myStatus.setText("Failed to read the file: " + e.getMessage());
+      myWindowLines = ArrayUtil.EMPTY_STRING_ARRAY;
+      myWindowSegments = Collections.emptyList();
+      myWindowStart = startLine;
+    }
+  }
+
+  @NotNull
+  private static String expandTabs(@NotNull String line) {
+    if (line.indexOf('\t') < 0) {
+      return line;
+    }
+    final StringBuilder result = new StringBuilder(line.length() + TAB_SIZE * 4);
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (c == '\t') {
+        result.append(StringUtil.repeatSymbol(' ', TAB_SIZE - result.length() % TAB_SIZE));
+      }
+      else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * @return for every line, its parts highlighted with the same attributes
+   */
+  @NotNull
+  private List<List<Segment>> highlight(@NotNull String[] lines) {
+    final List<List<Segment>> result = new ArrayList<List<Segment>>(lines.length);
+    final int[] lineStarts = new int[lines.length + 1];
+    for (int i = 0; i < lines.length; i++) {
+      result.add(new ArrayList<Segment>());
+      lineStarts[i + 1] = lineStarts[i] + lines[i].length() + 1;
+    }
+    if (myHighlighter == null) {
+      for (int i = 0; i < lines.length; i++) {
+        result.get(i).add(new Segment(0, lines[i].length(), getAttributes(null)));
+      }
+      return result;
+    }
+
+    final Lexer lexer = myHighlighter.getHighlightingLexer();
+    lexer.start(StringUtil.join(lines, "\n"));
+    int line = 0;
+    while (lexer.getTokenType() != null) {
+      final TextAttributes attributes = getAttributes(lexer.getTokenType());
+      int start = lexer.getTokenStart();
+      final int end = lexer.getTokenEnd();
+      // a token may span several lines
+      while (start < end && line < lines.length) {
+        while (start >= lineStarts[line + 1]) {
+          line++;
+        }
+        final int lineEnd = Math.min(end, lineStarts[line] + lines[line].length());
+        if (start < lineEnd) {
+          result.get(line).add(new Segment(start - lineStarts[line], lineEnd - lineStarts[line], attributes));
+        }
+        start = Math.max(lineEnd, start) + (lineEnd < end ? 1 : 0);
+      }
+      lexer.advance();
+    }
+    return result;
+  }
+
+  @NotNull
+  private TextAttributes getAttributes(@Nullable IElementType tokenType) {
+    TextAttributes attributes = myAttributes.get(tokenType);
+    if (attributes == null) {
+      attributes = myScheme.getAttributes(HighlighterColors.TEXT);
+      if (tokenType != null && myHighlighter != null) {
+        for (TextAttributesKey key : myHighlighter.getTokenHighlights(tokenType)) {
+          final TextAttributes keyAttributes = myScheme.getAttributes(key);
+          if (keyAttributes != null) {
+            attributes = TextAttributes.merge(attributes, keyAttributes);
+          }
+        }
+      }
+      myAttributes.put(tokenType, attributes);
+    }
+    return attributes;
+  }
+
+  @NotNull
+  private Font getAttributesFont(@NotNull TextAttributes attributes) {
+    switch (attributes.getFontType()) {
+      case Font.BOLD: return myScheme.getFont(EditorFontType.BOLD);
+      case Font.ITALIC: return myScheme.getFont(EditorFontType.ITALIC);
+      case Font.BOLD | Font.ITALIC: return myScheme.getFont(EditorFontType.BOLD_ITALIC);
+      default: return myScheme.getFont(EditorFontType.PLAIN);
+    }
+  }
+
+  @Override
+  public void dispose() {
+    myIndexingTimer.stop();
+    myContent.dispose();
+  }
+
+  private static class Segment {
+    private final int myStart;
+    private final int myEnd;
+    private final TextAttributes myAttributes;
+
+    private Segment(int start, int end, @NotNull TextAttributes attributes) {
+      myStart = start;
+      myEnd = end;
+      myAttributes = attributes;
+    }
+  }
+
+  private class ViewComponent extends JComponent {
+    private int myMaxLineWidth;
+
+    private ViewComponent() {
+      setFocusable(true);
+      setOpaque(true);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      final Rectangle clip = g.getClipBounds();
+      final int lineHeight = getLineHeight();
+      final int gutterWidth = getGutterWidth();
+      final int firstLine = myVerticalBar.getValue();
+      loadWindow(firstLine, getVisibleLineCount());
+
+      final Color background = myScheme.getDefaultBackground();
+      g.setColor(background);
+      g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+      final int xShift = gutterWidth - myHorizontalBar.getValue();
+      int maxLineWidth = 0;
+      final Graphics textGraphics = g.create(gutterWidth, 0, Math.max(0, getWidth() - gutterWidth), getHeight());
+      try {
+        for (int i = 0; i < myWindowLines.length; i++) {
+          final int baseline = i * lineHeight + getFontMetrics(myScheme.getFont(EditorFontType.PLAIN)).getAscent();
+          int x = xShift - gutterWidth;
+          for (Segment segment : myWindowSegments.get(i)) {
+            final Font font = getAttributesFont(segment.myAttributes);
+            final String text = myWindowLines[i].substring(segment.myStart, segment.myEnd);
+            final int width = getFontMetrics(font).stringWidth(text);
+            if (x + width >= 0) {
+              final Color segmentBackground = segment.myAttributes.getBackgroundColor();
+              if (segmentBackground != null && !segmentBackground.equals(background)) {
+                textGraphics.setColor(segmentBackground);
+                textGraphics.fillRect(x, i * lineHeight, width, lineHeight);
+              }
+              final Color foreground = segment.myAttributes.getForegroundColor();
+              textGraphics.setColor(foreground != null ? foreground : myScheme.getDefaultForeground());
+              textGraphics.setFont(font);
+              textGraphics.drawString(text, x, baseline);
+            }
+            x += width;
+            if (x > getWidth()) break;
+          }
+          maxLineWidth = Math.max(maxLineWidth, x - xShift + gutterWidth);
+        }
+      }
+      finally {
+        textGraphics.dispose();
+      }
+      if (maxLineWidth > myMaxLineWidth) {
+        myMaxLineWidth = maxLineWidth;
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            updateScrollBars();
+          }
+        });
+      }
+
+      paintGutter(g, firstLine, lineHeight, gutterWidth);
+    }
+
+    private void paintGutter(@NotNull Graphics g, int firstLine, int lineHeight, int gutterWidth) {
+      final Color gutterBackground = myScheme.getColor(EditorColors.GUTTER_BACKGROUND);
+      g.setColor(gutterBackground != null ? gutterBackground : myScheme.getDefaultBackground());
+      g.fillRect(0, 0, gutterWidth, getHeight());
+      final Color lineNumbers = myScheme.getColor(EditorColors.LINE_NUMBERS_COLOR);
+      g.setColor(lineNumbers != null ? lineNumbers : myScheme.getDefaultForeground());
+      final Font font = myScheme.getFont(EditorFontType.PLAIN);
+      g.setFont(font);
+      final FontMetrics metrics = getFontMetrics(font);
+      for (int i = 0; i < myWindowLines.length; i++) {
+        final String number = String.valueOf(firstLine + i + 1);
+        g.drawString(number, gutterWidth - GUTTER_GAP - metrics.stringWidth(number), i * lineHeight + metrics.getAscent());
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import junit.framework.TestCase;
+import org.jdom.Element;
+
+public class LocalInspectionsStatisticsTest extends TestCase {
+  public void testAverageTime() {
+    LocalInspectionsStatistics statistics = new LocalInspectionsStatistics();
+    assertEquals(0, statistics.getAverageTime("a"));
+    statistics.addInvocation("a", 100);
+    statistics.addInvocation("a", 200);
+    // time added to the last invocation doesn't count as another one
+    statistics.addTime("a", 300);
+    assertEquals(300, statistics.getAverageTime("a"));
+  }
+
+  public void testSaveLoad() {
+    LocalInspectionsStatistics statistics = new LocalInspectionsStatistics();
+    statistics.addInvocation("a", 100);
+    statistics.addInvocation("a", 300);
+    statistics.addInvocation("b", 5000000000L);
+
+    LocalInspectionsStatistics loaded = new LocalInspectionsStatistics();
+    loaded.addInvocation("c", 1);
+    loaded.loadState(statistics.getState());
+    assertEquals(2, loaded.getStatistics().size());
+    assertEquals(200, loaded.getAverageTime("a"));
+    assertEquals(5000000000L, loaded.getAverageTime("b"));
+    assertEquals(0, loaded.getAverageTime("c"));
+
+    loaded.addInvocation("a", 800);
+    assertEquals(400, loaded.getAverageTime("a"));
+  }
+
+  public void testMalformedEntriesAreIgnored() {
+    Element state = new Element("state");
+    state.addContent(new Element("tool").setAttribute("invocations", "1").setAttribute("time", "10"));
+    state.addContent(new Element("tool").setAttribute("name", "").setAttribute("invocations", "1").setAttribute("time", "10"));
+    state.addContent(new Element("tool").setAttribute("name", "a").setAttribute("invocations", "x").setAttribute("time", "10"));
+    state.addContent(new Element("tool").setAttribute("name", "b").setAttribute("invocations", "2"));
+
+    LocalInspectionsStatistics statistics = new LocalInspectionsStatistics();
+    statistics.loadState(state);
+    assertEquals(2, statistics.getStatistics().size());
+    assertEquals(0, statistics.getAverageTime("a"));
+    assertEquals(0, statistics.getAverageTime("b"));
+    statistics.addInvocation("a", 30);
+    assertEquals(40, statistics.getAverageTime("a"));
+  }
+}
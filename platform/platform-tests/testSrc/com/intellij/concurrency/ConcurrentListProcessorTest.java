@@ -0,0 +1,221 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.concurrency;
+
+import com.intellij.util.Processor;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class ConcurrentListProcessorTest extends TestCase {
+  public void testEveryElementIsProcessedOnce() throws Exception {
+    final List<Integer> items = createItems(10000);
+    final AtomicIntegerArray processed = new AtomicIntegerArray(items.size());
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 4, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        processed.incrementAndGet(item);
+        return true;
+      }
+    });
+    runWorkers(processor, 4);
+
+    assertFalse(processor.isStopped());
+    for (int i = 0; i < items.size(); i++) {
+      assertEquals(1, processed.get(i));
+    }
+  }
+
+  public void testWorkOfNotStartedWorkersIsStolen() throws Exception {
+    final List<Integer> items = createItems(1000);
+    final AtomicInteger processed = new AtomicInteger();
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 8, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        processed.incrementAndGet();
+        return true;
+      }
+    });
+    processor.runWorker(0);
+    processor.waitForWorkers();
+    assertEquals(items.size(), processed.get());
+
+    // a worker started after everything is done has nothing to do
+    processor.runWorker(5);
+    assertEquals(items.size(), processed.get());
+  }
+
+  public void testExpensiveElementDoesNotBlockOthers() throws Exception {
+    final List<Integer> items = createItems(100);
+    final CountDownLatch othersProcessed = new CountDownLatch(items.size() - 1);
+    final AtomicBoolean othersProcessedInTime = new AtomicBoolean();
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 2, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        if (item == 0) {
+          // the rest of the range of this worker has to be stolen by another one
+          try {
+            othersProcessedInTime.set(othersProcessed.await(10, TimeUnit.SECONDS));
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        else {
+          othersProcessed.countDown();
+        }
+        return true;
+      }
+    });
+    runWorkers(processor, 2);
+
+    assertTrue(othersProcessedInTime.get());
+  }
+
+  public void testStopsWhenProcessorReturnsFalse() throws Exception {
+    final List<Integer> items = createItems(10000);
+    final AtomicInteger processed = new AtomicInteger();
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 4, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        processed.incrementAndGet();
+        return item != 10;
+      }
+    });
+    runWorkers(processor, 4);
+
+    assertTrue(processor.isStopped());
+    assertTrue(processed.get() < items.size());
+  }
+
+  public void testException() throws Exception {
+    final List<Integer> items = createItems(100);
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 2, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        if (item == 50) throw new IllegalStateException("item " + item);
+        return true;
+      }
+    });
+    runWorkers(processor, 2);
+
+    assertTrue(processor.isStopped());
+    assertTrue(processor.getException() instanceof IllegalStateException);
+  }
+
+  public void testElementsAreDealtToRangesInTurn() {
+    // ranges of 3 workers for 10 elements are [0, 3), [3, 6), [6, 10)
+    assertEquals(Arrays.asList(0, 3, 6, 1, 4, 7, 2, 5, 8, 9), toList(ConcurrentListProcessor.dealInOrder(10, 3)));
+    // filled ranges are skipped
+    assertEquals(Arrays.asList(0, 2, 1, 3, 4), toList(ConcurrentListProcessor.dealInOrder(5, 2)));
+    assertEquals(Arrays.asList(0, 1, 2), toList(ConcurrentListProcessor.dealInOrder(3, 3)));
+  }
+
+  public void testInOrderWorkersStartWithFirstElements() throws Exception {
+    final List<Integer> items = createItems(100);
+    final int workers = 4;
+    final List<Integer> firstProcessed = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch allStarted = new CountDownLatch(workers);
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, workers, true, new Processor<Integer>() {
+      private final ThreadLocal<Boolean> myStarted = new ThreadLocal<Boolean>();
+
+      @Override
+      public boolean process(Integer item) {
+        if (myStarted.get() == null) {
+          myStarted.set(Boolean.TRUE);
+          firstProcessed.add(item);
+          allStarted.countDown();
+          try {
+            // don't let a fast worker steal the first elements of the others
+            allStarted.await(10, TimeUnit.SECONDS);
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return true;
+      }
+    });
+    runWorkers(processor, workers);
+
+    Collections.sort(firstProcessed);
+    assertEquals(Arrays.asList(0, 1, 2, 3), firstProcessed);
+  }
+
+  public void testInOrderEveryElementIsProcessedOnce() throws Exception {
+    final List<Integer> items = createItems(10001);
+    final AtomicIntegerArray processed = new AtomicIntegerArray(items.size());
+    final ConcurrentListProcessor<Integer> processor = new ConcurrentListProcessor<Integer>(items, 3, true, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer item) {
+        processed.incrementAndGet(item);
+        return true;
+      }
+    });
+    runWorkers(processor, 3);
+
+    for (int i = 0; i < items.size(); i++) {
+      assertEquals(1, processed.get(i));
+    }
+  }
+
+  @NotNull
+  private static List<Integer> toList(@NotNull int[] array) {
+    final List<Integer> list = new ArrayList<Integer>(array.length);
+    for (int i : array) {
+      list.add(i);
+    }
+    return list;
+  }
+
+  @NotNull
+  private static List<Integer> createItems(int count) {
+    final List<Integer> items = new ArrayList<Integer>(count);
+    for (int i = 0; i < count; i++) {
+      items.add(i);
+    }
+    return items;
+  }
+
+  private static void runWorkers(@NotNull final ConcurrentListProcessor<Integer> processor, int count) throws InterruptedException {
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 1; i < count; i++) {
+      final int worker = i;
+      final Thread thread = new Thread("worker " + i) {
+        @Override
+        public void run() {
+          processor.runWorker(worker);
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    processor.runWorker(0);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    processor.waitForWorkers();
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the filters of the console in background as it's done outside of tests
+ */
+public class ConsoleViewImplTest extends LightPlatformTestCase {
+  private static final String CYCLE_BUFFER_SIZE_PROPERTY = "idea.cycle.buffer.size";
+  private static final int CYCLE_BUFFER_SIZE = 2048;
+  private static final String LINK = "link";
+
+  private String myOldCycleBufferSize;
+  private ConsoleViewImpl myConsole;
+  private LinkFilter myFilter;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myOldCycleBufferSize = System.getProperty(CYCLE_BUFFER_SIZE_PROPERTY);
+    System.setProperty(CYCLE_BUFFER_SIZE_PROPERTY, String.valueOf(CYCLE_BUFFER_SIZE / 1024));
+    myConsole = new ConsoleViewImpl(getProject(), false);
+    myConsole.getComponent();
+    myConsole.setFilterInBackground(true);
+    myFilter = new LinkFilter();
+    myConsole.addMessageFilter(myFilter);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myFilter.release();
+      Disposer.dispose(myConsole);
+      if (myOldCycleBufferSize == null) {
+        System.clearProperty(CYCLE_BUFFER_SIZE_PROPERTY);
+      }
+      else {
+        System.setProperty(CYCLE_BUFFER_SIZE_PROPERTY, myOldCycleBufferSize);
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testResultsAreShiftedWhenTextIsTrimmedWhileFiltering() {
+    for (int i = 0; i < 10; i++) {
+      print("line " + i + " " + LINK + "\n");
+    }
+    flush();
+    // the filters are still running over the copy of the lines while their start is trimmed, up to the middle of the first link
+    print(StringUtil.repeat("x", CYCLE_BUFFER_SIZE - 120 + 9 - 1) + "\n");
+    flush();
+    assertEquals("nk\nline 1 " + LINK + "\n", getText().substring(0, 15));
+
+    myConsole.waitForFilterResults();
+    List<RangeHighlighter> hyperlinks = getHyperlinks();
+    assertEquals(9, hyperlinks.size());
+    assertEquals(10, hyperlinks.get(0).getStartOffset());
+    for (RangeHighlighter hyperlink : hyperlinks) {
+      assertEquals(LINK, getText().substring(hyperlink.getStartOffset(), hyperlink.getEndOffset()));
+    }
+  }
+
+  public void testResultsOfWhollyTrimmedTextAreDropped() {
+    print(LINK + "\n");
+    flush();
+    print(StringUtil.repeat("x", CYCLE_BUFFER_SIZE - 1) + "\n");
+    flush();
+
+    myConsole.waitForFilterResults();
+    assertEmpty(getHyperlinks());
+  }
+
+  public void testAllBatchesAreApplied() {
+    for (int i = 0; i < 300; i++) {
+      print(LINK + "\n");
+    }
+    flush();
+
+    myConsole.waitForFilterResults();
+    assertEquals(300, getHyperlinks().size());
+  }
+
+  public void testResultsOfClearedTextAreDiscarded() throws InterruptedException {
+    myFilter.block();
+    print("a " + LINK + "\n");
+    print("b " + LINK + "\n");
+    flush();
+    myFilter.waitForBlocked();
+
+    myConsole.clear();
+    waitFor(new Condition<Document>() {
+      @Override
+      public boolean value(Document document) {
+        return document.getTextLength() == 0;
+      }
+    });
+    myFilter.release();
+    print("c " + LINK + "\n");
+    flush();
+
+    myConsole.waitForFilterResults();
+    // the filters stop running over the cleared text
+    assertFalse(myFilter.getLines().contains("b " + LINK + "\n"));
+    List<RangeHighlighter> hyperlinks = getHyperlinks();
+    assertEquals(1, hyperlinks.size());
+    assertEquals(2, hyperlinks.get(0).getStartOffset());
+    assertEquals(6, hyperlinks.get(0).getEndOffset());
+  }
+
+  private void print(@NotNull String text) {
+    myConsole.print(text, ConsoleViewContentType.NORMAL_OUTPUT);
+  }
+
+  private void flush() {
+    new WriteAction() {
+      @Override
+      protected void run(Result result) throws Throwable {
+        myConsole.flushDeferredText();
+      }
+    }.execute();
+  }
+
+  @NotNull
+  private String getText() {
+    return myConsole.getEditor().getDocument().getText();
+  }
+
+  @NotNull
+  private List<RangeHighlighter> getHyperlinks() {
+    List<RangeHighlighter> hyperlinks = new ArrayList<RangeHighlighter>(myConsole.getHyperlinks().getHyperlinks().keySet());
+    Collections.sort(hyperlinks, EditorHyperlinkSupport.START_OFFSET_COMPARATOR);
+    return hyperlinks;
+  }
+
+  private void waitFor(@NotNull Condition<Document> condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.value(myConsole.getEditor().getDocument())) {
+      assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      UIUtil.dispatchAllInvocationEvents();
+      Thread.sleep(10);
+    }
+  }
+
+  private static class LinkFilter implements Filter {
+    private static final HyperlinkInfo INFO = new HyperlinkInfo() {
+      @Override
+      public void navigate(Project project) {
+      }
+    };
+
+    private final List<String> myLines = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch myBlocked = new CountDownLatch(1);
+    private volatile CountDownLatch myRelease;
+
+    @Override
+    public Result applyFilter(String line, int entireLength) {
+      myLines.add(line);
+      CountDownLatch release = myRelease;
+      if (release != null) {
+        myBlocked.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      int lineStart = entireLength - line.length();
+      List<ResultItem> items = new ArrayList<ResultItem>();
+      for (int index = line.indexOf(LINK); index >= 0; index = line.indexOf(LINK, index + 1)) {
+        items.add(new ResultItem(lineStart + index, lineStart + index + LINK.length(), INFO));
+      }
+      return items.isEmpty() ? null : new Result(items);
+    }
+
+    private void block() {
+      myRelease = new CountDownLatch(1);
+    }
+
+    private void waitForBlocked() throws InterruptedException {
+      assertTrue(myBlocked.await(10, TimeUnit.SECONDS));
+    }
+
+    private void release() {
+      CountDownLatch release = myRelease;
+      myRelease = null;
+      if (release != null) {
+        release.countDown();
+      }
+    }
+
+    @NotNull
+    private List<String> getLines() {
+      return myLines;
+    }
+  }
+}
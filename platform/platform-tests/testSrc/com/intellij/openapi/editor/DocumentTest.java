@@ -6,6 +6,8 @@ import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.impl.DocumentImpl;
 import com.intellij.testFramework.LightPlatformTestCase;
 
+import java.util.Random;
+
 public class DocumentTest extends LightPlatformTestCase {
   public void testCorrectlyAddingAndRemovingListeners() throws Exception {
     new WriteCommandAction.Simple(getProject()) {
@@ -56,4 +58,39 @@ public class DocumentTest extends LightPlatformTestCase {
       }
     }.execute().throwException();
   }
+
+  public void testLinesAfterRandomChanges() throws Exception {
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        final Random random = new Random(42);
+        final String[] fragments = {"a", "bc", "\n", "\n\n", "x\ny", "", "some text ", "\nq"};
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+          text.append(fragments[random.nextInt(fragments.length)]);
+        }
+        final DocumentImpl document = new DocumentImpl(text);
+        for (int i = 0; i < 500; i++) {
+          final int start = random.nextInt(document.getTextLength() + 1);
+          final int end = Math.min(document.getTextLength(), start + random.nextInt(20));
+          final StringBuilder replacement = new StringBuilder();
+          for (int j = random.nextInt(3); j > 0; j--) {
+            replacement.append(fragments[random.nextInt(fragments.length)]);
+          }
+          document.replaceString(start, end, replacement);
+
+          final Document expected = new DocumentImpl(document.getText());
+          assertEquals(expected.getLineCount(), document.getLineCount());
+          for (int line = 0; line < expected.getLineCount(); line++) {
+            assertEquals(expected.getLineStartOffset(line), document.getLineStartOffset(line));
+            assertEquals(expected.getLineEndOffset(line), document.getLineEndOffset(line));
+            assertEquals(expected.getLineSeparatorLength(line), document.getLineSeparatorLength(line));
+          }
+          for (int offset = 0; offset <= expected.getTextLength(); offset += 7) {
+            assertEquals(expected.getLineNumber(offset), document.getLineNumber(offset));
+          }
+        }
+      }
+    }.execute().throwException();
+  }
 }
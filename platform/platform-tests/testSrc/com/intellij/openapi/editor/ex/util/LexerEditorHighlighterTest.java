@@ -0,0 +1,272 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerBase;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.openapi.editor.highlighter.LightHighlighterClient;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.openapi.util.Computable;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.TimeoutUtil;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LexerEditorHighlighterTest extends LightPlatformTestCase {
+  private static final IElementType CHAR = new IElementType("CHAR", Language.ANY);
+  private static final IElementType QUOTE = new IElementType("QUOTE", Language.ANY);
+  private static final IElementType STRING_CHAR = new IElementType("STRING_CHAR", Language.ANY);
+
+  public void testLargeTextIsLexedInBackground() throws Exception {
+    final DocumentImpl document = new DocumentImpl(generateText(700000));
+    final LexerEditorHighlighter highlighter = createHighlighter(document);
+    assertTrue(highlighter.getSegments().getLastValidOffset() < document.getTextLength());
+
+    waitForLexing(highlighter, document);
+    checkSegments(highlighter, document);
+  }
+
+  public void testRequestedOffsetIsLexedImmediately() throws Exception {
+    final DocumentImpl document = new DocumentImpl(generateText(700000));
+    final LexerEditorHighlighter highlighter = createHighlighter(document);
+
+    final HighlighterIterator iterator = highlighter.createIterator(600000);
+    assertTrue(iterator.getStart() <= 600000 && 600000 < iterator.getEnd());
+    final int end = iterator.getEnd();
+    checkSegments(highlighter, document.getCharsSequence().subSequence(0, end), end);
+  }
+
+  public void testIteratorCreatedInBackgroundDoesNotLex() throws Exception {
+    final DocumentImpl document = new DocumentImpl(generateText(700000));
+    final LexerEditorHighlighter highlighter = createHighlighter(document);
+    final int lexedEnd = highlighter.getSegments().getLastValidOffset();
+    final int segmentCount = highlighter.getSegments().getSegmentCount();
+    assertTrue(lexedEnd < 600000);
+
+    final int iteratorStart = ApplicationManager.getApplication().executeOnPooledThread(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return ApplicationManager.getApplication().runReadAction(new Computable<Integer>() {
+          @Override
+          public Integer compute() {
+            return highlighter.createIterator(600000).getStart();
+          }
+        });
+      }
+    }).get();
+    assertTrue(iteratorStart <= lexedEnd);
+    assertEquals(lexedEnd, highlighter.getSegments().getLastValidOffset());
+    assertEquals(segmentCount, highlighter.getSegments().getSegmentCount());
+
+    waitForLexing(highlighter, document);
+    checkSegments(highlighter, document);
+  }
+
+  public void testChangesDuringBackgroundLexing() throws Exception {
+    final DocumentImpl document = new DocumentImpl(generateText(700000));
+    final LexerEditorHighlighter highlighter = createHighlighter(document);
+
+    final Random random = new Random(42);
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        for (int i = 0; i < 50; i++) {
+          final int start = random.nextInt(i % 2 == 0 ? 1000 : document.getTextLength());
+          final int end = Math.min(document.getTextLength(), start + random.nextInt(5));
+          document.replaceString(start, end, random.nextBoolean() ? "\"" : "a b");
+        }
+      }
+    }.execute().throwException();
+
+    waitForLexing(highlighter, document);
+    checkSegments(highlighter, document);
+  }
+
+  public void testLexerNotReturningToInitialStateIsLexedOnce() throws Exception {
+    final DocumentImpl document = new DocumentImpl("\"" + generateText(2000000, "ab \n"));
+    final AtomicInteger lexedTokens = new AtomicInteger();
+    final LexerEditorHighlighter highlighter = createHighlighter(document, lexedTokens);
+    highlighter.createIterator(200000);
+
+    waitForLexing(highlighter, document);
+    checkSegments(highlighter, document);
+    assertTrue(String.valueOf(lexedTokens.get()), lexedTokens.get() < 2 * document.getTextLength());
+  }
+
+  public void testWholeTextIsLexedIfCheckpointIsTooFar() throws Exception {
+    final DocumentImpl document = new DocumentImpl("\"" + generateText(2000000, "ab \n"));
+    final LexerEditorHighlighter highlighter = createHighlighter(document);
+
+    assertEquals(STRING_CHAR, highlighter.createIterator(900000).getTokenType());
+    assertTrue(highlighter.getSegments().getLastValidOffset() < document.getTextLength());
+    assertEquals(STRING_CHAR, highlighter.createIterator(1500000).getTokenType());
+    assertEquals(document.getTextLength(), highlighter.getSegments().getLastValidOffset());
+    checkSegments(highlighter, document);
+  }
+
+  @NotNull
+  private static String generateText(int length) {
+    return generateText(length, "ab \n\"");
+  }
+
+  @NotNull
+  private static String generateText(int length, @NotNull String chars) {
+    final Random random = new Random(123);
+    final StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      result.append(chars.charAt(random.nextInt(chars.length())));
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private LexerEditorHighlighter createHighlighter(@NotNull DocumentImpl document) {
+    return createHighlighter(document, new AtomicInteger());
+  }
+
+  @NotNull
+  private LexerEditorHighlighter createHighlighter(@NotNull DocumentImpl document, @NotNull AtomicInteger lexedTokens) {
+    final LexerEditorHighlighter highlighter =
+      new LexerEditorHighlighter(new QuoteHighlighter(lexedTokens), EditorColorsManager.getInstance().getGlobalScheme());
+    highlighter.setEditor(new LightHighlighterClient(document, getProject()));
+    document.addDocumentListener(highlighter);
+    highlighter.setText(document.getCharsSequence());
+    return highlighter;
+  }
+
+  private static void waitForLexing(@NotNull LexerEditorHighlighter highlighter, @NotNull DocumentImpl document) {
+    final long deadline = System.currentTimeMillis() + 30000;
+    while (highlighter.getSegments().getLastValidOffset() < document.getTextLength()) {
+      assertTrue("Background lexing isn't finished", System.currentTimeMillis() < deadline);
+      UIUtil.dispatchAllInvocationEvents();
+      TimeoutUtil.sleep(1);
+    }
+  }
+
+  private static void checkSegments(@NotNull LexerEditorHighlighter highlighter, @NotNull DocumentImpl document) {
+    checkSegments(highlighter, document.getCharsSequence(), document.getTextLength());
+  }
+
+  private static void checkSegments(@NotNull LexerEditorHighlighter highlighter, @NotNull CharSequence text, int endOffset) {
+    final SegmentArrayWithData segments = highlighter.getSegments();
+    final Lexer lexer = new QuoteLexer(new AtomicInteger());
+    lexer.start(text);
+    int i = 0;
+    while (lexer.getTokenType() != null && lexer.getTokenStart() < endOffset) {
+      assertEquals(lexer.getTokenStart(), segments.getSegmentStart(i));
+      assertEquals(lexer.getTokenEnd(), segments.getSegmentEnd(i));
+      assertEquals(lexer.getTokenType(), LexerEditorHighlighter.unpackToken(segments.getSegmentData(i)));
+      i++;
+      lexer.advance();
+    }
+  }
+
+  private static class QuoteHighlighter extends SyntaxHighlighterBase {
+    private final AtomicInteger myLexedTokens;
+
+    private QuoteHighlighter(@NotNull AtomicInteger lexedTokens) {
+      myLexedTokens = lexedTokens;
+    }
+
+    @NotNull
+    @Override
+    public Lexer getHighlightingLexer() {
+      return new QuoteLexer(myLexedTokens);
+    }
+
+    @NotNull
+    @Override
+    public TextAttributesKey[] getTokenHighlights(IElementType tokenType) {
+      return EMPTY;
+    }
+  }
+
+  /**
+   * Returns a token per character, characters between quotes are lexed in a non-initial state
+   */
+  private static class QuoteLexer extends LexerBase {
+    private final AtomicInteger myLexedTokens;
+    private CharSequence myBuffer;
+    private int myEndOffset;
+    private int myPosition;
+    private int myState;
+
+    private QuoteLexer(@NotNull AtomicInteger lexedTokens) {
+      myLexedTokens = lexedTokens;
+    }
+
+    @Override
+    public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEndOffset = endOffset;
+      myPosition = startOffset;
+      myState = initialState;
+    }
+
+    @Override
+    public int getState() {
+      return myState;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      if (myPosition >= myEndOffset) return null;
+      if (myBuffer.charAt(myPosition) == '"') return QUOTE;
+      return myState == 0 ? CHAR : STRING_CHAR;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myPosition;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myPosition + 1;
+    }
+
+    @Override
+    public void advance() {
+      if (myBuffer.charAt(myPosition) == '"') {
+        myState = 1 - myState;
+      }
+      myPosition++;
+      myLexedTokens.incrementAndGet();
+    }
+
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEndOffset;
+    }
+  }
+}
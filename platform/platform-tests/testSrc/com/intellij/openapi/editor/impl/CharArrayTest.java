@@ -80,7 +80,7 @@ public class CharArrayTest {
       });
     }});
     
-    init(10);
+    init(10, myConfig != null && myConfig.rope());
     if (myConfig != null) {
       myArray.insert(myConfig.text(), 0);
       myArray.setDeferredChangeMode(myConfig.deferred());
@@ -141,8 +141,49 @@ public class CharArrayTest {
     assertArrayEquals("1".toCharArray(), subsSequence.getChars());
   }
   
-  private void init(int size) {
-    myArray = new CharArray(size, new char[0], 0) {
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeChanges() {
+    replace(1, 3, "abc");
+    checkText("0abc34567");
+
+    myArray.remove(0, 2, "0a");
+    checkText("bc34567");
+
+    myArray.insert("XYZ", 7);
+    checkText("bc34567XYZ");
+  }
+
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeDoesNotDeferChanges() {
+    myArray.setDeferredChangeMode(true);
+    replace(1, 3, "abc");
+    assertFalse(myArray.isDeferredChangeMode());
+    assertFalse(myArray.hasDeferredChanges());
+    checkText("0abc34567");
+  }
+
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeSnapshotIsNotChanged() {
+    CharSequence snapshot = myArray.getCharArray();
+    replace(1, 3, "abc");
+    myArray.remove(5, 7, "45");
+    assertEquals("01234567", snapshot.toString());
+    checkText("0abc367");
+  }
+
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeCharsAreUpdatedAfterChange() {
+    assertArrayEquals("01234567".toCharArray(), myArray.getChars());
+    replace(2, 4, "X");
+    assertArrayEquals("01X4567".toCharArray(), myArray.getChars());
+  }
+
+  private void init(int size, boolean rope) {
+    myArray = new CharArray(size, new char[0], 0, rope) {
       @NotNull
       @Override
       protected DocumentEvent beforeChangedUpdate(int offset, CharSequence oldString, CharSequence newString,
@@ -239,5 +280,6 @@ public class CharArrayTest {
   private @interface Config {
     String text() default "";
     boolean deferred() default false;
+    boolean rope() default false;
   }
 }
@@ -25,6 +25,7 @@ import com.intellij.openapi.editor.markup.TextAttributes;
 import com.intellij.openapi.util.Ref;
 import com.intellij.psi.codeStyle.CommonCodeStyleSettings;
 import com.intellij.testFramework.TestFileType;
+import com.intellij.util.ui.UIUtil;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
@@ -41,6 +42,7 @@ import java.util.List;
 public class SoftWrapApplianceOnDocumentModificationTest extends AbstractEditorProcessingOnDocumentModificationTest {
 
   private boolean mySmartHome;
+  private int     myDeferredRecalculationLines;
   
   @Override
   protected void setUp() throws Exception {
@@ -1041,6 +1043,46 @@ public class SoftWrapApplianceOnDocumentModificationTest extends AbstractEditorP
     assertEquals(foldStart, myEditor.getCaretModel().getOffset());
   }
   
+  public void testDeferredRecalculationGivesSameSoftWrapsAsFullOne() throws IOException {
+    myDeferredRecalculationLines = 10;
+    init(20, createTextWithWrappedLines(100));
+    Document document = myEditor.getDocument();
+    assertFalse(getSoftWrapModel().getRegisteredSoftWraps().isEmpty());
+    assertEmpty(getSoftWrapModel().getSoftWrapsForRange(document.getLineStartOffset(50), document.getTextLength()));
+
+    UIUtil.dispatchAllInvocationEvents();
+    assertFalse(getSoftWrapModel().getSoftWrapsForRange(document.getLineStartOffset(90), document.getTextLength()).isEmpty());
+    checkSoftWrapsAreSameAsAfterFullRecalculation();
+  }
+
+  public void testChangesInsideDeferredRegion() throws IOException {
+    myDeferredRecalculationLines = 10;
+    init(20, createTextWithWrappedLines(100));
+    Document document = myEditor.getDocument();
+    assertEmpty(getSoftWrapModel().getSoftWrapsForRange(document.getLineStartOffset(50), document.getTextLength()));
+
+    document.insertString(document.getLineStartOffset(50), "inserted line with some words to wrap\n");
+    document.deleteString(document.getLineStartOffset(70), document.getLineStartOffset(75));
+    document.insertString(document.getLineEndOffset(80), " appended words");
+    document.deleteString(document.getLineStartOffset(90), document.getLineStartOffset(90) + 3);
+    getSoftWrapModel().registerSoftWrapsIfNecessary();
+
+    UIUtil.dispatchAllInvocationEvents();
+    checkSoftWrapsAreSameAsAfterFullRecalculation();
+  }
+
+  private static String createTextWithWrappedLines(int linesNumber) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < linesNumber; i++) {
+      text.append("line ").append(i);
+      for (int j = 0; j < i % 5 + 2; j++) {
+        text.append(" word").append(j);
+      }
+      text.append('\n');
+    }
+    return text.toString();
+  }
+
   private void init(final int visibleWidthInColumns, @NotNull String fileText) throws IOException {
     init(visibleWidthInColumns, 7, fileText);
   }
@@ -1076,6 +1118,7 @@ public class SoftWrapApplianceOnDocumentModificationTest extends AbstractEditorP
       });
     }
     
+    applianceManager.setDeferredRecalculationLines(myDeferredRecalculationLines);
     applianceManager.registerSoftWrapIfNecessary();
   }
 
@@ -1087,6 +1130,27 @@ public class SoftWrapApplianceOnDocumentModificationTest extends AbstractEditorP
     }
   }
   
+  private static void checkSoftWrapsAreSameAsAfterFullRecalculation() {
+    List<Integer> softWraps = getSoftWrapStarts();
+    int documentLength = myEditor.getDocument().getTextLength();
+    VisualPosition documentEnd = myEditor.offsetToVisualPosition(documentLength);
+
+    SoftWrapApplianceManager applianceManager = getSoftWrapModel().getApplianceManager();
+    applianceManager.setDeferredRecalculationLines(0);
+    applianceManager.reset();
+    applianceManager.registerSoftWrapIfNecessary();
+    assertEquals(getSoftWrapStarts(), softWraps);
+    assertEquals(myEditor.offsetToVisualPosition(documentLength), documentEnd);
+  }
+
+  private static List<Integer> getSoftWrapStarts() {
+    List<Integer> result = new ArrayList<Integer>();
+    for (SoftWrap softWrap : getSoftWrapModel().getRegisteredSoftWraps()) {
+      result.add(softWrap.getStart());
+    }
+    return result;
+  }
+
   private static SoftWrapModelImpl getSoftWrapModel() {
     return (SoftWrapModelImpl)myEditor.getSoftWrapModel();
   }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.fileEditor.impl.text;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+public class LargeFileContentTest extends TestCase {
+  private File myFile;
+  private LargeFileContent myContent;
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      if (myContent != null) {
+        myContent.dispose();
+      }
+      if (myFile != null) {
+        FileUtil.delete(myFile);
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testLines() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("line ").append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+    }
+    text.append("last");
+    createContent(text.toString(), CharsetToolkit.UTF8_CHARSET);
+
+    assertEquals(1001, myContent.getLineCount());
+    final String[] lines = myContent.getLines(LargeFileContent.LINES_PER_CHECKPOINT - 2, 5, 100);
+    assertEquals(5, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      assertEquals("line " + (LargeFileContent.LINES_PER_CHECKPOINT - 2 + i), lines[i]);
+    }
+    assertEquals(text.indexOf("line 600"), myContent.getLineStartOffset(600));
+    final String[] tail = myContent.getLines(999, 10, 100);
+    assertEquals(2, tail.length);
+    assertEquals("line 999", tail[0]);
+    assertEquals("last", tail[1]);
+  }
+
+  public void testTrailingLineFeed() throws IOException {
+    createContent("a\nb\n", CharsetToolkit.UTF8_CHARSET);
+    assertEquals(3, myContent.getLineCount());
+    final String[] lines = myContent.getLines(0, 3, 100);
+    assertEquals("a", lines[0]);
+    assertEquals("b", lines[1]);
+    assertEquals("", lines[2]);
+  }
+
+  public void testLongLinesAreTruncated() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      text.append('ж');
+    }
+    text.append("\nnext");
+    createContent(text.toString(), CharsetToolkit.UTF8_CHARSET);
+    final String[] lines = myContent.getLines(0, 2, 100);
+    assertEquals(text.substring(0, 100), lines[0]);
+    assertEquals("next", lines[1]);
+  }
+
+  public void testLinesLongerThanCheckpointDistance() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    final StringBuilder longLine = new StringBuilder();
+    while (longLine.length() <= LargeFileContent.BYTES_PER_CHECKPOINT) {
+      longLine.append("long line ");
+    }
+    for (int i = 0; i < 10; i++) {
+      text.append(i).append(longLine).append('\n').append("short ").append(i).append('\n');
+    }
+    createContent(text.toString(), CharsetToolkit.UTF8_CHARSET);
+
+    assertEquals(21, myContent.getLineCount());
+    assertEquals(text.indexOf("short 7"), myContent.getLineStartOffset(15));
+    assertEquals(text.indexOf("8long"), myContent.getLineStartOffset(16));
+    final String[] lines = myContent.getLines(3, 6, 20);
+    assertEquals("short 1", lines[0]);
+    assertEquals(("2" + longLine).substring(0, 20), lines[1]);
+    assertEquals("short 2", lines[2]);
+    assertEquals(("3" + longLine).substring(0, 20), lines[3]);
+    assertEquals("short 3", lines[4]);
+    assertEquals(("4" + longLine).substring(0, 20), lines[5]);
+  }
+
+  public void testSupportedCharsets() {
+    assertTrue(LargeFileContent.isCharsetSupported(CharsetToolkit.UTF8_CHARSET));
+    assertTrue(LargeFileContent.isCharsetSupported(Charset.forName("ISO-8859-1")));
+    assertFalse(LargeFileContent.isCharsetSupported(Charset.forName("UTF-16LE")));
+  }
+
+  private void createContent(String text, Charset charset) throws IOException {
+    myFile = FileUtil.createTempFile("large", ".txt");
+    FileUtil.writeToFile(myFile, text.getBytes(charset));
+    myContent = new LargeFileContent(myFile, charset);
+    myContent.indexLines();
+    assertTrue(myContent.isIndexed());
+  }
+}
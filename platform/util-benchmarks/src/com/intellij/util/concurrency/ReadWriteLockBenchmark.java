@@ -0,0 +1,201 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures contention of read-write locks used for read and write actions: <code>ReadWriteLockBenchmark</code>. Reader threads take
+ * short read locks in a loop, 1, 2, 4... up to 'benchmark.threads' of them. Each trial is run without writers and with a writer
+ * which takes the write lock every 'benchmark.write.interval' milliseconds, like typing in the editor does.
+ * <p/>
+ * A trial lasts 'benchmark.duration' milliseconds after 'benchmark.warmup' milliseconds of warmup. Results are printed as the
+ * total throughput of readers in read locks per second.
+ */
+public class ReadWriteLockBenchmark {
+  private static final int THREADS = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+  private static final int WARMUP = Integer.getInteger("benchmark.warmup", 1000);
+  private static final int DURATION = Integer.getInteger("benchmark.duration", 3000);
+  private static final int WRITE_INTERVAL = Integer.getInteger("benchmark.write.interval", 10);
+  @SuppressWarnings("UnusedDeclaration") private static volatile int ourSink; // keeps the reads from being optimized away
+
+  private interface RWLock {
+    void readLock() throws InterruptedException;
+
+    void readUnlock();
+
+    void writeLock() throws InterruptedException;
+
+    void writeUnlock();
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + "), " +
+                       System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", " +
+                       Runtime.getRuntime().availableProcessors() + " cpus");
+    System.out.println("warmup: " + WARMUP + "ms, duration: " + DURATION + "ms, write interval: " + WRITE_INTERVAL + "ms");
+    for (boolean writer : new boolean[]{false, true}) {
+      for (int threads = 1; ; threads = Math.min(threads * 2, THREADS)) {
+        report("ReentrantReadWriteLock", threads, writer, runTrial(createReentrantLock(), threads, writer));
+        report("ReadMostlyRWLock", threads, writer, runTrial(createReadMostlyLock(), threads, writer));
+        if (threads >= THREADS) break;
+      }
+    }
+  }
+
+  @NotNull
+  private static RWLock createReentrantLock() {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(false);
+    return new RWLock() {
+      @Override
+      public void readLock() throws InterruptedException {
+        lock.readLock().lockInterruptibly();
+      }
+
+      @Override
+      public void readUnlock() {
+        lock.readLock().unlock();
+      }
+
+      @Override
+      public void writeLock() throws InterruptedException {
+        lock.writeLock().lockInterruptibly();
+      }
+
+      @Override
+      public void writeUnlock() {
+        lock.writeLock().unlock();
+      }
+    };
+  }
+
+  @NotNull
+  private static RWLock createReadMostlyLock() {
+    final ReadMostlyRWLock lock = new ReadMostlyRWLock();
+    return new RWLock() {
+      @Override
+      public void readLock() throws InterruptedException {
+        lock.readLock();
+      }
+
+      @Override
+      public void readUnlock() {
+        lock.readUnlock();
+      }
+
+      @Override
+      public void writeLock() throws InterruptedException {
+        lock.writeLock();
+      }
+
+      @Override
+      public void writeUnlock() {
+        lock.writeUnlock();
+      }
+    };
+  }
+
+  /**
+   * @return read locks per second
+   */
+  private static double runTrial(@NotNull final RWLock lock, int threads, boolean withWriter) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong reads = new AtomicLong();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final int[] data = new int[1];
+    final long[] measureStart = new long[1];
+    final long[] measureEnd = new long[1];
+    final List<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      workers.add(new Thread("Benchmark reader " + i) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            long count = 0;
+            int sum = 0;
+            while (true) {
+              final long now = System.nanoTime();
+              if (now >= measureEnd[0]) break;
+              lock.readLock();
+              try {
+                sum += data[0];
+              }
+              finally {
+                lock.readUnlock();
+              }
+              if (now >= measureStart[0]) {
+                count++;
+              }
+            }
+            reads.addAndGet(count);
+            ourSink = sum;
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    if (withWriter) {
+      workers.add(new Thread("Benchmark writer") {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            while (System.nanoTime() < measureEnd[0]) {
+              lock.writeLock();
+              try {
+                data[0]++;
+              }
+              finally {
+                lock.writeUnlock();
+              }
+              Thread.sleep(WRITE_INTERVAL);
+            }
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    measureStart[0] = System.nanoTime() + WARMUP * 1000000L;
+    measureEnd[0] = measureStart[0] + DURATION * 1000000L;
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    if (error.get() != null) {
+      throw new RuntimeException(error.get());
+    }
+    return reads.get() * 1000.0 / DURATION;
+  }
+
+  private static void report(@NotNull String name, int threads, boolean withWriter, double result) {
+    System.out.println(String.format("%-25s %3d thr %-12s %14.0f reads/s", name, threads, withWriter ? "with writer" : "", result));
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+class EnumeratorBenchmarks {
+  private static final int KEYS = 100000;
+
+  static void addBenchmarks(@NotNull List<StorageBenchmark> benchmarks) {
+    for (final Kind kind : Kind.values()) {
+      benchmarks.add(new EnumeratorBenchmark(kind, kind.myName + ".enumerate new", false) {
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          for (int i = 0; i < count; i++) {
+            myEnumerator.enumerate(key(KEYS + random.nextInt(Integer.MAX_VALUE - KEYS)));
+          }
+          return count;
+        }
+      });
+      for (boolean cold : new boolean[]{false, true}) {
+        benchmarks.add(new EnumeratorBenchmark(kind, kind.myName + ".enumerate existing", cold) {
+          @Override
+          public int run(@NotNull Random random, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+              myEnumerator.enumerate(key(random.nextInt(KEYS)));
+            }
+            return count;
+          }
+        });
+        benchmarks.add(new EnumeratorBenchmark(kind, kind.myName + ".valueOf", cold) {
+          @Override
+          public int run(@NotNull Random random, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+              myEnumerator.valueOf(myIds[random.nextInt(KEYS)]);
+            }
+            return count;
+          }
+        });
+      }
+    }
+  }
+
+  private abstract static class EnumeratorBenchmark extends StorageBenchmark {
+    private final Kind myKind;
+    protected final int[] myIds = new int[KEYS];
+    protected StringEnumerator myEnumerator;
+
+    private EnumeratorBenchmark(@NotNull Kind kind, @NotNull String name, boolean cold) {
+      super(name, true, cold);
+      myKind = kind;
+    }
+
+    @Override
+    protected void open() throws IOException {
+      myEnumerator = myKind.open(new File(getDir(), "enumerator"));
+    }
+
+    @Override
+    protected void close() throws IOException {
+      myEnumerator.close();
+    }
+
+    @Override
+    protected void fill(@NotNull Random random) throws IOException {
+      for (int i = 0; i < KEYS; i++) {
+        myIds[i] = myEnumerator.enumerate(key(i));
+      }
+    }
+  }
+
+  private interface StringEnumerator {
+    int enumerate(String value) throws IOException;
+
+    String valueOf(int id) throws IOException;
+
+    void close() throws IOException;
+  }
+
+  private enum Kind {
+    STRING("PersistentStringEnumerator") {
+      @Override
+      StringEnumerator open(@NotNull File file) throws IOException {
+        final PersistentStringEnumerator enumerator = new PersistentStringEnumerator(file);
+        return new StringEnumerator() {
+          @Override
+          public int enumerate(String value) throws IOException {
+            return enumerator.enumerate(value);
+          }
+
+          @Override
+          public String valueOf(int id) throws IOException {
+            return enumerator.valueOf(id);
+          }
+
+          @Override
+          public void close() throws IOException {
+            enumerator.close();
+          }
+        };
+      }
+    },
+    HASH("PersistentEnumerator") {
+      @Override
+      StringEnumerator open(@NotNull File file) throws IOException {
+        return wrap(new PersistentEnumerator<String>(file, new EnumeratorStringDescriptor(), 1024 * 4));
+      }
+    },
+    BTREE("PersistentBTreeEnumerator") {
+      @Override
+      StringEnumerator open(@NotNull File file) throws IOException {
+        return wrap(new PersistentBTreeEnumerator<String>(file, new EnumeratorStringDescriptor(), 1024 * 4));
+      }
+    };
+
+    private final String myName;
+
+    Kind(String name) {
+      myName = name;
+    }
+
+    abstract StringEnumerator open(@NotNull File file) throws IOException;
+
+    private static StringEnumerator wrap(final PersistentEnumeratorBase<String> enumerator) {
+      return new StringEnumerator() {
+        @Override
+        public int enumerate(String value) throws IOException {
+          return enumerator.enumerate(value);
+        }
+
+        @Override
+        public String valueOf(int id) throws IOException {
+          return enumerator.valueOf(id);
+        }
+
+        @Override
+        public void close() throws IOException {
+          enumerator.close();
+        }
+      };
+    }
+  }
+}
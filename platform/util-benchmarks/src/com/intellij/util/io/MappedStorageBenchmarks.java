@@ -0,0 +1,226 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+class MappedStorageBenchmarks {
+  private static final int FILE_SIZE = 64 * PagedFileStorage.MB;
+  private static final int RECORD_SIZE = 16;
+  private static final int BTREE_PAGE_SIZE = 4096;
+  private static final int BTREE_KEYS = 200000;
+
+  static void addBenchmarks(@NotNull List<StorageBenchmark> benchmarks) {
+    benchmarks.add(new MappedFileBenchmark("ResizeableMappedFile.append", false, false) {
+      private int myLength;
+
+      @Override
+      protected void fill(@NotNull Random random) throws IOException {
+        myLength = (int)myFile.length();
+      }
+
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          lock();
+          try {
+            myFile.putLong(myLength, random.nextLong());
+            myFile.putLong(myLength + 8, random.nextLong());
+            myLength += RECORD_SIZE;
+          }
+          finally {
+            unlock();
+          }
+        }
+        return count;
+      }
+    });
+    benchmarks.add(new FilledMappedFileBenchmark("ResizeableMappedFile.random put", false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          lock();
+          try {
+            myFile.putLong(random.nextInt(FILE_SIZE / RECORD_SIZE) * RECORD_SIZE, random.nextLong());
+          }
+          finally {
+            unlock();
+          }
+        }
+        return count;
+      }
+    });
+    for (boolean cold : new boolean[]{false, true}) {
+      benchmarks.add(new FilledMappedFileBenchmark("ResizeableMappedFile.random get", cold) {
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          for (int i = 0; i < count; i++) {
+            lock();
+            try {
+              myFile.getLong(random.nextInt(FILE_SIZE / RECORD_SIZE) * RECORD_SIZE);
+            }
+            finally {
+              unlock();
+            }
+          }
+          return count;
+        }
+      });
+    }
+
+    benchmarks.add(new BtreeBenchmark("IntToIntBtree.put", false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          final int key = random.nextInt();
+          synchronized (this) {
+            myBtree.put(key, i);
+          }
+        }
+        return count;
+      }
+    });
+    for (boolean cold : new boolean[]{false, true}) {
+      benchmarks.add(new BtreeBenchmark("IntToIntBtree.get", cold) {
+        @Override
+        protected void fill(@NotNull Random random) throws IOException {
+          for (int i = 0; i < BTREE_KEYS; i++) {
+            myBtree.put(btreeKey(i), i);
+          }
+        }
+
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          final int[] result = new int[1];
+          for (int i = 0; i < count; i++) {
+            final int key = btreeKey(random.nextInt(BTREE_KEYS));
+            synchronized (this) {
+              myBtree.get(key, result);
+            }
+          }
+          return count;
+        }
+      });
+    }
+  }
+
+  private static int btreeKey(int i) {
+    // spreads sequential numbers over the whole int range like hash codes of enumerated values
+    return (i + 1) * 0x9E3779B1;
+  }
+
+  private abstract static class MappedFileBenchmark extends StorageBenchmark {
+    private final PagedFileStorage.StorageLockContext myLockContext = new PagedFileStorage.StorageLockContext(true);
+    protected ResizeableMappedFile myFile;
+
+    private MappedFileBenchmark(@NotNull String name, boolean concurrent, boolean cold) {
+      super(name, concurrent, cold);
+    }
+
+    @Override
+    protected void open() throws IOException {
+      myFile = new ResizeableMappedFile(new File(getDir(), "mapped"), PagedFileStorage.MB, myLockContext, PagedFileStorage.MB, false);
+    }
+
+    @Override
+    protected void close() throws IOException {
+      lock();
+      try {
+        myFile.close();
+      }
+      finally {
+        unlock();
+      }
+    }
+
+    protected void lock() {
+      myFile.getPagedFileStorage().lock();
+    }
+
+    protected void unlock() {
+      myFile.getPagedFileStorage().unlock();
+    }
+  }
+
+  private abstract static class FilledMappedFileBenchmark extends MappedFileBenchmark {
+    private FilledMappedFileBenchmark(@NotNull String name, boolean cold) {
+      super(name, true, cold);
+    }
+
+    @Override
+    protected void fill(@NotNull Random random) throws IOException {
+      final byte[] buffer = new byte[PagedFileStorage.MB];
+      lock();
+      try {
+        for (int offset = 0; offset < FILE_SIZE; offset += buffer.length) {
+          random.nextBytes(buffer);
+          myFile.put(offset, buffer, 0, buffer.length);
+        }
+        myFile.force();
+      }
+      finally {
+        unlock();
+      }
+    }
+  }
+
+  /**
+   * Operations with the btree must be performed under lock as {@link PersistentBTreeEnumerator} does, the benchmark object is used as
+   * the lock.
+   */
+  private abstract static class BtreeBenchmark extends StorageBenchmark {
+    private final PagedFileStorage.StorageLockContext myLockContext = new PagedFileStorage.StorageLockContext(false);
+    private final int[] myVars = new int[16];
+    protected IntToIntBtree myBtree;
+
+    private BtreeBenchmark(@NotNull String name, boolean cold) {
+      super(name, true, cold);
+    }
+
+    @Override
+    protected synchronized void open() throws IOException {
+      final File file = new File(getDir(), "btree");
+      final boolean initial = !file.exists();
+      myBtree = new IntToIntBtree(BTREE_PAGE_SIZE, file, myLockContext, initial);
+      if (!initial) {
+        myBtree.persistVars(new VarsStorage(), false);
+      }
+    }
+
+    @Override
+    protected synchronized void close() throws IOException {
+      myBtree.persistVars(new VarsStorage(), true);
+      myBtree.doFlush();
+      myBtree.doClose();
+    }
+
+    private class VarsStorage implements IntToIntBtree.BtreeDataStorage {
+      @Override
+      public int persistInt(int offset, int value, boolean toDisk) {
+        if (toDisk) {
+          myVars[offset / 4] = value;
+          return value;
+        }
+        return myVars[offset / 4];
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+class PersistentHashMapBenchmarks {
+  private static final int KEYS = 100000;
+  private static final int APPEND_KEYS = 1000;
+  private static final int VALUES_PER_APPEND_KEY = 20;
+
+  static void addBenchmarks(@NotNull List<StorageBenchmark> benchmarks) {
+    benchmarks.add(new MapBenchmark("PersistentHashMap.put", true, false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          myMap.put(key(random.nextInt(KEYS)), random.nextInt());
+        }
+        return count;
+      }
+    });
+    for (boolean cold : new boolean[]{false, true}) {
+      benchmarks.add(new MapBenchmark("PersistentHashMap.get", true, cold) {
+        @Override
+        protected void fill(@NotNull Random random) throws IOException {
+          for (int i = 0; i < KEYS; i++) {
+            myMap.put(key(i), random.nextInt());
+          }
+        }
+
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          for (int i = 0; i < count; i++) {
+            myMap.get(key(random.nextInt(KEYS)));
+          }
+          return count;
+        }
+      });
+    }
+    benchmarks.add(new AppendBenchmark("PersistentHashMap.appendData", false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          final int value = random.nextInt();
+          myMap.appendData(key(random.nextInt(APPEND_KEYS)), new PersistentHashMap.ValueDataAppender() {
+            @Override
+            public void append(DataOutput out) throws IOException {
+              out.writeInt(value);
+            }
+          });
+        }
+        return count;
+      }
+    });
+    for (boolean cold : new boolean[]{false, true}) {
+      benchmarks.add(new AppendBenchmark("PersistentHashMap.get of appended values", cold) {
+        @Override
+        protected void fill(@NotNull Random random) throws IOException {
+          // values are appended in rounds, so chunks of the same value are spread over the file as it happens in indices
+          for (int round = 0; round < VALUES_PER_APPEND_KEY; round++) {
+            for (int i = 0; i < APPEND_KEYS; i++) {
+              final int value = random.nextInt();
+              myMap.appendData(key(i), new PersistentHashMap.ValueDataAppender() {
+                @Override
+                public void append(DataOutput out) throws IOException {
+                  out.writeInt(value);
+                }
+              });
+            }
+          }
+          myMap.force();
+        }
+
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          for (int i = 0; i < count; i++) {
+            myMap.get(key(random.nextInt(APPEND_KEYS)));
+          }
+          return count;
+        }
+      });
+    }
+    benchmarks.add(new MapBenchmark("PersistentHashMap.compact, keys", false, false) {
+      @Override
+      protected void prepareIteration(@NotNull Random random) throws IOException {
+        // every value is overwritten, so a half of the values file is garbage
+        for (int i = 0; i < KEYS; i++) {
+          myMap.put(key(i), random.nextInt());
+        }
+        for (int i = 0; i < KEYS; i++) {
+          myMap.put(key(i), random.nextInt());
+        }
+      }
+
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        myMap.compact();
+        return KEYS;
+      }
+    });
+  }
+
+  private abstract static class MapBenchmark extends StorageBenchmark {
+    protected PersistentHashMap<String, Integer> myMap;
+
+    private MapBenchmark(@NotNull String name, boolean concurrent, boolean cold) {
+      super(name, concurrent, cold);
+    }
+
+    @Override
+    protected void open() throws IOException {
+      myMap = new PersistentHashMap<String, Integer>(new File(getDir(), "map"), new EnumeratorStringDescriptor(),
+                                                     EnumeratorIntegerDescriptor.INSTANCE);
+    }
+
+    @Override
+    protected void close() throws IOException {
+      myMap.close();
+    }
+  }
+
+  private abstract static class AppendBenchmark extends StorageBenchmark {
+    protected PersistentHashMap<String, TIntArrayList> myMap;
+
+    private AppendBenchmark(@NotNull String name, boolean cold) {
+      super(name, true, cold);
+    }
+
+    @Override
+    protected void open() throws IOException {
+      myMap = new PersistentHashMap<String, TIntArrayList>(new File(getDir(), "appendMap"), new EnumeratorStringDescriptor(),
+                                                           new IntListExternalizer());
+    }
+
+    @Override
+    protected void close() throws IOException {
+      myMap.close();
+    }
+  }
+
+  private static class IntListExternalizer implements DataExternalizer<TIntArrayList> {
+    @Override
+    public void save(DataOutput out, TIntArrayList value) throws IOException {
+      for (int i = 0; i < value.size(); i++) {
+        out.writeInt(value.get(i));
+      }
+    }
+
+    @Override
+    public TIntArrayList read(DataInput in) throws IOException {
+      final TIntArrayList result = new TIntArrayList();
+      while (((DataInputStream)in).available() > 0) {
+        result.add(in.readInt());
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.io.storage.RefCountingStorage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+class RefCountingStorageBenchmarks {
+  private static final int RECORDS = 20000;
+  private static final int MIN_RECORD_LENGTH = 64;
+  private static final int MAX_RECORD_LENGTH = 4096;
+
+  static void addBenchmarks(@NotNull List<StorageBenchmark> benchmarks) {
+    benchmarks.add(new StorageBenchmarkBase("RefCountingStorage.write new records", false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          final int record = myStorage.acquireNewRecord();
+          myStorage.writeBytes(record, createContent(random), false);
+        }
+        // records are compressed and written in background, the time of writing them must be measured too
+        myStorage.force();
+        return count;
+      }
+    });
+    benchmarks.add(new StorageBenchmarkBase("RefCountingStorage.rewrite records", false) {
+      @Override
+      public int run(@NotNull Random random, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+          myStorage.writeBytes(myRecords[random.nextInt(RECORDS)], createContent(random), false);
+        }
+        myStorage.force();
+        return count;
+      }
+    });
+    for (boolean cold : new boolean[]{false, true}) {
+      benchmarks.add(new StorageBenchmarkBase("RefCountingStorage.read", cold) {
+        @Override
+        public int run(@NotNull Random random, int count) throws IOException {
+          final byte[] buffer = new byte[MAX_RECORD_LENGTH];
+          for (int i = 0; i < count; i++) {
+            final DataInputStream stream = myStorage.readStream(myRecords[random.nextInt(RECORDS)]);
+            try {
+              //noinspection StatementWithEmptyBody
+              while (stream.read(buffer) >= 0) ;
+            }
+            finally {
+              stream.close();
+            }
+          }
+          return count;
+        }
+      });
+    }
+  }
+
+  @NotNull
+  private static ByteSequence createContent(@NotNull Random random) {
+    // content of real records is compressible, so it's built of text instead of random bytes
+    final int length = MIN_RECORD_LENGTH + random.nextInt(MAX_RECORD_LENGTH - MIN_RECORD_LENGTH);
+    final StringBuilder builder = new StringBuilder(length + 64);
+    while (builder.length() < length) {
+      builder.append(StorageBenchmark.key(random.nextInt(RECORDS))).append('\n');
+    }
+    return new ByteSequence(builder.substring(0, length).getBytes());
+  }
+
+  private abstract static class StorageBenchmarkBase extends StorageBenchmark {
+    protected final int[] myRecords = new int[RECORDS];
+    protected RefCountingStorage myStorage;
+
+    private StorageBenchmarkBase(@NotNull String name, boolean cold) {
+      super(name, true, cold);
+    }
+
+    @Override
+    protected void open() throws IOException {
+      myStorage = new RefCountingStorage(new File(getDir(), "storage").getPath());
+    }
+
+    @Override
+    protected void close() throws IOException {
+      myStorage.dispose();
+    }
+
+    @Override
+    protected void fill(@NotNull Random random) throws IOException {
+      for (int i = 0; i < RECORDS; i++) {
+        myRecords[i] = myStorage.acquireNewRecord();
+        myStorage.writeBytes(myRecords[i], createContent(random), false);
+      }
+      myStorage.force();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.StreamUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Benchmark of a single operation of a persistent storage. For every trial {@link StorageBenchmarks} opens the storage in a new
+ * directory, fills it, and then calls {@link #run} in warmup and measured iterations from one or several threads.
+ * <p/>
+ * If the benchmark is 'cold' the storage is closed and opened again before each iteration, so all in-memory caches of the storage and
+ * mapped buffers are dropped. The OS page cache can be dropped too by a command passed in the '{@link #DROP_CACHES_COMMAND}' property,
+ * e.g. "sync; echo 3 > /proc/sys/vm/drop_caches" on Linux.
+ */
+public abstract class StorageBenchmark {
+  public static final String DROP_CACHES_COMMAND = "benchmark.drop.caches.command";
+  private final String myName;
+  private final boolean myConcurrent;
+  private final boolean myCold;
+  private File myDir;
+
+  protected StorageBenchmark(@NotNull String name, boolean concurrent, boolean cold) {
+    myName = cold ? name + " (cold)" : name;
+    myConcurrent = concurrent;
+    myCold = cold;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  /**
+   * @return true if {@link #run} may be called from several threads at once
+   */
+  public boolean isConcurrent() {
+    return myConcurrent;
+  }
+
+  @NotNull
+  protected File getDir() {
+    return myDir;
+  }
+
+  public final void setUp(@NotNull File dir, @NotNull Random random) throws IOException {
+    myDir = dir;
+    open();
+    fill(random);
+  }
+
+  public final void beforeIteration(@NotNull Random random) throws IOException {
+    if (myCold) {
+      close();
+      dropSystemCaches();
+      open();
+    }
+    prepareIteration(random);
+  }
+
+  public final void tearDown() throws IOException {
+    close();
+  }
+
+  protected abstract void open() throws IOException;
+
+  protected abstract void close() throws IOException;
+
+  /**
+   * Fills the storage with data used by the benchmark, called once per trial and not measured
+   */
+  protected void fill(@NotNull Random random) throws IOException {
+  }
+
+  /**
+   * Called before each iteration and not measured
+   */
+  protected void prepareIteration(@NotNull Random random) throws IOException {
+  }
+
+  /**
+   * Performs <code>count</code> operations
+   * @return number of performed operations
+   */
+  public abstract int run(@NotNull Random random, int count) throws IOException;
+
+  @NotNull
+  protected static String key(int i) {
+    // looks like keys of real indices and is not too friendly to hashing
+    return "com/intellij/benchmark/package" + i % 97 + "/Class" + i;
+  }
+
+  private static void dropSystemCaches() throws IOException {
+    final String command = System.getProperty(DROP_CACHES_COMMAND);
+    if (command == null) {
+      return;
+    }
+    final Process process = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true).start();
+    try {
+      StreamUtil.readText(process.getInputStream());
+      if (process.waitFor() != 0) {
+        throw new IOException("'" + command + "' exited with code " + process.exitValue());
+      }
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+}
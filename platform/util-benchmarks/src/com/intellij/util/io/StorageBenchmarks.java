@@ -0,0 +1,185 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks of persistent storages: <code>StorageBenchmarks [name regexp]</code>. Every benchmark is run in a single thread and,
+ * if it supports concurrent access, in 'benchmark.threads' threads. A trial consists of 'benchmark.warmup' warmup iterations and
+ * 'benchmark.iterations' measured iterations of 'benchmark.operations' operations split between the threads.
+ * <p/>
+ * All random data is generated from 'benchmark.seed', so runs with the same parameters perform exactly the same operations and their
+ * results may be compared. Results are printed as throughput in operations per second and, if 'benchmark.csv' is set, appended to that
+ * file. Run the benchmarks with the same -Xmx and the same '-Didea.max.paged.storage.cache' in the runs being compared.
+ */
+public class StorageBenchmarks {
+  private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 3);
+  private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+  private static final int OPERATIONS = Integer.getInteger("benchmark.operations", 200000);
+  private static final int THREADS = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+  private static final long SEED = Long.getLong("benchmark.seed", 20121019L);
+
+  public static void main(String[] args) {
+    // storages may have started non-daemon threads, so the VM is stopped explicitly
+    try {
+      runBenchmarks(args);
+    }
+    catch (Throwable e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+  private static void runBenchmarks(String[] args) throws Exception {
+    final Pattern filter = args.length > 0 ? Pattern.compile(args[0]) : null;
+    final String csvPath = System.getProperty("benchmark.csv");
+    final PrintWriter csv = csvPath != null ? new PrintWriter(new FileWriter(csvPath, true)) : null;
+    try {
+      System.out.println("java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + "), " +
+                         System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", " +
+                         Runtime.getRuntime().availableProcessors() + " cpus, max heap " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "Mb");
+      System.out.println("warmup: " + WARMUP_ITERATIONS + ", iterations: " + ITERATIONS + ", operations: " + OPERATIONS + ", seed: " + SEED);
+      for (StorageBenchmark benchmark : createBenchmarks()) {
+        if (filter != null && !filter.matcher(benchmark.getName()).find()) {
+          continue;
+        }
+        report(benchmark, 1, runTrial(benchmark, 1), csv);
+        if (benchmark.isConcurrent() && THREADS > 1) {
+          report(benchmark, THREADS, runTrial(benchmark, THREADS), csv);
+        }
+      }
+    }
+    finally {
+      if (csv != null) {
+        csv.close();
+      }
+    }
+  }
+
+  @NotNull
+  private static List<StorageBenchmark> createBenchmarks() {
+    final List<StorageBenchmark> benchmarks = new ArrayList<StorageBenchmark>();
+    PersistentHashMapBenchmarks.addBenchmarks(benchmarks);
+    EnumeratorBenchmarks.addBenchmarks(benchmarks);
+    MappedStorageBenchmarks.addBenchmarks(benchmarks);
+    RefCountingStorageBenchmarks.addBenchmarks(benchmarks);
+    return benchmarks;
+  }
+
+  /**
+   * @return throughput of the measured iterations in operations per second
+   */
+  @NotNull
+  private static double[] runTrial(@NotNull StorageBenchmark benchmark, int threads) throws Exception {
+    final File dir = FileUtil.createTempDirectory("storage-benchmark", null);
+    try {
+      benchmark.setUp(dir, new Random(SEED));
+      try {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+          runIteration(benchmark, threads, i);
+        }
+        final double[] result = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+          result[i] = runIteration(benchmark, threads, WARMUP_ITERATIONS + i);
+        }
+        return result;
+      }
+      finally {
+        benchmark.tearDown();
+      }
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  private static double runIteration(@NotNull final StorageBenchmark benchmark, int threads, int iteration) throws Exception {
+    final long iterationSeed = SEED + 31L * (iteration + 1);
+    benchmark.beforeIteration(new Random(iterationSeed));
+    System.gc();
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger operations = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final List<Thread> workers = new ArrayList<Thread>(threads);
+    for (int i = 0; i < threads; i++) {
+      final Random random = new Random(iterationSeed + i + 1);
+      final int count = OPERATIONS / threads;
+      workers.add(new Thread("Benchmark worker " + i) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            operations.addAndGet(benchmark.run(random, count));
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    final long startTime = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    final long time = System.nanoTime() - startTime;
+    if (error.get() != null) {
+      throw new RuntimeException("Benchmark '" + benchmark.getName() + "' failed", error.get());
+    }
+    return operations.get() * 1e9 / time;
+  }
+
+  private static void report(@NotNull StorageBenchmark benchmark, int threads, @NotNull double[] results, @Nullable PrintWriter csv) {
+    double min = Double.MAX_VALUE, max = 0, sum = 0;
+    for (double result : results) {
+      min = Math.min(min, result);
+      max = Math.max(max, result);
+      sum += result;
+    }
+    final double mean = sum / results.length;
+    double squares = 0;
+    for (double result : results) {
+      squares += (result - mean) * (result - mean);
+    }
+    final double deviation = results.length > 1 ? Math.sqrt(squares / (results.length - 1)) : 0;
+    System.out.println(String.format("%-55s %3d thr %12.0f ops/s +- %10.0f (min %.0f, max %.0f)",
+                                     benchmark.getName(), threads, mean, deviation, min, max));
+    if (csv != null) {
+      csv.println(String.format("\"%s\",%d,%.0f,%.0f,%.0f,%.0f", benchmark.getName(), threads, mean, deviation, min, max));
+      csv.flush();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reentrant read-write lock optimized for the case when readers are many and writers are rare.
+ * <p/>
+ * Every reader thread has its own slot and acquires the lock by writing to the slot only, so readers don't contend for a shared
+ * memory location as they do with {@link java.util.concurrent.locks.ReentrantReadWriteLock}. A writer announces itself in a shared flag
+ * and then waits until all slots are released, which makes writing more expensive.
+ * <p/>
+ * Writers are preferred: once a writer is waiting, new readers are blocked until it releases the lock. The threads which already
+ * hold the read lock may acquire it again though.
+ * <p/>
+ * As with {@link java.util.concurrent.locks.ReentrantReadWriteLock}, the write lock holder may acquire the read lock, but the read lock
+ * can't be upgraded: acquiring the write lock while holding the read lock throws {@link IllegalMonitorStateException}.
+ */
+public class ReadMostlyRWLock {
+  private static class Reader {
+    private final Thread myThread = Thread.currentThread();
+    private volatile boolean myReadRequested;
+    private int myHoldCount; // accessed from the reader thread only
+    private boolean myRegistered; // accessed from the reader thread only
+  }
+
+  private final ThreadLocal<Reader> myReader = new ThreadLocal<Reader>() {
+    @Override
+    protected Reader initialValue() {
+      return new Reader();
+    }
+  };
+  private final List<Reader> myReaders = new CopyOnWriteArrayList<Reader>();
+  private final ReentrantLock myWriterLock = new ReentrantLock();
+  private final Object myWriterFinished = new Object();
+  private volatile boolean myWriteRequested;
+  private volatile Thread myWriteThread;
+  private int myWriteHoldCount; // accessed from the writer thread only
+
+  public void readLock() throws InterruptedException {
+    final Reader reader = getReader();
+    if (reader.myHoldCount > 0) {
+      reader.myHoldCount++;
+      return;
+    }
+    if (isWriteLockedByCurrentThread()) {
+      acquireReadByWriter(reader);
+      return;
+    }
+    while (!tryAcquireRead(reader)) {
+      synchronized (myWriterFinished) {
+        while (myWriteRequested) {
+          myWriterFinished.wait();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return <code>false</code> if the lock is held or requested by a writer
+   */
+  public boolean tryReadLock() {
+    final Reader reader = getReader();
+    if (reader.myHoldCount > 0) {
+      reader.myHoldCount++;
+      return true;
+    }
+    if (isWriteLockedByCurrentThread()) {
+      acquireReadByWriter(reader);
+      return true;
+    }
+    return tryAcquireRead(reader);
+  }
+
+  public void readUnlock() {
+    final Reader reader = myReader.get();
+    if (reader.myHoldCount <= 0) {
+      throw new IllegalMonitorStateException("Read lock isn't held by " + Thread.currentThread());
+    }
+    if (--reader.myHoldCount == 0) {
+      releaseRead(reader);
+    }
+  }
+
+  public boolean isReadLockedByCurrentThread() {
+    return myReader.get().myHoldCount > 0;
+  }
+
+  public void writeLock() throws InterruptedException {
+    if (isWriteLockedByCurrentThread()) {
+      myWriteHoldCount++;
+      return;
+    }
+    checkNoReadLock();
+    myWriterLock.lockInterruptibly();
+    requestWrite();
+    try {
+      for (Reader reader : myReaders) {
+        while (isReading(reader)) {
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      cancelWrite();
+      throw e;
+    }
+    myWriteHoldCount = 1;
+  }
+
+  /**
+   * @return <code>false</code> if the lock is held by a reader or another writer
+   */
+  public boolean tryWriteLock() {
+    if (isWriteLockedByCurrentThread()) {
+      myWriteHoldCount++;
+      return true;
+    }
+    checkNoReadLock();
+    if (!myWriterLock.tryLock()) {
+      return false;
+    }
+    requestWrite();
+    for (Reader reader : myReaders) {
+      if (isReading(reader)) {
+        cancelWrite();
+        return false;
+      }
+    }
+    myWriteHoldCount = 1;
+    return true;
+  }
+
+  public void writeUnlock() {
+    if (!isWriteLockedByCurrentThread()) {
+      throw new IllegalMonitorStateException("Write lock isn't held by " + Thread.currentThread());
+    }
+    if (--myWriteHoldCount == 0) {
+      cancelWrite();
+    }
+  }
+
+  public boolean isWriteLockedByCurrentThread() {
+    return myWriteThread == Thread.currentThread() && myWriteHoldCount > 0;
+  }
+
+  @NotNull
+  private Reader getReader() {
+    final Reader reader = myReader.get();
+    if (!reader.myRegistered) {
+      myReaders.add(reader);
+      reader.myRegistered = true;
+    }
+    return reader;
+  }
+
+  private void checkNoReadLock() {
+    if (isReadLockedByCurrentThread()) {
+      // the writer would wait for its own read lock forever
+      throw new IllegalMonitorStateException("Read lock can't be upgraded to write lock by " + Thread.currentThread());
+    }
+  }
+
+  /**
+   * No reader can hold the lock while the current thread holds the write lock, and the slot keeps other writers waiting after the
+   * write lock is released
+   */
+  private static void acquireReadByWriter(@NotNull Reader reader) {
+    reader.myReadRequested = true;
+    reader.myHoldCount = 1;
+  }
+
+  private boolean tryAcquireRead(@NotNull Reader reader) {
+    // the volatile write of the own slot followed by the volatile read of the writer flag, the writer does the same in reverse order,
+    // so at least one of them sees the other
+    reader.myReadRequested = true;
+    if (!myWriteRequested) {
+      reader.myHoldCount = 1;
+      return true;
+    }
+    releaseRead(reader);
+    return false;
+  }
+
+  private void releaseRead(@NotNull Reader reader) {
+    reader.myReadRequested = false;
+    if (myWriteRequested) {
+      final Thread writer = myWriteThread;
+      if (writer != null) {
+        LockSupport.unpark(writer);
+      }
+    }
+  }
+
+  private void requestWrite() {
+    myWriteThread = Thread.currentThread();
+    myWriteRequested = true;
+  }
+
+  private void cancelWrite() {
+    myWriteThread = null;
+    synchronized (myWriterFinished) {
+      myWriteRequested = false;
+      myWriterFinished.notifyAll();
+    }
+    myWriterLock.unlock();
+  }
+
+  private boolean isReading(@NotNull Reader reader) {
+    if (!reader.myThread.isAlive()) {
+      myReaders.remove(reader);
+      return false;
+    }
+    return reader.myReadRequested;
+  }
+}
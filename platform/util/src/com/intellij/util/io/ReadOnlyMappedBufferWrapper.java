@@ -29,6 +29,10 @@ public class ReadOnlyMappedBufferWrapper extends MappedBufferWrapper {
     super(file, pos, file.length() - pos);
   }
 
+  protected ReadOnlyMappedBufferWrapper(final File file, final long pos, final long length) {
+    super(file, pos, length);
+  }
+
   @Override
   protected MappedByteBuffer map() throws IOException {
     final FileInputStream stream = new FileInputStream(myFile);
@@ -241,8 +241,11 @@ public class RefCountingStorage extends AbstractStorage {
 
   private void flushPendingWrites() {
     for(Map.Entry<Integer, Future<?>> entry:myPendingWriteRequests.entrySet()) {
+      // the entry is removed concurrently when its write completes, the value of a removed entry is null
+      final Future<?> future = entry.getValue();
+      if (future == null) continue;
       try {
-        entry.getValue().get();
+        future.get();
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
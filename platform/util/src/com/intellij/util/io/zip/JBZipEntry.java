@@ -449,6 +449,57 @@ public class JBZipEntry implements Cloneable {
     setData(bytes, time);
   }
 
+  /**
+   * @param compressedBytes data compressed with the method of this entry
+   * @param length          length of the compressed data
+   * @param size            uncompressed size of the data
+   * @param crc             crc-32 of the uncompressed data
+   */
+  public void setCompressedData(byte[] compressedBytes, int length, long size, long crc) throws IOException {
+    JBZipOutputStream stream = myFile.getOutputStream();
+    stream.putNextEntryCompressedBytes(this, compressedBytes, length, size, crc);
+  }
+
+  /**
+   * Copies data of an entry from another archive as it is stored there, i.e. without decompression. Unlike
+   * {@link #getCompressedData()} the data isn't loaded to memory.
+   */
+  public void setCompressedData(JBZipEntry source) throws IOException {
+    if (source.csize == -1) throw new IOException("no data");
+
+    setMethod(source.getMethod());
+    final InputStream stream = source.new BoundedInputStream(source.calcDataOffset(), source.csize);
+    try {
+      myFile.getOutputStream().putNextEntryCompressedContent(this, stream, source.csize, source.size, source.crc);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Compresses data read from the stream with the method of this entry. Unlike {@link #setData(byte[])} the data isn't loaded to memory.
+   */
+  public void setData(InputStream content) throws IOException {
+    JBZipOutputStream stream = myFile.getOutputStream();
+    stream.putNextEntryContent(this, content);
+  }
+
+  /**
+   * @return data of the entry as it is stored in the archive, i.e. without decompression
+   */
+  public byte[] getCompressedData() throws IOException {
+    if (csize == -1) throw new IOException("no data");
+
+    final InputStream stream = new BoundedInputStream(calcDataOffset(), csize);
+    try {
+      return FileUtil.loadBytes(stream, (int)csize);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
   public byte[] getData() throws IOException {
     if (size == -1) throw new IOException("no data");
 
@@ -23,6 +23,8 @@ package com.intellij.util.io.zip;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -200,6 +202,11 @@ class JBZipOutputStream {
    */
   protected static final byte[] EOCD_SIG = ZipLong.getBytes(0X06054B50L);
 
+  /**
+   * Offset of the crc field in the local file header.
+   */
+  private static final int LFH_CRC_OFFSET = 14;
+
   /**
    * Writes the local file header entry
    *
@@ -422,4 +429,116 @@ class JBZipOutputStream {
     writeLocalFileHeader(entry);
     writeOut(outputBytes, 0, outputBytesLength);
   }
+
+  /**
+   * Writes data which is already compressed with the method specified in the entry, e.g. data copied from another archive
+   * or compressed on a different thread.
+   */
+  public void putNextEntryCompressedBytes(JBZipEntry entry, byte[] compressedBytes, int length, long size, long crc) throws IOException {
+    if (entry.getMethod() == -1) {
+      throw new ZipException("Compression method isn't specified for " + entry.getName());
+    }
+    entry.setSize(size);
+    entry.setCrc(crc);
+    entry.setCompressedSize(length);
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    writeLocalFileHeader(entry);
+    writeOut(compressedBytes, 0, length);
+  }
+
+  /**
+   * Writes data which is already compressed with the method specified in the entry, reading it from the stream by chunks.
+   */
+  public void putNextEntryCompressedContent(JBZipEntry entry, InputStream compressedData, long length, long size, long crc)
+    throws IOException {
+    if (entry.getMethod() == -1) {
+      throw new ZipException("Compression method isn't specified for " + entry.getName());
+    }
+    entry.setSize(size);
+    entry.setCrc(crc);
+    entry.setCompressedSize(length);
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    writeLocalFileHeader(entry);
+    final long dataStart = written;
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = compressedData.read(buffer)) > 0) {
+      writeOut(buffer, 0, read);
+    }
+    if (written - dataStart != length) {
+      throw new ZipException("Unexpected length of compressed data for " + entry.getName() + ": " + (written - dataStart));
+    }
+  }
+
+  /**
+   * Compresses data read from the stream by chunks. The local file header is written before the data, so the sizes and crc
+   * are written to it when all data is processed.
+   */
+  public void putNextEntryContent(JBZipEntry entry, InputStream content) throws IOException {
+    if (entry.getMethod() == -1) {
+      entry.setMethod(method);
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setSize(0);
+    entry.setCrc(0);
+    entry.setCompressedSize(0);
+    writeLocalFileHeader(entry);
+    final long dataStart = written;
+
+    crc.reset();
+    long size = 0;
+    final Deflater deflater = entry.getMethod() == ZipEntry.DEFLATED ? new Deflater(level, true) : null;
+    try {
+      OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          writeOut(new byte[]{(byte)b});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          writeOut(b, off, len);
+        }
+      };
+      if (deflater != null) {
+        output = new DeflaterOutputStream(output, deflater);
+      }
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = content.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+        output.write(buffer, 0, read);
+        size += read;
+      }
+      output.close();
+    }
+    finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+
+    entry.setSize(size);
+    entry.setCrc(crc.getValue());
+    entry.setCompressedSize(written - dataStart);
+
+    flushBuffer();
+    raf.seek(entry.getHeaderOffset() + LFH_CRC_OFFSET);
+    raf.write(ZipLong.getBytes(entry.getCrc()));
+    raf.write(ZipLong.getBytes(entry.getCompressedSize()));
+    raf.write(ZipLong.getBytes(entry.getSize()));
+    raf.seek(written);
+  }
 }
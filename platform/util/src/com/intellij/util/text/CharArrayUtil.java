@@ -69,7 +69,7 @@ public class CharArrayUtil {
   public static void getChars(@NotNull CharSequence src, @NotNull char[] dst, int srcOffset, int dstOffset, int len) {
     if (len >= GET_CHARS_THRESHOLD) {
       if (src instanceof String) {
-        ((String)src).getChars(srcOffset, len, dst, dstOffset);
+        ((String)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
         return;
       }
       else if (src instanceof CharBuffer) {
@@ -81,7 +81,7 @@ public class CharArrayUtil {
         return;
       }
       else if (src instanceof CharSequenceBackedByArray) {
-        ((CharSequenceBackedByArray)src.subSequence(srcOffset, len)).getChars(dst, dstOffset);
+        ((CharSequenceBackedByArray)src.subSequence(srcOffset, srcOffset + len)).getChars(dst, dstOffset);
         return;
       }
       else if (src instanceof StringBuffer) {
@@ -92,6 +92,10 @@ public class CharArrayUtil {
         ((StringBuilder)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
         return;
       }
+      else if (src instanceof ImmutableText) {
+        ((ImmutableText)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
+        return;
+      }
     }
 
     for (int i = 0, j = srcOffset, max = srcOffset + len; j < max && i < dst.length; i++, j++) {
@@ -163,6 +167,12 @@ public class CharArrayUtil {
       return chars;
     }
 
+    if (seq instanceof ImmutableText) {
+      char[] chars = new char[seq.length()];
+      ((ImmutableText)seq).getChars(0, seq.length(), chars, 0);
+      return chars;
+    }
+
     return seq.toString().toCharArray();
   }
 
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable char sequence stored as a balanced tree of small char arrays (a rope). Insertion, deletion and taking a subsequence create
+ * a new text in O(log n) time sharing all unchanged parts of the tree with the original text, so a text may be kept as a snapshot
+ * without copying.
+ * <p/>
+ * Sequential {@link #charAt(int)} calls are served from the last accessed leaf, random access takes O(log n).
+ */
+public final class ImmutableText implements CharSequence {
+  /**
+   * Leaves are not larger than this. Small leaves created by edits are merged with neighbours while their total length fits.
+   */
+  private static final int LEAF_SIZE = 512;
+  public static final ImmutableText EMPTY = new ImmutableText(new Leaf(new char[0]));
+
+  private final Node myRoot;
+  private volatile LeafPosition myLastLeaf;
+
+  private ImmutableText(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) {
+      return (ImmutableText)text;
+    }
+    return text.length() == 0 ? EMPTY : new ImmutableText(build(text, 0, text.length()));
+  }
+
+  @NotNull
+  private static Node build(@NotNull CharSequence text, int start, int end) {
+    final int length = end - start;
+    if (length <= LEAF_SIZE) {
+      final char[] chars = new char[length];
+      CharArrayUtil.getChars(text, chars, start, 0, length);
+      return new Leaf(chars);
+    }
+    // the split point is aligned to the leaf size, so all leaves except the last one are full
+    final int leaves = (length + LEAF_SIZE - 1) / LEAF_SIZE;
+    final int middle = start + leaves / 2 * LEAF_SIZE;
+    return new Concat(build(text, start, middle), build(text, middle, end));
+  }
+
+  @Override
+  public int length() {
+    return myRoot.myLength;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + length());
+    }
+    LeafPosition position = myLastLeaf;
+    if (position == null || index < position.myStart || index >= position.myStart + position.myLeaf.myChars.length) {
+      position = findLeaf(index);
+      myLastLeaf = position;
+    }
+    return position.myLeaf.myChars[index - position.myStart];
+  }
+
+  @NotNull
+  private LeafPosition findLeaf(int index) {
+    Node node = myRoot;
+    int start = 0;
+    while (node instanceof Concat) {
+      final Concat concat = (Concat)node;
+      final int leftLength = concat.myLeft.myLength;
+      if (index - start < leftLength) {
+        node = concat.myLeft;
+      }
+      else {
+        start += leftLength;
+        node = concat.myRight;
+      }
+    }
+    return new LeafPosition((Leaf)node, start);
+  }
+
+  @NotNull
+  @Override
+  public ImmutableText subSequence(int start, int end) {
+    return subtext(start, end);
+  }
+
+  @NotNull
+  public ImmutableText subtext(int start, int end) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) {
+      return this;
+    }
+    return start == end ? EMPTY : new ImmutableText(subNode(myRoot, start, end));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    checkRange(index, index);
+    if (text.length() == 0) {
+      return this;
+    }
+    final Node inserted = valueOf(text).myRoot;
+    return new ImmutableText(concat(concat(subNode(myRoot, 0, index), inserted), subNode(myRoot, index, length())));
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    checkRange(start, end);
+    if (start == end) {
+      return this;
+    }
+    return new ImmutableText(concat(subNode(myRoot, 0, start), subNode(myRoot, end, length())));
+  }
+
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    return delete(start, end).insert(start, text);
+  }
+
+  @NotNull
+  public ImmutableText concat(@NotNull CharSequence text) {
+    return insert(length(), text);
+  }
+
+  /**
+   * Copies characters from the range [start; end) of this text to the given array
+   */
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    checkRange(start, end);
+    myRoot.getChars(start, end, dest, destPos);
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    final char[] chars = new char[length()];
+    myRoot.getChars(0, chars.length, chars, 0);
+    return StringFactory.createShared(chars);
+  }
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Wrong range: [" + start + "; " + end + "); length: " + length());
+    }
+  }
+
+  @NotNull
+  private static Node subNode(@NotNull Node node, int start, int end) {
+    if (start == 0 && end == node.myLength) {
+      return node;
+    }
+    if (node instanceof Leaf) {
+      final char[] chars = new char[end - start];
+      System.arraycopy(((Leaf)node).myChars, start, chars, 0, chars.length);
+      return new Leaf(chars);
+    }
+    final Concat concat = (Concat)node;
+    final int leftLength = concat.myLeft.myLength;
+    if (end <= leftLength) {
+      return subNode(concat.myLeft, start, end);
+    }
+    if (start >= leftLength) {
+      return subNode(concat.myRight, start - leftLength, end - leftLength);
+    }
+    return concat(subNode(concat.myLeft, start, leftLength), subNode(concat.myRight, 0, end - leftLength));
+  }
+
+  /**
+   * Joins two balanced trees into a balanced one. If one tree is higher than another one, the lower tree is attached to a node of the
+   * higher tree of appropriate height, and the path to that node is rebalanced, so it takes time proportional to the difference of
+   * heights. A small leaf is merged into the adjacent leaf of the other tree if they fit together, so typing doesn't fragment the text
+   * into tiny leaves.
+   */
+  @NotNull
+  private static Node concat(@NotNull Node left, @NotNull Node right) {
+    if (left.myLength == 0) return right;
+    if (right.myLength == 0) return left;
+    if (right instanceof Leaf) {
+      final Node merged = appendToLastLeaf(left, (Leaf)right);
+      if (merged != null) return merged;
+    }
+    if (left instanceof Leaf) {
+      final Node merged = prependToFirstLeaf((Leaf)left, right);
+      if (merged != null) return merged;
+    }
+    if (left.myHeight > right.myHeight + 1) {
+      return joinRight((Concat)left, right);
+    }
+    if (right.myHeight > left.myHeight + 1) {
+      return joinLeft(left, (Concat)right);
+    }
+    return new Concat(left, right);
+  }
+
+  @Nullable
+  private static Node appendToLastLeaf(@NotNull Node node, @NotNull Leaf leaf) {
+    if (node instanceof Leaf) {
+      return node.myLength + leaf.myLength <= LEAF_SIZE ? merge((Leaf)node, leaf) : null;
+    }
+    final Concat concat = (Concat)node;
+    final Node right = appendToLastLeaf(concat.myRight, leaf);
+    return right == null ? null : new Concat(concat.myLeft, right);
+  }
+
+  @Nullable
+  private static Node prependToFirstLeaf(@NotNull Leaf leaf, @NotNull Node node) {
+    if (node instanceof Leaf) {
+      return node.myLength + leaf.myLength <= LEAF_SIZE ? merge(leaf, (Leaf)node) : null;
+    }
+    final Concat concat = (Concat)node;
+    final Node left = prependToFirstLeaf(leaf, concat.myLeft);
+    return left == null ? null : new Concat(left, concat.myRight);
+  }
+
+  @NotNull
+  private static Leaf merge(@NotNull Leaf left, @NotNull Leaf right) {
+    final char[] chars = new char[left.myLength + right.myLength];
+    System.arraycopy(left.myChars, 0, chars, 0, left.myLength);
+    System.arraycopy(right.myChars, 0, chars, left.myLength, right.myLength);
+    return new Leaf(chars);
+  }
+
+  @NotNull
+  private static Node joinRight(@NotNull Concat left, @NotNull Node right) {
+    final Node outer = left.myLeft;
+    final Node inner = left.myRight;
+    if (inner.myHeight <= right.myHeight + 1) {
+      final Node joined = concat(inner, right);
+      if (joined.myHeight <= outer.myHeight + 1) {
+        return new Concat(outer, joined);
+      }
+      return rotateLeft(new Concat(outer, rotateRight((Concat)joined)));
+    }
+    final Node joined = joinRight((Concat)inner, right);
+    final Concat result = new Concat(outer, joined);
+    return joined.myHeight <= outer.myHeight + 1 ? result : rotateLeft(result);
+  }
+
+  @NotNull
+  private static Node joinLeft(@NotNull Node left, @NotNull Concat right) {
+    final Node outer = right.myRight;
+    final Node inner = right.myLeft;
+    if (inner.myHeight <= left.myHeight + 1) {
+      final Node joined = concat(left, inner);
+      if (joined.myHeight <= outer.myHeight + 1) {
+        return new Concat(joined, outer);
+      }
+      return rotateRight(new Concat(rotateLeft((Concat)joined), outer));
+    }
+    final Node joined = joinLeft(left, (Concat)inner);
+    final Concat result = new Concat(joined, outer);
+    return joined.myHeight <= outer.myHeight + 1 ? result : rotateRight(result);
+  }
+
+  @NotNull
+  private static Concat rotateLeft(@NotNull Concat node) {
+    final Concat right = (Concat)node.myRight;
+    return new Concat(new Concat(node.myLeft, right.myLeft), right.myRight);
+  }
+
+  @NotNull
+  private static Concat rotateRight(@NotNull Concat node) {
+    final Concat left = (Concat)node.myLeft;
+    return new Concat(left.myLeft, new Concat(left.myRight, node.myRight));
+  }
+
+  private abstract static class Node {
+    final int myLength;
+    final int myHeight;
+
+    Node(int length, int height) {
+      myLength = length;
+      myHeight = height;
+    }
+
+    abstract void getChars(int start, int end, @NotNull char[] dest, int destPos);
+  }
+
+  private static class Leaf extends Node {
+    private final char[] myChars;
+
+    private Leaf(@NotNull char[] chars) {
+      super(chars.length, 0);
+      myChars = chars;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      System.arraycopy(myChars, start, dest, destPos, end - start);
+    }
+  }
+
+  private static class Concat extends Node {
+    private final Node myLeft;
+    private final Node myRight;
+
+    private Concat(@NotNull Node left, @NotNull Node right) {
+      super(left.myLength + right.myLength, Math.max(left.myHeight, right.myHeight) + 1);
+      myLeft = left;
+      myRight = right;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      final int leftLength = myLeft.myLength;
+      if (start < leftLength) {
+        myLeft.getChars(start, Math.min(end, leftLength), dest, destPos);
+      }
+      if (end > leftLength) {
+        final int rightStart = Math.max(start, leftLength);
+        myRight.getChars(rightStart - leftLength, end - leftLength, dest, destPos + rightStart - start);
+      }
+    }
+  }
+
+  private static class LeafPosition {
+    private final Leaf myLeaf;
+    private final int myStart;
+
+    private LeafPosition(@NotNull Leaf leaf, int start) {
+      myLeaf = leaf;
+      myStart = start;
+    }
+  }
+}
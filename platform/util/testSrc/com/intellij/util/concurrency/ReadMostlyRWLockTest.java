@@ -0,0 +1,237 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReadMostlyRWLockTest extends TestCase {
+  private final ReadMostlyRWLock myLock = new ReadMostlyRWLock();
+
+  public void testReentrancy() throws Exception {
+    myLock.readLock();
+    myLock.readLock();
+    assertTrue(myLock.isReadLockedByCurrentThread());
+    myLock.readUnlock();
+    assertTrue(myLock.isReadLockedByCurrentThread());
+    myLock.readUnlock();
+    assertFalse(myLock.isReadLockedByCurrentThread());
+
+    myLock.writeLock();
+    assertTrue(myLock.tryWriteLock());
+    myLock.writeUnlock();
+    assertTrue(myLock.isWriteLockedByCurrentThread());
+    myLock.writeUnlock();
+    assertFalse(myLock.isWriteLockedByCurrentThread());
+  }
+
+  public void testWriteLockHolderAcquiresReadLock() throws Exception {
+    myLock.writeLock();
+    myLock.readLock();
+    assertTrue(myLock.tryReadLock());
+    myLock.readUnlock();
+    myLock.writeUnlock();
+    assertTrue(myLock.isReadLockedByCurrentThread());
+
+    // the downgraded lock still keeps writers out
+    final AtomicBoolean writeLocked = new AtomicBoolean(true);
+    final Thread writer = new Thread("writer") {
+      @Override
+      public void run() {
+        writeLocked.set(myLock.tryWriteLock());
+        if (writeLocked.get()) {
+          myLock.writeUnlock();
+        }
+      }
+    };
+    writer.start();
+    writer.join(10000);
+    assertFalse(writeLocked.get());
+
+    myLock.readUnlock();
+    assertTrue(myLock.tryWriteLock());
+    myLock.writeUnlock();
+  }
+
+  public void testReadLockIsNotUpgraded() throws Exception {
+    myLock.readLock();
+    try {
+      myLock.writeLock();
+      fail("read lock must not be upgraded");
+    }
+    catch (IllegalMonitorStateException ignored) {
+    }
+    try {
+      myLock.tryWriteLock();
+      fail("read lock must not be upgraded");
+    }
+    catch (IllegalMonitorStateException ignored) {
+    }
+    assertFalse(myLock.isWriteLockedByCurrentThread());
+    myLock.readUnlock();
+
+    myLock.writeLock();
+    myLock.writeUnlock();
+  }
+
+  public void testWriterWaitsForReaders() throws Exception {
+    final CountDownLatch readLocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread reader = new Thread("reader") {
+      @Override
+      public void run() {
+        try {
+          myLock.readLock();
+          try {
+            readLocked.countDown();
+            release.await();
+          }
+          finally {
+            myLock.readUnlock();
+          }
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    reader.start();
+    assertTrue(readLocked.await(10, TimeUnit.SECONDS));
+
+    assertFalse(myLock.tryWriteLock());
+    assertTrue(myLock.tryReadLock());
+    myLock.readUnlock();
+
+    final AtomicBoolean writeLocked = new AtomicBoolean();
+    final Thread writer = new Thread("writer") {
+      @Override
+      public void run() {
+        try {
+          myLock.writeLock();
+          writeLocked.set(true);
+          myLock.writeUnlock();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    writer.start();
+    writer.join(100);
+    assertFalse(writeLocked.get());
+
+    release.countDown();
+    writer.join(10000);
+    assertTrue(writeLocked.get());
+    reader.join(10000);
+  }
+
+  public void testPendingWriterBlocksNewReaders() throws Exception {
+    final CountDownLatch readLocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread reader = new Thread("reader") {
+      @Override
+      public void run() {
+        try {
+          myLock.readLock();
+          try {
+            readLocked.countDown();
+            release.await();
+            // a reader holding the lock isn't blocked by the pending writer
+            assertTrue(myLock.tryReadLock());
+            myLock.readUnlock();
+          }
+          finally {
+            myLock.readUnlock();
+          }
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    reader.start();
+    assertTrue(readLocked.await(10, TimeUnit.SECONDS));
+
+    final Thread writer = new Thread("writer") {
+      @Override
+      public void run() {
+        try {
+          myLock.writeLock();
+          myLock.writeUnlock();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    writer.start();
+    while (writer.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    assertFalse(myLock.tryReadLock());
+
+    release.countDown();
+    writer.join(10000);
+    reader.join(10000);
+    assertTrue(myLock.tryReadLock());
+    myLock.readUnlock();
+  }
+
+  public void testConcurrentReadersAndWriters() throws Exception {
+    final int[] counter = new int[2];
+    final AtomicInteger errors = new AtomicInteger();
+    final Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final boolean writer = i % 4 == 0;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 20000; j++) {
+              if (writer) {
+                myLock.writeLock();
+                counter[0]++;
+                counter[1]++;
+                myLock.writeUnlock();
+              }
+              else {
+                myLock.readLock();
+                if (counter[0] != counter[1]) {
+                  errors.incrementAndGet();
+                }
+                myLock.readUnlock();
+              }
+            }
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, errors.get());
+    assertEquals(2 * 20000, counter[0]);
+  }
+}
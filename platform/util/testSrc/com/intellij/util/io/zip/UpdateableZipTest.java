@@ -108,6 +108,99 @@ public class UpdateableZipTest extends TestCase {
     utilZip.close();
   }
   
+  public void testCopyCompressedData() throws Exception {
+    File sourceFile = FileUtil.createTempFile("source", ".zip");
+    File targetFile = FileUtil.createTempFile("target", ".zip");
+    try {
+      ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(sourceFile)));
+      zos.putNextEntry(new ZipEntry("/deflated"));
+      zos.write("deflated deflated deflated".getBytes());
+      zos.closeEntry();
+      zos.close();
+
+      JBZipFile source = new JBZipFile(sourceFile, "UTF-8", true);
+      JBZipFile target = new JBZipFile(targetFile);
+      JBZipEntry sourceEntry = source.getEntry("/deflated");
+      assertEquals(ZipEntry.DEFLATED, sourceEntry.getMethod());
+      byte[] compressed = sourceEntry.getCompressedData();
+      assertEquals(sourceEntry.getCompressedSize(), compressed.length);
+
+      JBZipEntry targetEntry = target.getOrCreateEntry("/copied");
+      targetEntry.setMethod(sourceEntry.getMethod());
+      targetEntry.setCompressedData(compressed, compressed.length, sourceEntry.getSize(), sourceEntry.getCrc());
+      target.close();
+      source.close();
+
+      ZipFile utilZip = new ZipFile(targetFile);
+      ZipEntry copiedEntry = utilZip.getEntry("/copied");
+      assertNotNull(copiedEntry);
+      String text = FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(copiedEntry)));
+      assertEquals("deflated deflated deflated", text);
+      utilZip.close();
+    }
+    finally {
+      FileUtil.delete(sourceFile);
+      FileUtil.delete(targetFile);
+    }
+  }
+
+  public void testStreamedData() throws Exception {
+    File targetFile = FileUtil.createTempFile("target", ".zip");
+    File copyFile = FileUtil.createTempFile("copy", ".zip");
+    try {
+      StringBuilder content = new StringBuilder();
+      for (int i = 0; i < 10000; i++) {
+        content.append("line ").append(i).append('\n');
+      }
+
+      JBZipFile target = new JBZipFile(targetFile);
+      JBZipEntry deflated = target.getOrCreateEntry("/deflated");
+      deflated.setMethod(ZipEntry.DEFLATED);
+      deflated.setData(new ByteArrayInputStream(content.toString().getBytes()));
+      JBZipEntry stored = target.getOrCreateEntry("/stored");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setData(new ByteArrayInputStream("stored".getBytes()));
+      target.close();
+
+      JBZipFile source = new JBZipFile(targetFile, "UTF-8", true);
+      JBZipFile copy = new JBZipFile(copyFile);
+      copy.getOrCreateEntry("/deflated").setCompressedData(source.getEntry("/deflated"));
+      copy.getOrCreateEntry("/stored").setCompressedData(source.getEntry("/stored"));
+      copy.close();
+      source.close();
+
+      for (File file : new File[]{targetFile, copyFile}) {
+        ZipFile utilZip = new ZipFile(file);
+        InputStream deflatedStream = utilZip.getInputStream(utilZip.getEntry("/deflated"));
+        assertEquals(content.toString(), FileUtil.loadTextAndClose(new InputStreamReader(deflatedStream)));
+        InputStream storedStream = utilZip.getInputStream(utilZip.getEntry("/stored"));
+        assertEquals("stored", FileUtil.loadTextAndClose(new InputStreamReader(storedStream)));
+        utilZip.close();
+      }
+    }
+    finally {
+      FileUtil.delete(targetFile);
+      FileUtil.delete(copyFile);
+    }
+  }
+
+  public void testReadOnly() throws Exception {
+    JBZipFile jbZip = new JBZipFile(zipFile, "UTF-8", true);
+    assertEntryWithContentExists(jbZip, "/first", "first");
+    try {
+      jbZip.getOrCreateEntry("/third").setData("third".getBytes());
+      fail("read-only archive must not be modified");
+    }
+    catch (IOException ignored) {
+    }
+    jbZip.close();
+
+    JBZipFile reopened = new JBZipFile(zipFile);
+    assertNull(reopened.getEntry("/third"));
+    assertEntryWithContentExists(reopened, "/second", "second");
+    reopened.close();
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
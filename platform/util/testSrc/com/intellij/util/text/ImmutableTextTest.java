@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testEditsCreateNewTexts() {
+    final ImmutableText text = ImmutableText.valueOf("0123456789");
+    final ImmutableText inserted = text.insert(5, "abc");
+    final ImmutableText deleted = inserted.delete(0, 2);
+    assertEquals("0123456789", text.toString());
+    assertEquals("01234abc56789", inserted.toString());
+    assertEquals("234abc56789", deleted.toString());
+    assertEquals("234xyz56789", deleted.replace(3, 6, "xyz").toString());
+    assertEquals("4abc5", deleted.subtext(2, 7).toString());
+    assertEquals("", deleted.subtext(3, 3).toString());
+    assertSame(text, text.subtext(0, text.length()));
+    assertSame(text, text.insert(3, ""));
+  }
+
+  public void testRandomEditsOfLargeText() {
+    final Random random = new Random(42);
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      expected.append((char)('a' + random.nextInt(26)));
+      if (random.nextInt(40) == 0) expected.append('\n');
+    }
+    ImmutableText text = ImmutableText.valueOf(expected);
+    for (int i = 0; i < 3000; i++) {
+      final int start = random.nextInt(expected.length() + 1);
+      final int end = Math.min(expected.length(), start + random.nextInt(100));
+      switch (random.nextInt(3)) {
+        case 0:
+          final String inserted = randomString(random, random.nextInt(i % 100 == 0 ? 2000 : 20));
+          expected.insert(start, inserted);
+          text = text.insert(start, inserted);
+          break;
+        case 1:
+          expected.delete(start, end);
+          text = text.delete(start, end);
+          break;
+        default:
+          final ImmutableText sub = text.subtext(start, end);
+          assertEquals(expected.substring(start, end), sub.toString());
+          if (sub.length() > 0) {
+            final int index = random.nextInt(sub.length());
+            assertEquals(expected.charAt(start + index), sub.charAt(index));
+          }
+      }
+      assertEquals(expected.length(), text.length());
+      if (i % 500 == 0) {
+        assertEquals(expected.toString(), text.toString());
+      }
+    }
+    assertEquals(expected.toString(), text.toString());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.charAt(i), text.charAt(i));
+    }
+    final char[] chars = new char[expected.length() + 2];
+    text.getChars(0, text.length(), chars, 1);
+    assertEquals(expected.toString(), new String(chars, 1, expected.length()));
+  }
+
+  public void testSnapshotsAreNotChangedByEdits() {
+    ImmutableText text = ImmutableText.valueOf(randomString(new Random(1), 10000));
+    final ImmutableText snapshot = text;
+    final String snapshotText = snapshot.toString();
+    for (int i = 0; i < 1000; i++) {
+      text = text.insert(i * 7, "x").delete(i, i + 3);
+    }
+    assertEquals(snapshotText, snapshot.toString());
+  }
+
+  public void testTypingIsFast() {
+    final long start = System.currentTimeMillis();
+    ImmutableText text = ImmutableText.valueOf(randomString(new Random(2), 5 * 1024 * 1024));
+    for (int i = 0; i < 100000; i++) {
+      final int offset = text.length() / 2 + i;
+      text = text.insert(offset, "a");
+      assertEquals('a', text.charAt(offset));
+    }
+    assertEquals(5 * 1024 * 1024 + 100000, text.length());
+    final long time = System.currentTimeMillis() - start;
+    assertTrue("Typing into a 5Mb text took " + time + "ms", time < 10000);
+  }
+
+  private static String randomString(Random random, int length) {
+    final char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char)('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+}